@@ -8,17 +8,23 @@ if (localPropertiesFile.exists()) {
     properties.load(localPropertiesFile.inputStream())
 }
 
+// Adds a JVM target with stubbed native calls and the benchmarks that run on it, see "Benchmarks" in the README.
+// Off by default, so the published artifacts never contain the stubs
+val benchmarksEnabled = providers.gradleProperty("cactus.benchmarks").orNull == "true"
+
 plugins {
     alias(libs.plugins.buildconfig)
     alias(libs.plugins.kotlinMultiplatform)
     alias(libs.plugins.androidLibrary)
     alias(libs.plugins.kotlinSerialization)
+    alias(libs.plugins.kotlinAllopen)
+    alias(libs.plugins.kotlinxBenchmark)
     id("co.touchlab.kmmbridge") version "1.2.1"
     alias(libs.plugins.vanniktech.mavenPublish)
 }
 
 group = "com.cactus"
-version = "1.2.0-beta"
+version = "1.3.0-beta"
 
 buildConfig {
     packageName("com.cactus")
@@ -35,6 +41,20 @@ kotlin {
         }
     }
 
+    if (benchmarksEnabled) {
+        jvm {
+            @OptIn(ExperimentalKotlinGradlePluginApi::class)
+            compilerOptions {
+                jvmTarget.set(JvmTarget.JVM_11)
+                freeCompilerArgs.add("-Xexpect-actual-classes")
+            }
+            // Associated with main so benchmarks can reach internal code such as the payload builder
+            compilations.create("benchmark") {
+                associateWith(this@jvm.compilations.getByName("main"))
+            }
+        }
+    }
+
     listOf(
         iosX64(),
         iosArm64(),
@@ -122,6 +142,22 @@ kotlin {
                 implementation("net.java.dev.jna:jna:5.13.0@aar")
             }
         }
+        val androidUnitTest by getting {
+            dependencies {
+                implementation(libs.kotlin.test)
+            }
+        }
+        if (benchmarksEnabled) {
+            getByName("jvmMain").dependencies {
+                implementation("io.ktor:ktor-client-okhttp:3.1.3")
+            }
+            getByName("jvmBenchmark").dependencies {
+                implementation(libs.kotlinx.benchmark.runtime)
+                implementation("org.jetbrains.kotlinx:kotlinx-coroutines-core:1.8.0")
+                // Capacitor's JSObject and JSArray are thin subclasses of these
+                implementation("org.json:json:20240303")
+            }
+        }
         val iosMain by creating {
             dependencies {
                 implementation("io.ktor:ktor-client-darwin:3.1.3")
@@ -131,6 +167,30 @@ kotlin {
     }
 }
 
+allOpen {
+    annotation("org.openjdk.jmh.annotations.State")
+}
+
+benchmark {
+    if (benchmarksEnabled) {
+        targets {
+            register("jvmBenchmark")
+        }
+    }
+    configurations {
+        named("main") {
+            warmups = 3
+            iterations = 5
+            iterationTime = 1
+            iterationTimeUnit = "s"
+            reportFormat = "json"
+            advanced("jvmForks", 1)
+            // Reports allocated bytes per operation next to throughput
+            advanced("jvmProfiler", "gc")
+        }
+    }
+}
+
 kmmbridge {
     mavenPublishArtifacts()
     spm()
@@ -170,8 +230,43 @@ android {
     }
 }
 
+// The engine's Android libraries are not committed. They are copied in from an engine build with
+// -Pcactus.androidPrebuilts=<dir>, a directory holding one folder per ABI, or placed there by hand
+val androidPrebuiltNames = listOf("libcactus.a", "libcactus_util.so")
+val androidLibsDir = file("src/commonMain/resources/android/libs")
+val copyAndroidPrebuilts by tasks.registering(Copy::class) {
+    val source = providers.gradleProperty("cactus.androidPrebuilts")
+    onlyIf { source.isPresent }
+    from(source.map { file(it) }) {
+        include(androidPrebuiltNames.map { "*/$it" })
+    }
+    into(androidLibsDir)
+}
+val checkAndroidPrebuilts by tasks.registering {
+    dependsOn(copyAndroidPrebuilts)
+    val libsDir = androidLibsDir.resolve("arm64-v8a")
+    val names = androidPrebuiltNames
+    doLast {
+        val missing = names.filterNot { libsDir.resolve(it).isFile }
+        if (missing.isNotEmpty()) {
+            throw GradleException(
+                "Missing ${missing.joinToString()} in $libsDir. Build them from the cactus engine " +
+                    "and pass -Pcactus.androidPrebuilts=<dir> or copy them there."
+            )
+        }
+    }
+}
+tasks.matching { it.name == "preBuild" }.configureEach {
+    dependsOn(checkAndroidPrebuilts)
+}
+
 publishing {
     repositories {
+        // The Capacitor plugin ships the SDK it was built against from here, see build-cactus-android-sdk.sh
+        maven {
+            name = "Plugin"
+            url = uri(rootDir.resolve("../../maven"))
+        }
         maven {
             name = "GitHubPackages"
             url = uri("https://maven.pkg.github.com/cactus-compute/cactus-kotlin")
@@ -227,5 +322,8 @@ mavenPublishing {
     }
 
     publishToMavenCentral(com.vanniktech.maven.publish.SonatypeHost.CENTRAL_PORTAL)
-    signAllPublications()
+    // The copy the plugin ships is read from a local directory and needs no signing keys
+    if (providers.gradleProperty("cactus.unsigned").orNull != "true") {
+        signAllPublications()
+    }
 }
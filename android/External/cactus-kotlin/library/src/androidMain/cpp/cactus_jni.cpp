@@ -52,6 +52,125 @@ void token_callback_bridge(const char* token, uint32_t token_id, void* user_data
     }
 }
 
+// Runs cactus_complete, forwarding streamed tokens to the Kotlin callback when one is given
+static jint complete(JNIEnv *env, jlong model, const char *messages, const char *options,
+                     const char *tools, jbyteArray response_buffer, jint buffer_size, jobject callback) {
+    jbyte *buffer = env->GetByteArrayElements(response_buffer, 0);
+
+    // Set up callback if provided
+    CallbackData callback_data = {nullptr, nullptr, nullptr};
+    cactus_token_callback native_callback = nullptr;
+    void* native_user_data = nullptr;
+
+    if (callback != nullptr) {
+        // Find the invoke method for the Kotlin function type (Function2)
+        jclass callback_class = env->GetObjectClass(callback);
+        jmethodID invoke_method = env->GetMethodID(callback_class, "invoke", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+
+        if (invoke_method != nullptr) {
+            callback_data.env = env;
+            callback_data.callback = env->NewGlobalRef(callback);
+            callback_data.invoke_method = invoke_method;
+            native_callback = token_callback_bridge;
+            native_user_data = &callback_data;
+        }
+
+        env->DeleteLocalRef(callback_class);
+    }
+
+    int result = cactus_complete(reinterpret_cast<cactus_model_t>(model), messages,
+                                reinterpret_cast<char*>(buffer), buffer_size, options,
+                                tools, native_callback, native_user_data);
+
+    // Clean up global reference if we created one
+    if (callback_data.callback != nullptr) {
+        env->DeleteGlobalRef(callback_data.callback);
+    }
+
+    env->ReleaseByteArrayElements(response_buffer, buffer, 0);
+
+    return result;
+}
+
+// Borrows a NUL-terminated UTF-8 payload written by the Kotlin JsonWriter for the duration of a
+// call. ART hands out large arrays without copying them, and unlike GetStringUTFChars there is no
+// conversion, so no modified UTF-8 reaches the JSON parser.
+struct Utf8Payload {
+    JNIEnv *env;
+    jbyteArray array;
+    jbyte *bytes;
+
+    Utf8Payload(JNIEnv *env, jbyteArray array)
+        : env(env), array(array), bytes(array ? env->GetByteArrayElements(array, nullptr) : nullptr) {}
+
+    ~Utf8Payload() {
+        if (bytes) env->ReleaseByteArrayElements(array, bytes, JNI_ABORT);
+    }
+
+    const char *c_str() const { return reinterpret_cast<const char*>(bytes); }
+};
+
+// cactus_image_embed and cactus_audio_embed share this signature
+typedef int (*path_embed_fn)(cactus_model_t, const char*, float*, size_t, size_t*);
+
+static jint embed_path(JNIEnv *env, jlong model, jstring path, jfloatArray embeddings_buffer,
+                       jint buffer_size, jintArray embedding_dim_ptr, path_embed_fn embed) {
+    const char *path_str = env->GetStringUTFChars(path, 0);
+    jfloat *buffer = env->GetFloatArrayElements(embeddings_buffer, 0);
+    jint *dim_ptr = env->GetIntArrayElements(embedding_dim_ptr, 0);
+
+    size_t embedding_dim = 0;
+    int result = embed(reinterpret_cast<cactus_model_t>(model), path_str,
+                       reinterpret_cast<float*>(buffer), static_cast<size_t>(buffer_size),
+                       &embedding_dim);
+
+    if (result > 0) {
+        dim_ptr[0] = static_cast<jint>(embedding_dim);
+    }
+
+    env->ReleaseFloatArrayElements(embeddings_buffer, buffer, 0);
+    env->ReleaseIntArrayElements(embedding_dim_ptr, dim_ptr, 0);
+    env->ReleaseStringUTFChars(path, path_str);
+
+    return result;
+}
+
+// Embeds every path into its own stride of one float array, pinning the arrays once for the whole
+// batch instead of once per file. dims[i] receives the dimension, or the error code (<= 0) when
+// path i failed. Returns the number of paths embedded.
+static jint embed_paths(JNIEnv *env, jlong model, jobjectArray paths, jfloatArray embeddings_buffer,
+                        jint stride, jintArray dims, path_embed_fn embed) {
+    jsize count = env->GetArrayLength(paths);
+    jfloat *buffer = env->GetFloatArrayElements(embeddings_buffer, 0);
+    jint *dim_out = env->GetIntArrayElements(dims, 0);
+
+    jint embedded = 0;
+    for (jsize i = 0; i < count; i++) {
+        jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+        const char *path_str = env->GetStringUTFChars(path, 0);
+
+        size_t embedding_dim = 0;
+        float *slot = reinterpret_cast<float*>(buffer) + static_cast<size_t>(i) * stride;
+        int result = embed(reinterpret_cast<cactus_model_t>(model), path_str, slot,
+                           static_cast<size_t>(stride) * sizeof(float), &embedding_dim);
+        if (result > 0) {
+            dim_out[i] = static_cast<jint>(embedding_dim);
+            embedded++;
+        } else {
+            LOGE("Embedding %s failed with code %d", path_str, result);
+            dim_out[i] = result < 0 ? result : -1;
+        }
+
+        env->ReleaseStringUTFChars(path, path_str);
+        env->DeleteLocalRef(path);
+    }
+
+    env->ReleaseFloatArrayElements(embeddings_buffer, buffer, 0);
+    env->ReleaseIntArrayElements(dims, dim_out, 0);
+
+    return embedded;
+}
+
 // External functions from cactus_util.so
 extern "C" {
     char* register_app(const char* encrypted_payload);
@@ -82,47 +201,31 @@ Java_com_cactus_CactusLibrary_cactus_1complete(JNIEnv *env, jclass clazz, jlong
     const char *messages = env->GetStringUTFChars(messages_json, 0);
     const char *options = options_json ? env->GetStringUTFChars(options_json, 0) : nullptr;
     const char *tools = tools_json ? env->GetStringUTFChars(tools_json, 0) : nullptr;
-    
-    jbyte *buffer = env->GetByteArrayElements(response_buffer, 0);
-    
-    // Set up callback if provided
-    CallbackData callback_data = {nullptr, nullptr, nullptr};
-    cactus_token_callback native_callback = nullptr;
-    void* native_user_data = nullptr;
-    
-    if (callback != nullptr) {
-        // Find the invoke method for the Kotlin function type (Function2)
-        jclass callback_class = env->GetObjectClass(callback);
-        jmethodID invoke_method = env->GetMethodID(callback_class, "invoke", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
-        
-        if (invoke_method != nullptr) {
-            callback_data.env = env;
-            callback_data.callback = env->NewGlobalRef(callback);
-            callback_data.invoke_method = invoke_method;
-            native_callback = token_callback_bridge;
-            native_user_data = &callback_data;
-        }
-        
-        env->DeleteLocalRef(callback_class);
-    }
-    
-    int result = cactus_complete(reinterpret_cast<cactus_model_t>(model), messages,
-                                reinterpret_cast<char*>(buffer), buffer_size, options,
-                                tools, native_callback, native_user_data);
-    
-    // Clean up global reference if we created one
-    if (callback_data.callback != nullptr) {
-        env->DeleteGlobalRef(callback_data.callback);
-    }
-    
-    env->ReleaseByteArrayElements(response_buffer, buffer, 0);
+
+    int result = complete(env, model, messages, options, tools, response_buffer, buffer_size, callback);
+
     env->ReleaseStringUTFChars(messages_json, messages);
     if (options) env->ReleaseStringUTFChars(options_json, options);
     if (tools) env->ReleaseStringUTFChars(tools_json, tools);
-    
+
     return result;
 }
 
+// Same as cactus_complete, with the JSON payloads passed as NUL-terminated UTF-8 bytes written
+// by the Kotlin JsonWriter. Null arrays mean no payload.
+JNIEXPORT jint JNICALL
+Java_com_cactus_CactusLibrary_cactus_1complete_1utf8(JNIEnv *env, jclass clazz, jlong model,
+                                                      jbyteArray messages_json, jbyteArray response_buffer,
+                                                      jint buffer_size, jbyteArray options_json, jbyteArray tools_json,
+                                                      jobject callback, jlong user_data) {
+    Utf8Payload messages(env, messages_json);
+    Utf8Payload options(env, options_json);
+    Utf8Payload tools(env, tools_json);
+
+    return complete(env, model, messages.c_str(), options.c_str(), tools.c_str(),
+                    response_buffer, buffer_size, callback);
+}
+
 JNIEXPORT jint JNICALL
 Java_com_cactus_CactusLibrary_cactus_1embed(JNIEnv *env, jclass clazz, jlong model,
                                              jstring text, jfloatArray embeddings_buffer,
@@ -147,6 +250,34 @@ Java_com_cactus_CactusLibrary_cactus_1embed(JNIEnv *env, jclass clazz, jlong mod
     return result;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_cactus_CactusLibrary_cactus_1image_1embed(JNIEnv *env, jclass clazz, jlong model,
+                                                   jstring image_path, jfloatArray embeddings_buffer,
+                                                   jint buffer_size, jintArray embedding_dim_ptr) {
+    return embed_path(env, model, image_path, embeddings_buffer, buffer_size, embedding_dim_ptr, cactus_image_embed);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_cactus_CactusLibrary_cactus_1audio_1embed(JNIEnv *env, jclass clazz, jlong model,
+                                                   jstring audio_path, jfloatArray embeddings_buffer,
+                                                   jint buffer_size, jintArray embedding_dim_ptr) {
+    return embed_path(env, model, audio_path, embeddings_buffer, buffer_size, embedding_dim_ptr, cactus_audio_embed);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_cactus_CactusLibrary_cactus_1image_1embed_1batch(JNIEnv *env, jclass clazz, jlong model,
+                                                          jobjectArray image_paths, jfloatArray embeddings_buffer,
+                                                          jint stride, jintArray dims) {
+    return embed_paths(env, model, image_paths, embeddings_buffer, stride, dims, cactus_image_embed);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_cactus_CactusLibrary_cactus_1audio_1embed_1batch(JNIEnv *env, jclass clazz, jlong model,
+                                                          jobjectArray audio_paths, jfloatArray embeddings_buffer,
+                                                          jint stride, jintArray dims) {
+    return embed_paths(env, model, audio_paths, embeddings_buffer, stride, dims, cactus_audio_embed);
+}
+
 JNIEXPORT void JNICALL
 Java_com_cactus_CactusLibrary_cactus_1destroy(JNIEnv *env, jclass clazz, jlong model) {
     LOGI("Destroying cactus model");
@@ -154,6 +285,11 @@ Java_com_cactus_CactusLibrary_cactus_1destroy(JNIEnv *env, jclass clazz, jlong m
     cactus_destroy(reinterpret_cast<cactus_model_t>(model));
 }
 
+JNIEXPORT void JNICALL
+Java_com_cactus_CactusLibrary_cactus_1reset(JNIEnv *env, jclass clazz, jlong model) {
+    cactus_reset(reinterpret_cast<cactus_model_t>(model));
+}
+
 JNIEXPORT jint JNICALL
 Java_com_cactus_CactusLibrary_cactus_1transcribe(JNIEnv *env, jclass clazz, jlong model,
         jstring audio_file_path, jstring whisper_prompt, jbyteArray response_buffer,
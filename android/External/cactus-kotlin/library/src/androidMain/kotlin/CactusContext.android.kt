@@ -1,10 +1,11 @@
 package com.cactus
 
-import android.util.Log
 import com.cactus.internal.CactusJsonParser
 import com.cactus.internal.CactusPayloadBuilder
+import com.cactus.internal.JsonWriter
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import utils.CactusLogger
 import java.security.MessageDigest
 import kotlin.math.max
 
@@ -12,20 +13,43 @@ import kotlin.math.max
 actual object CactusContext {
     private val lib = CactusLibrary
 
+    /**
+     * Buffers the completion payloads are written into. Completions on different contexts run on
+     * different threads, so each thread keeps its own and reuses it for the next turn.
+     */
+    private class PayloadWriters {
+        var messages = JsonWriter(16 * 1024)
+            private set
+        val options = JsonWriter(256)
+        var tools = JsonWriter(4 * 1024)
+            private set
+
+        // A pasted document should not keep megabytes alive on an idle thread
+        fun trim() {
+            if (messages.capacity > MAX_RETAINED_PAYLOAD) messages = JsonWriter(16 * 1024)
+            if (tools.capacity > MAX_RETAINED_PAYLOAD) tools = JsonWriter(4 * 1024)
+        }
+    }
+
+    private const val MAX_RETAINED_PAYLOAD = 1024 * 1024
+    private val payloadWriters = object : ThreadLocal<PayloadWriters>() {
+        override fun initialValue() = PayloadWriters()
+    }
+
     actual suspend fun initContext(modelPath: String, contextSize: UInt): Long? = withContext(Dispatchers.Default) {
         try {
-            Log.d("Cactus", "Initializing context with model: $modelPath")
+            CactusLogger.d { "Initializing context with model: $modelPath" }
             // We are not using corpusDir for now, passing null pointer
             val handle = lib.cactus_init(modelPath, contextSize, null)
             if (handle != 0L) {
-                Log.d("Cactus", "Context initialized successfully")
+                CactusLogger.d("Context initialized successfully")
                 handle
             } else {
-                Log.e("Cactus", "Failed to initialize context")
+                CactusLogger.e("Failed to initialize context")
                 null
             }
         } catch (e: Exception) {
-            Log.e("Cactus", "Exception during context initialization: ${e.message}", e)
+            CactusLogger.e("Exception during context initialization: ${e.message}", throwable = e)
             null
         }
     }
@@ -33,11 +57,15 @@ actual object CactusContext {
     actual fun freeContext(handle: Long) {
         try {
             lib.cactus_destroy(handle)
-            Log.d("Cactus", "Context destroyed")
+            CactusLogger.d("Context destroyed")
         } catch (e: Exception) {
-            Log.e("Cactus", "Error destroying context: ${e.message}")
+            CactusLogger.e("Error destroying context: ${e.message}", throwable = e)
         }
     }
+
+    actual fun resetContext(handle: Long) {
+        lib.cactus_reset(handle)
+    }
     
     actual suspend fun completion(
         handle: Long, 
@@ -47,49 +75,68 @@ actual object CactusContext {
         onToken: CactusStreamingCallback?,
         quantization: Int
     ): CactusCompletionResult = withContext(Dispatchers.Default) {
-        val messagesJson = CactusPayloadBuilder.buildMessagesJson(messages)
-        val optionsJson = CactusPayloadBuilder.buildOptionsJson(params)
+        val trace = coroutineContext[CactusTrace]
+        val payload = payloadWriters.get()!!
+        val toolsJson = traced("sdk.build_payload") {
+            CactusPayloadBuilder.writeMessages(payload.messages.reset(), messages)
+            CactusPayloadBuilder.writeOptions(payload.options.reset(), params)
+            tools?.let { payload.tools.reset().rawValue(it) }
+        }
         val bufferSize = max(params.maxTokens * quantization, 2048)
 
         val responseBuffer = ByteArray(bufferSize)
 
         // Create callback wrapper if onToken is provided
+        var firstTokenPending = trace != null
         val callback: ((String, Int) -> Unit)? = if (onToken != null) {
             { token, tokenId ->
+                if (firstTokenPending) {
+                    firstTokenPending = false
+                    trace?.let { it.record("native.first_token", CactusTrace.LAYER_NATIVE, it.nowUs(), 0) }
+                }
                 onToken(token, tokenId.toUInt())
             }
         } else null
 
-        val result = lib.cactus_complete(
-            handle,
-            messagesJson,
-            responseBuffer,
-            bufferSize,
-            optionsJson,
-            tools,
-            callback,
-            0L // userData - not used in our implementation
-        )
-
-        Log.i("Cactus", "Received completion result code: $result")
+        val nativeStartUs = trace?.nowUs() ?: 0
+        val result = try {
+            lib.cactus_complete_utf8(
+                handle,
+                payload.messages.terminate().bytes,
+                responseBuffer,
+                bufferSize,
+                payload.options.terminate().bytes,
+                toolsJson?.terminate()?.bytes,
+                callback,
+                0L // userData - not used in our implementation
+            )
+        } finally {
+            payload.trim()
+        }
+        val nativeEndUs = trace?.nowUs() ?: 0
 
-        if (result > 0) {
-            val responseText = String(responseBuffer).trim('\u0000')
+        CactusLogger.d { "Received completion result code: $result" }
 
-            return@withContext try {
-                CactusJsonParser.parseCompletionResult(responseText)
-            } catch (e: Exception) {
-                CactusCompletionResult(
-                    success = false,
-                    response = "Error: Unable to parse the response. Exception: ${e.message}"
-                )
+        val completion = if (result > 0) {
+            traced("sdk.parse_result") {
+                val responseText = String(responseBuffer).trim('\u0000')
+                try {
+                    CactusJsonParser.parseCompletionResult(responseText)
+                } catch (e: Exception) {
+                    CactusCompletionResult(
+                        success = false,
+                        response = "Error: Unable to parse the response. Exception: ${e.message}"
+                    )
+                }
             }
         } else {
-            return@withContext CactusCompletionResult(
+            CactusCompletionResult(
                 success = false,
                 response = "Error: completion failed with code $result"
             )
         }
+        trace?.recordNativeCompletion(nativeStartUs, nativeEndUs, result, completion.takeIf { it.success })
+        completion
     }
 
     actual suspend fun generateEmbedding(
@@ -98,8 +145,7 @@ actual object CactusContext {
         quantization: Int
     ): CactusEmbeddingResult = withContext(Dispatchers.Default) {
         val bufferSize = max(text.length * quantization, 1024)
-        Log.d("Cactus", "Generating embedding for text: ${if (text.length > 50) text.substring(0, 50) + "..." else text}")
-        Log.d("Cactus", "Buffer allocated for $bufferSize float elements")
+        CactusLogger.d { "Generating embedding for ${text.length} characters into $bufferSize floats" }
 
         val embeddingsBuffer = FloatArray(bufferSize)
         val embeddingDimPtr = IntArray(1) // To receive the actual dimension
@@ -112,11 +158,10 @@ actual object CactusContext {
             embeddingDimPtr
         )
 
-        Log.d("Cactus", "Received embedding result code: $result")
+        CactusLogger.d { "Received embedding result code: $result, dimension ${embeddingDimPtr[0]}" }
 
         if (result > 0) {
             val actualEmbeddingDim = embeddingDimPtr[0]
-            Log.d("Cactus", "Actual embedding dimension: $actualEmbeddingDim")
 
             if (actualEmbeddingDim > bufferSize) {
                 return@withContext CactusEmbeddingResult(
@@ -132,8 +177,6 @@ actual object CactusContext {
                 embeddings.add(embeddingsBuffer[i].toDouble())
             }
 
-            Log.d("Cactus", "Successfully extracted ${embeddings.size} embedding values")
-
             CactusEmbeddingResult(
                 success = true,
                 embeddings = embeddings,
@@ -149,6 +192,79 @@ actual object CactusContext {
         }
     }
 
+    actual suspend fun generateImageEmbeddings(
+        handle: Long,
+        imagePaths: List<String>
+    ): List<CactusEmbeddingResult> = withContext(Dispatchers.Default) {
+        embedPaths(
+            imagePaths,
+            single = { path, buffer, dim -> lib.cactus_image_embed(handle, path, buffer, buffer.size * 4, dim) },
+            batch = { paths, buffer, stride, dims -> lib.cactus_image_embed_batch(handle, paths, buffer, stride, dims) }
+        )
+    }
+
+    actual suspend fun generateAudioEmbeddings(
+        handle: Long,
+        audioPaths: List<String>
+    ): List<CactusEmbeddingResult> = withContext(Dispatchers.Default) {
+        embedPaths(
+            audioPaths,
+            single = { path, buffer, dim -> lib.cactus_audio_embed(handle, path, buffer, buffer.size * 4, dim) },
+            batch = { paths, buffer, stride, dims -> lib.cactus_audio_embed_batch(handle, paths, buffer, stride, dims) }
+        )
+    }
+
+    // Files are embedded one at a time until one reports the dimension of the model, the rest go
+    // through a single JNI call into one buffer sized exactly for them
+    private inline fun embedPaths(
+        paths: List<String>,
+        single: (String, FloatArray, IntArray) -> Int,
+        batch: (Array<String>, FloatArray, Int, IntArray) -> Int
+    ): List<CactusEmbeddingResult> {
+        val results = ArrayList<CactusEmbeddingResult>(paths.size)
+        var dimension = 0
+        while (results.size < paths.size && dimension == 0) {
+            val buffer = FloatArray(MAX_MEDIA_EMBEDDING_DIM)
+            val dim = IntArray(1)
+            val code = single(paths[results.size], buffer, dim)
+            val result = embeddingResult(buffer, 0, if (code > 0) dim[0] else code, buffer.size)
+            if (result.success) dimension = dim[0]
+            results.add(result)
+        }
+
+        val rest = paths.subList(results.size, paths.size)
+        if (rest.isEmpty()) return results
+        val buffer = FloatArray(rest.size * dimension)
+        val dims = IntArray(rest.size)
+        val embedded = batch(rest.toTypedArray(), buffer, dimension, dims)
+        CactusLogger.d { "Embedded $embedded of ${rest.size} files in one batch, dimension $dimension" }
+        for (i in rest.indices) {
+            results.add(embeddingResult(buffer, i * dimension, dims[i], dimension))
+        }
+        return results
+    }
+
+    // dimOrCode is the embedding dimension, or the native error code when it is <= 0
+    private fun embeddingResult(buffer: FloatArray, offset: Int, dimOrCode: Int, capacity: Int): CactusEmbeddingResult = when {
+        dimOrCode <= 0 -> CactusEmbeddingResult(
+            success = false,
+            embeddings = emptyList(),
+            dimension = 0,
+            errorMessage = "Embedding generation failed with code $dimOrCode"
+        )
+        dimOrCode > capacity -> CactusEmbeddingResult(
+            success = false,
+            embeddings = emptyList(),
+            dimension = 0,
+            errorMessage = "Embedding dimension ($dimOrCode) exceeds allocated buffer size ($capacity)"
+        )
+        else -> CactusEmbeddingResult(
+            success = true,
+            embeddings = List(dimOrCode) { buffer[offset + it].toDouble() },
+            dimension = dimOrCode
+        )
+    }
+
     actual fun getBundleId(): String {
         return CactusContextInitializer.getApplicationContext().packageName
     }
@@ -165,7 +281,7 @@ actual object CactusContext {
         quantization: Int
     ): CactusTranscriptionResult = withContext(Dispatchers.Default) {
         val optionsJson = CactusPayloadBuilder.buildParamsJson(params)
-        val bufferSize = max(params.maxTokens * quantization, 2048)
+        val bufferSize = max(params.tokenBudget * quantization, 2048)
 
         val responseBuffer = ByteArray(bufferSize)
 
@@ -187,7 +303,7 @@ actual object CactusContext {
             0L // userData - not used in our implementation
         )
 
-        Log.i("Cactus", "Received completion result code: $result")
+        CactusLogger.d { "Received completion result code: $result" }
 
         if (result > 0) {
             val responseText = String(responseBuffer).trim('\u0000')
@@ -1,6 +1,8 @@
 package com.cactus
 
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.res.Configuration
 import android.util.Log
 import com.cactus.services.CactusTelemetry
 import kotlinx.coroutines.CoroutineScope
@@ -11,6 +13,20 @@ import kotlinx.coroutines.launch
 object CactusContextInitializer {
     private var applicationContext: Context? = null
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Queued telemetry is sent when the UI is hidden, as the process may be stopped after that
+    private val flushOnBackground = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                CactusTelemetry.flush()
+            }
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {}
+
+        @Deprecated("Deprecated in Java")
+        override fun onLowMemory() {}
+    }
     
     init {
         try {
@@ -27,6 +43,7 @@ object CactusContextInitializer {
         Log.d("CactusInit", "Initializing Cactus context...")
         if (applicationContext == null) {
             applicationContext = context.applicationContext
+            applicationContext?.registerComponentCallbacks(flushOnBackground)
             Log.d("CactusInit", "Application context set")
             Log.d("CactusInit", "Cactus initialization complete")
         } else {
@@ -17,6 +17,17 @@ internal object CactusLibrary {
         callback: ((String, Int) -> Unit)?,
         userData: Long
     ): Int
+    // Takes the JSON payloads as NUL-terminated UTF-8 bytes from JsonWriter instead of strings
+    external fun cactus_complete_utf8(
+        model: Long,
+        messagesJson: ByteArray,
+        responseBuffer: ByteArray,
+        bufferSize: Int,
+        optionsJson: ByteArray?,
+        tools: ByteArray?,
+        callback: ((String, Int) -> Unit)?,
+        userData: Long
+    ): Int
     external fun cactus_transcribe(
         model: Long,
         audioPath: String,
@@ -34,5 +45,36 @@ internal object CactusLibrary {
         bufferSize: Int,
         embeddingDimPtr: IntArray
     ): Int
+    external fun cactus_image_embed(
+        model: Long,
+        imagePath: String,
+        embeddingsBuffer: FloatArray,
+        bufferSize: Int,
+        embeddingDimPtr: IntArray
+    ): Int
+    external fun cactus_audio_embed(
+        model: Long,
+        audioPath: String,
+        embeddingsBuffer: FloatArray,
+        bufferSize: Int,
+        embeddingDimPtr: IntArray
+    ): Int
+    // Batch variants: path i is embedded into embeddingsBuffer[i * stride until (i + 1) * stride],
+    // dims[i] receives its dimension or the error code (<= 0)
+    external fun cactus_image_embed_batch(
+        model: Long,
+        imagePaths: Array<String>,
+        embeddingsBuffer: FloatArray,
+        stride: Int,
+        dims: IntArray
+    ): Int
+    external fun cactus_audio_embed_batch(
+        model: Long,
+        audioPaths: Array<String>,
+        embeddingsBuffer: FloatArray,
+        stride: Int,
+        dims: IntArray
+    ): Int
     external fun cactus_destroy(model: Long)
+    external fun cactus_reset(model: Long)
 }
@@ -0,0 +1,6 @@
+package com.cactus.audio
+
+import com.cactus.CactusContextInitializer
+
+internal actual fun temporaryAudioDirectory(): String =
+    CactusContextInitializer.getApplicationContext().cacheDir.absolutePath
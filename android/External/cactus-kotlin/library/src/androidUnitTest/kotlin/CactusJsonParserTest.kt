@@ -0,0 +1,92 @@
+package com.cactus
+
+import com.cactus.internal.CactusJsonParser
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Checks that the single-pass result parser reads the same values as the tree-based parsing it
+ * replaced. JsonParserBenchmark in the JVM benchmarks compares their speed.
+ */
+class CactusJsonParserTest {
+    private val json = Json { ignoreUnknownKeys = true; isLenient = true }
+    private val random = Random(11)
+
+    // The previous implementation, kept here as the baseline
+    private fun treeCompletion(responseText: String): CactusCompletionResult {
+        val root = json.parseToJsonElement(responseText).jsonObject
+        fun number(name: String) = root[name]?.jsonPrimitive?.content?.toDoubleOrNull()
+        fun int(name: String) = root[name]?.jsonPrimitive?.content?.toIntOrNull()
+        val toolCalls = (root["function_calls"] as? JsonArray)?.mapNotNull { element ->
+            val call = element as? JsonObject ?: return@mapNotNull null
+            val name = (call["name"] as? JsonPrimitive)?.content ?: return@mapNotNull null
+            val arguments = (call["arguments"] as? JsonObject)?.mapValues { (_, value) ->
+                if (value is JsonPrimitive) value.content else value.toString()
+            } ?: emptyMap()
+            ToolCall(name, arguments)
+        } ?: emptyList()
+        return CactusCompletionResult(
+            success = root["success"]?.jsonPrimitive?.content?.toBooleanStrictOrNull() ?: true,
+            response = root["response"]?.jsonPrimitive?.content ?: responseText,
+            timeToFirstTokenMs = number("time_to_first_token_ms") ?: 0.0,
+            totalTimeMs = number("total_time_ms") ?: 0.0,
+            tokensPerSecond = number("tokens_per_second") ?: 0.0,
+            prefillTokens = int("prefill_tokens") ?: 0,
+            decodeTokens = int("decode_tokens") ?: 0,
+            totalTokens = int("total_tokens") ?: 0,
+            toolCalls = toolCalls
+        )
+    }
+
+    private fun treeTranscription(responseText: String): String {
+        val root = json.parseToJsonElement(responseText).jsonObject
+        val rawText = root["text"]?.jsonPrimitive?.content ?: responseText
+        return rawText
+            .replace(Regex("<\\|startoftranscript\\|[^>]*>"), "")
+            .replace(Regex("<\\|[^>]+\\|>"), "")
+            .trim()
+    }
+
+    // Prose with the escapes and non-ASCII text real answers contain
+    private fun prose(words: Int): String {
+        val vocabulary = listOf("the", "model", "answer", "\\\"quoted\\\"", "line\\nbreak", "naïve", "東京", "🌵", "C:\\\\path", "tab\\there")
+        return (0 until words).joinToString(" ") { vocabulary[random.nextInt(vocabulary.size)] }
+    }
+
+    private fun completionJson(words: Int) = """
+        {"success":true,"response":"${prose(words)}","time_to_first_token_ms":48.25,
+         "total_time_ms":9120.5,"tokens_per_second":31.7,"prefill_tokens":812,"decode_tokens":$words,
+         "total_tokens":${812 + words},"function_calls":[{"name":"search","arguments":
+         {"query":"weather \"today\"","limit":5,"filters":{"units":"metric","days":[1,2]}}}]}
+    """.trimIndent()
+
+    private fun transcriptionJson(words: Int) =
+        """{"success":true,"text":"<|startoftranscript|><|en|><|transcribe|><|notimestamps|> ${prose(words)} <|endoftext|>","total_time_ms":812.0}"""
+
+    @Test
+    fun matchesTreeParsing() {
+        for (words in listOf(0, 1, 200)) {
+            val document = completionJson(words)
+            val expected = treeCompletion(document)
+            val actual = CactusJsonParser.parseCompletionResult(document)
+            assertEquals(expected.copy(toolCalls = null), actual.copy(toolCalls = null))
+            assertEquals("weather \"today\"", actual.toolCalls!![0].arguments["query"])
+            assertEquals("5", actual.toolCalls!![0].arguments["limit"])
+            assertEquals(
+                Json.parseToJsonElement(expected.toolCalls!![0].arguments.getValue("filters")),
+                Json.parseToJsonElement(actual.toolCalls!![0].arguments.getValue("filters"))
+            )
+
+            val transcription = transcriptionJson(words)
+            assertEquals(treeTranscription(transcription), CactusJsonParser.parseTranscriptionResult(transcription).text)
+        }
+        assertEquals("hi <| there> <||>", CactusJsonParser.stripSpecialTokens(" <|en|>hi <| there> <||> "))
+    }
+}
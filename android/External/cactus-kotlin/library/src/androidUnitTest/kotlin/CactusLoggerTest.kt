@@ -0,0 +1,42 @@
+package com.cactus
+
+import co.touchlab.kermit.Severity
+import utils.CactusLogger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class CactusLoggerTest {
+    @AfterTest
+    fun tearDown() {
+        CactusLogger.minSeverity = Severity.Info
+    }
+
+    @Test
+    fun skipsBuildingMessagesBelowTheLevel() {
+        var built = 0
+        CactusLogger.d { built++; "debug" }
+        CactusLogger.v { built++; "verbose" }
+        CactusLogger.setLevel("none")
+        CactusLogger.i { built++; "info" }
+
+        assertEquals(0, built)
+    }
+
+    @Test
+    fun parsesLevelNames() {
+        CactusLogger.setLevel("WARN")
+        assertEquals(Severity.Warn, CactusLogger.minSeverity)
+        CactusLogger.setLevel("chatty")
+        assertEquals(Severity.Warn, CactusLogger.minSeverity)
+
+        CactusLogger.setLevel("none")
+        assertNull(CactusLogger.minSeverity)
+        assertFalse(CactusLogger.isLoggable(Severity.Assert))
+        CactusLogger.setLevel("verbose")
+        assertTrue(CactusLogger.isLoggable(Severity.Verbose))
+    }
+}
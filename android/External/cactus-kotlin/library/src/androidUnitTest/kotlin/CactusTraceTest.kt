@@ -0,0 +1,94 @@
+package com.cactus
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.int
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class CactusTraceTest {
+    @Test
+    fun tracedRecordsIntoTheContextTraceAcrossDispatchers() = runBlocking {
+        val trace = CactusTrace("request-1")
+        val value = withContext(trace) {
+            traced("sdk.outer") {
+                withContext(Dispatchers.Default) { traced("sdk.inner") { 42 } }
+            }
+        }
+        // Without a trace in the context the block still runs
+        assertEquals(7, traced("sdk.untraced") { 7 })
+
+        assertEquals(42, value)
+        assertEquals(listOf("sdk.inner", "sdk.outer"), trace.spans.map { it.name })
+        val (inner, outer) = trace.spans
+        assertTrue(inner.startUs >= outer.startUs)
+        assertTrue(inner.startUs + inner.durationUs <= outer.startUs + outer.durationUs)
+    }
+
+    @Test
+    fun exportsOneLanePerLayer() {
+        val trace = CactusTrace("request-2")
+        trace.record("plugin.queue", "plugin", 0, 120)
+        trace.record("native.complete", CactusTrace.LAYER_NATIVE, 300, 900, mapOf("resultCode" to "17"))
+        trace.record("sdk.get_model", CactusTrace.LAYER_SDK, 150, 40)
+
+        val document = Json.parseToJsonElement(trace.toChromeTraceJson()).jsonObject
+        val events = document["traceEvents"]!!.jsonArray.map { it.jsonObject }
+        val lanes = events.filter { it["ph"]!!.jsonPrimitive.content == "M" }
+            .associate { it["args"]!!.jsonObject["name"]!!.jsonPrimitive.content to it["tid"]!!.jsonPrimitive.int }
+        val spans = events.filter { it["ph"]!!.jsonPrimitive.content == "X" }
+
+        assertEquals(setOf("plugin", "sdk", "native"), lanes.keys)
+        assertEquals(3, lanes.values.distinct().size)
+        assertEquals(listOf("plugin.queue", "sdk.get_model", "native.complete"), spans.map { it["name"]!!.jsonPrimitive.content })
+        val native = spans.last()
+        assertEquals(lanes["native"], native["tid"]!!.jsonPrimitive.int)
+        assertEquals(300L, native["ts"]!!.jsonPrimitive.long)
+        assertEquals(900L, native["dur"]!!.jsonPrimitive.long)
+        assertEquals("17", native["args"]!!.jsonObject["resultCode"]!!.jsonPrimitive.content)
+        assertEquals("request-2", document["otherData"]!!.jsonObject["requestId"]!!.jsonPrimitive.content)
+    }
+
+    @Test
+    fun splitsTheNativeCallAtTheFirstToken() {
+        val trace = CactusTrace("request-3")
+        val result = CactusCompletionResult(success = true, timeToFirstTokenMs = 0.25, prefillTokens = 12, decodeTokens = 30)
+        trace.recordNativeCompletion(startUs = 1_000, endUs = 2_000, resultCode = 1, result = result)
+
+        val spans = trace.spans.associateBy { it.name }
+        assertEquals(CactusSpan("native.prefill", CactusTrace.LAYER_NATIVE, 1_000, 250, mapOf("tokens" to "12")), spans["native.prefill"])
+        assertEquals(CactusSpan("native.decode", CactusTrace.LAYER_NATIVE, 1_250, 750, mapOf("tokens" to "30")), spans["native.decode"])
+    }
+
+    @Test
+    fun countsSpansPastTheLimit() {
+        val trace = CactusTrace("request-4")
+        repeat(CactusTrace.MAX_SPANS + 5) { trace.record("plugin.token_event", "plugin", it.toLong(), 1) }
+
+        assertEquals(CactusTrace.MAX_SPANS, trace.spans.size)
+        assertEquals(5, trace.droppedSpans)
+    }
+
+    @Test
+    fun accumulatesRepeatedStagesIntoOneSpan() {
+        val trace = CactusTrace("request-5")
+        repeat(5_000) { trace.accumulate("plugin.token_event", "plugin", 100L + it * 10, 2) }
+        trace.record("plugin.build_result", "plugin", 60_000, 30)
+
+        val spans = trace.spans.associateBy { it.name }
+        assertEquals(2, spans.size)
+        assertEquals(0, trace.droppedSpans)
+        assertEquals(
+            CactusSpan("plugin.token_event", "plugin", 100, 49_992, mapOf("count" to "5000", "totalUs" to "10000")),
+            spans["plugin.token_event"]
+        )
+        assertEquals(30L, spans.getValue("plugin.build_result").durationUs)
+    }
+}
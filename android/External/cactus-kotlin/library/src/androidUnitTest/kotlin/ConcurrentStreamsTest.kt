@@ -0,0 +1,88 @@
+package com.cactus
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.newFixedThreadPoolContext
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Runs concurrent completions against a stub backend that holds its stream for a while per
+ * token, once on a single stream and once spread over several streams of the same model.
+ */
+class ConcurrentStreamsTest {
+    private val nextPointer = AtomicLong(1)
+    private val freeCounts = ConcurrentHashMap<Long, AtomicInteger>()
+    private val inUse = ConcurrentHashMap<Long, AtomicInteger>()
+
+    private fun free(pointer: Long) {
+        freeCounts.computeIfAbsent(pointer) { AtomicInteger() }.incrementAndGet()
+    }
+
+    // Returns how many contexts the run created
+    private fun run(maxStreams: Int, requests: Int = 16, tokensPerRequest: Int = 24, tokenMs: Long = 2): Int {
+        val holder = NativeContextHolder("model", ::free)
+        holder.publish("model", nextPointer.getAndIncrement(), 2048)
+        val spawned = AtomicInteger(1)
+
+        @Suppress("OPT_IN_USAGE")
+        val dispatcher = newFixedThreadPoolContext(requests, "streams")
+        runBlocking(dispatcher) {
+            (0 until requests).map {
+                async {
+                    val handle = holder.acquireStream("model", maxStreams) {
+                        spawned.incrementAndGet()
+                        nextPointer.getAndIncrement()
+                    }!!
+                    holder.use(handle) { pointer ->
+                        val users = inUse.computeIfAbsent(pointer) { AtomicInteger() }
+                        assertEquals(1, users.incrementAndGet(), "stream used by two requests at once")
+                        repeat(tokensPerRequest) { Thread.sleep(tokenMs) }
+                        users.decrementAndGet()
+                    }
+                }
+            }.awaitAll()
+        }
+        dispatcher.close()
+        holder.unload()
+        return spawned.get()
+    }
+
+    @Test
+    fun busyStreamsSpawnContextsUpToTheLimit() {
+        assertEquals(1, run(maxStreams = 1))
+        assertTrue(run(maxStreams = 4) in 2..4)
+
+        freeCounts.values.forEach { assertEquals(1, it.get(), "every stream context is freed exactly once") }
+        assertEquals(nextPointer.get() - 1, freeCounts.size.toLong())
+    }
+
+    @Test
+    fun releasingExtraStreamsKeepsThePrimaryContext() = runBlocking {
+        val holder = NativeContextHolder("model", ::free)
+        val primary = nextPointer.getAndIncrement()
+        holder.publish("model", primary, 2048)
+        // Hold the primary so the next request has to open a second stream
+        val busy = holder.acquireStream("model", 2) { nextPointer.getAndIncrement() }!!
+        busy.lock.lock()
+        val extra = holder.acquireStream("model", 2) { nextPointer.getAndIncrement() }!!
+        assertEquals(2, holder.current.handles.size)
+
+        holder.releaseExtraStreams()
+        assertEquals(listOf(primary), holder.current.handles.map { it.pointer })
+        assertTrue(freeCounts.isEmpty(), "a stream in use is freed only once its request returns")
+
+        extra.release()
+        assertEquals(1, freeCounts[extra.pointer]?.get())
+        busy.lock.unlock()
+        busy.release()
+        assertTrue(freeCounts[primary] == null)
+        holder.unload()
+        assertEquals(1, freeCounts[primary]?.get())
+    }
+}
@@ -0,0 +1,54 @@
+package com.cactus
+
+import com.cactus.internal.CactusPayloadBuilder
+import com.cactus.internal.JsonWriter
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class JsonWriterTest {
+    @Test
+    fun escapesEveryControlCharacter() {
+        val writer = JsonWriter(4)
+        writer.beginArray().value("quote\" slash\\ tab\t bell\u0001 nul\u0000 del\u007f").endArray()
+
+        assertEquals(
+            "[\"quote\\\" slash\\\\ tab\\t bell\\u0001 nul\\u0000 del\u007f\"]",
+            writer.toUtf8String()
+        )
+    }
+
+    @Test
+    fun encodesUtf8Directly() {
+        val text = "héllo → 世界 🌵"
+        val writer = JsonWriter(4).value(text)
+
+        assertEquals("\"$text\"".encodeToByteArray().toList(), writer.bytes.copyOf(writer.size).toList())
+        // A lone surrogate cannot be encoded and is replaced
+        assertEquals("\"a�b\"", JsonWriter().value("a\uD83Cb").toUtf8String())
+    }
+
+    @Test
+    fun messagesRoundTrip() {
+        val messages = listOf(
+            ChatMessage("You are terse.\r\n", "system"),
+            ChatMessage("Pasted:\u000c{\"a\": [1, 2]}\u0002 🌵", "user", images = listOf("/data/photo 1.jpg"))
+        )
+        val parsed = Json.parseToJsonElement(CactusPayloadBuilder.buildMessagesJson(messages)).jsonArray
+
+        assertEquals(messages.map { it.content }, parsed.map { it.jsonObject["content"]!!.jsonPrimitive.content })
+        assertEquals("/data/photo 1.jpg", parsed[1].jsonObject["images"]!!.jsonArray[0].jsonPrimitive.content)
+    }
+
+    @Test
+    fun optionsAreValidJson() {
+        val params = CactusCompletionParams(temperature = 0.7, maxTokens = 64, stopSequences = listOf("</s>", "\n\n"))
+        val options = Json.parseToJsonElement(CactusPayloadBuilder.buildOptionsJson(params)).jsonObject
+
+        assertEquals("0.7", options["temperature"]!!.jsonPrimitive.content)
+        assertEquals(listOf("</s>", "\n\n"), options["stop_sequences"]!!.jsonArray.map { it.jsonPrimitive.content })
+    }
+}
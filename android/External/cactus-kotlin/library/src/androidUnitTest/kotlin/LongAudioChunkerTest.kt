@@ -0,0 +1,112 @@
+package com.cactus
+
+import com.cactus.audio.AudioChunk
+import com.cactus.audio.LongAudioChunker
+import com.cactus.audio.PcmBuffer
+import com.cactus.audio.TranscriptStitcher
+import com.cactus.audio.WavCodec
+import com.cactus.audio.WavReader
+import okio.Buffer
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class LongAudioChunkerTest {
+    private val sampleRate = 16_000
+    private val random = Random(7)
+
+    // Builds a clip of (durationMs, isSpeech) parts: a voiced tone over faint background noise
+    private fun clip(vararg parts: Pair<Int, Boolean>): ShortArray {
+        val buffer = PcmBuffer()
+        for ((durationMs, isSpeech) in parts) {
+            val samples = ShortArray(sampleRate * durationMs / 1000) { i ->
+                val noise = random.nextDouble(-1.0, 1.0) * 60
+                val voice = if (isSpeech) sin(2 * PI * 220 * i / sampleRate) * 8_000 else 0.0
+                (voice + noise).toInt().toShort()
+            }
+            buffer.append(samples)
+        }
+        return buffer.copyOfRange(0, buffer.size)
+    }
+
+    // Feeds the chunker in 1 s blocks, as the transcription pipeline does when reading from disk
+    private fun chunk(samples: ShortArray, chunkMs: Long = 10_000): List<AudioChunk> {
+        val chunker = LongAudioChunker(sampleRate, chunkMs = chunkMs)
+        val chunks = mutableListOf<AudioChunk>()
+        var pos = 0
+        while (pos < samples.size) {
+            val block = samples.copyOfRange(pos, minOf(pos + sampleRate, samples.size))
+            chunks.addAll(chunker.push(block))
+            pos += block.size
+        }
+        chunker.finish()?.let { chunks.add(it) }
+        return chunks
+    }
+
+    @Test
+    fun cutsInsidePausesWithoutOverlap() {
+        val samples = clip(8500 to true, 1000 to false, 8000 to true, 1000 to false, 3000 to true)
+        val chunks = chunk(samples)
+
+        assertTrue(chunks.size >= 2)
+        assertTrue(abs(chunks[1].startMs - 9000) <= 60, "second chunk starts at ${chunks[1].startMs} ms")
+        chunks.forEach { assertFalse(it.overlapsPrevious) }
+        chunks.forEachIndexed { index, chunk -> assertEquals(index, chunk.index) }
+        // Without overlap the chunks tile the recording exactly
+        assertEquals(samples.size, chunks.sumOf { it.samples.size })
+        assertContentEquals(samples.copyOfRange(0, chunks[0].samples.size), chunks[0].samples)
+    }
+
+    @Test
+    fun overlapsHardCutsInContinuousSpeech() {
+        val chunks = chunk(clip(25_000 to true))
+
+        assertEquals(listOf(0L, 9_000L, 18_000L), chunks.map { it.startMs })
+        assertEquals(listOf(false, true, true), chunks.map { it.overlapsPrevious })
+        assertEquals(25_000L, chunks.last().endMs(sampleRate))
+    }
+
+    @Test
+    fun silenceIsCutAtFullLength() {
+        val chunks = chunk(clip(21_000 to false))
+
+        assertEquals(listOf(0L, 10_000L, 20_000L), chunks.map { it.startMs })
+        chunks.forEach { assertFalse(it.overlapsPrevious) }
+    }
+
+    @Test
+    fun stitchingDropsWordsRepeatedAcrossTheCut() {
+        assertEquals(
+            "the quick brown fox jumps over",
+            TranscriptStitcher.stitch("the quick brown fox", "brown fox jumps over")
+        )
+        assertEquals(
+            "the quick Brown fox. jumps",
+            TranscriptStitcher.stitch("the quick Brown fox.", "brown fox, jumps")
+        )
+        // A lone short word is as likely to be said twice as to be repeated by the overlap
+        assertEquals("go to the the end", TranscriptStitcher.stitch("go to the", "the end"))
+        assertEquals("hello world new words", TranscriptStitcher.stitch("hello world", "new words"))
+        assertEquals("first", TranscriptStitcher.stitch("", "first"))
+    }
+
+    @Test
+    fun readerStreamsTruncatedFiles() {
+        val samples = ShortArray(100) { (it * 300).toShort() }
+        val bytes = WavCodec.encodePcm16(samples, sampleRate)
+        // The header still claims 100 samples but only 50 were written
+        val truncated = bytes.copyOfRange(0, 44 + 100)
+
+        val reader = assertNotNull(WavReader.open(Buffer().write(truncated)))
+        val audio = reader.readAll()
+        assertEquals(sampleRate, audio.sampleRate)
+        assertContentEquals(samples.copyOfRange(0, 50), audio.samples)
+    }
+}
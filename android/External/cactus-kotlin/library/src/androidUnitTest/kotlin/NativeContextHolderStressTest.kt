@@ -0,0 +1,136 @@
+package com.cactus
+
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class NativeContextHolderStressTest {
+    private val nextPointer = AtomicLong(1)
+    private val published = ConcurrentHashMap.newKeySet<Long>()
+    private val inUse = ConcurrentHashMap<Long, AtomicInteger>()
+    private val freeCounts = ConcurrentHashMap<Long, AtomicInteger>()
+    private val freedWhileInUse = AtomicInteger(0)
+
+    private fun free(pointer: Long) {
+        if ((inUse[pointer]?.get() ?: 0) != 0) {
+            freedWhileInUse.incrementAndGet()
+        }
+        freeCounts.computeIfAbsent(pointer) { AtomicInteger() }.incrementAndGet()
+    }
+
+    private fun newPointer(): Long = nextPointer.getAndIncrement().also { published.add(it) }
+
+    @Test
+    fun closeDefersFreeUntilLastUserReleases() {
+        val handle = NativeHandle(newPointer(), ::free)
+        assertTrue(handle.acquire())
+
+        handle.close()
+        assertTrue(freeCounts.isEmpty())
+        assertFalse(handle.acquire())
+
+        handle.release()
+        assertEquals(1, freeCounts[handle.pointer]?.get())
+    }
+
+    @Test
+    fun acquireReturnsNullForOtherModelOrAfterUnload() {
+        val holder = NativeContextHolder("model-a", ::free)
+        holder.publish("model-a", newPointer())
+
+        assertNull(holder.acquire("model-b"))
+
+        holder.unload()
+        assertNull(holder.acquire("model-a"))
+        assertEquals("model-a", holder.model)
+    }
+
+    @Test
+    fun unloadKeepsTheContextSizeForTheNextReload() {
+        val holder = NativeContextHolder("model", ::free)
+        holder.publish("model", newPointer(), contextSize = 4096)
+
+        holder.unload()
+        assertEquals(4096, holder.current.contextSize)
+
+        holder.unload(reloadContextSize = 2048)
+        assertEquals(2048, holder.current.contextSize)
+        assertEquals("model", holder.model)
+    }
+
+    @Test
+    fun completionsEmbeddingsAndUnloadsRunConcurrently() {
+        val holder = NativeContextHolder("model", ::free)
+        holder.publish("model", newPointer())
+
+        val requestThreads = 8
+        val iterations = 2_000
+        val executor = Executors.newFixedThreadPool(requestThreads + 2)
+        val start = CyclicBarrier(requestThreads + 2)
+        val completed = AtomicInteger(0)
+
+        val requests = (0 until requestThreads).map { worker ->
+            executor.submit {
+                start.await()
+                runBlocking {
+                    repeat(iterations) {
+                        // Same shape as CactusLM.getValidatedHandle: reuse the loaded context or load it
+                        val handle = holder.acquire("model") ?: run {
+                            holder.load {
+                                if (!holder.isLoaded) holder.publish("model", newPointer())
+                            }
+                            holder.acquire("model")
+                        } ?: return@repeat
+
+                        holder.use(handle) { pointer ->
+                            val users = inUse.computeIfAbsent(pointer) { AtomicInteger() }
+                            assertEquals(1, users.incrementAndGet(), "native context used by two requests at once")
+                            assertFalse(freeCounts.containsKey(pointer), "request ran on a freed context")
+                            // Alternate between a longer "completion" and a short "embedding"
+                            if (worker % 2 == 0) Thread.sleep(0, 50_000) else Thread.yield()
+                            users.decrementAndGet()
+                        }
+                        completed.incrementAndGet()
+                    }
+                }
+            }
+        }
+
+        val unloader = executor.submit {
+            start.await()
+            repeat(iterations) {
+                holder.unload()
+                Thread.yield()
+            }
+        }
+
+        val reloader = executor.submit {
+            start.await()
+            runBlocking {
+                repeat(iterations / 4) {
+                    holder.load { holder.publish("model", newPointer()) }
+                    Thread.yield()
+                }
+            }
+        }
+
+        (requests + unloader + reloader).forEach { it.get(60, TimeUnit.SECONDS) }
+        executor.shutdown()
+        holder.unload()
+
+        assertTrue(completed.get() > 0)
+        assertEquals(0, freedWhileInUse.get())
+        published.forEach { pointer ->
+            assertEquals(1, freeCounts[pointer]?.get(), "context $pointer must be freed exactly once")
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.cactus
+
+import com.cactus.services.SegmentedLogFile
+import okio.FileSystem
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class SegmentedLogFileTest {
+    private val fileSystem = FileSystem.SYSTEM
+    private val directory = FileSystem.SYSTEM_TEMPORARY_DIRECTORY / "cactus-log-test-${Random.nextLong().toULong()}"
+
+    @AfterTest
+    fun tearDown() {
+        fileSystem.deleteRecursively(directory, mustExist = false)
+    }
+
+    @Test
+    fun readsFromTheCursorAcrossSegments() {
+        val log = SegmentedLogFile(directory, fileSystem, maxSegmentBytes = 16, maxSegments = 100)
+        log.append((0 until 10).map { "record-$it" })
+        log.append((10 until 20).map { "record-$it" })
+
+        val (first, afterFirst) = log.read(limit = 12)
+        assertEquals((0 until 12).map { "record-$it" }, first)
+        // Nothing moves until the read is acknowledged
+        assertEquals(first, log.read(limit = 12).first)
+
+        log.advance(afterFirst)
+        val (rest, afterRest) = log.read(limit = 100)
+        assertEquals((12 until 20).map { "record-$it" }, rest)
+
+        log.advance(afterRest)
+        assertTrue(log.read(limit = 100).first.isEmpty())
+        log.append(listOf("record-20"))
+        assertEquals(listOf("record-20"), log.read(limit = 100).first)
+    }
+
+    @Test
+    fun survivesReopening() {
+        val log = SegmentedLogFile(directory, fileSystem)
+        log.append(listOf("a", "b", "c"))
+        log.advance(log.read(limit = 1).second)
+
+        assertEquals(listOf("b", "c"), SegmentedLogFile(directory, fileSystem).read(limit = 10).first)
+    }
+
+    @Test
+    fun dropsOldestSegmentsWhenFull() {
+        val log = SegmentedLogFile(directory, fileSystem, maxSegmentBytes = 10, maxSegments = 2)
+        for (i in 0 until 50) {
+            log.append(listOf("line-%02d".format(i)))
+        }
+
+        val (lines, _) = log.read(limit = 100)
+        // Two segments of two 8-byte lines each are kept, the newest ones
+        assertEquals((46 until 50).map { "line-%02d".format(it) }, lines)
+        assertTrue(fileSystem.list(directory).size <= 3)
+    }
+
+    @Test
+    fun leavesATornLastLineForLater() {
+        val log = SegmentedLogFile(directory, fileSystem)
+        log.append(listOf("whole"))
+        fileSystem.appendingSink(directory / "1.log").use { sink ->
+            val buffer = okio.Buffer().writeUtf8("tor")
+            sink.write(buffer, buffer.size)
+        }
+
+        val (lines, end) = log.read(limit = 10)
+        assertEquals(listOf("whole"), lines)
+        log.advance(end)
+        log.append(listOf("next"))
+        assertEquals(listOf("tornext"), log.read(limit = 10).first)
+    }
+}
@@ -0,0 +1,88 @@
+package com.cactus
+
+import com.cactus.models.LogRecord
+import com.cactus.services.TelemetryBatcher
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class TelemetryBatcherTest {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val sent = Channel<List<LogRecord>>(Channel.UNLIMITED)
+
+    private fun record(index: Int) = LogRecord(
+        eventType = "completion",
+        projectId = null,
+        deviceId = null,
+        tokens = index,
+        telemetryToken = null
+    )
+
+    private fun nextBatch(): List<Int?> = runBlocking { withTimeout(5_000) { sent.receive() } }.map { it.tokens }
+
+    @AfterTest
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun sendsFullBatchesThenFlushesTheRest() {
+        val batcher = TelemetryBatcher(batchSize = 3, intervalMs = 60_000, scope = scope) { sent.send(it) }
+        repeat(7) { batcher.record(record(it)) }
+
+        assertEquals(listOf(0, 1, 2), nextBatch())
+        assertEquals(listOf(3, 4, 5), nextBatch())
+        batcher.flush()
+        assertEquals(listOf(6), nextBatch())
+    }
+
+    @Test
+    fun flushWithNothingQueuedDoesNotCutTheNextBatch() {
+        val batcher = TelemetryBatcher(batchSize = 2, intervalMs = 60_000, scope = scope) { sent.send(it) }
+        batcher.flush()
+        batcher.record(record(0))
+        batcher.record(record(1))
+
+        assertEquals(listOf(0, 1), nextBatch())
+    }
+
+    @Test
+    fun sendsPartialBatchAfterInterval() {
+        val batcher = TelemetryBatcher(batchSize = 100, intervalMs = 50, scope = scope) { sent.send(it) }
+        batcher.record(record(0))
+        batcher.record(record(1))
+
+        assertEquals(listOf(0, 1), nextBatch())
+        assertNull(sent.tryReceive().getOrNull())
+    }
+
+    @Test
+    fun recordingNeverWaitsOnSlowSends() {
+        val network = CompletableDeferred<Unit>()
+        val batcher = TelemetryBatcher(capacity = 8, batchSize = 4, intervalMs = 10, scope = scope) {
+            network.await()
+            sent.send(it)
+        }
+
+        // The sender is stuck, so all but the newest records have to be dropped
+        repeat(1_000) { batcher.record(record(it)) }
+        network.complete(Unit)
+        batcher.flush()
+
+        val delivered = mutableListOf<Int?>()
+        while (999 !in delivered) {
+            delivered += nextBatch()
+        }
+        assertTrue(delivered.size < 1_000)
+    }
+}
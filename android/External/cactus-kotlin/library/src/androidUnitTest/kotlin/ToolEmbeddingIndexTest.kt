@@ -0,0 +1,68 @@
+package com.cactus
+
+import com.cactus.models.CactusTool
+import com.cactus.models.createTool
+import com.cactus.services.ToolEmbeddingIndex
+import kotlinx.coroutines.runBlocking
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ToolEmbeddingIndexTest {
+    private val weather = createTool("get_weather", "Current weather", emptyMap())
+    private val timer = createTool("set_timer", "Countdown timer", emptyMap())
+    private val email = createTool("send_email", "Send an email", emptyMap())
+
+    // Fake embedding model: one axis per tool, unnormalized so the index has to normalize
+    private val embedded = mutableListOf<String>()
+    private val embed: suspend (String) -> List<Double>? = { text ->
+        embedded.add(text.substringBefore(':'))
+        when {
+            text.startsWith("get_weather") -> listOf(3.0, 0.0, 0.0)
+            text.startsWith("set_timer") -> listOf(0.0, 2.0, 0.0)
+            text.startsWith("send_email") -> listOf(0.0, 0.0, 5.0)
+            else -> null
+        }
+    }
+
+    private fun ToolEmbeddingIndex.syncBlocking(tools: List<CactusTool>, model: String = "model-a") =
+        runBlocking { sync(tools, model, embed) }
+
+    @Test
+    fun ranksByCosineSimilarity() {
+        val index = ToolEmbeddingIndex()
+        index.syncBlocking(listOf(weather, timer, email))
+
+        val matches = index.search(listOf(1.0, 2.0, 0.0))
+        assertEquals(listOf(timer, weather, email), matches.map { it.tool })
+        assertEquals(2 / kotlin.math.sqrt(5.0), matches[0].score, 1e-5)
+        assertEquals(0.0, matches[2].score, 1e-5)
+        assertTrue(index.search(listOf(1.0, 2.0)).isEmpty())
+    }
+
+    @Test
+    fun embedsEachToolOncePerModel() {
+        val index = ToolEmbeddingIndex()
+        index.syncBlocking(listOf(weather, timer))
+        index.syncBlocking(listOf(weather, timer))
+        index.syncBlocking(listOf(weather, timer, email))
+        assertEquals(listOf("get_weather", "set_timer", "send_email"), embedded)
+
+        index.syncBlocking(listOf(timer))
+        assertEquals(1, index.size)
+
+        index.syncBlocking(listOf(timer), model = "model-b")
+        assertEquals(listOf("get_weather", "set_timer", "send_email", "set_timer"), embedded)
+    }
+
+    @Test
+    fun retriesToolsThatFailedToEmbed() {
+        val unknown = createTool("lookup", "Unknown to the fake model", emptyMap())
+        val index = ToolEmbeddingIndex()
+        index.syncBlocking(listOf(weather, unknown))
+        index.syncBlocking(listOf(weather, unknown))
+
+        assertEquals(listOf("get_weather", "lookup", "lookup"), embedded)
+        assertEquals(1, index.size)
+    }
+}
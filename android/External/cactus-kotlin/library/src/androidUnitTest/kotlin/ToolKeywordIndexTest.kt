@@ -0,0 +1,52 @@
+package com.cactus
+
+import com.cactus.models.CactusTool
+import com.cactus.models.ToolParameter
+import com.cactus.models.createTool
+import com.cactus.services.ToolKeywordIndex
+import com.cactus.services.ToolText
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ToolKeywordIndexTest {
+    private fun tool(name: String, description: String, vararg parameters: String): CactusTool =
+        createTool(name, description, parameters.associateWith { ToolParameter("string", it) })
+
+    private val weather = tool("get_weather", "Get the current weather for a city", "location")
+    private val forecast = tool("getForecast", "Weather forecasts for the next days", "location", "days")
+    private val timer = tool("set_timer", "Start a countdown timer", "minutes")
+
+    private fun terms(query: String) = ToolText.terms(query).toSet()
+
+    @Test
+    fun splitsNamesAndStemsSuffixes() {
+        assertEquals(listOf("get", "forecast"), ToolText.terms("getForecast"))
+        assertEquals(listOf("set", "timer"), ToolText.terms("set_timer"))
+        assertEquals(listOf("forecast", "forecast", "schedul", "schedul"), ToolText.terms("forecasts forecasting scheduled schedule"))
+        assertEquals(listOf("string", "run", "call", "city"), ToolText.terms("strings running calling cities"))
+    }
+
+    @Test
+    fun ranksByBm25() {
+        val index = ToolKeywordIndex()
+        index.sync(listOf(weather, forecast, timer))
+
+        val matches = index.search(terms("what's the weather forecast in Paris?"))
+        assertEquals(listOf(forecast, weather), matches.map { it.tool })
+        assertEquals(2, matches[0].matchedTerms)
+        assertTrue(index.search(terms("book a flight")).isEmpty())
+    }
+
+    @Test
+    fun syncsIncrementally() {
+        val index = ToolKeywordIndex()
+        index.sync(listOf(weather, timer))
+        assertEquals(listOf(timer), index.search(terms("start a timer")).map { it.tool })
+
+        index.sync(listOf(weather, forecast))
+        assertEquals(2, index.size)
+        assertTrue(index.search(terms("start a timer")).isEmpty())
+        assertEquals(listOf(forecast), index.search(terms("how many days")).map { it.tool })
+    }
+}
@@ -0,0 +1,110 @@
+package com.cactus
+
+import com.cactus.audio.PcmBuffer
+import com.cactus.audio.VoiceActivityDetector
+import com.cactus.audio.WavCodec
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class VoiceActivityDetectorTest {
+    private val sampleRate = 16_000
+    private val random = Random(42)
+
+    // Builds a clip of (durationMs, isSpeech) parts: a voiced tone over faint background noise
+    private fun clip(vararg parts: Pair<Int, Boolean>): ShortArray {
+        val buffer = PcmBuffer()
+        for ((durationMs, isSpeech) in parts) {
+            val samples = ShortArray(sampleRate * durationMs / 1000) { i ->
+                val noise = random.nextDouble(-1.0, 1.0) * 60
+                val voice = if (isSpeech) sin(2 * PI * 220 * i / sampleRate) * 8_000 else 0.0
+                (voice + noise).toInt().toShort()
+            }
+            buffer.append(samples)
+        }
+        return buffer.copyOfRange(0, buffer.size)
+    }
+
+    private fun ms(samples: Int) = samples * 1000 / sampleRate
+
+    // Round-trips through a WAV file image, as the trimmer reads voice notes from disk
+    private fun wav(samples: ShortArray): ShortArray {
+        val decoded = assertNotNull(WavCodec.decode(WavCodec.encodePcm16(samples, sampleRate)))
+        assertEquals(sampleRate, decoded.sampleRate)
+        return decoded.samples
+    }
+
+    @Test
+    fun findsSpeechRegionsSeparatedByLongPauses() {
+        val samples = wav(clip(1000 to false, 1500 to true, 2000 to false, 1000 to true, 1000 to false))
+        val regions = VoiceActivityDetector(sampleRate, maxSilenceMs = 1000).detect(samples)
+
+        assertEquals(2, regions.size)
+        // Padded by 200 ms on each side, within one 30 ms frame
+        assertTrue(abs(ms(regions[0].start) - 800) <= 30, "first region starts at ${ms(regions[0].start)} ms")
+        assertTrue(abs(ms(regions[0].end) - 2700) <= 30, "first region ends at ${ms(regions[0].end)} ms")
+        assertTrue(abs(ms(regions[1].start) - 4300) <= 30, "second region starts at ${ms(regions[1].start)} ms")
+        assertTrue(abs(ms(regions[1].end) - 5700) <= 30, "second region ends at ${ms(regions[1].end)} ms")
+    }
+
+    @Test
+    fun keepsShortPausesInsideOneRegion() {
+        val samples = wav(clip(500 to false, 800 to true, 400 to false, 800 to true, 500 to false))
+        val regions = VoiceActivityDetector(sampleRate, maxSilenceMs = 1000).detect(samples)
+
+        assertEquals(1, regions.size)
+    }
+
+    @Test
+    fun silenceAndClicksContainNoSpeech() {
+        val vad = VoiceActivityDetector(sampleRate)
+
+        assertTrue(vad.detect(wav(clip(3000 to false))).isEmpty())
+        assertTrue(vad.detect(ShortArray(sampleRate)).isEmpty())
+        assertTrue(vad.detect(wav(clip(1000 to false, 60 to true, 1000 to false))).isEmpty())
+        assertNull(vad.trailingSilenceMs(ShortArray(sampleRate)))
+    }
+
+    @Test
+    fun trimmingAVoiceNoteKeepsOnlyItsSpeech() {
+        val samples = wav(
+            clip(2000 to false, 2000 to true, 3000 to false, 1500 to true, 2500 to false, 1000 to true, 3000 to false)
+        )
+        val vad = VoiceActivityDetector(sampleRate, maxSilenceMs = 1000)
+        val speech = vad.keepSpeech(samples, vad.detect(samples))
+
+        // 4.5 s of speech, padding and two 300 ms gaps out of 15 s
+        assertTrue(ms(speech.size) in 4500..7000, "kept ${ms(speech.size)} ms")
+        assertTrue(speech.size < samples.size / 2)
+    }
+
+    @Test
+    fun reportsTrailingSilenceForEndpointing() {
+        val vad = VoiceActivityDetector(sampleRate)
+        val trailing = assertNotNull(vad.trailingSilenceMs(wav(clip(500 to false, 1000 to true, 1200 to false))))
+
+        assertTrue(trailing in 1100..1200, "trailing silence $trailing ms")
+    }
+
+    @Test
+    fun decodesStereoWavAndRejectsOtherFormats() {
+        val left = shortArrayOf(1000, -2000, 3000, 400)
+        val right = shortArrayOf(3000, -4000, 1000, -400)
+        val stereo = ShortArray(left.size * 2) { if (it % 2 == 0) left[it / 2] else right[it / 2] }
+        // A mono header patched to two channels, so the data reads as interleaved frames
+        val bytes = WavCodec.encodePcm16(stereo, sampleRate)
+        bytes[22] = 2
+        bytes[32] = 4
+
+        val decoded = assertNotNull(WavCodec.decode(bytes))
+        assertContentEquals(shortArrayOf(2000, -3000, 2000, 0), decoded.samples)
+        assertNull(WavCodec.decode("ID3 not a wav file".encodeToByteArray()))
+    }
+}
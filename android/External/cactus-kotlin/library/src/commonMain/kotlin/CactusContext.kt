@@ -1,10 +1,16 @@
 package com.cactus
 
+// Floats reserved per file before the model has reported its embedding dimension
+internal const val MAX_MEDIA_EMBEDDING_DIM = 4096
+
 expect object CactusContext {
     fun getBundleId(): String
     fun sha1(input: ByteArray): ByteArray
     suspend fun initContext(modelPath: String, contextSize: UInt): Long?
     fun freeContext(handle: Long)
+
+    /** Clears the conversation state of the context, keeping the model loaded. */
+    fun resetContext(handle: Long)
     suspend fun completion(
         handle: Long,
         messages: List<ChatMessage>,
@@ -19,6 +25,21 @@ expect object CactusContext {
         quantization: Int = 8
     ): CactusEmbeddingResult
 
+    /**
+     * Embeds each image with the vision encoder of the model, results are in the order of
+     * [imagePaths] and a file that fails does not fail the others.
+     */
+    suspend fun generateImageEmbeddings(
+        handle: Long,
+        imagePaths: List<String>
+    ): List<CactusEmbeddingResult>
+
+    /** Embeds each audio file with the audio encoder of the model, see [generateImageEmbeddings]. */
+    suspend fun generateAudioEmbeddings(
+        handle: Long,
+        audioPaths: List<String>
+    ): List<CactusEmbeddingResult>
+
     suspend fun transcribe(
         handle: Long,
         audioFilePath: String,
@@ -6,20 +6,46 @@ import com.cactus.services.Supabase
 import com.cactus.services.Telemetry
 import com.cactus.services.ToolFilterConfig
 import com.cactus.services.ToolFilterService
+import com.cactus.services.ToolFilterStrategy
 import utils.CactusLogger
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
+import kotlin.jvm.JvmOverloads
 import kotlin.time.TimeSource
 
+/**
+ * @param maxConcurrentStreams how many completions may decode on the loaded model at the same
+ * time, at most [MAX_CONCURRENT_STREAMS]. The engine runs one sequence per context and has no
+ * batched decode, so each extra stream is another native context of the same model, created on
+ * demand when all existing ones are busy. Memory grows with every stream, see
+ * [releaseExtraStreams]. Defaults to 1 (one at a time).
+ */
+@OptIn(ExperimentalAtomicApi::class)
 class CactusLM(
     var enableToolFiltering: Boolean = true,
-    var toolFilterConfig: ToolFilterConfig? = null
+    var toolFilterConfig: ToolFilterConfig? = null,
+    maxConcurrentStreams: Int = 1
 ) {
-    private var _handle: Long? = null
-    private var _lastInitializedModel: String = "qwen3-0.6"
+    companion object {
+        const val MAX_CONCURRENT_STREAMS = 4
+    }
+
+    var maxConcurrentStreams: Int = maxConcurrentStreams.coerceIn(1, MAX_CONCURRENT_STREAMS)
+        set(value) {
+            field = value.coerceIn(1, MAX_CONCURRENT_STREAMS)
+        }
+
+    private val context = NativeContextHolder(defaultModel = "qwen3-0.6")
+    private val _lastInitializedModel: String
+        get() = context.model
+    // Lets the tool filter tell whose embeddings it has cached
+    internal val loadedModel: String
+        get() = _lastInitializedModel
     private val openRouterModule = OpenRouterModule()
     private val timeSource = TimeSource.Monotonic
 
-    private val _models = mutableListOf<CactusModel>()
-    private var _toolFilterService: ToolFilterService? = null
+    private val _models = AtomicReference<List<CactusModel>>(emptyList())
+    private val _toolFilterService = AtomicReference<ToolFilterService?>(null)
 
     suspend fun downloadModel(
         model: String = _lastInitializedModel
@@ -42,28 +68,32 @@ class CactusLM(
     }
 
     suspend fun initializeModel(params: CactusInitParams) {
+        context.load { initializeModelLocked(params) }
+    }
+
+    private suspend fun initializeModelLocked(params: CactusInitParams) {
         val modelFolder = params.model ?: _lastInitializedModel
         val modelPath = getModelPath(modelFolder)
 
-        _handle = CactusContext.initContext(modelPath, (params.contextSize ?: 2048).toUInt())
-        _lastInitializedModel = modelFolder
+        val contextSize = params.contextSize ?: 2048
+        val handle = CactusContext.initContext(modelPath, contextSize.toUInt())
+        context.publish(modelFolder, handle, contextSize)
         
         // If initialization failed and model is not downloaded, try to download first
-        if (_handle == null && !modelExists(modelFolder)) {
+        if (handle == null && !modelExists(modelFolder)) {
             CactusLogger.i("Failed to initialize model context with model at $modelPath, trying to download the model first.", tag = "CactusLM")
             downloadModel(model = modelFolder)
-            return initializeModel(params)
+            return initializeModelLocked(params)
         }
         
         if (Telemetry.isInitialized) {
-            val message = if (_handle != null) null else "Failed to initialize model at path: $modelPath"
-            Telemetry.instance?.logInit(_handle != null, modelFolder, message)
+            val message = if (handle != null) null else "Failed to initialize model at path: $modelPath"
+            Telemetry.instance?.logInit(handle != null, modelFolder, message)
         }
         
-        if (_handle == null) {
+        if (handle == null) {
             throw Exception("Failed to initialize model context with model at $modelPath")
         }
-        _lastInitializedModel = modelFolder
     }
 
     suspend fun generateCompletion(
@@ -76,7 +106,7 @@ class CactusLM(
 
         // Filter tools if enabled
         val filteredParams = if (enableToolFiltering && params.tools.isNotEmpty()) {
-            val filteredTools = filterTools(messages, params.tools)
+            val filteredTools = traced("sdk.filter_tools") { filterTools(messages, params.tools) }
             params.copy(tools = filteredTools)
         } else {
             params
@@ -84,8 +114,9 @@ class CactusLM(
 
         val localCompletion = suspend local@{
             val model = filteredParams.model ?: _lastInitializedModel
-            val currentHandle = getValidatedHandle(model)
-            val quantization = Supabase.getModel(model)?.quantization ?: 8
+            val quantization = traced("sdk.get_model") { Supabase.getModel(model)?.quantization ?: 8 }
+            val toolsJson = traced("sdk.tools_json") { filteredParams.tools.toToolsJson() }
+            val currentHandle = traced("sdk.open_context") { getCompletionStream(model) }
 
             if (currentHandle == null) {
                 if (Telemetry.isInitialized) {
@@ -99,14 +130,14 @@ class CactusLM(
             }
 
             try {
-                val toolsJson = filteredParams.tools.toToolsJson()
-                if(filteredParams.tools.isNotEmpty()) {
-                    unload()
-                    getValidatedHandle(model)?.let {
-                        CactusContext.completion(it, messages, filteredParams, toolsJson, onToken, quantization)
+                context.use(currentHandle) { handle ->
+                    if (filteredParams.tools.isNotEmpty()) {
+                        // Tool calls start from a cleared context, the model and its size stay loaded
+                        traced("sdk.reset_for_tools") { CactusContext.resetContext(handle) }
+                    }
+                    traced("sdk.completion") {
+                        CactusContext.completion(handle, messages, filteredParams, toolsJson, onToken, quantization)
                     }
-                } else {
-                    CactusContext.completion(currentHandle, messages, filteredParams, toolsJson, onToken, quantization)
                 }
             } catch (e: Exception) {
                 if (Telemetry.isInitialized) {
@@ -152,23 +183,47 @@ class CactusLM(
         return result
     }
 
-    private suspend fun filterTools(messages: List<ChatMessage>, tools: List<CactusTool>): List<CactusTool> {
-        if (_toolFilterService == null) {
-            _toolFilterService = ToolFilterService(
+    /**
+     * Indexes [tools] for tool filtering before they are first used, e.g. when an app registers
+     * its tools. With [ToolFilterStrategy.SEMANTIC] this embeds each tool once with the loaded
+     * model, so completions only embed the user's query.
+     */
+    suspend fun prepareTools(tools: List<CactusTool>) {
+        if (enableToolFiltering && tools.isNotEmpty()) {
+            toolFilterService().prepare(tools)
+        }
+    }
+
+    /**
+     * Drops the tool filter's keyword and embedding indexes, e.g. under memory pressure. The next
+     * request that filters tools indexes its catalog again.
+     */
+    fun clearToolIndexes() {
+        _toolFilterService.store(null)
+    }
+
+    private fun toolFilterService(): ToolFilterService {
+        return _toolFilterService.load() ?: run {
+            val created = ToolFilterService(
                 config = toolFilterConfig ?: ToolFilterConfig.simple(),
                 lm = this
             )
+            if (_toolFilterService.compareAndSet(null, created)) created else _toolFilterService.load()!!
         }
+    }
+
+    private suspend fun filterTools(messages: List<ChatMessage>, tools: List<CactusTool>): List<CactusTool> {
+        val toolFilterService = toolFilterService()
         
         val userQuery = messages.lastOrNull { it.role == "user" }?.content 
             ?: messages.lastOrNull()?.content 
             ?: ""
         
-        val filteredTools = _toolFilterService!!.filterTools(userQuery, tools)
+        val filteredTools = toolFilterService.filterTools(userQuery, tools)
 
         if (filteredTools.size != tools.size) {
-            CactusLogger.d("Tool filtering: ${tools.size} -> ${filteredTools.size} tools", tag = "CactusLM")
-            CactusLogger.d("Filtered tools: ${filteredTools.joinToString(", ") { it.function.name }}", tag = "CactusLM")
+            CactusLogger.d(tag = "CactusLM") { "Tool filtering: ${tools.size} -> ${filteredTools.size} tools" }
+            CactusLogger.d(tag = "CactusLM") { "Filtered tools: ${filteredTools.joinToString(", ") { it.function.name }}" }
         }
 
         return filteredTools
@@ -179,22 +234,26 @@ class CactusLM(
         modelName: String? = null
     ): CactusEmbeddingResult? {
         val model = modelName ?: _lastInitializedModel
-        val currentHandle = getValidatedHandle(model)
         val quantization = Supabase.getModel(model)?.quantization ?: 8
+        val currentHandle = getValidatedHandle(model)
 
         if (currentHandle == null) {
             CactusLogger.w("Context not initialized", tag = "CactusLM")
             return null
         }
 
-        try {
-            CactusLogger.d("Generating embedding for text: ${if (text.length > 50) text.substring(0, 50) + "..." else text}", tag = "CactusLM")
+        CactusLogger.d(tag = "CactusLM") { "Generating embedding for ${text.length} characters of text" }
 
-            val result = CactusContext.generateEmbedding(currentHandle, text, quantization)
+        try {
+            val result = context.use(currentHandle) { handle ->
+                CactusContext.generateEmbedding(handle, text, quantization)
+            }
 
-            CactusLogger.i("Embedding generation ${if (result.success) "completed successfully" else "failed"}: " +
+            CactusLogger.d(tag = "CactusLM") {
+                "Embedding generation ${if (result.success) "completed successfully" else "failed"}: " +
                     "dimension=${result.dimension}, " +
-                    "embeddings_length=${result.embeddings.size}", tag = "CactusLM")
+                    "embeddings_length=${result.embeddings.size}"
+            }
 
             if (Telemetry.isInitialized) {
                 Telemetry.instance?.logEmbedding(result, _lastInitializedModel)
@@ -215,33 +274,119 @@ class CactusLM(
         }
     }
 
-    fun unload() {
-        val currentHandle = _handle
-        if (currentHandle != null) {
-            CactusContext.freeContext(currentHandle)
-            _handle = null
+    suspend fun generateImageEmbedding(
+        imagePath: String,
+        modelName: String? = null
+    ): CactusEmbeddingResult? = generateImageEmbeddings(listOf(imagePath), modelName)?.firstOrNull()
+
+    /**
+     * Embeds a batch of images with the vision encoder of the model in one native call. Results
+     * are in the order of [imagePaths]; a file that cannot be embedded fails only its own result.
+     */
+    suspend fun generateImageEmbeddings(
+        imagePaths: List<String>,
+        modelName: String? = null
+    ): List<CactusEmbeddingResult>? {
+        if (imagePaths.isEmpty()) return emptyList()
+        val model = modelName ?: _lastInitializedModel
+        val currentHandle = getValidatedHandle(model)
+
+        if (currentHandle == null) {
+            CactusLogger.w("Context not initialized", tag = "CactusLM")
+            return null
+        }
+
+        CactusLogger.d(tag = "CactusLM") { "Generating image embeddings for ${imagePaths.size} files" }
+
+        try {
+            val results = context.use(currentHandle) { handle ->
+                CactusContext.generateImageEmbeddings(handle, imagePaths)
+            }
+
+            val failed = results.count { !it.success }
+            CactusLogger.d(tag = "CactusLM") {
+                "Image embedding completed for ${results.size - failed} of ${results.size} files: " +
+                    "dimension=${results.firstOrNull { it.success }?.dimension}"
+            }
+
+            if (Telemetry.isInitialized) {
+                val message = if (failed > 0) "$failed of ${results.size} files failed" else null
+                Telemetry.instance?.logEmbedding(results.firstOrNull { it.success } ?: results.first(), model, message = message)
+            }
+
+            return results
+        } catch (e: Exception) {
+            CactusLogger.e("Exception during image embedding generation: $e", tag = "CactusLM", throwable = e)
+            if (Telemetry.isInitialized) {
+                Telemetry.instance?.logEmbedding(CactusEmbeddingResult(success = false), model, message = e.message)
+            }
+            return imagePaths.map {
+                CactusEmbeddingResult(
+                    success = false,
+                    embeddings = emptyList(),
+                    dimension = 0,
+                    errorMessage = e.message
+                )
+            }
         }
     }
 
-    fun isLoaded(): Boolean = _handle != null
+    /**
+     * Releases the loaded context. Requests already running on it finish first, the native
+     * memory is freed when the last one returns. A later request reloads the model with
+     * [reloadContextSize], or with the size it was loaded with when that is null.
+     */
+    @JvmOverloads
+    fun unload(reloadContextSize: Int? = null) {
+        context.unload(reloadContextSize)
+    }
+
+    fun isLoaded(): Boolean = context.isLoaded
+
+    /**
+     * Frees the extra decode streams and keeps the primary context loaded. Completions running on
+     * them finish first. Lower [maxConcurrentStreams] as well to keep them from being reopened.
+     */
+    fun releaseExtraStreams() {
+        context.releaseExtraStreams()
+    }
 
     suspend fun getModels(): List<CactusModel> {
-        if (_models.isEmpty()) {
-            _models.addAll(Supabase.fetchModels())
+        val snapshot = _models.load()
+        val models = snapshot.ifEmpty {
+            val fetched = Supabase.fetchModels()
+            if (_models.compareAndSet(snapshot, fetched)) fetched else _models.load()
         }
-        for (model in _models) {
+        for (model in models) {
             model.isDownloaded = modelExists(model.slug)
         }
-        return _models
+        return models
     }
 
-    private suspend fun getValidatedHandle(model: String): Long? {
-        if (_handle != null && (model == _lastInitializedModel)) {
-            return _handle
+    // Like getValidatedHandle, but spreads concurrent completions over up to maxConcurrentStreams contexts
+    private suspend fun getCompletionStream(model: String): NativeHandle? {
+        if (!context.isLoaded || context.model != model) {
+            return getValidatedHandle(model)
         }
+        return context.acquireStream(model, maxConcurrentStreams) { contextSize ->
+            CactusLogger.d(tag = "CactusLM") { "All decode streams busy, opening another context for $model" }
+            CactusContext.initContext(getModelPath(model), (contextSize ?: 2048).toUInt())
+        } ?: getValidatedHandle(model)
+    }
 
-        initializeModel(CactusInitParams(model = model))
-        return _handle
+    // Returns an acquired handle, callers must pass it to context.use so it is released
+    private suspend fun getValidatedHandle(model: String): NativeHandle? {
+        context.acquire(model)?.let { return it }
+
+        // Checked again under the load lock, so callers racing on an unloaded model reload it once
+        return context.load {
+            context.acquire(model) ?: run {
+                val unloaded = context.current
+                val contextSize = if (unloaded.model == model) unloaded.contextSize else null
+                initializeModelLocked(CactusInitParams(model = model, contextSize = contextSize))
+                context.acquire(model)
+            }
+        }
     }
 }
 
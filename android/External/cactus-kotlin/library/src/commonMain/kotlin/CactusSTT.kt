@@ -1,17 +1,34 @@
 package com.cactus
 
+import com.cactus.audio.AudioChunk
+import com.cactus.audio.LongAudioChunker
+import com.cactus.audio.SilenceTrimmer
+import com.cactus.audio.TranscriptStitcher
+import com.cactus.audio.WavCodec
+import com.cactus.audio.WavReader
+import com.cactus.audio.temporaryAudioDirectory
 import com.cactus.services.Supabase
 import com.cactus.services.Telemetry
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import okio.use
 import utils.CactusLogger
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
+import kotlin.random.Random
 import kotlin.time.TimeSource
 
+@OptIn(ExperimentalAtomicApi::class)
 class CactusSTT() {
-    private var _handle: Long? = null
-    private var _lastInitializedModel: String = "whisper-tiny"
+    private val context = NativeContextHolder(defaultModel = "whisper-tiny")
+    private val _lastInitializedModel: String
+        get() = context.model
     private val timeSource = TimeSource.Monotonic
     private val wisprFlow = WisprFlow()
 
-    private var voiceModels = listOf<VoiceModel>()
+    private val voiceModels = AtomicReference<List<VoiceModel>>(emptyList())
 
     suspend fun downloadModel(
         model: String = _lastInitializedModel
@@ -34,33 +51,42 @@ class CactusSTT() {
     }
 
     suspend fun initializeModel(params: CactusInitParams) {
+        context.load { initializeModelLocked(params) }
+    }
+
+    private suspend fun initializeModelLocked(params: CactusInitParams) {
         val modelFolder = params.model ?: _lastInitializedModel
         val modelPath = getModelPath(modelFolder)
 
-        _handle = CactusContext.initContext(modelPath, (params.contextSize ?: 2048).toUInt())
-        _lastInitializedModel = modelFolder
+        val contextSize = params.contextSize ?: 2048
+        val handle = CactusContext.initContext(modelPath, contextSize.toUInt())
+        context.publish(modelFolder, handle, contextSize)
 
         // If initialization failed and model is not downloaded, try to download first
-        if (_handle == null && !modelExists(modelFolder)) {
+        if (handle == null && !modelExists(modelFolder)) {
             CactusLogger.i("Failed to initialize model context with model at $modelPath, trying to download the model first.", tag = "CactusLM")
             downloadModel(model = modelFolder)
-            return initializeModel(params)
+            return initializeModelLocked(params)
         }
 
         if (Telemetry.isInitialized) {
-            val message = if (_handle != null) null else "Failed to initialize model at path: $modelPath"
-            Telemetry.instance?.logInit(_handle != null, modelFolder, message)
+            val message = if (handle != null) null else "Failed to initialize model at path: $modelPath"
+            Telemetry.instance?.logInit(handle != null, modelFolder, message)
         }
 
-        if (_handle == null) {
+        if (handle == null) {
             throw Exception("Failed to initialize model context with model at $modelPath")
         }
-        _lastInitializedModel = modelFolder
     }
 
+    /**
+     * Transcribes the audio at [filePath]. Without a [prompt], one is built for
+     * [CactusTranscriptionParams.language]. With [CactusTranscriptionParams.MAX_TOKENS_FROM_AUDIO]
+     * as the max tokens, the token budget follows the length of the audio.
+     */
     suspend fun transcribe(
         filePath: String,
-        prompt: String = "<|startoftranscript|><|en|><|transcribe|><|notimestamps|>",
+        prompt: String? = null,
         params: CactusTranscriptionParams = CactusTranscriptionParams(),
         onToken: CactusStreamingCallback? = null,
         mode: TranscriptionMode = TranscriptionMode.LOCAL,
@@ -71,35 +97,52 @@ class CactusSTT() {
 
         val localTranscribe = suspend local@{
             val model = params.model ?: _lastInitializedModel
-            val currentHandle = getValidatedHandle(model)
             val quantization = Supabase.getModel(model)?.quantization ?: 8
+            val speech = if (params.trimSilence) SilenceTrimmer.trim(filePath, params.maxSilenceDuration) else null
+            if (speech?.isSilent == true) {
+                CactusLogger.d(tag = "CactusSTT") { "No speech detected in $filePath, skipping transcription" }
+                return@local CactusTranscriptionResult(success = true, text = "", totalTimeMs = 0.0)
+            }
 
-            if (currentHandle == null) {
-                if (Telemetry.isInitialized) {
-                    Telemetry.instance?.logTranscription(
-                        CactusTranscriptionResult(success = false),
-                        model,
-                        message = "Context not initialized",
-                        mode = mode
-                    )
-                }
-                return@local null
+            // Budget from the audio actually sent to the model, after silence was cut out
+            val localParams = when {
+                params.maxTokens > 0 -> params
+                speech != null -> params.copy(maxTokens = TranscriptionBudget.maxTokensFor(speech.speechMs))
+                else -> params.copy(maxTokens = TranscriptionBudget.maxTokensFor(filePath))
             }
 
             try {
-                CactusContext.transcribe(
-                    currentHandle,
-                    filePath,
-                    prompt,
-                    params,
-                    onToken,
-                    quantization
-                )
+                val currentHandle = getValidatedHandle(model)
+
+                if (currentHandle == null) {
+                    if (Telemetry.isInitialized) {
+                        Telemetry.instance?.logTranscription(
+                            CactusTranscriptionResult(success = false),
+                            model,
+                            message = "Context not initialized",
+                            mode = mode
+                        )
+                    }
+                    return@local null
+                }
+
+                context.use(currentHandle) { handle ->
+                    CactusContext.transcribe(
+                        handle,
+                        speech?.path ?: filePath,
+                        prompt ?: TranscriptionPrompt.build(params.language),
+                        localParams,
+                        onToken,
+                        quantization
+                    )
+                }
             } catch (e: Exception) {
                 if (Telemetry.isInitialized) {
                     Telemetry.instance?.logCompletion(CactusCompletionResult(success = false), _lastInitializedModel, message = e.message)
                 }
                 throw e
+            } finally {
+                speech?.delete()
             }
         }
 
@@ -178,30 +221,203 @@ class CactusSTT() {
         return result
     }
 
+    /**
+     * Transcribes a recording of any length in bounded memory. The WAV is streamed from disk and
+     * cut at pauses into chunks of at most [chunkMs]. The next chunk is read and cut while the
+     * current one is being transcribed, and the chunk texts are stitched, with overlap removed
+     * where no pause was found. [onProgress] is called after every chunk. Input that is not a
+     * PCM WAV is transcribed in one pass.
+     */
+    suspend fun transcribeLong(
+        filePath: String,
+        prompt: String? = null,
+        params: CactusTranscriptionParams = CactusTranscriptionParams(),
+        chunkMs: Long = 28_000L,
+        overlapMs: Long = 1_000L,
+        onProgress: ((CactusTranscriptionProgress) -> Unit)? = null
+    ): CactusTranscriptionResult? {
+        val reader = WavReader.open(filePath) ?: run {
+            CactusLogger.w("$filePath is not a PCM WAV, transcribing it in one pass", tag = "CactusSTT")
+            return transcribe(filePath, prompt, params)
+        }
+        return reader.use { transcribeLong(it, prompt, params, chunkMs, overlapMs, onProgress) }
+    }
+
+    /**
+     * Like the path overload, for audio that is read from [source] while it is transcribed, so a
+     * decoder only has to produce the next window instead of writing the whole recording out
+     * first. [source] is read on a background thread; the caller closes it afterwards.
+     */
+    suspend fun transcribeLong(
+        source: CactusPcmSource,
+        prompt: String? = null,
+        params: CactusTranscriptionParams = CactusTranscriptionParams(),
+        chunkMs: Long = 28_000L,
+        overlapMs: Long = 1_000L,
+        onProgress: ((CactusTranscriptionProgress) -> Unit)? = null
+    ): CactusTranscriptionResult = coroutineScope {
+        val startTime = timeSource.markNow()
+        val sampleRate = source.sampleRate
+        val totalMs = source.durationMs
+
+        // One chunk waits while another is transcribed, which bounds memory to a few chunks
+        val chunks = Channel<AudioChunk>(capacity = 1)
+        launch(Dispatchers.Default) {
+            val chunker = LongAudioChunker(sampleRate, chunkMs, overlapMs)
+            val block = ShortArray(sampleRate)
+            while (true) {
+                val read = source.read(block)
+                if (read == 0) break
+                chunker.push(block, read).forEach { chunks.send(it) }
+            }
+            chunker.finish()?.let { chunks.send(it) }
+            chunks.close()
+        }
+
+        val chunkPath = "${temporaryAudioDirectory()}/cactus-chunk-${Random.nextLong().toULong()}.wav"
+        var transcript = ""
+        var chunkCount = 0
+        var failedChunks = 0
+        try {
+            for (chunk in chunks) {
+                chunkCount++
+                WavCodec.write(chunkPath, chunk.samples, sampleRate)
+                val result = transcribe(chunkPath, prompt, params)
+                val text = if (result?.success == true) result.text.orEmpty() else {
+                    failedChunks++
+                    CactusLogger.w("Chunk ${chunk.index} failed: ${result?.errorMessage ?: result?.text}", tag = "CactusSTT")
+                    ""
+                }
+                transcript = if (chunk.overlapsPrevious) {
+                    TranscriptStitcher.stitch(transcript, text)
+                } else {
+                    listOf(transcript, text.trim()).filter { it.isNotEmpty() }.joinToString(" ")
+                }
+                onProgress?.invoke(
+                    CactusTranscriptionProgress(chunk.index, chunk.endMs(sampleRate), totalMs, text, transcript)
+                )
+            }
+        } finally {
+            WavCodec.delete(chunkPath)
+        }
+
+        CactusTranscriptionResult(
+            success = failedChunks < chunkCount || chunkCount == 0,
+            text = transcript,
+            totalTimeMs = startTime.elapsedNow().inWholeMilliseconds.toDouble(),
+            errorMessage = if (failedChunks > 0) "$failedChunks of $chunkCount chunks failed to transcribe" else null
+        )
+    }
+
+    /**
+     * Starts transcribing live audio pushed as 16-bit mono PCM, see [CactusTranscriptionStream].
+     * Whisper models expect [SpeechRecognitionParams.sampleRate] to be 16000. Each decode runs
+     * through [stepRunner] when one is given.
+     */
+    fun startStreaming(
+        params: SpeechRecognitionParams = SpeechRecognitionParams(),
+        prompt: String? = null,
+        stepMs: Long = 1000L,
+        stepRunner: CactusStepRunner? = null,
+        onResult: (CactusStreamingTranscription) -> Unit
+    ): CactusTranscriptionStream {
+        return CactusTranscriptionStream(this, params, prompt, stepMs, stepRunner, onResult)
+    }
+
+    suspend fun generateAudioEmbedding(
+        audioPath: String,
+        modelName: String? = null
+    ): CactusEmbeddingResult? = generateAudioEmbeddings(listOf(audioPath), modelName)?.firstOrNull()
+
+    /**
+     * Embeds a batch of audio files with the audio encoder of the model in one native call. Results
+     * are in the order of [audioPaths]; a file that cannot be embedded fails only its own result.
+     */
+    suspend fun generateAudioEmbeddings(
+        audioPaths: List<String>,
+        modelName: String? = null
+    ): List<CactusEmbeddingResult>? {
+        if (audioPaths.isEmpty()) return emptyList()
+        val model = modelName ?: _lastInitializedModel
+        val currentHandle = getValidatedHandle(model)
+
+        if (currentHandle == null) {
+            CactusLogger.w("Context not initialized", tag = "CactusSTT")
+            return null
+        }
+
+        CactusLogger.d(tag = "CactusSTT") { "Generating audio embeddings for ${audioPaths.size} files" }
+
+        try {
+            val results = context.use(currentHandle) { handle ->
+                CactusContext.generateAudioEmbeddings(handle, audioPaths)
+            }
+
+            val failed = results.count { !it.success }
+            CactusLogger.d(tag = "CactusSTT") {
+                "Audio embedding completed for ${results.size - failed} of ${results.size} files: " +
+                    "dimension=${results.firstOrNull { it.success }?.dimension}"
+            }
+
+            if (Telemetry.isInitialized) {
+                val message = if (failed > 0) "$failed of ${results.size} files failed" else null
+                Telemetry.instance?.logEmbedding(results.firstOrNull { it.success } ?: results.first(), model, message = message)
+            }
+
+            return results
+        } catch (e: Exception) {
+            CactusLogger.e("Exception during audio embedding generation: $e", tag = "CactusSTT", throwable = e)
+            if (Telemetry.isInitialized) {
+                Telemetry.instance?.logEmbedding(CactusEmbeddingResult(success = false), model, message = e.message)
+            }
+            return audioPaths.map {
+                CactusEmbeddingResult(
+                    success = false,
+                    embeddings = emptyList(),
+                    dimension = 0,
+                    errorMessage = e.message
+                )
+            }
+        }
+    }
+
     suspend fun warmUpWispr(apiKey: String) {
         wisprFlow.warmUp(apiKey)
     }
 
-    fun isReady(): Boolean = _handle != null
+    fun isReady(): Boolean = context.isLoaded
+
+    /**
+     * Releases the loaded context once any running transcription has returned.
+     */
+    fun unload() {
+        context.unload()
+    }
 
     suspend fun getVoiceModels(): List<VoiceModel> {
-        return voiceModels.ifEmpty {
+        return voiceModels.load().ifEmpty {
             val newModels = Supabase.fetchVoiceModels()
             newModels.onEach { model ->
                 model.isDownloaded = modelExists(model.slug)
             }
-            voiceModels = newModels
+            voiceModels.store(newModels)
             newModels
         }
     }
 
-    private suspend fun getValidatedHandle(model: String): Long? {
-        if (_handle != null && (model == _lastInitializedModel)) {
-            return _handle
-        }
+    // Returns an acquired handle, callers must pass it to context.use so it is released
+    private suspend fun getValidatedHandle(model: String): NativeHandle? {
+        context.acquire(model)?.let { return it }
 
-        initializeModel(CactusInitParams(model = model))
-        return _handle
+        // Checked again under the load lock, so callers racing on an unloaded model reload it once
+        return context.load {
+            context.acquire(model) ?: run {
+                val unloaded = context.current
+                val contextSize = if (unloaded.model == model) unloaded.contextSize else null
+                initializeModelLocked(CactusInitParams(model = model, contextSize = contextSize))
+                context.acquire(model)
+            }
+        }
     }
 
     suspend fun isModelDownloaded(
@@ -19,11 +19,34 @@ data class CactusCompletionParams(
     val cactusToken: String? = null
 )
 
+/**
+ * @param maxTokens output budget; [MAX_TOKENS_FROM_AUDIO] derives it from the length of the audio
+ * @param trimSilence run voice activity detection on WAV input first and transcribe only the
+ * speech; pauses longer than [maxSilenceDuration] ms are cut out
+ * @param language ISO 639-1 code of the spoken language used to build the default prompt,
+ * "auto" to let the model detect it; null keeps English
+ * @param temperature sampling temperature, null for the engine default (greedy)
+ */
 data class CactusTranscriptionParams(
     val model: String? = null,
-    val maxTokens: Int = 512,
+    val maxTokens: Int = DEFAULT_MAX_TOKENS,
     val stopSequences: List<String> = listOf("<|im_end|>", "<end_of_turn>"),
-)
+    val trimSilence: Boolean = false,
+    val maxSilenceDuration: Long = 1000L,
+    val language: String? = null,
+    val temperature: Double? = null,
+) {
+    internal val tokenBudget: Int
+        get() = if (maxTokens > 0) maxTokens else DEFAULT_MAX_TOKENS
+
+    companion object {
+        /** Default [maxTokens], also used when the audio length cannot be read. */
+        const val DEFAULT_MAX_TOKENS = 512
+
+        /** [maxTokens] that sizes the budget to the length of the audio. */
+        const val MAX_TOKENS_FROM_AUDIO = 0
+    }
+}
 
 data class CactusTranscriptionResult(
     val success: Boolean,
@@ -34,6 +57,44 @@ data class CactusTranscriptionResult(
     val errorMessage: String? = null
 )
 
+/**
+ * Reported by [CactusSTT.transcribeLong] after each chunk. [transcript] is the stitched text of
+ * every chunk so far.
+ */
+data class CactusTranscriptionProgress(
+    val chunkIndex: Int,
+    val processedMs: Long,
+    val totalMs: Long,
+    val chunkText: String,
+    val transcript: String
+)
+
+/**
+ * 16-bit mono PCM handed to [CactusSTT.transcribeLong] block by block, for audio that is decoded
+ * while it is transcribed instead of being read from a WAV.
+ */
+interface CactusPcmSource {
+    val sampleRate: Int
+
+    /** Length of the audio, 0 when it is not known up front. */
+    val durationMs: Long
+
+    /** Fills [out] from the start and returns how many samples were read, 0 at the end. */
+    fun read(out: ShortArray): Int
+}
+
+/**
+ * A hypothesis from [CactusTranscriptionStream]. [text] covers the current segment only, while
+ * [transcript] joins every final segment so far with it. Partials for a segment are replaced by
+ * later ones; a final is not revised.
+ */
+data class CactusStreamingTranscription(
+    val text: String,
+    val transcript: String,
+    val isFinal: Boolean,
+    val segmentIndex: Int
+)
+
 data class CactusCompletionResult(
     val success: Boolean,
     val response: String? = null,
@@ -93,7 +154,8 @@ data class SpeechRecognitionParams(
     val maxSilenceDuration: Long = 1000L,
     val maxDuration: Long = 30000L,
     val sampleRate: Int = 16000,
-    val model: String? = null
+    val model: String? = null,
+    val language: String? = null
 )
 
 data class SpeechRecognitionResult(
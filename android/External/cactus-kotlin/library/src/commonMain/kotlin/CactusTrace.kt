@@ -0,0 +1,201 @@
+package com.cactus
+
+import com.cactus.internal.JsonWriter
+import kotlinx.coroutines.currentCoroutineContext
+import kotlin.concurrent.atomics.AtomicArray
+import kotlin.concurrent.atomics.AtomicInt
+import kotlin.concurrent.atomics.AtomicLong
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.jvm.JvmOverloads
+import kotlin.time.TimeSource
+
+/** One timed stage of a traced request, in microseconds since the trace started. */
+data class CactusSpan(
+    val name: String,
+    val layer: String,
+    val startUs: Long,
+    val durationUs: Long,
+    val args: Map<String, String> = emptyMap()
+)
+
+/**
+ * Timeline of a single request across the app, the SDK and native code.
+ *
+ * Put a trace in the coroutine context of a call, e.g. `withContext(trace) { lm.generateCompletion(...) }`,
+ * or `runBlocking(Dispatchers.IO + trace)` from Java. The SDK then records a span for each stage
+ * it runs: tool filtering, model lookup, payload building, the native call with its prefill and
+ * decode phases, and result parsing. Callers add their own spans with [begin] or [record], and
+ * fold stages that repeat per token into one summary span with [accumulate].
+ *
+ * [toChromeTraceJson] exports the spans as Chrome trace-event JSON, which chrome://tracing and
+ * Perfetto open with one lane per layer. Spans may be recorded from any thread. After
+ * [MAX_SPANS], further spans are only counted.
+ */
+@OptIn(ExperimentalAtomicApi::class)
+class CactusTrace(val requestId: String) : AbstractCoroutineContextElement(CactusTrace) {
+    companion object Key : CoroutineContext.Key<CactusTrace> {
+        const val MAX_SPANS = 1024
+        const val LAYER_SDK = "sdk"
+        const val LAYER_NATIVE = "native"
+    }
+
+    private val origin = TimeSource.Monotonic.markNow()
+    // Append-only: a span claims the next slot, so recording never copies earlier spans
+    private val slots = AtomicArray(arrayOfNulls<CactusSpan>(MAX_SPANS))
+    private val claimed = AtomicInt(0)
+    private val dropped = AtomicInt(0)
+    private val aggregates = AtomicReference<Map<String, Aggregate>>(emptyMap())
+
+    private class Aggregate(val layer: String, val startUs: Long) {
+        val count = AtomicInt(0)
+        val totalUs = AtomicLong(0)
+        val endUs = AtomicLong(startUs)
+    }
+
+    /** Recorded spans in the order they were recorded, followed by one span per [accumulate]d name. */
+    val spans: List<CactusSpan>
+        get() {
+            val result = ArrayList<CactusSpan>()
+            for (i in 0 until claimed.load().coerceAtMost(MAX_SPANS)) {
+                // A slot is claimed just before it is written
+                slots.loadAt(i)?.let { result.add(it) }
+            }
+            for ((name, aggregate) in aggregates.load()) {
+                result.add(
+                    CactusSpan(
+                        name,
+                        aggregate.layer,
+                        aggregate.startUs,
+                        aggregate.endUs.load() - aggregate.startUs,
+                        mapOf("count" to aggregate.count.load().toString(), "totalUs" to aggregate.totalUs.load().toString())
+                    )
+                )
+            }
+            return result
+        }
+
+    val droppedSpans: Int
+        get() = dropped.load()
+
+    /** Microseconds since the trace was created. */
+    fun nowUs(): Long = origin.elapsedNow().inWholeMicroseconds
+
+    fun begin(name: String, layer: String): Span = Span(name, layer, nowUs())
+
+    @JvmOverloads
+    fun record(name: String, layer: String, startUs: Long, durationUs: Long, args: Map<String, String> = emptyMap()) {
+        val index = claimed.fetchAndIncrement()
+        if (index >= MAX_SPANS) {
+            dropped.incrementAndFetch()
+            return
+        }
+        slots.storeAt(index, CactusSpan(name, layer, startUs, durationUs.coerceAtLeast(0), args))
+    }
+
+    /**
+     * Adds an occurrence to the summary span [name], which runs from its first occurrence to the
+     * end of its last and carries their count and total duration. Meant for stages that run per
+     * token, which would otherwise fill the trace; summaries do not count towards [MAX_SPANS].
+     */
+    fun accumulate(name: String, layer: String, startUs: Long, durationUs: Long) {
+        val duration = durationUs.coerceAtLeast(0)
+        val aggregate = aggregate(name, layer, startUs)
+        aggregate.count.incrementAndFetch()
+        aggregate.totalUs.addAndFetch(duration)
+        val endUs = startUs + duration
+        while (true) {
+            val current = aggregate.endUs.load()
+            if (endUs <= current || aggregate.endUs.compareAndSet(current, endUs)) break
+        }
+    }
+
+    // Only a handful of names are ever accumulated, so the map is copied when one is added
+    private fun aggregate(name: String, layer: String, startUs: Long): Aggregate {
+        while (true) {
+            val current = aggregates.load()
+            current[name]?.let { return it }
+            val created = Aggregate(layer, startUs)
+            if (aggregates.compareAndSet(current, current + (name to created))) return created
+        }
+    }
+
+    inner class Span internal constructor(
+        private val name: String,
+        private val layer: String,
+        private val startUs: Long
+    ) {
+        @JvmOverloads
+        fun end(args: Map<String, String> = emptyMap()) {
+            record(name, layer, startUs, nowUs() - startUs, args)
+        }
+    }
+
+    /** The spans as a Chrome trace-event document, ordered by start time. */
+    fun toChromeTraceJson(): String {
+        val ordered = spans.sortedBy { it.startUs }
+        val lanes = ordered.map { it.layer }.distinct()
+        val writer = JsonWriter(256 + ordered.size * 128)
+        writer.beginObject().name("traceEvents").beginArray()
+        lanes.forEachIndexed { index, layer ->
+            writer.beginObject()
+                .name("name").value("thread_name")
+                .name("ph").value("M")
+                .name("pid").value(1)
+                .name("tid").value(index + 1)
+                .name("args").beginObject().name("name").value(layer).endObject()
+                .endObject()
+        }
+        for (span in ordered) {
+            writer.beginObject()
+                .name("name").value(span.name)
+                .name("cat").value(span.layer)
+                .name("ph").value("X")
+                .name("ts").value(span.startUs)
+                .name("dur").value(span.durationUs)
+                .name("pid").value(1)
+                .name("tid").value(lanes.indexOf(span.layer) + 1)
+            if (span.args.isNotEmpty()) {
+                writer.name("args").beginObject()
+                for ((key, value) in span.args) writer.name(key).value(value)
+                writer.endObject()
+            }
+            writer.endObject()
+        }
+        writer.endArray()
+            .name("displayTimeUnit").value("ms")
+            .name("otherData").beginObject()
+            .name("requestId").value(requestId)
+            .name("droppedSpans").value(droppedSpans)
+            .endObject()
+            .endObject()
+        return writer.toUtf8String()
+    }
+}
+
+/** Runs [block] as a span of the trace in the current coroutine context, if there is one. */
+internal suspend inline fun <T> traced(name: String, layer: String = CactusTrace.LAYER_SDK, block: () -> T): T {
+    val trace = currentCoroutineContext()[CactusTrace] ?: return block()
+    val span = trace.begin(name, layer)
+    try {
+        return block()
+    } finally {
+        span.end()
+    }
+}
+
+/**
+ * Records the native call that ran from [startUs] to [endUs] on the native lane, split into
+ * prefill and decode at the time to first token the engine reported in [result].
+ */
+internal fun CactusTrace.recordNativeCompletion(startUs: Long, endUs: Long, resultCode: Int, result: CactusCompletionResult?) {
+    record("native.complete", CactusTrace.LAYER_NATIVE, startUs, endUs - startUs, mapOf("resultCode" to resultCode.toString()))
+    val firstTokenMs = result?.timeToFirstTokenMs ?: return
+    val prefillUs = (firstTokenMs * 1000).toLong().coerceIn(0, endUs - startUs)
+    val prefillArgs = result.prefillTokens?.let { mapOf("tokens" to it.toString()) } ?: emptyMap()
+    val decodeArgs = result.decodeTokens?.let { mapOf("tokens" to it.toString()) } ?: emptyMap()
+    record("native.prefill", CactusTrace.LAYER_NATIVE, startUs, prefillUs, prefillArgs)
+    record("native.decode", CactusTrace.LAYER_NATIVE, startUs + prefillUs, endUs - startUs - prefillUs, decodeArgs)
+}
@@ -0,0 +1,289 @@
+@file:OptIn(ExperimentalAtomicApi::class)
+
+package com.cactus
+
+import com.cactus.audio.PcmBuffer
+import com.cactus.audio.VoiceActivityDetector
+import com.cactus.audio.WavCodec
+import com.cactus.audio.temporaryAudioDirectory
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
+import utils.CactusLogger
+import kotlin.concurrent.atomics.AtomicBoolean
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
+import kotlin.random.Random
+
+/**
+ * Decides where the decodes of a [CactusTranscriptionStream] run, e.g. on an app's own inference
+ * queue so live transcription takes turns with its other model work. [submit] must not block: the
+ * step is run or rejected later by whoever took it, and the stream waits for that.
+ */
+fun interface CactusStepRunner {
+    fun submit(step: CactusTranscriptionStep)
+}
+
+/**
+ * One decode of a [CactusTranscriptionStream], handed to its [CactusStepRunner]. Only the first
+ * call to [run] or [reject] takes effect, and none does once the stream ran the step itself.
+ */
+class CactusTranscriptionStep internal constructor(private val decode: suspend () -> String?) {
+    private val isClaimed = AtomicBoolean(false)
+    private val result = CompletableDeferred<String?>()
+
+    /** Transcribes on the calling thread. */
+    suspend fun run() {
+        if (!isClaimed.compareAndSet(expectedValue = false, newValue = true)) return
+        var text: String? = null
+        try {
+            text = decode()
+        } finally {
+            result.complete(text)
+        }
+    }
+
+    /** Skips the decode, e.g. when the runner's queue is full. The stream keeps its last partial. */
+    fun reject() {
+        if (isClaimed.compareAndSet(expectedValue = false, newValue = true)) {
+            result.complete(null)
+        }
+    }
+
+    internal suspend fun await(): String? = result.await()
+}
+
+/**
+ * Incremental transcription of live audio.
+ *
+ * Push 16-bit mono PCM at [SpeechRecognitionParams.sampleRate] as it is captured. A background
+ * worker re-transcribes the current segment whenever [stepMs] of new audio has arrived and reports
+ * it as a partial hypothesis. A segment is closed with a final hypothesis once the speaker pauses
+ * for [SpeechRecognitionParams.maxSilenceDuration], once it reaches
+ * [SpeechRecognitionParams.maxDuration], and when the stream is finished. Once a segment is longer
+ * than [DECODE_WINDOW_MS], it is also closed at its last short pause between words and the rest
+ * carried over, so each step re-decodes a bounded stretch of audio. Silence before anyone speaks
+ * is dropped without running the model. Audio that arrives while a decode is running is folded
+ * into the next one, so slow devices emit fewer partials instead of falling behind.
+ *
+ * Decodes run on the stream's own worker, or through [stepRunner] when one is given. After
+ * [finish] they always run on the worker, so a runner whose queue is held by the caller of finish
+ * cannot stall it.
+ */
+class CactusTranscriptionStream internal constructor(
+    private val stt: CactusSTT,
+    private val params: SpeechRecognitionParams,
+    private val prompt: String?,
+    stepMs: Long,
+    private val stepRunner: CactusStepRunner?,
+    private val onResult: (CactusStreamingTranscription) -> Unit
+) {
+    companion object {
+        const val DECODE_WINDOW_MS = 8_000L
+    }
+
+    private val stepSamples = (params.sampleRate * stepMs / 1000).toInt().coerceAtLeast(1)
+    private val maxSegmentSamples = (params.sampleRate * params.maxDuration / 1000).toInt().coerceAtLeast(stepSamples)
+    private val windowSamples = (params.sampleRate * DECODE_WINDOW_MS / 1000).toInt().coerceAtMost(maxSegmentSamples)
+    private val vad = VoiceActivityDetector(params.sampleRate, params.maxSilenceDuration)
+    // Short pauses are enough to close a long segment at, so regions are kept tight
+    private val pauseVad = VoiceActivityDetector(params.sampleRate, maxSilenceMs = 150, paddingMs = 60, minSpeechMs = 60)
+    private val onsetSamples = params.sampleRate * 300 / 1000
+    private val wavPath = "${temporaryAudioDirectory()}/cactus-stream-${Random.nextLong().toULong()}.wav"
+
+    private val chunks = Channel<ShortArray>(Channel.UNLIMITED)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // Only touched by the worker
+    private val segment = PcmBuffer(params.sampleRate * 2)
+    private val committed = mutableListOf<String>()
+    private var segmentIndex = 0
+    private var samplesSinceDecode = 0
+    private var lastPartial = ""
+
+    private val isFinishing = AtomicBoolean(false)
+    // The step handed to stepRunner that the worker is waiting for
+    private val pendingStep = AtomicReference<CactusTranscriptionStep?>(null)
+
+    private val worker = scope.async { run() }
+
+    /**
+     * Queues captured samples. The array is copied, so capture buffers can be reused.
+     */
+    fun push(samples: ShortArray, count: Int = samples.size) {
+        if (count > 0) {
+            chunks.trySend(samples.copyOf(count))
+        }
+    }
+
+    /**
+     * Stops accepting audio, transcribes what is left and returns the full transcript.
+     */
+    suspend fun finish(): String {
+        isFinishing.store(true)
+        chunks.close()
+        // The runner may only get to it after this call returns, e.g. when the caller holds its queue
+        pendingStep.load()?.run()
+        return worker.await()
+    }
+
+    fun cancel() {
+        pendingStep.load()?.reject()
+        chunks.cancel()
+        scope.cancel()
+        WavCodec.delete(wavPath)
+    }
+
+    private suspend fun run(): String {
+        try {
+            for (chunk in chunks) {
+                accept(chunk)
+                // Catch up on everything captured while the previous decode ran
+                while (true) {
+                    accept(chunks.tryReceive().getOrNull() ?: break)
+                }
+                if (samplesSinceDecode >= stepSamples) {
+                    step()
+                }
+            }
+            if (vad.trailingSilenceMs(segment.data, 0, segment.size) != null) {
+                commitSegment()
+            }
+            return committed.joinToString(" ")
+        } finally {
+            WavCodec.delete(wavPath)
+        }
+    }
+
+    private suspend fun accept(chunk: ShortArray) {
+        var offset = 0
+        while (offset < chunk.size) {
+            val count = minOf(chunk.size - offset, maxSegmentSamples - segment.size)
+            segment.append(chunk, offset, count)
+            offset += count
+            samplesSinceDecode += count
+            if (segment.size == maxSegmentSamples) {
+                commitSegment()
+            }
+        }
+    }
+
+    private suspend fun step() {
+        val trailingSilenceMs = vad.trailingSilenceMs(segment.data, 0, segment.size)
+        when {
+            trailingSilenceMs == null -> {
+                // Nobody has spoken yet, keep a little audio so the first word is not clipped
+                samplesSinceDecode = 0
+                segment.discard((segment.size - onsetSamples).coerceAtLeast(0))
+            }
+            trailingSilenceMs >= params.maxSilenceDuration -> commitSegment()
+            segment.size >= windowSamples && commitUpToPause() -> Unit
+            else -> decodePartial()
+        }
+    }
+
+    // Closes the segment at its last pause and keeps the audio after it as the next segment. False
+    // when there is no pause to close it at or the decode failed
+    private suspend fun commitUpToPause(): Boolean {
+        val pause = lastPauseMidpoint() ?: return false
+        val text = decode(pause) ?: return false
+        if (text.isNotBlank()) {
+            committed.add(text)
+        }
+        emit(text, isFinal = true)
+        segmentIndex++
+        segment.discard(pause)
+        samplesSinceDecode = 0
+        lastPartial = ""
+        return true
+    }
+
+    // Middle of the last gap between two stretches of speech, null when there is none
+    private fun lastPauseMidpoint(): Int? {
+        var best: Int? = null
+        var previousEnd: Int? = null
+        for (region in pauseVad.detect(segment.data, 0, segment.size)) {
+            if (previousEnd != null && region.start > previousEnd) {
+                best = (previousEnd + region.start) / 2
+            }
+            previousEnd = region.end
+        }
+        return best
+    }
+
+    private suspend fun decodePartial() {
+        samplesSinceDecode = 0
+        val text = decode() ?: return
+        if (text != lastPartial) {
+            lastPartial = text
+            emit(text, isFinal = false)
+        }
+    }
+
+    private suspend fun commitSegment() {
+        val text = decode() ?: lastPartial
+        if (text.isNotBlank()) {
+            committed.add(text)
+        }
+        emit(text, isFinal = true)
+        segmentIndex++
+        segment.clear()
+        samplesSinceDecode = 0
+        lastPartial = ""
+    }
+
+    // Transcribes the first [length] samples of the segment
+    private suspend fun decode(length: Int = segment.size): String? {
+        val samples = segment.copyOfRange(0, length)
+        val step = CactusTranscriptionStep { transcribe(samples) }
+        val runner = stepRunner
+        if (runner == null) {
+            step.run()
+            return step.await()
+        }
+        pendingStep.store(step)
+        try {
+            // Checked after publishing the step, so either finish sees it or this sees finish
+            if (isFinishing.load()) step.run() else runner.submit(step)
+            return step.await()
+        } finally {
+            pendingStep.store(null)
+        }
+    }
+
+    private suspend fun transcribe(samples: ShortArray): String? {
+        if (!scope.isActive) {
+            // Cancelled while the step waited for its runner
+            return null
+        }
+        return try {
+            WavCodec.write(wavPath, samples, params.sampleRate)
+            val result = stt.transcribe(wavPath, prompt, CactusTranscriptionParams(
+                model = params.model,
+                maxTokens = CactusTranscriptionParams.MAX_TOKENS_FROM_AUDIO,
+                language = params.language
+            ))
+            if (result?.success == true) result.text?.trim().orEmpty() else null
+        } catch (e: Exception) {
+            CactusLogger.e("Streaming transcription step failed: ${e.message}", tag = "CactusSTT", throwable = e)
+            null
+        }
+    }
+
+    private fun emit(text: String, isFinal: Boolean) {
+        val transcript = if (isFinal) committed else committed + text
+        onResult(
+            CactusStreamingTranscription(
+                text = text,
+                transcript = transcript.filter { it.isNotBlank() }.joinToString(" "),
+                isFinal = isFinal,
+                segmentIndex = segmentIndex
+            )
+        )
+    }
+}
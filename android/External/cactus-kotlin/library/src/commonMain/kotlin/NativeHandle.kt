@@ -0,0 +1,199 @@
+@file:OptIn(ExperimentalAtomicApi::class)
+
+package com.cactus
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlin.concurrent.atomics.AtomicBoolean
+import kotlin.concurrent.atomics.AtomicInt
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
+
+/**
+ * Reference-counted owner of a native model context.
+ *
+ * The handle holds one reference itself until [close]; every user takes another with [acquire]
+ * and gives it back with [release]. The native context is freed when the last reference goes,
+ * so closing a handle while a completion is running defers the free until it returns.
+ */
+internal class NativeHandle(
+    val pointer: Long,
+    private val free: (Long) -> Unit = CactusContext::freeContext
+) {
+    private val refCount = AtomicInt(1)
+    private val isClosed = AtomicBoolean(false)
+
+    // The native context is not re-entrant, callers take this around every native call
+    val lock = Mutex()
+
+    fun acquire(): Boolean {
+        while (true) {
+            val current = refCount.load()
+            if (current == 0) return false
+            if (refCount.compareAndSet(current, current + 1)) break
+        }
+        if (isClosed.load()) {
+            release()
+            return false
+        }
+        return true
+    }
+
+    fun release() {
+        if (refCount.decrementAndFetch() == 0) {
+            free(pointer)
+        }
+    }
+
+    fun close() {
+        if (isClosed.compareAndSet(expectedValue = false, newValue = true)) {
+            release()
+        }
+    }
+}
+
+/**
+ * Immutable view of which model is current and the contexts serving it. The first handle is the
+ * primary context, any further ones are extra decode streams of the same model.
+ */
+internal data class NativeModelState(
+    val model: String,
+    val handles: List<NativeHandle> = emptyList(),
+    val contextSize: Int? = null
+) {
+    val handle: NativeHandle?
+        get() = handles.firstOrNull()
+}
+
+/**
+ * Holds the model state shared by [CactusLM] and [CactusSTT]. Readers take a lock-free snapshot,
+ * while loads are serialized so two callers never initialize the same model twice.
+ */
+internal class NativeContextHolder(
+    defaultModel: String,
+    private val free: (Long) -> Unit = CactusContext::freeContext
+) {
+    private val state = AtomicReference(NativeModelState(defaultModel))
+    private val loadMutex = Mutex()
+
+    val current: NativeModelState
+        get() = state.load()
+
+    val model: String
+        get() = state.load().model
+
+    val isLoaded: Boolean
+        get() = state.load().handle != null
+
+    suspend fun <T> load(block: suspend () -> T): T = loadMutex.withLock { block() }
+
+    /**
+     * Publishes [pointer] as the context for [model] and closes the previously published ones.
+     */
+    fun publish(model: String, pointer: Long?, contextSize: Int? = null) {
+        val handles = listOfNotNull(pointer?.let { NativeHandle(it, free) })
+        val previous = state.exchange(NativeModelState(model, handles, contextSize))
+        previous.handles.forEach { it.close() }
+    }
+
+    /**
+     * Closes the published contexts. The model stays current, so a later reload opens it with
+     * [reloadContextSize], or with the size it was published with when that is null.
+     */
+    fun unload(reloadContextSize: Int? = null) {
+        while (true) {
+            val current = state.load()
+            if (current.handles.isEmpty() && reloadContextSize == null) return
+            val unloaded = current.copy(handles = emptyList(), contextSize = reloadContextSize ?: current.contextSize)
+            if (state.compareAndSet(current, unloaded)) {
+                current.handles.forEach { it.close() }
+                return
+            }
+        }
+    }
+
+    /**
+     * Closes every context but the primary one, e.g. under memory pressure. Requests running on
+     * them finish first, and [acquireStream] opens them again when the load calls for it.
+     */
+    fun releaseExtraStreams() {
+        while (true) {
+            val current = state.load()
+            if (current.handles.size <= 1) return
+            if (state.compareAndSet(current, current.copy(handles = current.handles.take(1)))) {
+                current.handles.drop(1).forEach { it.close() }
+                return
+            }
+        }
+    }
+
+    /**
+     * Returns an acquired decode stream for [model], preferring one that is idle. When every
+     * stream is busy and fewer than [maxStreams] exist, [spawn] creates another context of the
+     * same model. Otherwise the primary context is returned and the caller queues on its lock.
+     */
+    suspend fun acquireStream(model: String, maxStreams: Int, spawn: suspend (contextSize: Int?) -> Long?): NativeHandle? {
+        if (maxStreams <= 1) return acquire(model)
+
+        acquireIdle(model)?.let { return it }
+
+        val current = state.load()
+        if (current.model == model && current.handles.isNotEmpty() && current.handles.size < maxStreams) {
+            load {
+                val latest = state.load()
+                if (latest.model == model && latest.handles.isNotEmpty() && latest.handles.size < maxStreams) {
+                    spawn(latest.contextSize)?.let { addStream(model, it) }
+                }
+            }
+            acquireIdle(model)?.let { return it }
+        }
+        return acquire(model)
+    }
+
+    private fun acquireIdle(model: String): NativeHandle? {
+        val current = state.load()
+        if (current.model != model) return null
+        for (handle in current.handles) {
+            if (!handle.lock.isLocked && handle.acquire()) {
+                if (!handle.lock.isLocked) return handle
+                handle.release()
+            }
+        }
+        return null
+    }
+
+    private fun addStream(model: String, pointer: Long) {
+        val handle = NativeHandle(pointer, free)
+        while (true) {
+            val current = state.load()
+            if (current.model != model || current.handles.isEmpty()) {
+                // Unloaded or switched model while spawning, the new context has no owner
+                handle.close()
+                return
+            }
+            if (state.compareAndSet(current, current.copy(handles = current.handles + handle))) return
+        }
+    }
+
+    /**
+     * Returns an acquired handle for [model] if it is the loaded one, null otherwise.
+     */
+    fun acquire(model: String): NativeHandle? {
+        while (true) {
+            val current = state.load()
+            val handle = current.handle
+            if (handle == null || current.model != model) return null
+            if (handle.acquire()) return handle
+            // Lost a race with unload or a reload, look at the newly published state
+            if (state.load() === current) return null
+        }
+    }
+
+    suspend fun <T> use(handle: NativeHandle, block: suspend (Long) -> T): T {
+        try {
+            return handle.lock.withLock { block(handle.pointer) }
+        } finally {
+            handle.release()
+        }
+    }
+}
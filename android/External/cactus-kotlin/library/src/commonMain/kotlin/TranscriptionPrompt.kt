@@ -0,0 +1,54 @@
+package com.cactus
+
+import com.cactus.audio.WavReader
+import okio.use
+import utils.CactusLogger
+
+/**
+ * Builds the Whisper decoder prompt for a transcription language. No language keeps the English
+ * prompt; "auto" leaves the language and task tokens out so the model predicts them itself.
+ */
+internal object TranscriptionPrompt {
+    const val DEFAULT = "<|startoftranscript|><|en|><|transcribe|><|notimestamps|>"
+    private const val AUTO = "auto"
+    private val languageCode = Regex("[a-z]{2,3}")
+
+    fun build(language: String?): String {
+        val code = normalizeLanguage(language) ?: return DEFAULT
+        if (code == AUTO) return "<|startoftranscript|>"
+        return "<|startoftranscript|><|$code|><|transcribe|><|notimestamps|>"
+    }
+
+    // Accepts "en", "EN" or a locale tag such as "pt-BR", Whisper only knows the language part
+    private fun normalizeLanguage(language: String?): String? {
+        val code = language?.trim()?.lowercase()?.substringBefore('-')?.substringBefore('_')
+        if (code.isNullOrEmpty()) return null
+        if (code == AUTO || languageCode.matches(code)) return code
+        CactusLogger.w("Ignoring unknown transcription language '$language'", tag = "CactusSTT")
+        return null
+    }
+}
+
+/**
+ * Token budget for transcribing audio of a known length, so short clips do not reserve a large
+ * output buffer and long ones are not cut off at a fixed limit.
+ */
+internal object TranscriptionBudget {
+    // Fast speech runs at about four words a second; scripts without spaces take more tokens
+    private const val TOKENS_PER_SECOND = 10
+    private const val MIN_TOKENS = 64
+    private const val MAX_TOKENS = 4096
+
+    fun maxTokensFor(durationMs: Long): Int =
+        (MIN_TOKENS + durationMs * TOKENS_PER_SECOND / 1000).coerceAtMost(MAX_TOKENS.toLong()).toInt()
+
+    /** Budget for the WAV at [path], the fixed default when its length cannot be read. */
+    fun maxTokensFor(path: String): Int {
+        val durationMs = try {
+            WavReader.open(path)?.use { it.durationMs }
+        } catch (e: Exception) {
+            null
+        }
+        return durationMs?.let { maxTokensFor(it) } ?: CactusTranscriptionParams.DEFAULT_MAX_TOKENS
+    }
+}
@@ -0,0 +1,131 @@
+package com.cactus.audio
+
+/**
+ * A piece of a long recording small enough for one model window. When [overlapsPrevious] is
+ * set, the chunk repeats the tail of the previous one because no pause was found to cut at.
+ */
+internal class AudioChunk(
+    val index: Int,
+    val samples: ShortArray,
+    val startMs: Long,
+    val overlapsPrevious: Boolean
+) {
+    fun endMs(sampleRate: Int): Long = startMs + samples.size * 1000L / sampleRate
+}
+
+/**
+ * Cuts a stream of 16-bit mono PCM into chunks of at most [chunkMs].
+ *
+ * Each cut is placed in the middle of the last pause within the final [searchMs] of the chunk,
+ * so words are not split. When there is no pause to cut at (continuous speech or music), the
+ * chunk is cut hard at [chunkMs] and the next one starts [overlapMs] earlier; the overlapping
+ * words are removed again by [TranscriptStitcher].
+ */
+internal class LongAudioChunker(
+    private val sampleRate: Int,
+    chunkMs: Long = 28_000,
+    overlapMs: Long = 1_000,
+    searchMs: Long = 6_000
+) {
+    private val chunkSamples = (sampleRate * chunkMs / 1000).toInt()
+    private val overlapSamples = (sampleRate * overlapMs / 1000).toInt().coerceAtMost(chunkSamples / 4)
+    private val searchSamples = (sampleRate * searchMs / 1000).toInt().coerceAtMost(chunkSamples / 2)
+
+    // Short pauses are enough to cut at, so regions are kept tight
+    private val vad = VoiceActivityDetector(sampleRate, maxSilenceMs = 150, paddingMs = 60, minSpeechMs = 60)
+
+    private val buffer = PcmBuffer(chunkSamples + sampleRate)
+    private var bufferStartSample = 0L
+    private var nextIndex = 0
+    private var nextOverlaps = false
+
+    /** Adds samples and returns the chunks they completed. */
+    fun push(samples: ShortArray, count: Int = samples.size): List<AudioChunk> {
+        buffer.append(samples, 0, count)
+        val chunks = mutableListOf<AudioChunk>()
+        while (buffer.size >= chunkSamples) {
+            chunks.add(cut())
+        }
+        return chunks
+    }
+
+    /** Returns whatever is left after the last push, null when nothing is. */
+    fun finish(): AudioChunk? {
+        if (buffer.size == 0) return null
+        val chunk = chunk(buffer.size)
+        bufferStartSample += buffer.size
+        buffer.clear()
+        return chunk
+    }
+
+    private fun cut(): AudioChunk {
+        val pause = lastPauseMidpoint()
+        if (pause != null) {
+            val chunk = chunk(pause)
+            advance(pause)
+            nextOverlaps = false
+            return chunk
+        }
+        val chunk = chunk(chunkSamples)
+        advance(chunkSamples - overlapSamples)
+        nextOverlaps = true
+        return chunk
+    }
+
+    private fun lastPauseMidpoint(): Int? {
+        val regions = vad.detect(buffer.data, 0, chunkSamples)
+        if (regions.isEmpty()) return chunkSamples
+
+        val searchFrom = chunkSamples - searchSamples
+        var best: Int? = null
+        var previousEnd = 0
+        for (region in regions + SpeechRegion(chunkSamples, chunkSamples)) {
+            if (region.start > previousEnd) {
+                val midpoint = (previousEnd + region.start) / 2
+                if (midpoint >= searchFrom) best = midpoint
+            }
+            previousEnd = region.end
+        }
+        return best
+    }
+
+    private fun chunk(length: Int) = AudioChunk(
+        index = nextIndex++,
+        samples = buffer.copyOfRange(0, length),
+        startMs = bufferStartSample * 1000 / sampleRate,
+        overlapsPrevious = nextOverlaps
+    )
+
+    private fun advance(count: Int) {
+        buffer.discard(count)
+        bufferStartSample += count
+    }
+}
+
+/**
+ * Joins chunk transcripts, dropping words at the start of a chunk that repeat the end of the
+ * text before it.
+ */
+internal object TranscriptStitcher {
+    private const val MAX_OVERLAP_WORDS = 16
+
+    fun stitch(previous: String, next: String): String {
+        val nextWords = next.trim().split(Regex("\\s+")).filter { it.isNotEmpty() }
+        if (previous.isBlank() || nextWords.isEmpty()) return (previous.trim() + " " + next.trim()).trim()
+
+        val tail = previous.trim().split(Regex("\\s+")).takeLast(MAX_OVERLAP_WORDS).map(::normalize)
+        val head = nextWords.take(MAX_OVERLAP_WORDS).map(::normalize)
+        var overlap = 0
+        for (length in minOf(tail.size, head.size) downTo 1) {
+            if (tail.takeLast(length) == head.take(length)) {
+                // A single short word ("the", "a") repeating across the cut is too weak a signal
+                if (length > 1 || head[0].length >= 4) overlap = length
+                break
+            }
+        }
+        val kept = nextWords.drop(overlap)
+        return if (kept.isEmpty()) previous.trim() else previous.trim() + " " + kept.joinToString(" ")
+    }
+
+    private fun normalize(word: String): String = word.lowercase().filter { it.isLetterOrDigit() }
+}
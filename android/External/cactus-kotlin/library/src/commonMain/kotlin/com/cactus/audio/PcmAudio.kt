@@ -0,0 +1,213 @@
+package com.cactus.audio
+
+import com.cactus.CactusPcmSource
+import com.cactus.getOkioFileSystem
+import okio.Buffer
+import okio.BufferedSource
+import okio.Closeable
+import okio.Path.Companion.toPath
+import okio.buffer
+import okio.use
+
+/**
+ * Growable buffer of 16-bit mono PCM samples.
+ */
+internal class PcmBuffer(initialCapacity: Int = 16_000) {
+    private var samples = ShortArray(initialCapacity)
+
+    var size: Int = 0
+        private set
+
+    fun append(chunk: ShortArray, offset: Int = 0, count: Int = chunk.size - offset) {
+        if (size + count > samples.size) {
+            samples = samples.copyOf(maxOf(samples.size * 2, size + count))
+        }
+        chunk.copyInto(samples, size, offset, offset + count)
+        size += count
+    }
+
+    /** Backing array, valid up to [size] and only until the next [append]. */
+    val data: ShortArray
+        get() = samples
+
+    operator fun get(index: Int): Short = samples[index]
+
+    fun copyOfRange(from: Int, to: Int): ShortArray = samples.copyOfRange(from, to)
+
+    /** Drops the first [count] samples, keeping the rest in order. */
+    fun discard(count: Int) {
+        val kept = size - count.coerceIn(0, size)
+        samples.copyInto(samples, 0, size - kept, size)
+        size = kept
+    }
+
+    fun clear() {
+        size = 0
+    }
+}
+
+internal object WavCodec {
+    /**
+     * Encodes mono PCM16 samples as a canonical 44-byte-header WAV file.
+     */
+    fun encodePcm16(samples: ShortArray, sampleRate: Int, from: Int = 0, to: Int = samples.size): ByteArray {
+        val dataSize = (to - from) * 2
+        val out = ByteArray(44 + dataSize)
+        var pos = 0
+        fun ascii(text: String) = text.forEach { out[pos++] = it.code.toByte() }
+        fun int32(value: Int) = repeat(4) { out[pos++] = (value shr (8 * it)).toByte() }
+        fun int16(value: Int) = repeat(2) { out[pos++] = (value shr (8 * it)).toByte() }
+
+        ascii("RIFF"); int32(36 + dataSize); ascii("WAVE")
+        ascii("fmt "); int32(16); int16(1); int16(1)
+        int32(sampleRate); int32(sampleRate * 2); int16(2); int16(16)
+        ascii("data"); int32(dataSize)
+        for (i in from until to) {
+            int16(samples[i].toInt())
+        }
+        return out
+    }
+
+    /**
+     * Decodes a PCM16 or float32 WAV file, downmixing to mono. Returns null for anything else so
+     * callers can hand the original file to the native decoder instead.
+     */
+    fun decode(bytes: ByteArray): PcmAudio? {
+        val reader = WavReader.open(Buffer().write(bytes)) ?: return null
+        return reader.use { it.readAll() }
+    }
+
+    fun read(path: String): PcmAudio? {
+        val reader = WavReader.open(path) ?: return null
+        return reader.use { it.readAll() }
+    }
+
+    fun write(path: String, samples: ShortArray, sampleRate: Int, from: Int = 0, to: Int = samples.size) {
+        val bytes = encodePcm16(samples, sampleRate, from, to)
+        getOkioFileSystem().write(path.toPath()) { write(bytes) }
+    }
+
+    fun delete(path: String) {
+        getOkioFileSystem().delete(path.toPath(), mustExist = false)
+    }
+}
+
+/**
+ * Streams mono PCM16 out of a PCM16 or float32 WAV without loading the whole file, so hour-long
+ * recordings can be processed in bounded memory.
+ */
+internal class WavReader private constructor(
+    private val source: BufferedSource,
+    override val sampleRate: Int,
+    private val channels: Int,
+    private val isFloat: Boolean,
+    private val dataBytes: Long
+) : CactusPcmSource, Closeable {
+    private val frameBytes = channels * if (isFloat) 4 else 2
+    private var remainingFrames = dataBytes / frameBytes
+
+    override val durationMs: Long
+        get() = dataBytes / frameBytes * 1000 / sampleRate
+
+    /** Reads up to `out.size` mono samples, returns how many were read, 0 at the end. */
+    override fun read(out: ShortArray): Int {
+        val frames = minOf(out.size.toLong(), remainingFrames).toInt()
+        for (i in 0 until frames) {
+            // Recorders that were killed mid-write leave a data size larger than the file
+            if (!source.request(frameBytes.toLong())) {
+                remainingFrames = 0
+                return i
+            }
+            out[i] = if (isFloat) {
+                var sum = 0f
+                repeat(channels) { sum += Float.fromBits(source.readIntLe()) }
+                ((sum / channels).coerceIn(-1f, 1f) * Short.MAX_VALUE).toInt().toShort()
+            } else {
+                var sum = 0
+                repeat(channels) { sum += source.readShortLe().toInt() }
+                (sum / channels).toShort()
+            }
+        }
+        remainingFrames -= frames
+        return frames
+    }
+
+    fun readAll(): PcmAudio {
+        val buffer = PcmBuffer(sampleRate * 10)
+        val block = ShortArray(sampleRate)
+        while (true) {
+            val read = read(block)
+            if (read == 0) break
+            buffer.append(block, 0, read)
+        }
+        return PcmAudio(buffer.copyOfRange(0, buffer.size), sampleRate)
+    }
+
+    override fun close() {
+        source.close()
+    }
+
+    companion object {
+        fun open(path: String): WavReader? {
+            val source = getOkioFileSystem().source(path.toPath()).buffer()
+            return try {
+                open(source) ?: run { source.close(); null }
+            } catch (e: Exception) {
+                source.close()
+                throw e
+            }
+        }
+
+        /** Parses the header up to the sample data, null when it is not a supported WAV. */
+        fun open(source: BufferedSource): WavReader? {
+            if (!source.request(12) || source.readUtf8(4) != "RIFF") return null
+            source.skip(4)
+            if (source.readUtf8(4) != "WAVE") return null
+
+            var format = 0
+            var channels = 0
+            var sampleRate = 0
+            var bitsPerSample = 0
+            while (source.request(8)) {
+                val id = source.readUtf8(4)
+                val size = source.readIntLe().toLong() and 0xffffffffL
+                when (id) {
+                    "fmt " -> {
+                        format = source.readShortLe().toInt() and 0xffff
+                        channels = source.readShortLe().toInt()
+                        sampleRate = source.readIntLe()
+                        source.skip(6)
+                        bitsPerSample = source.readShortLe().toInt()
+                        var consumed = 16L
+                        // WAVE_FORMAT_EXTENSIBLE keeps the real format in the sub-format GUID
+                        if (format == 0xFFFE && size >= 26) {
+                            source.skip(8)
+                            format = source.readShortLe().toInt() and 0xffff
+                            consumed = 26L
+                        }
+                        source.skip(size - consumed + (size and 1))
+                    }
+                    "data" -> {
+                        if (channels <= 0 || sampleRate <= 0) return null
+                        val isFloat = when {
+                            format == 1 && bitsPerSample == 16 -> false
+                            format == 3 && bitsPerSample == 32 -> true
+                            else -> return null
+                        }
+                        return WavReader(source, sampleRate, channels, isFloat, size)
+                    }
+                    else -> source.skip(size + (size and 1))
+                }
+            }
+            return null
+        }
+    }
+}
+
+internal class PcmAudio(val samples: ShortArray, val sampleRate: Int) {
+    val durationMs: Long
+        get() = samples.size * 1000L / sampleRate
+}
+
+/** Directory for short-lived audio files handed to the path-based native API. */
+internal expect fun temporaryAudioDirectory(): String
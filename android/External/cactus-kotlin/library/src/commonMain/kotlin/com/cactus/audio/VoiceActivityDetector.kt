@@ -0,0 +1,189 @@
+package com.cactus.audio
+
+import utils.CactusLogger
+import kotlin.math.log10
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+/** Half-open range of samples that contains speech. */
+internal data class SpeechRegion(val start: Int, val end: Int)
+
+/**
+ * Energy-based voice activity detection over 16-bit mono PCM.
+ *
+ * Audio is cut into [frameMs] frames. A frame counts as speech when its level is [marginDb]
+ * above the noise floor of the clip (its quietest frames) and above [minSpeechDb] in absolute
+ * terms; a clip without any quieter stretch is all speech when loud and all silence otherwise.
+ * Speech frames separated by less than [maxSilenceMs] of silence are merged into one region,
+ * regions with less than [minSpeechMs] of speech are dropped as clicks, and every kept region
+ * is padded by [paddingMs] so word onsets and endings are not clipped.
+ */
+internal class VoiceActivityDetector(
+    private val sampleRate: Int,
+    private val maxSilenceMs: Long = 1000L,
+    private val frameMs: Int = 30,
+    private val paddingMs: Int = 200,
+    private val minSpeechMs: Int = 200,
+    private val marginDb: Double = 10.0,
+    private val minSpeechDb: Double = -50.0
+) {
+    private val frameSamples = (sampleRate * frameMs / 1000).coerceAtLeast(1)
+
+    fun detect(samples: ShortArray, from: Int = 0, to: Int = samples.size): List<SpeechRegion> {
+        val levels = frameLevels(samples, from, to)
+        if (levels.isEmpty()) return emptyList()
+        val isSpeech = classify(levels)
+
+        val maxGapFrames = (maxSilenceMs / frameMs).toInt()
+        val minSpeechFrames = (minSpeechMs + frameMs - 1) / frameMs
+        val regions = mutableListOf<SpeechRegion>()
+        var regionStart = -1
+        var regionEnd = -1
+        var speechFrames = 0
+
+        fun closeRegion() {
+            if (regionStart >= 0 && speechFrames >= minSpeechFrames) {
+                regions.add(padded(from, to, regionStart, regionEnd))
+            }
+            regionStart = -1
+            speechFrames = 0
+        }
+
+        for (frame in levels.indices) {
+            if (!isSpeech[frame]) continue
+            if (regionStart >= 0 && frame - regionEnd > maxGapFrames) {
+                closeRegion()
+            }
+            if (regionStart < 0) regionStart = frame
+            regionEnd = frame + 1
+            speechFrames++
+        }
+        closeRegion()
+        return merged(regions)
+    }
+
+    /**
+     * Milliseconds of silence at the end of the samples, or null when they contain no speech.
+     */
+    fun trailingSilenceMs(samples: ShortArray, from: Int = 0, to: Int = samples.size): Long? {
+        val levels = frameLevels(samples, from, to)
+        val isSpeech = classify(levels)
+        val lastSpeech = isSpeech.lastIndexOf(true)
+        if (lastSpeech < 0) return null
+        return (levels.size - 1 - lastSpeech).toLong() * frameMs
+    }
+
+    /**
+     * Concatenates the speech [regions] of [samples], separated by short silences so the model
+     * still sees sentence boundaries.
+     */
+    fun keepSpeech(samples: ShortArray, regions: List<SpeechRegion>, gapMs: Int = 300): ShortArray {
+        val gap = sampleRate * gapMs / 1000
+        val total = regions.sumOf { it.end - it.start } + gap * (regions.size - 1).coerceAtLeast(0)
+        val out = ShortArray(total)
+        var pos = 0
+        regions.forEachIndexed { index, region ->
+            if (index > 0) pos += gap
+            samples.copyInto(out, pos, region.start, region.end)
+            pos += region.end - region.start
+        }
+        return out
+    }
+
+    private fun frameLevels(samples: ShortArray, from: Int, to: Int): DoubleArray {
+        val frames = (to - from) / frameSamples
+        return DoubleArray(frames) { frame ->
+            val start = from + frame * frameSamples
+            var sum = 0.0
+            for (i in start until start + frameSamples) {
+                val value = samples[i].toDouble()
+                sum += value * value
+            }
+            val rms = sqrt(sum / frameSamples) / Short.MAX_VALUE
+            if (rms > 0.0) 20 * log10(rms) else -120.0
+        }
+    }
+
+    private fun classify(levels: DoubleArray): BooleanArray {
+        if (levels.isEmpty()) return BooleanArray(0)
+        val sorted = levels.sortedArray()
+        // The quietest twentieth of the clip is taken as background noise
+        val noiseFloor = sorted[levels.size / 20]
+        val loud = sorted[levels.size * 9 / 10]
+        if (loud - noiseFloor < marginDb) {
+            // No pauses to measure the floor against: the whole clip is speech or the whole clip is quiet
+            val isSpeech = noiseFloor > minSpeechDb + marginDb
+            return BooleanArray(levels.size) { isSpeech }
+        }
+        val threshold = maxOf(noiseFloor + marginDb, minSpeechDb)
+        return BooleanArray(levels.size) { levels[it] > threshold }
+    }
+
+    private fun padded(from: Int, to: Int, startFrame: Int, endFrame: Int): SpeechRegion {
+        val padding = sampleRate * paddingMs / 1000
+        return SpeechRegion(
+            start = (from + startFrame * frameSamples - padding).coerceAtLeast(from),
+            end = (from + endFrame * frameSamples + padding).coerceAtMost(to)
+        )
+    }
+
+    // Padding can make neighbouring regions overlap
+    private fun merged(regions: List<SpeechRegion>): List<SpeechRegion> {
+        val out = mutableListOf<SpeechRegion>()
+        for (region in regions) {
+            val last = out.lastOrNull()
+            if (last != null && region.start <= last.end) {
+                out[out.lastIndex] = SpeechRegion(last.start, maxOf(last.end, region.end))
+            } else {
+                out.add(region)
+            }
+        }
+        return out
+    }
+}
+
+/**
+ * A WAV input reduced to its speech. [path] is a temporary file the caller deletes, null when
+ * the input held no speech at all.
+ */
+internal class TrimmedSpeech(val path: String?, val speechMs: Long, val totalMs: Long) {
+    val isSilent: Boolean
+        get() = path == null
+
+    fun delete() {
+        path?.let { WavCodec.delete(it) }
+    }
+}
+
+internal object SilenceTrimmer {
+    // Rewriting the file is not worth it when nearly all of it is speech
+    private const val MIN_SAVED_FRACTION = 0.1
+
+    /**
+     * Returns the speech of the WAV file at [path], or null when the file is not a WAV the
+     * trimmer can read or trimming would save little, in which case the original should be used.
+     */
+    fun trim(path: String, maxSilenceMs: Long): TrimmedSpeech? {
+        val audio = try {
+            WavCodec.read(path)
+        } catch (e: Exception) {
+            CactusLogger.w("Could not read $path for silence trimming: ${e.message}", tag = "CactusSTT")
+            null
+        } ?: return null
+
+        val vad = VoiceActivityDetector(audio.sampleRate, maxSilenceMs)
+        val regions = vad.detect(audio.samples)
+        if (regions.isEmpty()) {
+            return TrimmedSpeech(null, speechMs = 0, totalMs = audio.durationMs)
+        }
+
+        val speech = vad.keepSpeech(audio.samples, regions)
+        if (speech.size > audio.samples.size * (1 - MIN_SAVED_FRACTION)) return null
+
+        val out = "${temporaryAudioDirectory()}/cactus-speech-${Random.nextLong().toULong()}.wav"
+        WavCodec.write(out, speech, audio.sampleRate)
+        val trimmed = TrimmedSpeech(out, speechMs = speech.size * 1000L / audio.sampleRate, totalMs = audio.durationMs)
+        CactusLogger.d(tag = "CactusSTT") { "Trimmed silence: ${trimmed.totalMs} ms -> ${trimmed.speechMs} ms in ${regions.size} regions" }
+        return trimmed
+    }
+}
@@ -3,44 +3,46 @@ package com.cactus.internal
 import com.cactus.CactusCompletionResult
 import com.cactus.CactusTranscriptionResult
 import com.cactus.ToolCall
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.decodeFromJsonElement
-import kotlinx.serialization.json.jsonObject
-import kotlinx.serialization.json.jsonPrimitive
 
+/**
+ * Reads the result JSON of the native library. The fields are pulled out with a [JsonScanner] in
+ * one pass instead of building a tree, so a long response is copied out of the result exactly
+ * once and numbers are never turned back into strings.
+ */
 internal object CactusJsonParser {
-    private val json = Json { ignoreUnknownKeys = true; isLenient = true }
-
     fun parseCompletionResult(
         responseText: String
     ): CactusCompletionResult {
-        val jsonResponse = json.parseToJsonElement(responseText).jsonObject
-        val success =
-            jsonResponse["success"]?.jsonPrimitive?.content?.toBooleanStrictOrNull() ?: true
-
-        val response = jsonResponse["response"]?.jsonPrimitive?.content ?: responseText
+        var success = true
+        var response: String? = null
+        var timeToFirstTokenMs = 0.0
+        var totalTimeMs = 0.0
+        var tokensPerSecond = 0.0
+        var prefillTokens = 0
+        var decodeTokens = 0
+        var totalTokens = 0
+        var toolCalls = emptyList<ToolCall>()
 
-        val timeToFirstTokenMs =
-            jsonResponse["time_to_first_token_ms"]?.jsonPrimitive?.content?.toDoubleOrNull()
-                ?: 0.0
-        val totalTimeMs =
-            jsonResponse["total_time_ms"]?.jsonPrimitive?.content?.toDoubleOrNull() ?: 0.0
-        val tokensPerSecond =
-            jsonResponse["tokens_per_second"]?.jsonPrimitive?.content?.toDoubleOrNull()
-                ?: 0.0
-        val prefillTokens =
-            jsonResponse["prefill_tokens"]?.jsonPrimitive?.content?.toIntOrNull() ?: 0
-        val decodeTokens =
-            jsonResponse["decode_tokens"]?.jsonPrimitive?.content?.toIntOrNull() ?: 0
-        val totalTokens =
-            jsonResponse["total_tokens"]?.jsonPrimitive?.content?.toIntOrNull() ?: 0
-        val toolCalls = jsonResponse["function_calls"]?.let { element ->
-            json.decodeFromJsonElement<List<ToolCall>>(element)
-        } ?: emptyList()
+        val scanner = JsonScanner(responseText)
+        scanner.beginObject()
+        while (true) {
+            when (scanner.nextName() ?: break) {
+                "success" -> success = scanner.nextBooleanOrNull() ?: true
+                "response" -> response = scanner.nextContent()
+                "time_to_first_token_ms" -> timeToFirstTokenMs = scanner.nextDoubleOrNull() ?: 0.0
+                "total_time_ms" -> totalTimeMs = scanner.nextDoubleOrNull() ?: 0.0
+                "tokens_per_second" -> tokensPerSecond = scanner.nextDoubleOrNull() ?: 0.0
+                "prefill_tokens" -> prefillTokens = scanner.nextIntOrNull() ?: 0
+                "decode_tokens" -> decodeTokens = scanner.nextIntOrNull() ?: 0
+                "total_tokens" -> totalTokens = scanner.nextIntOrNull() ?: 0
+                "function_calls" -> toolCalls = parseToolCalls(scanner)
+                else -> scanner.skipValue()
+            }
+        }
 
         return CactusCompletionResult(
             success = success,
-            response = response,
+            response = response ?: responseText,
             timeToFirstTokenMs = timeToFirstTokenMs,
             totalTimeMs = totalTimeMs,
             tokensPerSecond = tokensPerSecond,
@@ -51,39 +53,118 @@ internal object CactusJsonParser {
         )
     }
 
+    private fun parseToolCalls(scanner: JsonScanner): List<ToolCall> {
+        if (!scanner.peekIsArray()) {
+            scanner.skipValue()
+            return emptyList()
+        }
+        val calls = ArrayList<ToolCall>()
+        scanner.beginArray()
+        while (scanner.hasNext()) {
+            if (scanner.peekIsObject()) {
+                parseToolCall(scanner)?.let { calls.add(it) }
+            } else {
+                scanner.skipValue()
+            }
+        }
+        return calls
+    }
+
+    // Arguments keep their JSON text, so numbers, flags and nested values can be typed by the caller
+    // from the tool schema. Some models emit the arguments object as an encoded string.
+    private fun parseToolCall(scanner: JsonScanner): ToolCall? {
+        var name: String? = null
+        var arguments: Map<String, String> = emptyMap()
+        scanner.beginObject()
+        while (true) {
+            when (scanner.nextName() ?: break) {
+                "name" -> name = if (scanner.peekIsString()) scanner.nextContent() else null.also { scanner.skipValue() }
+                "arguments" -> arguments = when {
+                    scanner.peekIsObject() -> parseArguments(scanner)
+                    scanner.peekIsString() -> {
+                        val encoded = scanner.nextContent()
+                        runCatching { parseArguments(JsonScanner(encoded)) }.getOrDefault(emptyMap())
+                    }
+                    else -> emptyMap<String, String>().also { scanner.skipValue() }
+                }
+                else -> scanner.skipValue()
+            }
+        }
+        return name?.let { ToolCall(name = it, arguments = arguments) }
+    }
+
+    private fun parseArguments(scanner: JsonScanner): Map<String, String> {
+        val arguments = LinkedHashMap<String, String>()
+        scanner.beginObject()
+        while (true) {
+            val key = scanner.nextName() ?: break
+            arguments[key] = scanner.nextContent()
+        }
+        return arguments
+    }
+
     fun parseTranscriptionResult(
         responseText: String
     ): CactusTranscriptionResult {
-        val jsonResponse = json.parseToJsonElement(responseText).jsonObject
-        val success =
-            jsonResponse["success"]?.jsonPrimitive?.content?.toBooleanStrictOrNull() ?: true
-
-        // Check for both "text" and "response" fields to maintain compatibility
-        val rawText = jsonResponse["text"]?.jsonPrimitive?.content
-            ?: jsonResponse["response"]?.jsonPrimitive?.content
-            ?: responseText
+        var success = true
+        var text: String? = null
+        var response: String? = null
+        var timeToFirstTokenMs = 0.0
+        var totalTimeMs = 0.0
+        var tokensPerSecond = 0.0
 
-        // Clean up special tokens from the transcription
-        val text = rawText
-            .replace(Regex("<\\|startoftranscript\\|[^>]*>"), "")
-            .replace(Regex("<\\|[^>]+\\|>"), "")
-            .trim()
+        val scanner = JsonScanner(responseText)
+        scanner.beginObject()
+        while (true) {
+            when (scanner.nextName() ?: break) {
+                "success" -> success = scanner.nextBooleanOrNull() ?: true
+                "text" -> text = scanner.nextContent()
+                "response" -> response = scanner.nextContent()
+                "time_to_first_token_ms" -> timeToFirstTokenMs = scanner.nextDoubleOrNull() ?: 0.0
+                "total_time_ms" -> totalTimeMs = scanner.nextDoubleOrNull() ?: 0.0
+                "tokens_per_second" -> tokensPerSecond = scanner.nextDoubleOrNull() ?: 0.0
+                else -> scanner.skipValue()
+            }
+        }
 
-        val timeToFirstTokenMs =
-            jsonResponse["time_to_first_token_ms"]?.jsonPrimitive?.content?.toDoubleOrNull()
-                ?: 0.0
-        val totalTimeMs =
-            jsonResponse["total_time_ms"]?.jsonPrimitive?.content?.toDoubleOrNull() ?: 0.0
-        val tokensPerSecond =
-            jsonResponse["tokens_per_second"]?.jsonPrimitive?.content?.toDoubleOrNull()
-                ?: 0.0
+        // Check for both "text" and "response" fields to maintain compatibility
+        val rawText = text ?: response ?: responseText
 
         return CactusTranscriptionResult(
             success = success,
-            text = text,
+            text = stripSpecialTokens(rawText),
             timeToFirstTokenMs = timeToFirstTokenMs,
             totalTimeMs = totalTimeMs,
             tokensPerSecond = tokensPerSecond
         )
     }
+
+    private const val START_OF_TRANSCRIPT = "<|startoftranscript|"
+
+    /**
+     * Removes Whisper special tokens such as `<|startoftranscript|>` or `<|en|>` and trims the
+     * result, in one pass. A token is `<|`, at least one character other than `>`, then `|>`.
+     */
+    internal fun stripSpecialTokens(text: String): String {
+        var start = text.indexOf("<|")
+        if (start < 0) return text.trim()
+        val out = StringBuilder(text.length)
+        var copied = 0
+        while (start >= 0) {
+            val close = text.indexOf('>', start + 2)
+            if (close < 0) break
+            // Nothing between "<|" and the first '>' may be a '>', so only that one can close it.
+            // The start token may carry its language before the '>' without a closing bar.
+            val isToken = close - 1 >= start + 3 && text[close - 1] == '|'
+            if (isToken || text.startsWith(START_OF_TRANSCRIPT, start)) {
+                out.appendRange(text, copied, start)
+                copied = close + 1
+                start = text.indexOf("<|", copied)
+            } else {
+                start = text.indexOf("<|", start + 1)
+            }
+        }
+        out.appendRange(text, copied, text.length)
+        return out.trim().toString()
+    }
 }
@@ -4,77 +4,59 @@ import com.cactus.CactusCompletionParams
 import com.cactus.CactusTranscriptionParams
 import com.cactus.ChatMessage
 
+/**
+ * Builds the JSON payloads the native library reads. The write functions stream into a
+ * [JsonWriter] so callers can hand its UTF-8 bytes to native code without an intermediate string;
+ * the build functions return the same JSON as a string.
+ */
 internal object CactusPayloadBuilder {
-    /**
-     * Escape a string for JSON, matching the C++ parser expectations
-     */
-    private fun escapeJsonString(input: String): String {
-        return input
-            .replace("\\", "\\\\")  // Escape backslashes first
-            .replace("\"", "\\\"")  // Escape quotes
-            .replace("\n", "\\n")   // Escape newlines
-            .replace("\r", "\\r")   // Escape carriage returns
-            .replace("\t", "\\t")   // Escape tabs
-    }
+    fun buildMessagesJson(messages: List<ChatMessage>): String =
+        JsonWriter().also { writeMessages(it, messages) }.toUtf8String()
+
+    fun buildOptionsJson(params: CactusCompletionParams): String =
+        JsonWriter(128).also { writeOptions(it, params) }.toUtf8String()
+
+    fun buildParamsJson(params: CactusTranscriptionParams): String =
+        JsonWriter(128).also { writeParams(it, params) }.toUtf8String()
 
-    fun buildMessagesJson(messages: List<ChatMessage>): String {
-        return buildString {
-            append("[")
-            messages.forEachIndexed { index, message ->
-                if (index > 0) append(",")
-                append("{")
-                append("\"role\":\"${message.role}\",")
-                append("\"content\":\"${escapeJsonString(message.content)}\"")
-                if (message.images.isNotEmpty()) {
-                    append(",\"images\":[")
-                    message.images.forEachIndexed { imgIndex, image ->
-                        if (imgIndex > 0) append(",")
-                        append("\"${escapeJsonString(image)}\"")
-                    }
-                    append("]")
-                }
-                append("}")
+    fun writeMessages(writer: JsonWriter, messages: List<ChatMessage>) {
+        writer.beginArray()
+        for (message in messages) {
+            writer.beginObject()
+            writer.name("role").value(message.role)
+            writer.name("content").value(message.content)
+            if (message.images.isNotEmpty()) {
+                writer.name("images").beginArray()
+                message.images.forEach { writer.value(it) }
+                writer.endArray()
             }
-            append("]")
+            writer.endObject()
         }
+        writer.endArray()
     }
 
-    fun buildOptionsJson(params: CactusCompletionParams): String {
-        return buildString {
-            append("{")
-            params.temperature?.let {
-                append("\"temperature\":${params.temperature},")
-            }
-            params.topK?.let {
-                append("\"top_k\":${params.topK},")
-            }
-            params.topP?.let {
-                append("\"top_p\":${params.topP},")
-            }
-            append("\"max_tokens\":${params.maxTokens}")
-            if (params.stopSequences.isNotEmpty()) {
-                append(
-                    ",\"stop_sequences\":[${params.stopSequences.joinToString(",") {
-                            "\"${escapeJsonString(it)}\""
-                        }}}]"
-                )
-            }
-            append("}")
-        }
+    fun writeOptions(writer: JsonWriter, params: CactusCompletionParams) {
+        writer.beginObject()
+        params.temperature?.let { writer.name("temperature").value(it) }
+        params.topK?.let { writer.name("top_k").value(it) }
+        params.topP?.let { writer.name("top_p").value(it) }
+        writer.name("max_tokens").value(params.maxTokens)
+        writeStopSequences(writer, params.stopSequences)
+        writer.endObject()
     }
 
-    fun buildParamsJson(params: CactusTranscriptionParams): String {
-        return buildString {
-            append("{")
-            append("\"max_tokens\":${params.maxTokens}")
-            if (params.stopSequences.isNotEmpty()) {
-                append(
-                    ",\"stop_sequences\":[${params.stopSequences.joinToString(",") {
-                        "\"${escapeJsonString(it)}\""
-                    }}}]"
-                )
-            }
-            append("}")
-        }
+    fun writeParams(writer: JsonWriter, params: CactusTranscriptionParams) {
+        writer.beginObject()
+        params.temperature?.let { writer.name("temperature").value(it) }
+        writer.name("max_tokens").value(params.tokenBudget)
+        writeStopSequences(writer, params.stopSequences)
+        writer.endObject()
+    }
+
+    private fun writeStopSequences(writer: JsonWriter, stopSequences: List<String>) {
+        if (stopSequences.isEmpty()) return
+        writer.name("stop_sequences").beginArray()
+        stopSequences.forEach { writer.value(it) }
+        writer.endArray()
     }
 }
@@ -0,0 +1,230 @@
+package com.cactus.internal
+
+/**
+ * Forward-only reader over a JSON document held in a string, for pulling a few fields out of a
+ * native result without building a tree. Values nobody asks for are skipped without allocating,
+ * numbers are parsed in place and strings without escapes come back as a single substring.
+ *
+ * Malformed input throws [IllegalArgumentException].
+ */
+internal class JsonScanner(private val text: String) {
+    private var pos = 0
+
+    fun beginObject() {
+        expect('{')
+    }
+
+    /** Name of the next field of the current object, null once its closing brace is consumed. */
+    fun nextName(): String? {
+        skipWhitespace()
+        when (peek()) {
+            '}' -> {
+                pos++
+                return null
+            }
+            ',' -> {
+                pos++
+                skipWhitespace()
+            }
+        }
+        val name = readString()
+        expect(':')
+        return name
+    }
+
+    fun beginArray() {
+        expect('[')
+    }
+
+    /** Whether the current array has another element, consuming its closing bracket when not. */
+    fun hasNext(): Boolean {
+        skipWhitespace()
+        when (peek()) {
+            ']' -> {
+                pos++
+                return false
+            }
+            ',' -> pos++
+        }
+        return true
+    }
+
+    fun peekIsObject(): Boolean = peekValue() == '{'
+
+    fun peekIsArray(): Boolean = peekValue() == '['
+
+    fun peekIsString(): Boolean = peekValue() == '"'
+
+    /**
+     * The value as its JSON primitive content: strings unescaped, numbers and literals as written,
+     * so it matches what a tree parser reports. Objects and arrays are returned as their JSON text.
+     */
+    fun nextContent(): String = if (peekIsString()) readString() else nextRaw()
+
+    /** Exact source text of the next value, whatever it is. */
+    fun nextRaw(): String {
+        skipWhitespace()
+        val start = pos
+        skipValue()
+        return text.substring(start, pos)
+    }
+
+    /** A number, also accepted as a numeric string; null for anything else. */
+    fun nextDoubleOrNull(): Double? {
+        if (peekIsString()) return readString().toDoubleOrNull()
+        val start = pos
+        val end = scanNumber()
+        if (end == start) {
+            skipValue()
+            return null
+        }
+        val whole = parseLongOrNull(start, end)
+        return whole?.toDouble() ?: text.substring(start, end).toDoubleOrNull()
+    }
+
+    fun nextIntOrNull(): Int? {
+        if (peekIsString()) return readString().toIntOrNull()
+        val start = pos
+        val end = scanNumber()
+        if (end == start) {
+            skipValue()
+            return null
+        }
+        return parseLongOrNull(start, end)?.takeIf { it in Int.MIN_VALUE..Int.MAX_VALUE }?.toInt()
+    }
+
+    /** true or false, also accepted as a string; null for anything else. */
+    fun nextBooleanOrNull(): Boolean? {
+        if (peekIsString()) return readString().toBooleanStrictOrNull()
+        return when {
+            text.startsWith("true", pos) -> true.also { pos += 4 }
+            text.startsWith("false", pos) -> false.also { pos += 5 }
+            else -> {
+                skipValue()
+                null
+            }
+        }
+    }
+
+    fun skipValue() {
+        skipWhitespace()
+        when (peek()) {
+            '"' -> skipString()
+            '{', '[' -> {
+                var depth = 0
+                do {
+                    when (peek()) {
+                        '"' -> {
+                            skipString()
+                            continue
+                        }
+                        '{', '[' -> depth++
+                        '}', ']' -> depth--
+                    }
+                    pos++
+                } while (depth > 0)
+            }
+            else -> {
+                val start = pos
+                while (pos < text.length && text[pos] !in ",}] \t\r\n") pos++
+                require(pos > start) { "Expected a JSON value at $start" }
+            }
+        }
+    }
+
+    private fun readString(): String {
+        expect('"')
+        val start = pos
+        while (true) {
+            require(pos < text.length) { "Unterminated string at $start" }
+            when (text[pos]) {
+                '"' -> return text.substring(start, pos).also { pos++ }
+                '\\' -> return readEscapedString(start)
+                else -> pos++
+            }
+        }
+    }
+
+    // Slow path, only taken by strings that contain escapes
+    private fun readEscapedString(start: Int): String {
+        val out = StringBuilder(pos - start + 16)
+        out.appendRange(text, start, pos)
+        while (true) {
+            require(pos < text.length) { "Unterminated string at $start" }
+            val c = text[pos++]
+            when (c) {
+                '"' -> return out.toString()
+                '\\' -> {
+                    require(pos < text.length) { "Unterminated escape at $pos" }
+                    when (val escaped = text[pos++]) {
+                        'n' -> out.append('\n')
+                        't' -> out.append('\t')
+                        'r' -> out.append('\r')
+                        'b' -> out.append('\b')
+                        'f' -> out.append('\u000C')
+                        'u' -> {
+                            require(pos + 4 <= text.length) { "Truncated unicode escape at $pos" }
+                            out.append(text.substring(pos, pos + 4).toInt(16).toChar())
+                            pos += 4
+                        }
+                        else -> out.append(escaped)
+                    }
+                }
+                else -> out.append(c)
+            }
+        }
+    }
+
+    private fun skipString() {
+        expect('"')
+        while (true) {
+            require(pos < text.length) { "Unterminated string" }
+            when (text[pos++]) {
+                '"' -> return
+                '\\' -> pos++
+            }
+        }
+    }
+
+    private fun scanNumber(): Int {
+        skipWhitespace()
+        while (pos < text.length && text[pos] in "+-0123456789.eE") pos++
+        return pos
+    }
+
+    // Integers are by far the most common, decoded without creating a substring
+    private fun parseLongOrNull(start: Int, end: Int): Long? {
+        var i = start
+        val isNegative = text[i] == '-'
+        if (isNegative) i++
+        if (i == end || end - i > 18) return null
+        var value = 0L
+        while (i < end) {
+            val digit = text[i] - '0'
+            if (digit !in 0..9) return null
+            value = value * 10 + digit
+            i++
+        }
+        return if (isNegative) -value else value
+    }
+
+    private fun expect(c: Char) {
+        skipWhitespace()
+        require(pos < text.length && text[pos] == c) { "Expected '$c' at $pos" }
+        pos++
+    }
+
+    private fun peekValue(): Char {
+        skipWhitespace()
+        return peek()
+    }
+
+    private fun peek(): Char {
+        require(pos < text.length) { "Unexpected end of JSON" }
+        return text[pos]
+    }
+
+    private fun skipWhitespace() {
+        while (pos < text.length && text[pos].let { it == ' ' || it == '\n' || it == '\r' || it == '\t' }) pos++
+    }
+}
@@ -0,0 +1,190 @@
+package com.cactus.internal
+
+/**
+ * Writes JSON straight into a growable UTF-8 byte buffer in a single pass.
+ *
+ * Strings are escaped as RFC 8259 requires: quotes, backslashes and every control character
+ * below U+0020, and encoded to UTF-8 as they are copied, so no escaped or encoded copy of the
+ * text is ever built. Unpaired surrogates become U+FFFD. Commas are placed automatically.
+ *
+ * Call [reset] to reuse the buffer for the next document; [bytes] is valid up to [size].
+ * [terminate] adds the NUL that C code reading [bytes] as a string needs.
+ */
+internal class JsonWriter(initialCapacity: Int = 1024) {
+    var bytes = ByteArray(initialCapacity)
+        private set
+    var size = 0
+        private set
+    private var needsComma = false
+
+    val capacity: Int
+        get() = bytes.size
+
+    fun reset(): JsonWriter {
+        size = 0
+        needsComma = false
+        return this
+    }
+
+    fun beginObject(): JsonWriter = open('{')
+
+    fun endObject(): JsonWriter = close('}')
+
+    fun beginArray(): JsonWriter = open('[')
+
+    fun endArray(): JsonWriter = close(']')
+
+    fun name(name: String): JsonWriter {
+        separate()
+        writeString(name)
+        writeByte(':'.code)
+        needsComma = false
+        return this
+    }
+
+    fun value(value: String?): JsonWriter {
+        if (value == null) return nullValue()
+        separate()
+        writeString(value)
+        needsComma = true
+        return this
+    }
+
+    fun value(value: Int): JsonWriter = ascii(value.toString())
+
+    fun value(value: Long): JsonWriter = ascii(value.toString())
+
+    fun value(value: Double): JsonWriter =
+        if (value.isNaN() || value.isInfinite()) nullValue() else ascii(value.toString())
+
+    fun value(value: Boolean): JsonWriter = ascii(if (value) "true" else "false")
+
+    fun nullValue(): JsonWriter = ascii("null")
+
+    /** Appends [json], which must already be valid JSON, as a value. */
+    fun rawValue(json: String): JsonWriter {
+        separate()
+        writeUtf8(json, escape = false)
+        needsComma = true
+        return this
+    }
+
+    /** Writes a NUL after the document without counting it in [size]. */
+    fun terminate(): JsonWriter {
+        ensureCapacity(1)
+        bytes[size] = 0
+        return this
+    }
+
+    fun toUtf8String(): String = bytes.decodeToString(0, size)
+
+    private fun open(bracket: Char): JsonWriter {
+        separate()
+        writeByte(bracket.code)
+        needsComma = false
+        return this
+    }
+
+    private fun close(bracket: Char): JsonWriter {
+        writeByte(bracket.code)
+        needsComma = true
+        return this
+    }
+
+    private fun separate() {
+        if (needsComma) writeByte(','.code)
+    }
+
+    private fun ascii(text: String): JsonWriter {
+        separate()
+        ensureCapacity(text.length)
+        for (c in text) bytes[size++] = c.code.toByte()
+        needsComma = true
+        return this
+    }
+
+    private fun writeString(text: String) {
+        writeByte('"'.code)
+        writeUtf8(text, escape = true)
+        writeByte('"'.code)
+    }
+
+    private fun writeUtf8(text: String, escape: Boolean) {
+        // Grows once for ASCII text, escapes and multi-byte characters grow as they come
+        ensureCapacity(text.length)
+        var i = 0
+        while (i < text.length) {
+            val c = text[i]
+            val code = c.code
+            when {
+                escape && c == '"' -> writeEscape('"')
+                escape && c == '\\' -> writeEscape('\\')
+                escape && code < 0x20 -> writeControl(code)
+                code < 0x80 -> writeByte(code)
+                code < 0x800 -> {
+                    ensureCapacity(2)
+                    bytes[size++] = (0xC0 or (code shr 6)).toByte()
+                    bytes[size++] = (0x80 or (code and 0x3F)).toByte()
+                }
+                c.isHighSurrogate() && i + 1 < text.length && text[i + 1].isLowSurrogate() -> {
+                    val codePoint = 0x10000 + ((code - 0xD800) shl 10) + (text[i + 1].code - 0xDC00)
+                    ensureCapacity(4)
+                    bytes[size++] = (0xF0 or (codePoint shr 18)).toByte()
+                    bytes[size++] = (0x80 or ((codePoint shr 12) and 0x3F)).toByte()
+                    bytes[size++] = (0x80 or ((codePoint shr 6) and 0x3F)).toByte()
+                    bytes[size++] = (0x80 or (codePoint and 0x3F)).toByte()
+                    i++
+                }
+                else -> writeThreeBytes(if (c.isSurrogate()) REPLACEMENT_CHARACTER else code)
+            }
+            i++
+        }
+    }
+
+    private fun writeThreeBytes(code: Int) {
+        ensureCapacity(3)
+        bytes[size++] = (0xE0 or (code shr 12)).toByte()
+        bytes[size++] = (0x80 or ((code shr 6) and 0x3F)).toByte()
+        bytes[size++] = (0x80 or (code and 0x3F)).toByte()
+    }
+
+    private fun writeEscape(c: Char) {
+        ensureCapacity(2)
+        bytes[size++] = '\\'.code.toByte()
+        bytes[size++] = c.code.toByte()
+    }
+
+    private fun writeControl(code: Int) {
+        when (code) {
+            0x08 -> writeEscape('b')
+            0x09 -> writeEscape('t')
+            0x0A -> writeEscape('n')
+            0x0C -> writeEscape('f')
+            0x0D -> writeEscape('r')
+            else -> {
+                ensureCapacity(6)
+                bytes[size++] = '\\'.code.toByte()
+                bytes[size++] = 'u'.code.toByte()
+                bytes[size++] = '0'.code.toByte()
+                bytes[size++] = '0'.code.toByte()
+                bytes[size++] = HEX[code shr 4].code.toByte()
+                bytes[size++] = HEX[code and 0xF].code.toByte()
+            }
+        }
+    }
+
+    private fun writeByte(b: Int) {
+        ensureCapacity(1)
+        bytes[size++] = b.toByte()
+    }
+
+    private fun ensureCapacity(extra: Int) {
+        if (size + extra <= bytes.size) return
+        bytes = bytes.copyOf(maxOf(bytes.size * 2, size + extra))
+    }
+
+    private companion object {
+        const val HEX = "0123456789abcdef"
+        const val REPLACEMENT_CHARACTER = 0xFFFD
+    }
+}
@@ -1,8 +1,11 @@
+@file:OptIn(ExperimentalAtomicApi::class)
+
 package com.cactus.models
 
 import kotlinx.serialization.Serializable
-import kotlinx.serialization.builtins.ListSerializer
 import kotlinx.serialization.json.Json
+import kotlin.concurrent.atomics.AtomicReference
+import kotlin.concurrent.atomics.ExperimentalAtomicApi
 
 @Serializable
 data class ToolParameter(
@@ -37,8 +40,28 @@ data class ToolCall(
     val arguments: Map<String, String>
 )
 
+/**
+ * Serialized form of every tool seen recently. Apps send the same tool list with each turn, so
+ * each tool is encoded once. Tools are compared by content, so an edited schema gets a new entry.
+ */
+internal object ToolSchemaCache {
+    private const val MAX_ENTRIES = 256
+    private val entries = AtomicReference<Map<CactusTool, String>>(emptyMap())
+
+    fun json(tool: CactusTool): String {
+        entries.load()[tool]?.let { return it }
+        val encoded = Json.encodeToString(CactusTool.serializer(), tool)
+        while (true) {
+            val current = entries.load()
+            // Starting over beats tracking recency for a set this small that rarely changes
+            val next = if (current.size >= MAX_ENTRIES) mapOf(tool to encoded) else current + (tool to encoded)
+            if (entries.compareAndSet(current, next)) return encoded
+        }
+    }
+}
+
 fun List<CactusTool>.toToolsJson(): String {
-    return Json.encodeToString(ListSerializer(CactusTool.serializer()), this)
+    return joinToString(separator = ",", prefix = "[", postfix = "]") { ToolSchemaCache.json(it) }
 }
 
 fun createTool(
@@ -1,11 +1,94 @@
 package com.cactus.services
 
+import com.cactus.getOkioFileSystem
 import com.cactus.models.BufferedLogRecord
 import com.cactus.models.LogRecord
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.datetime.Clock
+import kotlinx.serialization.json.Json
+import okio.Path.Companion.toPath
+import utils.CactusLogger
 
-expect object LogBuffer {
-    internal suspend fun loadFailedLogRecords(): List<BufferedLogRecord>
-    internal suspend fun clearFailedLogRecords()
-    internal suspend fun handleFailedLogRecord(record: LogRecord)
-    internal suspend fun handleRetryFailedLogRecord(record: LogRecord)
+/** Buffered records handed out by [LogBuffer.loadFailedLogRecords], up to the position after them. */
+internal class PendingLogRecords(
+    val records: List<BufferedLogRecord>,
+    internal val end: LogPosition
+)
+
+/**
+ * Log records that could not be sent, kept on disk until a later send succeeds.
+ *
+ * Records are appended as one compact JSON line each to a [SegmentedLogFile], so buffering costs
+ * the same per record however long the device has been offline. A record whose retry fails again
+ * is appended anew with its retry count raised, and dropped once it exceeds [MAX_RETRIES].
+ */
+object LogBuffer {
+    private const val MAX_RETRIES = 3
+    private val json = Json { ignoreUnknownKeys = true }
+    private val mutex = Mutex()
+
+    private val log by lazy {
+        clearLegacyLogRecords()
+        SegmentedLogFile(logBufferDirectory().toPath(), getOkioFileSystem())
+    }
+
+    internal suspend fun handleFailedLogRecords(records: List<LogRecord>) {
+        val now = Clock.System.now().toEpochMilliseconds()
+        append(records.map { BufferedLogRecord(record = it, retryCount = 1, firstAttempt = now) })
+    }
+
+    /** The oldest buffered records, at most [limit] of them. */
+    internal suspend fun loadFailedLogRecords(limit: Int): PendingLogRecords = mutex.withLock {
+        try {
+            val (lines, end) = log.read(limit)
+            val records = lines.mapNotNull { line ->
+                try {
+                    json.decodeFromString<BufferedLogRecord>(line)
+                } catch (e: Exception) {
+                    CactusLogger.w("Skipping unreadable buffered log record", tag = "LogBuffer")
+                    null
+                }
+            }
+            PendingLogRecords(records, end)
+        } catch (e: Exception) {
+            CactusLogger.e("Error loading failed log records: ${e.message}", tag = "LogBuffer", throwable = e)
+            PendingLogRecords(emptyList(), LogPosition(0, 0))
+        }
+    }
+
+    /** [pending] was sent; it is not handed out again. */
+    internal suspend fun clearFailedLogRecords(pending: PendingLogRecords) = mutex.withLock {
+        try {
+            log.advance(pending.end)
+        } catch (e: Exception) {
+            CactusLogger.e("Error clearing failed log records: ${e.message}", tag = "LogBuffer", throwable = e)
+        }
+    }
+
+    /** Sending [pending] failed again: requeues the records that have retries left. */
+    internal suspend fun handleRetryFailedLogRecords(pending: PendingLogRecords) {
+        val retries = pending.records.mapNotNull { buffered ->
+            val retryCount = buffered.retryCount + 1
+            if (retryCount > MAX_RETRIES) null else buffered.copy(retryCount = retryCount)
+        }
+        CactusLogger.d(tag = "LogBuffer") { "Requeued ${retries.size} of ${pending.records.size} buffered log records" }
+        // Appended before the cursor moves, so a crash in between repeats records rather than losing them
+        append(retries)
+        clearFailedLogRecords(pending)
+    }
+
+    private suspend fun append(records: List<BufferedLogRecord>) = mutex.withLock {
+        try {
+            log.append(records.map { json.encodeToString(BufferedLogRecord.serializer(), it) })
+        } catch (e: Exception) {
+            CactusLogger.e("Error saving failed log records: ${e.message}", tag = "LogBuffer", throwable = e)
+        }
+    }
 }
+
+/** Directory holding the buffered log segments. */
+internal expect fun logBufferDirectory(): String
+
+/** Removes records stored by earlier versions, which kept them as a single JSON blob. */
+internal expect fun clearLegacyLogRecords()
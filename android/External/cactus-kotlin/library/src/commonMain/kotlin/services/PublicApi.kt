@@ -8,6 +8,12 @@ object CactusTelemetry {
     fun setTelemetryToken(token: String) {
         Telemetry.instance?.setCactusToken(token)
     }
+
+    /** Sends queued telemetry now instead of waiting for the next batch. */
+    fun flush() {
+        Telemetry.flush()
+    }
+
     internal suspend fun init() {
         val projectId = CactusId.getProjectId()
         val deviceId = Telemetry.fetchDeviceId()
@@ -0,0 +1,120 @@
+package com.cactus.services
+
+import okio.FileSystem
+import okio.Path
+import okio.buffer
+import okio.use
+
+/** Position in a [SegmentedLogFile]: a segment number and a byte offset into it. */
+internal data class LogPosition(val segment: Long, val offset: Long)
+
+/**
+ * Queue of text lines kept on disk as append-only segment files and a cursor.
+ *
+ * Appending writes to the end of the newest segment and never rewrites earlier data, so each line
+ * costs the same however much is queued. Reading starts at the cursor. [advance] moves it past what
+ * was handled and deletes segments that are wholly behind it. A new segment starts once the newest
+ * one reaches [maxSegmentBytes]. When there are more than [maxSegments], the oldest are deleted,
+ * which bounds the disk used while offline.
+ *
+ * Lines must not contain '\n'. Not thread-safe; callers serialize access.
+ */
+internal class SegmentedLogFile(
+    private val directory: Path,
+    private val fileSystem: FileSystem,
+    private val maxSegmentBytes: Long = 64 * 1024,
+    private val maxSegments: Int = 8
+) {
+    private val cursorPath = directory / "cursor"
+
+    fun append(lines: List<String>) {
+        if (lines.isEmpty()) return
+        fileSystem.createDirectories(directory)
+        var segment = segments().lastOrNull() ?: 1L
+        if (size(segment) >= maxSegmentBytes) {
+            segment++
+        }
+        fileSystem.appendingSink(segmentPath(segment), mustExist = false).buffer().use { sink ->
+            for (line in lines) {
+                sink.writeUtf8(line).writeByte('\n'.code)
+            }
+        }
+        dropOverflow()
+    }
+
+    /** Up to [limit] lines from the cursor on, and the position just after the last of them. */
+    fun read(limit: Int): Pair<List<String>, LogPosition> {
+        val lines = mutableListOf<String>()
+        var position = cursor()
+        for (segment in segments()) {
+            if (segment < position.segment) continue
+            if (segment > position.segment) position = LogPosition(segment, 0)
+            if (position.offset >= size(segment)) continue
+            fileSystem.source(segmentPath(segment)).buffer().use { source ->
+                source.skip(position.offset)
+                var offset = position.offset
+                while (lines.size < limit) {
+                    val end = source.indexOf('\n'.code.toByte())
+                    // A line cut short by a crash is left alone until more is appended after it
+                    if (end < 0) break
+                    lines.add(source.readUtf8(end))
+                    source.skip(1)
+                    offset += end + 1
+                }
+                position = LogPosition(segment, offset)
+            }
+            if (lines.size >= limit) break
+        }
+        return lines to position
+    }
+
+    /** Marks everything before [position] as handled. */
+    fun advance(position: LogPosition) {
+        fileSystem.createDirectories(directory)
+        val temporary = directory / "cursor.tmp"
+        fileSystem.write(temporary) { writeUtf8("${position.segment} ${position.offset}") }
+        fileSystem.atomicMove(temporary, cursorPath)
+        for (segment in segments()) {
+            if (segment >= position.segment) break
+            fileSystem.delete(segmentPath(segment), mustExist = false)
+        }
+    }
+
+    fun clear() {
+        fileSystem.deleteRecursively(directory, mustExist = false)
+    }
+
+    private fun cursor(): LogPosition {
+        val parts = try {
+            fileSystem.read(cursorPath) { readUtf8() }.split(' ')
+        } catch (e: okio.IOException) {
+            return LogPosition(0, 0)
+        }
+        val segment = parts.getOrNull(0)?.toLongOrNull() ?: return LogPosition(0, 0)
+        val offset = parts.getOrNull(1)?.toLongOrNull() ?: 0
+        return LogPosition(segment, offset)
+    }
+
+    private fun dropOverflow() {
+        val segments = segments()
+        if (segments.size <= maxSegments) return
+        for (segment in segments.take(segments.size - maxSegments)) {
+            fileSystem.delete(segmentPath(segment), mustExist = false)
+        }
+    }
+
+    private fun segments(): List<Long> {
+        val files = fileSystem.listOrNull(directory) ?: return emptyList()
+        return files.filter { it.name.endsWith(SEGMENT_SUFFIX) }
+            .mapNotNull { it.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull() }
+            .sorted()
+    }
+
+    private fun size(segment: Long): Long = fileSystem.metadataOrNull(segmentPath(segment))?.size ?: 0
+
+    private fun segmentPath(segment: Long): Path = directory / "$segment$SEGMENT_SUFFIX"
+
+    private companion object {
+        const val SEGMENT_SUFFIX = ".log"
+    }
+}
@@ -12,7 +12,10 @@ import com.cactus.utils.getDeviceMetadata
 import utils.CactusLogger
 
 /**
- * Telemetry service for logging and analytics
+ * Telemetry service for logging and analytics.
+ *
+ * The log functions only queue the record; [TelemetryBatcher] sends queued records in batches from
+ * a background coroutine, so recording an event never waits on the network.
  */
 class Telemetry private constructor(
     private val projectId: String?,
@@ -21,6 +24,10 @@ class Telemetry private constructor(
     private var cactusTelemetryToken: String? = null
     companion object {
         private var _instance: Telemetry? = null
+
+        private val batcher by lazy {
+            TelemetryBatcher { records -> Supabase.sendLogRecords(records) }
+        }
         
         val isInitialized: Boolean
             get() = _instance != null
@@ -33,6 +40,13 @@ class Telemetry private constructor(
             CactusLogger.i("Telemetry initialized with projectId: $projectId, deviceId: $deviceId", tag = "Telemetry")
         }
 
+        /** Sends queued records now, e.g. before the app may be stopped in the background. */
+        fun flush() {
+            if (isInitialized) {
+                batcher.flush()
+            }
+        }
+
         suspend fun fetchDeviceId(): String? {
             val deviceId = getDeviceId()
             if (deviceId == null) {
@@ -55,7 +69,7 @@ class Telemetry private constructor(
         cactusTelemetryToken = token
     }
 
-    suspend fun logInit(success: Boolean, model: String, message: String? = null) {
+    fun logInit(success: Boolean, model: String, message: String? = null) {
         val record = LogRecord(
             eventType = "init",
             projectId = projectId,
@@ -66,10 +80,10 @@ class Telemetry private constructor(
             message = message
         )
 
-        Supabase.sendLogRecord(record)
+        enqueue(record)
     }
 
-    suspend fun logCompletion(
+    fun logCompletion(
         result: CactusCompletionResult?,
         model: String,
         message: String? = null,
@@ -91,10 +105,10 @@ class Telemetry private constructor(
             mode = mode?.toString()
         )
 
-        Supabase.sendLogRecord(record)
+        enqueue(record)
     }
 
-    suspend fun logTranscription(
+    fun logTranscription(
         result: CactusTranscriptionResult?,
         model: String,
         message: String? = null,
@@ -114,10 +128,10 @@ class Telemetry private constructor(
             mode = mode.toString()
         )
 
-        Supabase.sendLogRecord(record)
+        enqueue(record)
     }
 
-    suspend fun logEmbedding(
+    fun logEmbedding(
         result: CactusEmbeddingResult?,
         model: String,
         message: String? = null,
@@ -132,6 +146,13 @@ class Telemetry private constructor(
             telemetryToken = cactusTelemetryToken
         )
 
-        Supabase.sendLogRecord(record)
+        enqueue(record)
+    }
+
+    private fun enqueue(record: LogRecord) {
+        if (!CactusTelemetry.isTelemetryEnabled) {
+            return
+        }
+        batcher.record(record)
     }
 }
@@ -0,0 +1,75 @@
+package com.cactus.services
+
+import com.cactus.models.LogRecord
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeoutOrNull
+import utils.CactusLogger
+
+/**
+ * Collects telemetry records in memory and sends them in batches from a background coroutine,
+ * so the inference paths that record them never wait on the network.
+ *
+ * Records are held in a ring of [capacity] entries; when sending falls behind, the oldest are
+ * dropped rather than holding up callers. A batch goes out once it has [batchSize] records,
+ * [intervalMs] after its first record arrived, or as soon as [flush] is called, e.g. when the
+ * app moves to the background. Batches are sent one at a time.
+ */
+internal class TelemetryBatcher(
+    capacity: Int = 256,
+    private val batchSize: Int = 32,
+    private val intervalMs: Long = 30_000,
+    scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default),
+    private val send: suspend (List<LogRecord>) -> Unit
+) {
+    private val records = Channel<LogRecord>(capacity, BufferOverflow.DROP_OLDEST)
+    private val flushRequests = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        scope.launch { run() }
+    }
+
+    /** Queues [record] without suspending. */
+    fun record(record: LogRecord) {
+        records.trySend(record)
+    }
+
+    /** Sends whatever is queued now instead of waiting for the batch to fill. */
+    fun flush() {
+        flushRequests.trySend(Unit)
+    }
+
+    private suspend fun run() {
+        while (true) {
+            val first = select<LogRecord?> {
+                records.onReceive { it }
+                // Nothing is queued, so there is nothing to flush; keeping the request would
+                // send the next record alone
+                flushRequests.onReceive { null }
+            } ?: continue
+            val batch = mutableListOf(first)
+            withTimeoutOrNull(intervalMs) {
+                var flushNow = false
+                while (!flushNow && batch.size < batchSize) {
+                    flushNow = select {
+                        records.onReceive {
+                            batch.add(it)
+                            false
+                        }
+                        flushRequests.onReceive { true }
+                    }
+                }
+            }
+            try {
+                send(batch)
+            } catch (e: Exception) {
+                CactusLogger.e("Error sending ${batch.size} telemetry records: $e", tag = "Telemetry", throwable = e)
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.cactus.services
+
+import com.cactus.models.CactusTool
+import kotlin.math.sqrt
+
+/**
+ * Tool embeddings for semantic filtering, kept as one row-major matrix of unit vectors.
+ *
+ * [sync] embeds only tools it has not seen for the current model, so an unchanged catalog costs
+ * nothing after the first request. [search] is then a single matrix-vector product against the
+ * query embedding, where the dot product of unit vectors is their cosine similarity.
+ *
+ * Not thread-safe, [ToolFilterService] serializes access.
+ */
+internal class ToolEmbeddingIndex {
+    class Match(val tool: CactusTool, val score: Double)
+
+    private val vectors = HashMap<CactusTool, FloatArray>()
+    private var model: String? = null
+    // The list [rows] was built from, null when it has to be rebuilt
+    private var indexedTools: List<CactusTool>? = null
+    private var rows: List<CactusTool> = emptyList()
+    private var matrix = FloatArray(0)
+    private var dimension = 0
+
+    val size: Int
+        get() = rows.size
+
+    /**
+     * Embeds the tools that are missing with [embed], which returns null when it fails. Tools
+     * that could not be embedded are left out of [search] and retried on the next sync.
+     */
+    suspend fun sync(tools: List<CactusTool>, model: String, embed: suspend (String) -> List<Double>?) {
+        if (model != this.model) {
+            // Another model puts its embeddings in a different space
+            vectors.clear()
+            indexedTools = null
+            this.model = model
+        }
+        if (tools == indexedTools) return
+
+        val wanted = tools.toHashSet()
+        vectors.keys.retainAll(wanted)
+        var isComplete = true
+        for (tool in tools) {
+            if (tool in vectors) continue
+            val vector = embed(describe(tool))?.let { normalized(it) }
+            if (vector != null) vectors[tool] = vector else isComplete = false
+        }
+        build(tools)
+        indexedTools = if (isComplete) tools.toList() else null
+    }
+
+    /** Tools by cosine similarity to [query], best first and ties in the synced order. */
+    fun search(query: List<Double>): List<Match> {
+        val unit = normalized(query) ?: return emptyList()
+        if (unit.size != dimension) return emptyList()
+        val scores = FloatArray(rows.size)
+        for (row in rows.indices) {
+            val offset = row * dimension
+            var dot = 0f
+            for (i in 0 until dimension) {
+                dot += matrix[offset + i] * unit[i]
+            }
+            scores[row] = dot
+        }
+        return rows.indices
+            .sortedByDescending { scores[it] }
+            .map { Match(rows[it], scores[it].toDouble()) }
+    }
+
+    private fun build(tools: List<CactusTool>) {
+        // Rows follow the first vector's dimension, a mismatch means a broken embedding
+        dimension = tools.firstNotNullOfOrNull { vectors[it] }?.size ?: 0
+        val included = tools.filter { vectors[it]?.size == dimension }
+        val packed = FloatArray(included.size * dimension)
+        included.forEachIndexed { row, tool ->
+            vectors.getValue(tool).copyInto(packed, row * dimension)
+        }
+        rows = included
+        matrix = packed
+    }
+
+    private fun normalized(vector: List<Double>): FloatArray? {
+        var sumOfSquares = 0.0
+        for (value in vector) sumOfSquares += value * value
+        if (vector.isEmpty() || sumOfSquares == 0.0) return null
+        val scale = 1.0 / sqrt(sumOfSquares)
+        return FloatArray(vector.size) { (vector[it] * scale).toFloat() }
+    }
+
+    private fun describe(tool: CactusTool): String =
+        "${tool.function.name}: ${tool.function.description}\nParameters: ${tool.function.parameters.properties.keys.joinToString(", ")}"
+}
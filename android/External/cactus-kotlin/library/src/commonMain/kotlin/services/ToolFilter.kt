@@ -2,7 +2,8 @@ package com.cactus.services
 
 import com.cactus.CactusLM
 import com.cactus.models.CactusTool
-import kotlin.math.sqrt
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 
 enum class ToolFilterStrategy {
     /** Simple keyword matching with fuzzy matching and scoring (default, fast) */
@@ -31,6 +32,12 @@ class ToolFilterService(
     private val config: ToolFilterConfig = ToolFilterConfig(),
     private val lm: CactusLM
 ) {
+    // Kept across requests so an unchanged catalog is not tokenized again
+    private val keywordIndex = ToolKeywordIndex()
+    private val keywordIndexLock = Mutex()
+    private val embeddingIndex = ToolEmbeddingIndex()
+    private val embeddingIndexLock = Mutex()
+
     suspend fun filterTools(query: String, tools: List<CactusTool>): List<CactusTool> {
         if (tools.isEmpty()) return tools
         
@@ -40,23 +47,33 @@ class ToolFilterService(
         }
     }
 
-    private fun filterByEnhancedKeyword(query: String, tools: List<CactusTool>): List<CactusTool> {
-        val queryLower = query.lowercase()
-        val queryWords = extractKeywords(queryLower)
+    /**
+     * Indexes [tools] ahead of the first request that uses them, so that request only pays for
+     * its query. Tools that are indexed already cost nothing.
+     */
+    suspend fun prepare(tools: List<CactusTool>) {
+        when (config.strategy) {
+            ToolFilterStrategy.SIMPLE -> keywordIndexLock.withLock { keywordIndex.sync(tools) }
+            ToolFilterStrategy.SEMANTIC -> embeddingIndexLock.withLock { syncEmbeddings(tools) }
+        }
+    }
+
+    // A tool qualifies when it contains at least similarityThreshold of the query's terms, the
+    // qualifying tools are ranked by BM25
+    private suspend fun filterByEnhancedKeyword(query: String, tools: List<CactusTool>): List<CactusTool> {
+        val queryTerms = ToolText.terms(query).toSet()
         
-        if (queryWords.isEmpty()) {
+        if (queryTerms.isEmpty()) {
             return applyMaxToolsLimit(tools)
         }
         
-        val scoredTools = tools.map { tool ->
-            val score = calculateToolScore(tool, queryWords)
-            ScoredTool(tool, score)
+        val matches = keywordIndexLock.withLock {
+            keywordIndex.sync(tools)
+            keywordIndex.search(queryTerms)
         }
         
-        val sortedTools = scoredTools.sortedByDescending { it.score }
-        
-        val filteredTools = sortedTools
-            .filter { it.score >= config.similarityThreshold }
+        val filteredTools = matches
+            .filter { it.matchedTerms.toDouble() / queryTerms.size >= config.similarityThreshold }
             .map { it.tool }
         
         if (filteredTools.isEmpty()) {
@@ -73,19 +90,13 @@ class ToolFilterService(
                 return filterByEnhancedKeyword(query, tools)
             }
 
-            val scoredTools = mutableListOf<ScoredTool>()
-            for (tool in tools) {
-                val toolText = "${tool.function.name}: ${tool.function.description}\nParameters: ${tool.function.parameters.properties.keys.joinToString(", ")}"
-                val toolEmbedding = lm.generateEmbedding(text = toolText)
-                
-                if (toolEmbedding?.success == true) {
-                    val similarity = cosineSimilarity(queryEmbedding.embeddings, toolEmbedding.embeddings)
-                    scoredTools.add(ScoredTool(tool, similarity))
-                }
+            val matches = embeddingIndexLock.withLock {
+                // Only tools not embedded yet cost a forward pass
+                syncEmbeddings(tools)
+                embeddingIndex.search(queryEmbedding.embeddings)
             }
 
-            val sortedTools = scoredTools.sortedByDescending { it.score }
-            val filteredTools = sortedTools
+            val filteredTools = matches
                 .filter { it.score >= config.similarityThreshold }
                 .map { it.tool }
 
@@ -99,39 +110,10 @@ class ToolFilterService(
         }
     }
 
-    private fun cosineSimilarity(a: List<Double>, b: List<Double>): Double {
-        if (a.size != b.size) return 0.0
-        
-        var dotProduct = 0.0
-        var normA = 0.0
-        var normB = 0.0
-        
-        for (i in a.indices) {
-            dotProduct += a[i] * b[i]
-            normA += a[i] * a[i]
-            normB += b[i] * b[i]
+    private suspend fun syncEmbeddings(tools: List<CactusTool>) {
+        embeddingIndex.sync(tools, lm.loadedModel) { text ->
+            lm.generateEmbedding(text = text)?.takeIf { it.success }?.embeddings
         }
-        
-        if (normA == 0.0 || normB == 0.0) return 0.0
-        
-        return dotProduct / (sqrt(normA) * sqrt(normB))
-    }
-
-    private fun calculateToolScore(tool: CactusTool, queryWords: List<String>): Double {
-        if (queryWords.isEmpty()) return 0.0
-        
-        val toolText = "${tool.function.name} ${tool.function.description}".lowercase()
-        val matchedWords = queryWords.count { word -> toolText.contains(word) }
-        
-        return matchedWords.toDouble() / queryWords.size
-    }
-
-    private fun extractKeywords(query: String): List<String> {
-        return query
-            .lowercase()
-            .replace(Regex("[^\\w\\s]"), " ")
-            .split(Regex("\\s+"))
-            .filter { it.length >= 2 }
     }
 
     private fun applyMaxToolsLimit(tools: List<CactusTool>): List<CactusTool> {
@@ -141,9 +123,4 @@ class ToolFilterService(
         }
         return tools.take(maxTools)
     }
-
-    private data class ScoredTool(
-        val tool: CactusTool,
-        val score: Double
-    )
 }
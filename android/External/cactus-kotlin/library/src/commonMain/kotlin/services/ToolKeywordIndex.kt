@@ -0,0 +1,159 @@
+package com.cactus.services
+
+import com.cactus.models.CactusTool
+import kotlin.math.ln
+
+/**
+ * Inverted index over tool names, descriptions and parameter names, ranked with BM25.
+ *
+ * [sync] brings the index in line with the tools of a request, indexing only tools it has not
+ * seen and dropping the ones that are gone, so a catalog that is sent unchanged with every
+ * completion is tokenized once. [search] only visits the postings of the query's terms.
+ *
+ * Not thread-safe, [ToolFilterService] serializes access.
+ */
+internal class ToolKeywordIndex(
+    private val k1: Double = 1.2,
+    private val b: Double = 0.75
+) {
+    class Match(val tool: CactusTool, val score: Double, val matchedTerms: Int)
+
+    private class Document(val tool: CactusTool, val termFrequencies: Map<String, Int>, val length: Int) {
+        // Position in the last synced list, breaks score ties in the caller's order
+        var position = 0
+    }
+
+    private val documents = HashMap<CactusTool, Document>()
+    private val postings = HashMap<String, HashMap<Document, Int>>()
+    private var totalLength = 0L
+    private var indexedTools: List<CactusTool> = emptyList()
+
+    val size: Int
+        get() = documents.size
+
+    fun sync(tools: List<CactusTool>) {
+        // Tools are usually the same instances every turn, which makes this an identity scan
+        if (tools == indexedTools) return
+        val wanted = tools.toHashSet()
+        documents.keys.filter { it !in wanted }.forEach { remove(it) }
+        tools.forEachIndexed { position, tool ->
+            val document = documents[tool] ?: add(tool)
+            document.position = position
+        }
+        indexedTools = tools.toList()
+    }
+
+    fun search(queryTerms: Collection<String>): List<Match> {
+        if (documents.isEmpty()) return emptyList()
+        val count = documents.size.toDouble()
+        val averageLength = totalLength.toDouble() / documents.size
+        val scores = HashMap<Document, Double>()
+        val matched = HashMap<Document, Int>()
+        for (term in queryTerms.toSet()) {
+            val termPostings = postings[term] ?: continue
+            val documentFrequency = termPostings.size
+            val idf = ln(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5))
+            for ((document, frequency) in termPostings) {
+                val norm = frequency + k1 * (1 - b + b * document.length / averageLength)
+                scores[document] = (scores[document] ?: 0.0) + idf * frequency * (k1 + 1) / norm
+                matched[document] = (matched[document] ?: 0) + 1
+            }
+        }
+        return scores.entries
+            .sortedWith(compareByDescending<Map.Entry<Document, Double>> { it.value }.thenBy { it.key.position })
+            .map { (document, score) -> Match(document.tool, score, matched.getValue(document)) }
+    }
+
+    private fun add(tool: CactusTool): Document {
+        val frequencies = HashMap<String, Int>()
+        // A term in the name says more about the tool than one in its description
+        ToolText.terms(tool.function.name).forEach { frequencies[it] = (frequencies[it] ?: 0) + NAME_WEIGHT }
+        ToolText.terms(tool.function.description).forEach { frequencies[it] = (frequencies[it] ?: 0) + 1 }
+        tool.function.parameters.properties.keys.forEach { parameter ->
+            ToolText.terms(parameter).forEach { frequencies[it] = (frequencies[it] ?: 0) + 1 }
+        }
+        val document = Document(tool, frequencies, frequencies.values.sum())
+        documents[tool] = document
+        for ((term, frequency) in frequencies) {
+            postings.getOrPut(term) { HashMap() }[document] = frequency
+        }
+        totalLength += document.length
+        return document
+    }
+
+    private fun remove(tool: CactusTool) {
+        val document = documents.remove(tool) ?: return
+        for (term in document.termFrequencies.keys) {
+            val termPostings = postings[term] ?: continue
+            termPostings.remove(document)
+            if (termPostings.isEmpty()) postings.remove(term)
+        }
+        totalLength -= document.length
+    }
+
+    private companion object {
+        const val NAME_WEIGHT = 2
+    }
+}
+
+/**
+ * Splits queries and tool text into index terms: lowercase words of two or more characters, with
+ * snake_case and camelCase names split into their words, stop words dropped and common English
+ * suffixes stemmed so "forecasts" and "forecasting" meet "forecast".
+ */
+internal object ToolText {
+    private val stopWords = setOf(
+        "a", "an", "and", "are", "as", "at", "be", "by", "can", "could", "do", "for", "from", "how",
+        "in", "is", "it", "me", "my", "of", "on", "or", "please", "the", "this", "to", "what", "when",
+        "where", "which", "who", "will", "with", "would", "you", "your"
+    )
+
+    fun terms(text: String): List<String> {
+        val terms = ArrayList<String>()
+        val word = StringBuilder()
+        fun endWord() {
+            if (word.length >= 2) {
+                val lower = word.toString().lowercase()
+                if (lower !in stopWords) terms.add(stem(lower))
+            }
+            word.setLength(0)
+        }
+        for (i in text.indices) {
+            val c = text[i]
+            if (!c.isLetterOrDigit()) {
+                endWord()
+                continue
+            }
+            if (c.isUpperCase() && word.isNotEmpty() && text[i - 1].isLowerCase()) endWord()
+            word.append(c)
+        }
+        endWord()
+        return terms
+    }
+
+    fun stem(word: String): String {
+        if (word.length <= 3) return word
+        val stem = when {
+            word.endsWith("ies") && word.length > 4 -> word.dropLast(3) + "y"
+            word.endsWith("sses") -> word.dropLast(2)
+            word.endsWith("ss") || word.endsWith("us") || word.endsWith("is") -> word
+            word.endsWith("ing") && word.length > 5 && hasVowel(word, word.length - 3) -> undouble(word.dropLast(3))
+            word.endsWith("ed") && word.length > 5 && hasVowel(word, word.length - 2) -> undouble(word.dropLast(2))
+            word.endsWith("ches") || word.endsWith("shes") || word.endsWith("xes") -> word.dropLast(2)
+            word.endsWith("s") -> word.dropLast(1)
+            else -> word
+        }
+        // "schedule", "scheduled" and "scheduling" all end up as "schedul"
+        return if (stem.length > 3 && stem.endsWith("e")) stem.dropLast(1) else stem
+    }
+
+    // Keeps "string" whole, its "ing" is not a suffix
+    private fun hasVowel(word: String, end: Int): Boolean = (0 until end).any { word[it] in "aeiouy" }
+
+    // "running" -> "runn" -> "run", but "calling" keeps its "ll" as "call"
+    private fun undouble(stem: String): String {
+        if (stem.length < 3) return stem
+        val last = stem.last()
+        return if (last == stem[stem.length - 2] && last !in "lsz") stem.dropLast(1) else stem
+    }
+}
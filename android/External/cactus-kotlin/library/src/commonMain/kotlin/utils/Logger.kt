@@ -4,13 +4,19 @@ import co.touchlab.kermit.Logger
 import co.touchlab.kermit.Severity
 import co.touchlab.kermit.StaticConfig
 import co.touchlab.kermit.platformLogWriter
+import kotlin.concurrent.Volatile
 
 /**
  * Centralized logging utility for the Cactus library.
  * Wraps Kermit logger to provide consistent logging across all platforms.
+ *
+ * Messages below [minSeverity] are dropped. Code that runs per request or per item uses the
+ * overloads taking a lambda, e.g. `CactusLogger.d(tag = "CactusLM") { "Embedded ${paths.size} files" }`,
+ * which are inlined and build the message only when it will be written.
  */
 object CactusLogger {
-    private val logger = Logger(
+    @PublishedApi
+    internal val logger = Logger(
         config = StaticConfig(
             minSeverity = Severity.Verbose,
             logWriterList = listOf(platformLogWriter())
@@ -18,23 +24,57 @@ object CactusLogger {
         tag = "Cactus"
     )
 
+    /** Lowest severity that is written, or null to write nothing. Defaults to [Severity.Info]. */
+    @Volatile
+    var minSeverity: Severity? = Severity.Info
+
+    /** Sets [minSeverity] by name: verbose, debug, info, warn, error or none. Unknown names are ignored. */
+    fun setLevel(name: String) {
+        minSeverity = when (name.lowercase()) {
+            "verbose" -> Severity.Verbose
+            "debug" -> Severity.Debug
+            "info" -> Severity.Info
+            "warn" -> Severity.Warn
+            "error" -> Severity.Error
+            "none" -> null
+            else -> return
+        }
+    }
+
+    fun isLoggable(severity: Severity): Boolean {
+        val min = minSeverity ?: return false
+        return severity >= min
+    }
+
     fun v(message: String, tag: String = "Cactus", throwable: Throwable? = null) {
-        logger.v(throwable = throwable, tag = tag) { message }
+        if (isLoggable(Severity.Verbose)) logger.v(throwable = throwable, tag = tag) { message }
     }
 
     fun d(message: String, tag: String = "Cactus", throwable: Throwable? = null) {
-        logger.d(throwable = throwable, tag = tag) { message }
+        if (isLoggable(Severity.Debug)) logger.d(throwable = throwable, tag = tag) { message }
     }
 
     fun i(message: String, tag: String = "Cactus", throwable: Throwable? = null) {
-        logger.i(throwable = throwable, tag = tag) { message }
+        if (isLoggable(Severity.Info)) logger.i(throwable = throwable, tag = tag) { message }
     }
 
     fun w(message: String, tag: String = "Cactus", throwable: Throwable? = null) {
-        logger.w(throwable = throwable, tag = tag) { message }
+        if (isLoggable(Severity.Warn)) logger.w(throwable = throwable, tag = tag) { message }
     }
 
     fun e(message: String, tag: String = "Cactus", throwable: Throwable? = null) {
-        logger.e(throwable = throwable, tag = tag) { message }
+        if (isLoggable(Severity.Error)) logger.e(throwable = throwable, tag = tag) { message }
+    }
+
+    inline fun v(tag: String = "Cactus", throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(Severity.Verbose)) logger.log(Severity.Verbose, tag, throwable, message())
+    }
+
+    inline fun d(tag: String = "Cactus", throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(Severity.Debug)) logger.log(Severity.Debug, tag, throwable, message())
+    }
+
+    inline fun i(tag: String = "Cactus", throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(Severity.Info)) logger.log(Severity.Info, tag, throwable, message())
     }
-}
\ No newline at end of file
+}
@@ -40,6 +40,10 @@ actual object CactusContext {
         cactus_destroy(handle.toCPointer())
     }
 
+    actual fun resetContext(handle: Long) {
+        cactus_reset(handle.toCPointer())
+    }
+
     actual suspend fun completion(
         handle: Long,
         messages: List<ChatMessage>,
@@ -48,8 +52,10 @@ actual object CactusContext {
         onToken: CactusStreamingCallback?,
         quantization: Int
     ): CactusCompletionResult = withContext(Dispatchers.Default) {
-        val messagesJson = CactusPayloadBuilder.buildMessagesJson(messages)
-        val optionsJson = CactusPayloadBuilder.buildOptionsJson(params)
+        val trace = coroutineContext[CactusTrace]
+        val (messagesJson, optionsJson) = traced("sdk.build_payload") {
+            CactusPayloadBuilder.buildMessagesJson(messages) to CactusPayloadBuilder.buildOptionsJson(params)
+        }
 
         return@withContext memScoped {
             val bufferSize = max(params.maxTokens * quantization, 2048)
@@ -68,6 +74,7 @@ actual object CactusContext {
 
             val callback = if (onToken != null) nativeTokenCallback else null
 
+            val nativeStartUs = trace?.nowUs() ?: 0
             val result = cactus_complete(
                 handle.toCPointer(),
                 messagesJson,
@@ -79,11 +86,13 @@ actual object CactusContext {
                 null
             )
             
+            val nativeEndUs = trace?.nowUs() ?: 0
+
             // Clean up global state
             currentStreamingCallback = null
             currentStreamingResponse = null
 
-            if (result > 0) {
+            val completion = if (result > 0) {
                 val responseText = responseBuffer.toKString()
 
                 try {
@@ -100,6 +109,8 @@ actual object CactusContext {
                     response = "Error: completion failed with code $result"
                 )
             }
+            trace?.recordNativeCompletion(nativeStartUs, nativeEndUs, result, completion.takeIf { it.success })
+            completion
         }
     }
 
@@ -110,8 +121,7 @@ actual object CactusContext {
     ): CactusEmbeddingResult = withContext(Dispatchers.Default) {
         return@withContext memScoped {
             val bufferSize = max(text.length * quantization, 1024)
-            CactusLogger.d("CactusContext", "Generating embedding for text: ${if (text.length > 50) text.substring(0, 50) + "..." else text}")
-            CactusLogger.d("CactusContext", "Buffer allocated for $bufferSize float elements")
+            CactusLogger.d(tag = "CactusContext") { "Generating embedding for ${text.length} characters into $bufferSize floats" }
 
             val embeddingDimPtr = alloc<ULongVar>()
             val embeddingsBuffer = allocArray<FloatVar>(bufferSize)
@@ -127,11 +137,10 @@ actual object CactusContext {
                 embeddingDimPtr.ptr
             )
 
-            CactusLogger.d("CactusContext", "Received embedding result code: $result")
+            CactusLogger.d(tag = "CactusContext") { "Received embedding result code: $result, dimension ${embeddingDimPtr.value}" }
 
             if (result > 0) {
                 val actualEmbeddingDim = embeddingDimPtr.value.toInt()
-                CactusLogger.d("CactusContext", "Actual embedding dimension: $actualEmbeddingDim")
 
                 if (actualEmbeddingDim > bufferSize) {
                     return@memScoped CactusEmbeddingResult(
@@ -147,8 +156,6 @@ actual object CactusContext {
                     embeddings.add(embeddingsBuffer[i].toDouble())
                 }
 
-                CactusLogger.d("CactusContext", "Successfully extracted ${embeddings.size} embedding values")
-
                 CactusEmbeddingResult(
                     success = true,
                     embeddings = embeddings,
@@ -176,7 +183,7 @@ actual object CactusContext {
         val optionsJson = CactusPayloadBuilder.buildParamsJson(params)
 
         return@withContext memScoped {
-            val bufferSize = max(params.maxTokens * quantization, 2048)
+            val bufferSize = max(params.tokenBudget * quantization, 2048)
             val responseBuffer = allocArray<ByteVar>(bufferSize)
 
             // Set up streaming if callback is provided
@@ -227,6 +234,53 @@ actual object CactusContext {
         }
     }
 
+    actual suspend fun generateImageEmbeddings(
+        handle: Long,
+        imagePaths: List<String>
+    ): List<CactusEmbeddingResult> = withContext(Dispatchers.Default) {
+        imagePaths.map { path ->
+            embedPath { buffer, size, dim -> cactus_image_embed(handle.toCPointer(), path, buffer, size, dim) }
+        }
+    }
+
+    actual suspend fun generateAudioEmbeddings(
+        handle: Long,
+        audioPaths: List<String>
+    ): List<CactusEmbeddingResult> = withContext(Dispatchers.Default) {
+        audioPaths.map { path ->
+            embedPath { buffer, size, dim -> cactus_audio_embed(handle.toCPointer(), path, buffer, size, dim) }
+        }
+    }
+
+    // No bridge to cross on iOS, so a batch is a plain loop over the C API
+    private inline fun embedPath(
+        embed: (CPointer<FloatVar>, ULong, CPointer<ULongVar>) -> Int
+    ): CactusEmbeddingResult = memScoped {
+        val embeddingsBuffer = allocArray<FloatVar>(MAX_MEDIA_EMBEDDING_DIM)
+        val embeddingDimPtr = alloc<ULongVar>()
+        val result = embed(embeddingsBuffer, (MAX_MEDIA_EMBEDDING_DIM * 4).toULong(), embeddingDimPtr.ptr)
+        val dimension = embeddingDimPtr.value.toInt()
+        when {
+            result <= 0 -> CactusEmbeddingResult(
+                success = false,
+                embeddings = emptyList(),
+                dimension = 0,
+                errorMessage = "Embedding generation failed with code $result"
+            )
+            dimension > MAX_MEDIA_EMBEDDING_DIM -> CactusEmbeddingResult(
+                success = false,
+                embeddings = emptyList(),
+                dimension = 0,
+                errorMessage = "Embedding dimension ($dimension) exceeds allocated buffer size ($MAX_MEDIA_EMBEDDING_DIM)"
+            )
+            else -> CactusEmbeddingResult(
+                success = true,
+                embeddings = List(dimension) { embeddingsBuffer[it].toDouble() },
+                dimension = dimension
+            )
+        }
+    }
+
     actual fun getBundleId(): String {
         return NSBundle.mainBundle.bundleIdentifier ?: "unknown"
     }
@@ -0,0 +1,5 @@
+package com.cactus.audio
+
+import platform.Foundation.NSTemporaryDirectory
+
+internal actual fun temporaryAudioDirectory(): String = NSTemporaryDirectory().trimEnd('/')
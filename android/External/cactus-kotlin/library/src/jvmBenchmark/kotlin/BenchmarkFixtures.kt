@@ -0,0 +1,61 @@
+package com.cactus
+
+import com.cactus.models.CactusTool
+import com.cactus.models.ToolParameter
+import com.cactus.models.createTool
+import kotlin.random.Random
+
+/** Inputs shared by the benchmarks, seeded so every run measures the same data. */
+internal object BenchmarkFixtures {
+    private val vocabulary = listOf(
+        "the", "model", "answer", "weather", "\"quoted\"", "line\nbreak", "naïve", "東京", "🌵", "C:\\path", "tab\there",
+        "schedule", "meeting", "translate", "summary", "forecast"
+    )
+
+    // Prose with the escapes and non-ASCII text real conversations contain
+    fun prose(random: Random, words: Int): String =
+        (0 until words).joinToString(" ") { vocabulary[random.nextInt(vocabulary.size)] }
+
+    fun conversation(messageCount: Int, wordsPerMessage: Int, seed: Int = 7): List<ChatMessage> {
+        val random = Random(seed)
+        return List(messageCount) { i ->
+            val role = when {
+                i == 0 -> "system"
+                i % 2 == 1 -> "user"
+                else -> "assistant"
+            }
+            ChatMessage(content = prose(random, wordsPerMessage), role = role)
+        }
+    }
+
+    private val verbs = listOf("get", "set", "create", "delete", "search", "send", "list", "update")
+    private val nouns = listOf("weather", "timer", "event", "contact", "note", "flight", "song", "reminder", "invoice", "route")
+
+    fun tools(count: Int): List<CactusTool> = List(count) { i ->
+        val verb = verbs[i % verbs.size]
+        val noun = nouns[(i / verbs.size) % nouns.size]
+        createTool(
+            name = "${verb}_${noun}_$i",
+            description = "${verb.replaceFirstChar { it.uppercase() }} a $noun for the user, by name or by date",
+            parameters = mapOf(
+                "name" to ToolParameter("string", "Name of the $noun", required = true),
+                "date" to ToolParameter("string", "ISO date the $noun applies to")
+            )
+        )
+    }
+
+    fun completionJson(words: Int, seed: Int = 11): String {
+        val response = prose(Random(seed), words).replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n").replace("\t", "\\t")
+        return """{"success":true,"response":"$response","time_to_first_token_ms":48.25,""" +
+            """"total_time_ms":9120.5,"tokens_per_second":31.7,"prefill_tokens":812,"decode_tokens":$words,""" +
+            """"total_tokens":${812 + words},"function_calls":[{"name":"search","arguments":""" +
+            """{"query":"weather \"today\"","limit":5,"filters":{"units":"metric","days":[1,2]}}}]}"""
+    }
+
+    fun transcriptionJson(words: Int, seed: Int = 13): String {
+        val text = prose(Random(seed), words).replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n").replace("\t", "\\t")
+        return """{"success":true,"text":"<|startoftranscript|><|en|><|transcribe|><|notimestamps|> $text <|endoftext|>","total_time_ms":812.0}"""
+    }
+}
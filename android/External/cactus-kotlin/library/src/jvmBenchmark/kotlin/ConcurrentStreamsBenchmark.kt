@@ -0,0 +1,77 @@
+package com.cactus
+
+import kotlinx.benchmark.Benchmark
+import kotlinx.benchmark.BenchmarkMode
+import kotlinx.benchmark.BenchmarkTimeUnit
+import kotlinx.benchmark.Mode
+import kotlinx.benchmark.OutputTimeUnit
+import kotlinx.benchmark.Param
+import kotlinx.benchmark.Scope
+import kotlinx.benchmark.Setup
+import kotlinx.benchmark.State
+import kotlinx.benchmark.TearDown
+import kotlinx.coroutines.ExecutorCoroutineDispatcher
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.newFixedThreadPoolContext
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Concurrent completions on one stream against several, with a stub backend that holds its
+ * stream for [TOKEN_MS] per token the way a decode step holds a native context. Each operation is
+ * a burst of [REQUESTS] requests started together, so throughput times REQUESTS * TOKENS is the
+ * aggregate tokens/sec, and since a burst takes as long as its slowest request, its average time
+ * is the tail latency of that many concurrent requests.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(BenchmarkTimeUnit.MILLISECONDS)
+open class ConcurrentStreamsBenchmark {
+    private companion object {
+        const val REQUESTS = 8
+        const val TOKENS = 16
+        const val TOKEN_MS = 1L
+    }
+
+    @Param("1", "4")
+    var streams = 0
+
+    private val nextPointer = AtomicLong(1)
+    private lateinit var holder: NativeContextHolder
+    private lateinit var dispatcher: ExecutorCoroutineDispatcher
+
+    @Setup
+    fun setUp() {
+        holder = NativeContextHolder("model", free = {})
+        holder.publish("model", nextPointer.getAndIncrement(), 2048)
+        @Suppress("OPT_IN_USAGE")
+        dispatcher = newFixedThreadPoolContext(REQUESTS, "streams")
+    }
+
+    @TearDown
+    fun tearDown() {
+        dispatcher.close()
+        holder.unload()
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    fun burstThroughput(): Int = burst()
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun burstLatency(): Int = burst()
+
+    // As CactusLM.generateCompletion takes a stream for each request, returns the tokens decoded
+    private fun burst(): Int = runBlocking(dispatcher) {
+        (0 until REQUESTS).map {
+            async {
+                val handle = holder.acquireStream("model", streams) { nextPointer.getAndIncrement() }!!
+                holder.use(handle) {
+                    repeat(TOKENS) { Thread.sleep(TOKEN_MS) }
+                    TOKENS
+                }
+            }
+        }.awaitAll().sum()
+    }
+}
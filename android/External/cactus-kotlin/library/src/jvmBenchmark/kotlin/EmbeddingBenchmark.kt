@@ -0,0 +1,67 @@
+package com.cactus
+
+import kotlinx.benchmark.Benchmark
+import kotlinx.benchmark.BenchmarkMode
+import kotlinx.benchmark.BenchmarkTimeUnit
+import kotlinx.benchmark.Mode
+import kotlinx.benchmark.OutputTimeUnit
+import kotlinx.benchmark.Param
+import kotlinx.benchmark.Scope
+import kotlinx.benchmark.Setup
+import kotlinx.benchmark.State
+import org.json.JSONArray
+import org.json.JSONObject
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * What an embedding costs between the engine's float buffer and the bridge: boxing it into the
+ * SDK's List<Double>, then either the JSON array the plugin returns by default or the float32
+ * bytes it writes when the app asks for binary output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(BenchmarkTimeUnit.SECONDS)
+open class EmbeddingBenchmark {
+    @Param("384", "1024")
+    var dimension = 0
+
+    private lateinit var buffer: FloatArray
+    private lateinit var embeddings: List<Double>
+    private lateinit var bytes: ByteBuffer
+
+    @Setup
+    fun setUp() {
+        buffer = FloatArray(dimension) { (it % 97) / 48.5f - 1f }
+        embeddings = boxEmbedding()
+        bytes = ByteBuffer.allocate(dimension * 4).order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    // As CactusContext does with the buffer the engine filled
+    @Benchmark
+    fun boxEmbedding(): List<Double> = List(dimension) { buffer[it].toDouble() }
+
+    // As CactusCap.singleEmbeddingResult does without binary output
+    @Benchmark
+    fun serializeJsonArray(): String {
+        val array = JSONArray()
+        for (value in embeddings) {
+            array.put(value)
+        }
+        return JSONObject()
+            .put("success", true)
+            .put("embeddings", array)
+            .put("dimension", dimension)
+            .toString()
+    }
+
+    // As CactusBinaryPayloads.writeFloat32 fills its buffer, without the file write
+    @Benchmark
+    fun encodeFloat32(): ByteBuffer {
+        bytes.clear()
+        for (value in embeddings) {
+            bytes.putFloat(value.toFloat())
+        }
+        return bytes
+    }
+}
@@ -0,0 +1,36 @@
+package com.cactus
+
+import com.cactus.internal.CactusJsonParser
+import kotlinx.benchmark.Benchmark
+import kotlinx.benchmark.BenchmarkMode
+import kotlinx.benchmark.BenchmarkTimeUnit
+import kotlinx.benchmark.Mode
+import kotlinx.benchmark.OutputTimeUnit
+import kotlinx.benchmark.Param
+import kotlinx.benchmark.Scope
+import kotlinx.benchmark.Setup
+import kotlinx.benchmark.State
+
+/** Reading the engine's completion and transcription results, from a short reply to a long answer. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(BenchmarkTimeUnit.SECONDS)
+open class JsonParserBenchmark {
+    @Param("20", "2000")
+    var words = 0
+
+    private lateinit var completion: String
+    private lateinit var transcription: String
+
+    @Setup
+    fun setUp() {
+        completion = BenchmarkFixtures.completionJson(words)
+        transcription = BenchmarkFixtures.transcriptionJson(words)
+    }
+
+    @Benchmark
+    fun parseCompletion(): CactusCompletionResult = CactusJsonParser.parseCompletionResult(completion)
+
+    @Benchmark
+    fun parseTranscription(): CactusTranscriptionResult = CactusJsonParser.parseTranscriptionResult(transcription)
+}
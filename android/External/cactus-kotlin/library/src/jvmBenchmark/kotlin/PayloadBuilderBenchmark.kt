@@ -0,0 +1,62 @@
+package com.cactus
+
+import com.cactus.internal.CactusPayloadBuilder
+import com.cactus.internal.JsonWriter
+import com.cactus.models.CactusTool
+import com.cactus.models.toToolsJson
+import kotlinx.benchmark.Benchmark
+import kotlinx.benchmark.BenchmarkMode
+import kotlinx.benchmark.BenchmarkTimeUnit
+import kotlinx.benchmark.Blackhole
+import kotlinx.benchmark.Mode
+import kotlinx.benchmark.OutputTimeUnit
+import kotlinx.benchmark.Param
+import kotlinx.benchmark.Scope
+import kotlinx.benchmark.Setup
+import kotlinx.benchmark.State
+
+/**
+ * Encoding a completion request for the engine. [writeIntoReusedBuffer] is what the Android
+ * context does on every turn; [buildStrings] is the allocating form the transcription path and
+ * older callers use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(BenchmarkTimeUnit.SECONDS)
+open class PayloadBuilderBenchmark {
+    @Param("4", "32")
+    var messageCount = 0
+
+    @Param("40", "400")
+    var wordsPerMessage = 0
+
+    private lateinit var messages: List<ChatMessage>
+    private lateinit var tools: List<CactusTool>
+    private val params = CactusCompletionParams(temperature = 0.7, topK = 40, topP = 0.95, maxTokens = 256)
+    private val messagesWriter = JsonWriter(16 * 1024)
+    private val optionsWriter = JsonWriter(256)
+
+    @Setup
+    fun setUp() {
+        messages = BenchmarkFixtures.conversation(messageCount, wordsPerMessage)
+        tools = BenchmarkFixtures.tools(messageCount)
+    }
+
+    @Benchmark
+    fun writeIntoReusedBuffer(blackhole: Blackhole) {
+        CactusPayloadBuilder.writeMessages(messagesWriter.reset(), messages)
+        CactusPayloadBuilder.writeOptions(optionsWriter.reset(), params)
+        blackhole.consume(messagesWriter.terminate().bytes)
+        blackhole.consume(optionsWriter.terminate().bytes)
+    }
+
+    @Benchmark
+    fun buildStrings(blackhole: Blackhole) {
+        blackhole.consume(CactusPayloadBuilder.buildMessagesJson(messages))
+        blackhole.consume(CactusPayloadBuilder.buildOptionsJson(params))
+    }
+
+    // Tool schemas are cached per tool, so this is the cost of a catalog that did not change
+    @Benchmark
+    fun toolsJson(): String = tools.toToolsJson()
+}
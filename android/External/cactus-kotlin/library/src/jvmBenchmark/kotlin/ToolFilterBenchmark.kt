@@ -0,0 +1,69 @@
+package com.cactus
+
+import com.cactus.models.CactusTool
+import com.cactus.services.ToolFilterConfig
+import com.cactus.services.ToolFilterService
+import com.cactus.services.ToolFilterStrategy
+import kotlinx.benchmark.Benchmark
+import kotlinx.benchmark.BenchmarkMode
+import kotlinx.benchmark.BenchmarkTimeUnit
+import kotlinx.benchmark.Mode
+import kotlinx.benchmark.OutputTimeUnit
+import kotlinx.benchmark.Param
+import kotlinx.benchmark.Scope
+import kotlinx.benchmark.Setup
+import kotlinx.benchmark.State
+import kotlinx.benchmark.TearDown
+import kotlinx.coroutines.runBlocking
+
+/**
+ * Picking the tools for a turn from the app's catalog. The catalog is indexed in setup, as it is
+ * after the first turn, so this measures the per-query cost. Semantic filtering embeds the query
+ * with the stub engine, which is only a hash, so it times the SDK's side of the search and not
+ * the model's forward pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(BenchmarkTimeUnit.SECONDS)
+open class ToolFilterBenchmark {
+    @Param("SIMPLE", "SEMANTIC")
+    var strategy = "SIMPLE"
+
+    @Param("10", "200")
+    var toolCount = 0
+
+    private lateinit var lm: CactusLM
+    private lateinit var service: ToolFilterService
+    private lateinit var tools: List<CactusTool>
+    private val queries = listOf(
+        "what's the weather forecast in Lisbon tomorrow?",
+        "set a timer for ten minutes",
+        "send the invoice to Maria and create a reminder for Friday",
+        "play something relaxing"
+    )
+    private var next = 0
+
+    @Setup
+    fun setUp() = runBlocking {
+        lm = CactusLM(enableToolFiltering = false)
+        lm.initializeModel(CactusInitParams(model = "benchmark"))
+        tools = BenchmarkFixtures.tools(toolCount)
+        // The stub's vectors are unrelated to each other, so keep every tool rather than let
+        // semantic filtering fall back to keywords
+        service = ToolFilterService(
+            ToolFilterConfig(strategy = ToolFilterStrategy.valueOf(strategy), maxTools = 3, similarityThreshold = -1.0),
+            lm
+        )
+        service.prepare(tools)
+    }
+
+    @TearDown
+    fun tearDown() {
+        lm.unload()
+    }
+
+    @Benchmark
+    fun filterTools(): List<CactusTool> = runBlocking {
+        service.filterTools(queries[next++ and 3], tools)
+    }
+}
@@ -0,0 +1,90 @@
+package com.cactus
+
+import com.cactus.internal.CactusJsonParser
+import com.cactus.internal.CactusPayloadBuilder
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Stand-in for the native engine on a desktop JVM, used by the benchmarks. It builds the same
+ * payloads and parses responses the same way as the Android actual, but the engine itself is
+ * replaced by canned results: completions echo a fixed response with a tool call and embeddings
+ * are derived from a hash of the input, so similar inputs do not get similar vectors.
+ */
+actual object CactusContext {
+    private const val EMBEDDING_DIM = 384
+
+    private val handles = AtomicLong()
+
+    private const val COMPLETION_RESPONSE = """{"success":true,"response":"Checking the forecast for Lisbon now.","function_calls":[{"name":"get_weather","arguments":{"location":"Lisbon","unit":"celsius"}}],"time_to_first_token_ms":41.5,"total_time_ms":812.25,"tokens_per_second":24.6,"prefill_tokens":96,"decode_tokens":20,"total_tokens":116}"""
+
+    private const val TRANSCRIPTION_RESPONSE = """{"success":true,"response":"<|startoftranscript|>The quick brown fox jumps over the lazy dog.<|endoftext|>","time_to_first_token_ms":120.0,"total_time_ms":950.0,"tokens_per_second":18.9,"prefill_tokens":1500,"decode_tokens":14,"total_tokens":1514}"""
+
+    actual fun getBundleId(): String = "com.cactus.benchmark"
+
+    actual fun sha1(input: ByteArray): ByteArray =
+        MessageDigest.getInstance("SHA-1").digest(input)
+
+    actual suspend fun initContext(modelPath: String, contextSize: UInt): Long? = handles.incrementAndGet()
+
+    actual fun freeContext(handle: Long) {}
+
+    actual fun resetContext(handle: Long) {}
+
+    actual suspend fun completion(
+        handle: Long,
+        messages: List<ChatMessage>,
+        params: CactusCompletionParams,
+        tools: String?,
+        onToken: CactusStreamingCallback?,
+        quantization: Int
+    ): CactusCompletionResult {
+        CactusPayloadBuilder.buildMessagesJson(messages)
+        CactusPayloadBuilder.buildOptionsJson(params)
+        onToken?.invoke("Checking", 1u)
+        return CactusJsonParser.parseCompletionResult(COMPLETION_RESPONSE)
+    }
+
+    actual suspend fun generateEmbedding(
+        handle: Long,
+        text: String,
+        quantization: Int
+    ): CactusEmbeddingResult = embed(text.hashCode())
+
+    actual suspend fun generateImageEmbeddings(
+        handle: Long,
+        imagePaths: List<String>
+    ): List<CactusEmbeddingResult> = imagePaths.map { embed(it.hashCode()) }
+
+    actual suspend fun generateAudioEmbeddings(
+        handle: Long,
+        audioPaths: List<String>
+    ): List<CactusEmbeddingResult> = audioPaths.map { embed(it.hashCode()) }
+
+    actual suspend fun transcribe(
+        handle: Long,
+        audioFilePath: String,
+        prompt: String,
+        params: CactusTranscriptionParams,
+        onToken: CactusStreamingCallback?,
+        quantization: Int
+    ): CactusTranscriptionResult {
+        CactusPayloadBuilder.buildParamsJson(params)
+        return CactusJsonParser.parseTranscriptionResult(TRANSCRIPTION_RESPONSE)
+    }
+
+    // Boxes the vector the same way the Android actual does, so callers see the same allocations
+    private fun embed(seed: Int): CactusEmbeddingResult {
+        val buffer = FloatArray(EMBEDDING_DIM)
+        var state = seed.toLong() or 1L
+        for (i in buffer.indices) {
+            state = state * 6364136223846793005L + 1442695040888963407L
+            buffer[i] = ((state ushr 40).toInt() and 0xFFFF) / 32768f - 1f
+        }
+        return CactusEmbeddingResult(
+            success = true,
+            embeddings = List(EMBEDDING_DIM) { buffer[it].toDouble() },
+            dimension = EMBEDDING_DIM
+        )
+    }
+}
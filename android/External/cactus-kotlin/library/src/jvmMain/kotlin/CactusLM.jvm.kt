@@ -0,0 +1,6 @@
+package com.cactus
+
+import java.io.File
+
+actual fun getModelPath(modelFolder: String): String =
+    File(File(System.getProperty("java.io.tmpdir"), "cactus/models"), modelFolder).absolutePath
@@ -0,0 +1,6 @@
+package com.cactus
+
+// The stub engine in CactusContext needs no model files
+actual suspend fun downloadAndExtractModels(tasks: List<DownloadTask>): Boolean = true
+
+actual suspend fun modelExists(modelName: String): Boolean = true
@@ -0,0 +1,3 @@
+package com.cactus.audio
+
+internal actual fun temporaryAudioDirectory(): String = System.getProperty("java.io.tmpdir")
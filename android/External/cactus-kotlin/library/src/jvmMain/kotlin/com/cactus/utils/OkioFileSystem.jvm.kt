@@ -0,0 +1,7 @@
+package com.cactus
+
+import okio.FileSystem
+
+actual fun getOkioFileSystem(): FileSystem {
+    return FileSystem.SYSTEM
+}
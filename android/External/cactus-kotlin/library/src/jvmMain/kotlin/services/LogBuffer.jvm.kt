@@ -0,0 +1,6 @@
+package com.cactus.services
+
+internal actual fun logBufferDirectory(): String =
+    "${System.getProperty("java.io.tmpdir")}/cactus/log-buffer"
+
+internal actual fun clearLegacyLogRecords() {}
@@ -0,0 +1,38 @@
+package com.cactus.services
+
+import com.cactus.CactusModel
+import com.cactus.VoiceModel
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * In-memory cache for the JVM target. A slug that was never saved resolves to a placeholder
+ * model, so looking up a model's quantization never reaches the network.
+ */
+internal actual object ModelCache {
+    private val models = ConcurrentHashMap<String, CactusModel>()
+    @Volatile
+    private var voiceModels: List<VoiceModel> = emptyList()
+
+    actual suspend fun saveModel(model: CactusModel) {
+        models[model.slug] = model
+    }
+
+    actual suspend fun loadModel(slug: String): CactusModel? = models.getOrPut(slug) {
+        CactusModel(
+            created_at = "",
+            slug = slug,
+            download_url = "",
+            size_mb = 0,
+            supports_tool_calling = true,
+            supports_vision = false,
+            name = slug,
+            isDownloaded = true
+        )
+    }
+
+    actual suspend fun saveVoiceModels(models: List<VoiceModel>) {
+        voiceModels = models
+    }
+
+    actual suspend fun loadVoiceModels(): List<VoiceModel> = voiceModels
+}
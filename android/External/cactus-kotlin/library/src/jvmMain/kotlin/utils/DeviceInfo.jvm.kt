@@ -0,0 +1,14 @@
+package com.cactus.utils
+
+actual suspend fun getDeviceMetadata(): Map<String, Any> = mapOf(
+    "model" to "JVM",
+    "os" to System.getProperty("os.name"),
+    "os_version" to System.getProperty("os.version"),
+    "device_id" to "unknown",
+    "brand" to "unknown"
+)
+
+// Device registration lives in the native util library, which the JVM target does not load
+actual suspend fun getDeviceId(): String? = null
+
+actual suspend fun registerApp(encString: String): String? = null
@@ -0,0 +1,526 @@
+package com.tripwiki.plugins.cactus;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.cactus.CactusPcmSource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Turns whatever the app recorded (AAC, Opus, MP3, FLAC, WAV at any rate) into the 16 kHz mono
+ * PCM16 WAV the speech model reads. Audio is decoded in-process with MediaCodec, downmixed and
+ * resampled block by block through a reused float buffer, so memory stays flat for long files.
+ *
+ * The native side only accepts a path, so the result is written to an anonymous in-memory file
+ * (memfd) and passed as {@code /proc/self/fd/N}; nothing touches storage. Before Android 11, or
+ * when the decoded audio would be too large to keep in memory, a file in the cache directory is
+ * used instead. {@link #openStream(String)} skips the file entirely and decodes on demand for
+ * readers that consume the audio in order, such as long transcription.
+ */
+public class CactusAudioDecoder {
+    public static final int MODEL_SAMPLE_RATE = 16000;
+
+    // About 35 minutes of 16 kHz PCM16, longer recordings are decoded to the cache directory
+    private static final long MAX_IN_MEMORY_BYTES = 64L * 1024 * 1024;
+    private static final int BLOCK_SAMPLES = 8192;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+    private static final CactusLog.Sampler DECODE_LOG = new CactusLog.Sampler();
+
+    /** A decoded file ready for the model. Closing it frees the memory or deletes the file. */
+    public static final class DecodedAudio implements Closeable {
+        public final String path;
+        public final long durationMs;
+        private final ParcelFileDescriptor memfd;
+        private final File file;
+
+        private DecodedAudio(String path, long durationMs, ParcelFileDescriptor memfd, File file) {
+            this.path = path;
+            this.durationMs = durationMs;
+            this.memfd = memfd;
+            this.file = file;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (memfd != null) {
+                    memfd.close();
+                }
+            } catch (IOException e) {
+                CactusLog.error("Android: Could not close decoded audio: " + e.getMessage(), e);
+            }
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private final File cacheDirectory;
+
+    // Reused across decodes: one block of mono samples at the model rate and its PCM16 encoding
+    private final float[] block = new float[BLOCK_SAMPLES];
+    private final ByteBuffer pcm = ByteBuffer.allocate(BLOCK_SAMPLES * 2).order(ByteOrder.LITTLE_ENDIAN);
+    private int blockSize = 0;
+    private long writtenSamples = 0;
+    private FileChannel output;
+
+    public CactusAudioDecoder(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the audio at {@code path} decoded for the model, or null when the file already is a
+     * 16 kHz mono PCM16 WAV or could not be decoded, in which case the original should be used.
+     */
+    public DecodedAudio prepare(String path) {
+        if (path == null || isModelReadyWav(path)) {
+            return null;
+        }
+        try {
+            long started = System.nanoTime();
+            DecodedAudio decoded = decode(path);
+            if (DECODE_LOG.sample(CactusLog.Level.DEBUG)) {
+                CactusLog.debug("Android: Decoded " + path + " to " + decoded.durationMs + " ms of "
+                    + MODEL_SAMPLE_RATE + " Hz mono in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            }
+            return decoded;
+        } catch (Exception e) {
+            CactusLog.error("Android: Could not decode " + path + ", passing it through: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the audio at {@code path} for decoding as it is read, or returns null when the file
+     * already is a 16 kHz mono PCM16 WAV or could not be opened, in which case the original should
+     * be used. Each read decodes just enough to fill the caller's buffer, so only a window of the
+     * recording is held in memory at a time. The caller closes the stream.
+     */
+    public PcmStream openStream(String path) {
+        if (path == null || isModelReadyWav(path)) {
+            return null;
+        }
+        try {
+            return new PcmStream(path);
+        } catch (Exception e) {
+            CactusLog.error("Android: Could not decode " + path + ", passing it through: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public synchronized DecodedAudio decode(String path) throws IOException {
+        Pump pump = null;
+        ParcelFileDescriptor memfd = null;
+        File file = null;
+        FileOutputStream stream = null;
+        boolean success = false;
+        try {
+            pump = new Pump(path, this::emit);
+
+            long expectedBytes = pump.durationUs() > 0
+                ? pump.durationUs() * MODEL_SAMPLE_RATE / 1_000_000 * 2
+                : Long.MAX_VALUE;
+            memfd = expectedBytes <= MAX_IN_MEMORY_BYTES ? createMemfd() : null;
+            if (memfd != null) {
+                stream = new FileOutputStream(memfd.getFileDescriptor());
+            } else {
+                file = File.createTempFile("cactus-decoded-", ".wav", cacheDirectory);
+                stream = new FileOutputStream(file);
+            }
+            output = stream.getChannel();
+            blockSize = 0;
+            writtenSamples = 0;
+            output.write(wavHeader(0));
+
+            while (pump.step()) {
+                // Each round hands its samples to emit
+            }
+            flushBlock();
+
+            output.position(0);
+            output.write(wavHeader(writtenSamples));
+            output.force(false);
+
+            String decodedPath = memfd != null ? "/proc/self/fd/" + memfd.getFd() : file.getAbsolutePath();
+            DecodedAudio decoded = new DecodedAudio(decodedPath, writtenSamples * 1000 / MODEL_SAMPLE_RATE, memfd, file);
+            success = true;
+            return decoded;
+        } finally {
+            output = null;
+            if (pump != null) {
+                pump.close();
+            }
+            // A stream over the memfd does not own it, the DecodedAudio does
+            if (file != null && stream != null) {
+                stream.close();
+            }
+            if (!success) {
+                if (memfd != null) {
+                    memfd.close();
+                }
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void emit(float sample) throws IOException {
+        block[blockSize++] = sample;
+        if (blockSize == block.length) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockSize == 0) {
+            return;
+        }
+        pcm.clear();
+        for (int i = 0; i < blockSize; i++) {
+            pcm.putShort(toPcm16(block[i]));
+        }
+        pcm.flip();
+        while (pcm.hasRemaining()) {
+            output.write(pcm);
+        }
+        writtenSamples += blockSize;
+        blockSize = 0;
+    }
+
+    // Receives the decoded audio as mono samples at the model rate
+    private interface SampleSink {
+        void accept(float sample) throws IOException;
+    }
+
+    /**
+     * MediaCodec decoding of one file, run one round of feeding input and draining output at a
+     * time so the caller decides how far ahead of its reader decoding gets.
+     */
+    private static final class Pump implements Closeable {
+        private final MediaExtractor extractor = new MediaExtractor();
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        private final SampleSink sink;
+        private MediaFormat format;
+        private MediaCodec codec;
+        private int channels;
+        private int encoding = AudioFormat.ENCODING_PCM_16BIT;
+        private Resampler resampler;
+        private float[] mono = new float[BLOCK_SAMPLES];
+        private boolean inputDone = false;
+        private boolean outputDone = false;
+
+        Pump(String path, SampleSink sink) throws IOException {
+            this.sink = sink;
+            boolean success = false;
+            try {
+                extractor.setDataSource(path);
+                format = selectAudioTrack(extractor);
+                if (format == null) {
+                    throw new IOException("No audio track in " + path);
+                }
+                channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                resampler = new Resampler(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), sink);
+                codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+                codec.configure(format, null, null, 0);
+                codec.start();
+                success = true;
+            } finally {
+                if (!success) {
+                    close();
+                }
+            }
+        }
+
+        // Duration the container declares, 0 when it does not
+        long durationUs() {
+            return format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+        }
+
+        /** Runs one codec round, returns false once the end of the stream has been decoded. */
+        boolean step() throws IOException {
+            if (outputDone) {
+                return false;
+            }
+            if (!inputDone) {
+                int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer input = codec.getInputBuffer(inputIndex);
+                    int size = input != null ? extractor.readSampleData(input, 0) : -1;
+                    if (size < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outputIndex = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // The decoder's real output can differ from the container, e.g. HE-AAC doubles the rate
+                MediaFormat outputFormat = codec.getOutputFormat();
+                channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                    encoding = outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                }
+                resampler = new Resampler(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE), sink);
+            } else if (outputIndex >= 0) {
+                ByteBuffer decoded = codec.getOutputBuffer(outputIndex);
+                if (decoded != null && info.size > 0) {
+                    decoded.position(info.offset);
+                    decoded.limit(info.offset + info.size);
+                    int frames = downmix(decoded.order(ByteOrder.nativeOrder()));
+                    resampler.push(mono, frames);
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            }
+            return !outputDone;
+        }
+
+        // Averages the channels of each frame into the mono buffer, returns the number of frames
+        private int downmix(ByteBuffer decoded) {
+            int bytesPerSample = encoding == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+            int frames = decoded.remaining() / (bytesPerSample * channels);
+            if (mono.length < frames) {
+                mono = new float[frames];
+            }
+            for (int frame = 0; frame < frames; frame++) {
+                float sum = 0f;
+                for (int channel = 0; channel < channels; channel++) {
+                    sum += encoding == AudioFormat.ENCODING_PCM_FLOAT ? decoded.getFloat() : decoded.getShort() / 32768f;
+                }
+                mono[frame] = sum / channels;
+            }
+            return frames;
+        }
+
+        @Override
+        public void close() {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException ignored) {
+                    // Never started
+                }
+                codec.release();
+                codec = null;
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * A file decoded as it is read. Samples wait in a small buffer until the reader asks for them,
+     * which holds little more than the reader's block and one codec output buffer.
+     */
+    public static final class PcmStream implements CactusPcmSource, Closeable {
+        private final String path;
+        private final Pump pump;
+        private short[] pending = new short[BLOCK_SAMPLES];
+        private int pendingStart = 0;
+        private int pendingEnd = 0;
+
+        private PcmStream(String path) throws IOException {
+            this.path = path;
+            this.pump = new Pump(path, this::append);
+        }
+
+        @Override
+        public int getSampleRate() {
+            return MODEL_SAMPLE_RATE;
+        }
+
+        @Override
+        public long getDurationMs() {
+            return pump.durationUs() / 1000;
+        }
+
+        @Override
+        public int read(short[] out) {
+            try {
+                while (pendingEnd - pendingStart < out.length && pump.step()) {
+                    // Decode until the block can be filled or the file ends
+                }
+            } catch (IOException | IllegalStateException e) {
+                throw new IllegalStateException("Could not decode " + path + ": " + e.getMessage(), e);
+            }
+            int count = Math.min(out.length, pendingEnd - pendingStart);
+            System.arraycopy(pending, pendingStart, out, 0, count);
+            pendingStart += count;
+            return count;
+        }
+
+        private void append(float sample) {
+            if (pendingEnd == pending.length) {
+                int size = pendingEnd - pendingStart;
+                if (pendingStart == 0) {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                } else {
+                    System.arraycopy(pending, pendingStart, pending, 0, size);
+                    pendingStart = 0;
+                    pendingEnd = size;
+                }
+            }
+            pending[pendingEnd++] = toPcm16(sample);
+        }
+
+        @Override
+        public void close() {
+            pump.close();
+        }
+    }
+
+    /**
+     * Streaming resampler to {@link #MODEL_SAMPLE_RATE}. When downsampling, every output sample is
+     * the mean of the input it covers, which also filters out frequencies the lower rate cannot
+     * hold; when upsampling, neighbouring input samples are interpolated linearly.
+     */
+    private static final class Resampler {
+        private final SampleSink sink;
+        private final double step;
+        private double next;
+        private double accumulated = 0;
+        private float previous = 0f;
+        private long inputIndex = 0;
+
+        Resampler(int inputRate, SampleSink sink) {
+            this.sink = sink;
+            this.step = (double) inputRate / MODEL_SAMPLE_RATE;
+            this.next = step > 1.0 ? step : 0.0;
+        }
+
+        void push(float[] input, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                float sample = input[i];
+                if (step > 1.0) {
+                    double start = inputIndex;
+                    double end = inputIndex + 1;
+                    while (end >= next) {
+                        accumulated += sample * (next - start);
+                        sink.accept((float) (accumulated / step));
+                        accumulated = 0;
+                        start = next;
+                        next += step;
+                    }
+                    accumulated += sample * (end - start);
+                } else {
+                    while (next <= inputIndex) {
+                        double fraction = next - (inputIndex - 1);
+                        sink.accept((float) (previous + (sample - previous) * fraction));
+                        next += step;
+                    }
+                    previous = sample;
+                }
+                inputIndex++;
+            }
+        }
+    }
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int track = 0; track < extractor.getTrackCount(); track++) {
+            MediaFormat format = extractor.getTrackFormat(track);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(track);
+                return format;
+            }
+        }
+        return null;
+    }
+
+    // Anonymous shared memory file, null where memfd_create is not available
+    private static ParcelFileDescriptor createMemfd() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null;
+        }
+        try {
+            FileDescriptor fd = Os.memfd_create("cactus-audio", 0);
+            try {
+                return ParcelFileDescriptor.dup(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException | IOException e) {
+            CactusLog.error("Android: memfd_create failed, decoding to the cache directory: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static short toPcm16(float sample) {
+        float clamped = Math.max(-1f, Math.min(1f, sample));
+        return (short) Math.round(clamped * Short.MAX_VALUE);
+    }
+
+    private static ByteBuffer wavHeader(long samples) {
+        long dataBytes = samples * 2;
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt((int) (36 + dataBytes));
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) 1); // mono
+        header.putInt(MODEL_SAMPLE_RATE);
+        header.putInt(MODEL_SAMPLE_RATE * 2);
+        header.putShort((short) 2);
+        header.putShort((short) 16);
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+
+    /** True when the file is a WAV the model can read without conversion: PCM16, mono, 16 kHz. */
+    static boolean isModelReadyWav(String path) {
+        try (InputStream in = new FileInputStream(path)) {
+            byte[] riff = new byte[12];
+            if (in.read(riff) != 12 || riff[0] != 'R' || riff[1] != 'I' || riff[2] != 'F' || riff[3] != 'F'
+                || riff[8] != 'W' || riff[9] != 'A' || riff[10] != 'V' || riff[11] != 'E') {
+                return false;
+            }
+            byte[] chunk = new byte[8];
+            while (in.read(chunk) == 8) {
+                ByteBuffer chunkHeader = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+                int size = chunkHeader.getInt(4);
+                if (chunk[0] == 'f' && chunk[1] == 'm' && chunk[2] == 't' && chunk[3] == ' ') {
+                    byte[] fmt = new byte[16];
+                    if (size < 16 || in.read(fmt) != 16) {
+                        return false;
+                    }
+                    ByteBuffer fields = ByteBuffer.wrap(fmt).order(ByteOrder.LITTLE_ENDIAN);
+                    return fields.getShort(0) == 1 && fields.getShort(2) == 1
+                        && fields.getInt(4) == MODEL_SAMPLE_RATE && fields.getShort(14) == 16;
+                }
+                // Chunks are padded to an even size
+                long skip = size + (size & 1);
+                if (size < 0 || in.skip(skip) != skip) {
+                    return false;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.tripwiki.plugins.cactus;
+
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hands large numeric results to JS as files instead of JSON. Vectors are written as raw
+ * little-endian float32 into a private cache directory, and JS reads them with
+ * {@code fetch(Capacitor.convertFileSrc(path))}. The WebView's local server serves that request
+ * straight from disk as an ArrayBuffer. A 1024-dimensional embedding is 4 KiB this way, against
+ * about 20 KiB of decimal text that would otherwise be formatted, escaped into the bridge message
+ * and parsed again in JS.
+ *
+ * Files are deleted when JS releases them, and any that are never released expire after
+ * {@link #MAX_AGE_MS}.
+ */
+public class CactusBinaryPayloads {
+    public static final String FORMAT_FLOAT32 = "float32";
+    private static final long MAX_AGE_MS = 10 * 60 * 1000;
+    // Payloads older than this are dropped when the app trims its caches
+    private static final long TRIM_AGE_MS = 30 * 1000;
+    private static final String EXTENSION = ".f32";
+
+    private final File directory;
+    // Reused between writes, flushed to the channel whenever it fills
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final long createdAt = System.currentTimeMillis();
+
+    public CactusBinaryPayloads(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Deletes payloads left by an earlier run, which nobody can fetch anymore. Does directory
+     * IO, so call it off the main thread; payloads written since construction are kept.
+     */
+    public synchronized void clearLeftovers() {
+        File[] leftovers = directory.listFiles();
+        if (leftovers == null) {
+            return;
+        }
+        for (File file : leftovers) {
+            if (file.lastModified() < createdAt) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes payloads JS has had {@link #TRIM_AGE_MS} to fetch, for when the system is short on
+     * memory. JS fetches a payload as soon as its call resolves, so only abandoned files remain.
+     */
+    public synchronized void trim() {
+        deleteOlderThan(System.currentTimeMillis() - TRIM_AGE_MS);
+    }
+
+    /**
+     * Writes {@code rows} as one row-major float32 matrix, rows that are null or of another
+     * dimension are skipped. Returns the descriptor JS needs to fetch it.
+     */
+    public synchronized JSObject writeFloat32(List<List<Double>> rows, int dimension) throws IOException {
+        expireOld();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        int written = 0;
+        long byteLength = 0;
+        File file = new File(directory, UUID.randomUUID().toString() + EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(file); FileChannel channel = out.getChannel()) {
+            buffer.clear();
+            for (List<Double> row : rows) {
+                if (row == null || row.size() != dimension) {
+                    continue;
+                }
+                for (Double value : row) {
+                    if (!buffer.hasRemaining()) {
+                        byteLength += drain(channel);
+                    }
+                    buffer.putFloat(value.floatValue());
+                }
+                written++;
+            }
+            byteLength += drain(channel);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+
+        JSObject descriptor = new JSObject();
+        descriptor.put("path", file.getAbsolutePath());
+        descriptor.put("format", FORMAT_FLOAT32);
+        descriptor.put("byteLength", byteLength);
+        descriptor.put("rows", written);
+        descriptor.put("dimension", dimension);
+        return descriptor;
+    }
+
+    /** Deletes a payload JS has read, refusing paths outside the payload directory. */
+    public synchronized boolean release(String path) {
+        File file = new File(path);
+        File parent = file.getParentFile();
+        if (parent == null || !parent.getAbsolutePath().equals(directory.getAbsolutePath()) || !file.getName().endsWith(EXTENSION)) {
+            CactusLog.warn("Android: Refusing to release " + path);
+            return false;
+        }
+        return file.delete();
+    }
+
+    private int drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return bytes;
+    }
+
+    private void expireOld() {
+        deleteOlderThan(System.currentTimeMillis() - MAX_AGE_MS);
+    }
+
+    private void deleteOlderThan(long cutoff) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+}
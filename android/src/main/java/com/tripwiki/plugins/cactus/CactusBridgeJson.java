@@ -0,0 +1,138 @@
+package com.tripwiki.plugins.cactus;
+
+import com.cactus.CactusCompletionResult;
+import com.cactus.CactusTrace;
+import com.cactus.ChatMessage;
+import com.cactus.ToolCall;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The plugin's conversions on either side of a completion: the bridge's message array into
+ * {@link ChatMessage}s, and the result back into the object JS receives. Capacitor's JSArray and
+ * JSObject only add convenience methods to org.json's classes, so this works on those directly and
+ * CactusBridgeJsonBenchmark can measure it in a plain JVM unit test.
+ */
+final class CactusBridgeJson {
+
+    /** Maps an image path from JS to the one handed to the model. */
+    interface ImageResolver {
+        String resolve(String path);
+    }
+
+    private CactusBridgeJson() {}
+
+    /**
+     * Messages in bridge order, passing every image path through the resolver. Entries without a
+     * role or content are skipped, as are image entries that are not strings.
+     */
+    static List<ChatMessage> toChatMessages(JSONArray messages, ImageResolver resolver) {
+        List<ChatMessage> chatMessages = new ArrayList<>(messages.length());
+        for (int i = 0; i < messages.length(); i++) {
+            try {
+                JSONObject message = messages.getJSONObject(i);
+                String role = message.getString("role");
+                String content = message.getString("content");
+                JSONArray imagesArray = message.optJSONArray("images");
+                List<String> images = new ArrayList<>();
+                if (imagesArray != null) {
+                    for (int j = 0; j < imagesArray.length(); j++) {
+                        try {
+                            images.add(resolver.resolve(imagesArray.getString(j)));
+                        } catch (JSONException e) {
+                            // Ignore invalid images
+                        }
+                    }
+                }
+                chatMessages.add(new ChatMessage(content, role, images, null));
+            } catch (JSONException e) {
+                // Skip invalid messages
+            }
+        }
+        return chatMessages;
+    }
+
+    /** Puts success and the response text on the target, an empty string when there is none. */
+    static <T extends JSONObject> T putResponse(T target, CactusCompletionResult result) throws JSONException {
+        target.put("success", result.getSuccess());
+        target.put("response", result.getResponse() != null ? result.getResponse() : "");
+        return target;
+    }
+
+    /** Puts the timing and token counts of the result on the target; absent values are left out. */
+    static <T extends JSONObject> T putMetrics(T target, CactusCompletionResult result) throws JSONException {
+        target.put("timeToFirstTokenMs", result.getTimeToFirstTokenMs());
+        target.put("totalTimeMs", result.getTotalTimeMs());
+        target.put("tokensPerSecond", result.getTokensPerSecond());
+        target.put("prefillTokens", result.getPrefillTokens());
+        target.put("decodeTokens", result.getDecodeTokens());
+        target.put("totalTokens", result.getTotalTokens());
+        return target;
+    }
+
+    /**
+     * JS form of the calls in a completion, null when the model made none. Arguments are typed by
+     * the declared JSON type of their parameter, keyed by tool name, and keep the model's text when
+     * it does not match that type.
+     */
+    static JSONArray toolCalls(List<ToolCall> toolCalls, Map<String, Map<String, String>> typesByName) throws JSONException {
+        if (toolCalls == null || toolCalls.isEmpty()) {
+            return null;
+        }
+        JSONArray calls = new JSONArray();
+        for (ToolCall toolCall : toolCalls) {
+            Map<String, String> types = typesByName.get(toolCall.getName());
+            JSONObject arguments = new JSONObject();
+            for (Map.Entry<String, String> entry : toolCall.getArguments().entrySet()) {
+                String type = types != null ? types.get(entry.getKey()) : null;
+                arguments.put(entry.getKey(), typed(entry.getValue(), type));
+            }
+            calls.put(new JSONObject().put("name", toolCall.getName()).put("arguments", arguments));
+        }
+        return calls;
+    }
+
+    /** Puts the Chrome trace under "trace" when the request was traced. */
+    static <T extends JSONObject> T putTrace(T target, CactusTrace trace) throws JSONException {
+        if (trace != null) {
+            target.put("trace", new JSONObject(trace.toChromeTraceJson()));
+        }
+        return target;
+    }
+
+    // Falls back to the model's text when it does not match the declared type
+    private static Object typed(String value, String type) {
+        if (value == null || type == null) {
+            return value;
+        }
+        try {
+            switch (type) {
+                case "integer":
+                    return Long.parseLong(value.trim());
+                case "number":
+                    return Double.parseDouble(value.trim());
+                case "boolean":
+                    String flag = value.trim();
+                    if (flag.equalsIgnoreCase("true") || flag.equalsIgnoreCase("false")) {
+                        return Boolean.parseBoolean(flag);
+                    }
+                    return value;
+                case "object":
+                case "array":
+                    Object parsed = new JSONTokener(value).nextValue();
+                    return parsed instanceof JSONObject || parsed instanceof JSONArray ? parsed : value;
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException | JSONException e) {
+            return value;
+        }
+    }
+}
@@ -11,8 +11,13 @@ import com.cactus.CactusLM;
 import com.cactus.CactusInitParams;
 import com.cactus.CactusCompletionParams;
 import com.cactus.CactusSTT;
+import com.cactus.CactusStreamingTranscription;
+import com.cactus.CactusTranscriptionStep;
+import com.cactus.CactusTranscriptionStream;
+import com.cactus.SpeechRecognitionParams;
 import com.cactus.ChatMessage;
 import com.cactus.CactusModel;
+import com.cactus.CactusTrace;
 import com.cactus.services.ToolFilterConfig;
 import kotlin.Unit;
 import kotlin.coroutines.Continuation;
@@ -20,24 +25,117 @@ import kotlin.coroutines.CoroutineContext;
 import kotlin.coroutines.EmptyCoroutineContext;
 import kotlinx.coroutines.BuildersKt;
 import kotlinx.coroutines.Dispatchers;
+import utils.CactusLogger;
 import kotlin.jvm.functions.Function2;
 
+import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Base64;
+
+import androidx.core.content.ContextCompat;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CactusCap {
+    private static final int MIN_CONTEXT_SIZE = 512;
+    // Requests this long after the last trim signal get the configured context size and streams back
+    private static final long PRESSURE_QUIET_MS = 60 * 1000;
+    // Audio files decoded in memory at once while embedding a batch
+    private static final int AUDIO_EMBEDDING_GROUP = 16;
+    // Images embedded per native call, which sizes one result buffer for the whole group
+    private static final int IMAGE_EMBEDDING_GROUP = 16;
+    // Longest edge of cached vision inputs, above what vision encoders tile images down to
+    private static final int VISION_MAX_EDGE = 1024;
+    private static final long VISION_CACHE_BYTES = 64L * 1024 * 1024;
+    // Lane of the spans this layer adds to a request trace
+    static final String TRACE_LAYER = "plugin";
+    // Per-request log messages, sampled so a busy app logs a fraction of them
+    private static final CactusLog.Sampler COMPLETION_LOG = new CactusLog.Sampler();
+    private static final CactusLog.Sampler TRANSCRIPTION_LOG = new CactusLog.Sampler();
+    private static final CactusLog.Sampler EMBEDDING_LOG = new CactusLog.Sampler();
+
+    /**
+     * Immutable description of the model JS asked for. Replaced as a whole so the bridge thread,
+     * the inference worker and memory callbacks always see a consistent slug and context size.
+     */
+    private static final class ModelSession {
+        final String slug;
+        // What JS loaded the model with, restored once memory pressure is over
+        final int configuredContextSize;
+        // What the native context has or will be reloaded with, smaller while memory is low
+        final int contextSize;
+        // Set when the native context was released under memory pressure, reloaded on next use
+        final boolean isEvicted;
+        // Decode streams JS asked for, cut to one while memory is short
+        final int streams;
+
+        ModelSession(String slug, int contextSize, int streams) {
+            this(slug, contextSize, contextSize, false, streams);
+        }
+
+        ModelSession(String slug, int configuredContextSize, int contextSize, boolean isEvicted, int streams) {
+            this.slug = slug;
+            this.configuredContextSize = configuredContextSize;
+            this.contextSize = contextSize;
+            this.isEvicted = isEvicted;
+            this.streams = streams;
+        }
+
+        boolean isReduced() {
+            return contextSize < configuredContextSize;
+        }
+    }
+
     private CactusLM lm;
     private CactusSTT stt;
-    private boolean isModelInitialized = false;
-    private String currentModelSlug = null;
+    // Null until a model is initialized
+    private final AtomicReference<ModelSession> session = new AtomicReference<>(null);
+    // Held while releasing or reloading the native context, so workers reload an evicted model once
+    private final ReentrantLock residencyLock = new ReentrantLock();
+    // System.nanoTime() of the last trim signal, 0 before the first
+    private volatile long lastTrimNanos = 0;
+    // Held while changing the number of decode streams and the workers that serve them
+    private final Object streamsLock = new Object();
     private File modelsDirectory;
     private Context context;
     private CactusPlugin plugin;
+    // Latency and throughput figures reported by getMetrics
+    private final CactusMetrics metrics = new CactusMetrics();
+    private final CactusRequestScheduler scheduler = new CactusRequestScheduler(metrics);
+    // Emits cactusMetrics events, null unless JS asked for them
+    private java.util.concurrent.ScheduledExecutorService metricsReporter;
+    // Converts recorded audio into what the speech model reads, reusing its buffers between files
+    private CactusAudioDecoder audioDecoder;
+    // Downscaled copies of chat images, so follow-up turns do not decode full-size photos again
+    private CactusVisionCache visionCache;
+    // Embedding vectors handed to JS as float32 files when it asks for binary results
+    private CactusBinaryPayloads binaryPayloads;
+    // Tools JS sent recently, reused across turns and used to type the arguments of tool calls
+    private final CactusToolRegistry toolRegistry = new CactusToolRegistry();
+    // At most one live transcription at a time, null when none is running
+    private final AtomicReference<TranscriptionSession> transcription = new AtomicReference<>(null);
+
+    private static class TranscriptionSession {
+        final String id;
+        final CactusTranscriptionStream stream;
+        // Null when JS pushes the audio itself
+        final CactusMicrophoneCapture capture;
+
+        TranscriptionSession(String id, CactusTranscriptionStream stream, CactusMicrophoneCapture capture) {
+            this.id = id;
+            this.stream = stream;
+            this.capture = capture;
+        }
+    }
 
     public CactusCap(Context context, CactusPlugin plugin) {
         // Initialize CactusLM and CactusSTT instances
@@ -45,6 +143,21 @@ public class CactusCap {
         this.stt = new CactusSTT();
         this.context = context;
         this.plugin = plugin;
+        this.audioDecoder = new CactusAudioDecoder(context.getCacheDir());
+        this.visionCache = new CactusVisionCache(new File(context.getCacheDir(), "cactus-vision"), VISION_CACHE_BYTES, VISION_MAX_EDGE);
+        this.binaryPayloads = new CactusBinaryPayloads(new File(context.getCacheDir(), "cactus-blobs"));
+        final CactusBinaryPayloads payloads = this.binaryPayloads;
+        scheduler.submit(CactusRequestScheduler.Priority.BACKGROUND, 0, new CactusRequestScheduler.Job() {
+            @Override
+            public void run() {
+                payloads.clearLeftovers();
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                // Leftovers still expire once they pass MAX_AGE_MS
+            }
+        });
         
         // Initialize the models directory when the plugin is created
         File filesDir = context.getFilesDir();
@@ -56,7 +169,34 @@ public class CactusCap {
             this.modelsDirectory.mkdirs();
         }
         
-        Logger.info("Cactus", "Android: Models directory: " + this.modelsDirectory.getAbsolutePath());
+        CactusLog.info(() -> "Android: Models directory: " + modelsDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Queues work that touches the native model context. Returns false when the queue is full.
+     */
+    public boolean submit(CactusRequestScheduler.Priority priority, long timeoutMs, CactusRequestScheduler.Job job) {
+        return scheduler.submit(priority, timeoutMs, job);
+    }
+
+    public void shutdown() {
+        TranscriptionSession active = transcription.getAndSet(null);
+        if (active != null) {
+            if (active.capture != null) {
+                active.capture.stop();
+            }
+            active.stream.cancel();
+        }
+        scheduler.shutdown();
+        setMetricsInterval(0);
+    }
+
+    public static JSObject rejectedResult(String code, String message) {
+        JSObject result = new JSObject();
+        result.put("success", false);
+        result.put("code", code);
+        result.put("error", message);
+        return result;
     }
 
     public String echo(String value) {
@@ -64,24 +204,35 @@ public class CactusCap {
         return value;
     }
 
+    // Listing the model's files walks its directory, so it only happens when debug logging is on
+    private static void logModelFiles(String label, File modelDir) {
+        if (!CactusLog.isLoggable(CactusLog.Level.DEBUG)) {
+            return;
+        }
+        File[] files = modelDir.listFiles();
+        CactusLog.debug("Android: " + label + " model files: " + (files != null ? files.length : 0));
+        if (files != null) {
+            for (File file : files) {
+                CactusLog.debug("Android: " + label + " file: " + file.getName() + " (" + file.length() + " bytes)");
+            }
+        }
+    }
+
     public JSObject downloadModel(String modelSlug) {
         // Use Cactus SDK to download the model
         String slug = modelSlug != null ? modelSlug : "qwen3-0.6";
-        Logger.info("Cactus", "Android: Downloading model with slug: " + slug);
+        CactusLog.info(() -> "Android: Downloading model with slug: " + slug);
         
         try {
             // Check if model already exists
             File modelDir = new File(modelsDirectory, slug);
             boolean modelExists = modelDir.exists() && modelDir.isDirectory() && modelDir.listFiles().length > 0;
-            Logger.info("Cactus", "Android: Model already exists: " + modelExists);
             
             if (modelExists) {
-                Logger.info("Cactus", "Android: Model files found: " + modelDir.listFiles().length);
-                for (File file : modelDir.listFiles()) {
-                    Logger.info("Cactus", "Android: Existing file: " + file.getName() + " (" + file.length() + " bytes)");
-                }
+                CactusLog.info("Android: Model already exists");
+                logModelFiles("Existing", modelDir);
             } else {
-                Logger.info("Cactus", "Android: Model not found, starting download...");
+                CactusLog.info("Android: Model not found, starting download...");
             }
             
             // Run the suspend function in a blocking context and measure time
@@ -94,24 +245,17 @@ public class CactusCap {
             });
             long endTime = System.currentTimeMillis();
             long downloadTime = endTime - startTime;
+            if (!modelExists) {
+                recordDownload(new File(modelsDirectory, slug), downloadTime);
+            }
             
             // Log download time
-            Logger.info("Cactus", "Android: Model download completed in " + downloadTime + " ms");
+            CactusLog.info(() -> "Android: Model download completed in " + downloadTime + " ms");
             
             // Get the actual model path
             modelDir = new File(modelsDirectory, slug);
             String modelPath = modelDir.getAbsolutePath();
-            
-            // Log final model directory contents
-            if (modelDir.exists() && modelDir.isDirectory()) {
-                File[] files = modelDir.listFiles();
-                Logger.info("Cactus", "Android: Final model files: " + (files != null ? files.length : 0));
-                if (files != null) {
-                    for (File file : files) {
-                        Logger.info("Cactus", "Android: Final file: " + file.getName() + " (" + file.length() + " bytes)");
-                    }
-                }
-            }
+            logModelFiles("Final", modelDir);
             
             JSObject result = new JSObject();
             result.put("success", true);
@@ -120,7 +264,7 @@ public class CactusCap {
             result.put("modelExists", modelExists);
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error downloading model: " + e.getMessage(), e);
+            CactusLog.error("Android: Error downloading model: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error downloading model: " + e.getMessage());
@@ -130,7 +274,7 @@ public class CactusCap {
     
     public JSObject pauseDownload(String modelSlug) {
         // Use Cactus SDK to pause the download
-        Logger.info("Cactus", "Android: Pausing download");
+        CactusLog.info("Android: Pausing download");
         
         try {
             // Currently not supported in Cactus SDK
@@ -139,7 +283,7 @@ public class CactusCap {
             result.put("error", "Pause download is not supported in the current Cactus SDK version");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error pausing download: " + e.getMessage(), e);
+            CactusLog.error("Android: Error pausing download: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error pausing download: " + e.getMessage());
@@ -149,7 +293,7 @@ public class CactusCap {
     
     public JSObject resumeDownload(String modelSlug) {
         // Use Cactus SDK to resume the download
-        Logger.info("Cactus", "Android: Resuming download");
+        CactusLog.info("Android: Resuming download");
         
         try {
             // Currently not supported in Cactus SDK
@@ -158,7 +302,7 @@ public class CactusCap {
             result.put("error", "Resume download is not supported in the current Cactus SDK version");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error resuming download: " + e.getMessage(), e);
+            CactusLog.error("Android: Error resuming download: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error resuming download: " + e.getMessage());
@@ -168,7 +312,7 @@ public class CactusCap {
     
     public JSObject cancelDownload(String modelSlug) {
         // Use Cactus SDK to cancel the download
-        Logger.info("Cactus", "Android: Canceling download");
+        CactusLog.info("Android: Canceling download");
         
         try {
             // Currently not supported in Cactus SDK
@@ -177,7 +321,7 @@ public class CactusCap {
             result.put("error", "Cancel download is not supported in the current Cactus SDK version");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error canceling download: " + e.getMessage(), e);
+            CactusLog.error("Android: Error canceling download: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error canceling download: " + e.getMessage());
@@ -187,7 +331,7 @@ public class CactusCap {
     
     public JSObject getDownloadProgress(String modelSlug) {
         // Use Cactus SDK to get download progress
-        Logger.info("Cactus", "Android: Getting download progress");
+        CactusLog.info("Android: Getting download progress");
         
         try {
             // For now, return dummy progress since we can't find CactusDownloadProgress
@@ -199,7 +343,7 @@ public class CactusCap {
             result.put("status", "unknown");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error getting download progress: " + e.getMessage(), e);
+            CactusLog.error("Android: Error getting download progress: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error getting download progress: " + e.getMessage());
@@ -209,7 +353,7 @@ public class CactusCap {
 
     public JSObject getAvailableModels() {
         // Use Cactus SDK to get available models
-        Logger.info("Cactus", "Android: Getting available models");
+        CactusLog.info("Android: Getting available models");
         
         try {
             // Use runBlocking to call the suspend function
@@ -238,7 +382,7 @@ public class CactusCap {
             result.put("models", modelsArray);
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error getting available models: " + e.getMessage(), e);
+            CactusLog.error("Android: Error getting available models: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error getting available models: " + e.getMessage());
@@ -246,14 +390,14 @@ public class CactusCap {
         }
     }
 
-    public JSObject initializeModel(String modelSlug, String modelPath, int contextSize) {
+    public JSObject initializeModel(String modelSlug, String modelPath, int contextSize, int concurrentStreams) {
         // Use Cactus SDK to initialize the model
         String slug = modelSlug != null ? modelSlug : "qwen3-0.6";
-        currentModelSlug = slug;
-        Logger.info("Cactus", "Android: Initializing model: " + slug + " with context size: " + contextSize);
+        CactusLog.info(() -> "Android: Initializing model: " + slug + " with context size: " + contextSize + ", streams: " + concurrentStreams);
         
         try {
             // Run the suspend function in a blocking context
+            long loadStart = System.nanoTime();
             BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit>, Object>() {
                 @Override
                 public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit> continuation) {
@@ -261,8 +405,12 @@ public class CactusCap {
                     return lm.initializeModel(params, continuation);
                 }
             });
-            
-            isModelInitialized = true;
+            recordModelLoad(loadStart);
+
+            // Extra streams are opened lazily by CactusLM, which bounds their number. Each gets a
+            // worker to run on
+            int streams = setStreams(concurrentStreams);
+            session.set(new ModelSession(slug, contextSize, streams));
             JSObject result = new JSObject();
             result.put("success", true);
             // Return the actual model path for reference
@@ -274,7 +422,9 @@ public class CactusCap {
             }
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error initializing model: " + e.getMessage(), e);
+            // The failed load replaced whatever model was loaded before
+            setStreams(1);
+            CactusLog.error("Android: Error initializing model: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error initializing model: " + e.getMessage());
@@ -282,91 +432,44 @@ public class CactusCap {
         }
     }
     
-    public JSObject loadModel(String modelSlug, int contextSize) {
+    public JSObject loadModel(String modelSlug, int contextSize, int concurrentStreams) {
         // Load model from slug (downloaded models)
-        return initializeModel(modelSlug, null, contextSize);
+        return initializeModel(modelSlug, null, contextSize, concurrentStreams);
     }
     
-    public JSObject loadLocalModel(String modelPath, String modelSlug, int contextSize) {
+    public JSObject loadLocalModel(String modelPath, String modelSlug, int contextSize, int concurrentStreams) {
         // Load model from local path (bundled models)
-        return initializeModel(modelSlug, modelPath, contextSize);
+        return initializeModel(modelSlug, modelPath, contextSize, concurrentStreams);
     }
 
-    public JSObject generateCompletion(JSArray messages, float temperature, int maxTokens, float topP, int topK, JSArray stopSequences, JSArray tools) {
+    private String visionInput(String imagePath) {
+        ModelSession current = session.get();
+        return visionCache.resolve(imagePath, current != null ? current.slug : null);
+    }
+
+    public JSObject generateCompletion(JSArray messages, float temperature, int maxTokens, float topP, int topK, JSArray stopSequences, JSArray tools, CactusTrace trace) {
         // Use Cactus SDK to generate completion
         JSObject result = new JSObject();
         
-        if (!isModelInitialized) {
+        if (session.get() == null) {
             result.put("success", false);
             result.put("error", "No model initialized");
             return result;
         }
         
-        Logger.info("Cactus", "Android: Generating completion with " + messages.length() + " messages");
-        Logger.info("Cactus", "Android: Temperature: " + temperature + ", Max Tokens: " + maxTokens);
+        if (COMPLETION_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Generating completion with " + messages.length() + " messages, temperature: " + temperature + ", max tokens: " + maxTokens);
+        }
         
         try {
-            // Convert JSArray messages to List<ChatMessage>
-            List<ChatMessage> chatMessages = new ArrayList<>();
-            for (int i = 0; i < messages.length(); i++) {
-                try {
-                    org.json.JSONObject jsonObj = messages.getJSONObject(i);
-                    
-                    // Extract required fields
-                    String role = jsonObj.getString("role");
-                    String content = jsonObj.getString("content");
-                    
-                    // Extract optional fields with safe defaults
-                    String name = jsonObj.optString("name", null);
-                    String toolCallId = jsonObj.optString("tool_call_id", null);
-                    
-                    // Handle images if present
-                    org.json.JSONArray imagesArray = jsonObj.optJSONArray("images");
-                    List<String> images = new ArrayList<>();
-                    if (imagesArray != null) {
-                        for (int j = 0; j < imagesArray.length(); j++) {
-                            try {
-                                images.add(imagesArray.getString(j));
-                            } catch (org.json.JSONException e) {
-                                // Ignore invalid images
-                            }
-                        }
-                    }
-                    
-                    chatMessages.add(new ChatMessage(content, role, images, null));
-                } catch (org.json.JSONException e) {
-                    continue;
-                }
-            }
-            
-            // Tools functionality is temporarily disabled due to API uncertainty
-            // Convert JSArray tools to List<CactusTool> if present
-            // List<CactusTool> cactusTools = new ArrayList<>();
-            // if (tools != null && tools.length() > 0) {
-            //     for (int i = 0; i < tools.length(); i++) {
-            //         JSObject toolObj = tools.getJSObject(i);
-            //         JSObject functionObj = toolObj.getJSObject("function");
-            //         String name = functionObj.getString("name");
-            //         String description = functionObj.getString("description");
-            //         JSObject paramsObj = functionObj.getJSObject("parameters");
-            //         
-            //         // Convert parameters to Map<String, ToolParameter>
-            //         Map<String, Object> parameters = new HashMap<>();
-            //         if (paramsObj != null) {
-            //             for (String key : paramsObj.keys()) {
-            //                 JSObject paramObj = paramsObj.getJSObject(key);
-            //                 String paramType = paramObj.getString("type");
-            //                 String paramDescription = paramObj.getString("description");
-            //                 boolean required = paramObj.getBoolean("required", false);
-            //                 
-            //                 // parameters.put(key, new ToolParameter(paramType, paramDescription, required));
-            //             }
-            //         }
-            //         
-            //         cactusTools.add(generateTool(name, description, parameters));
-            //     }
-            // }
-            
+            long parseStartUs = traceNow(trace);
+            final List<ChatMessage> chatMessages = CactusBridgeJson.toChatMessages(messages, this::visionInput);
+            traceSpan(trace, "plugin.parse_messages", parseStartUs);
+
+            long toolsStartUs = traceNow(trace);
+            final CactusToolRegistry.Resolution resolvedTools = toolRegistry.resolve(tools);
+            traceSpan(trace, "plugin.resolve_tools", toolsStartUs);
+
             // Convert JSArray stopSequences to List<String>
             List<String> stopSeqList = new ArrayList<>();
             if (stopSequences != null && stopSequences.length() > 0) {
@@ -383,103 +486,72 @@ public class CactusCap {
                 topP > 0 ? (double) topP : null, // topP
                 maxTokens > 0 ? maxTokens : 512, // maxTokens
                 stopSeqList, // stopSequences
-                new java.util.ArrayList<>(), // tools - temporarily disabled due to API uncertainty
+                resolvedTools.getTools(), // tools
                 com.cactus.InferenceMode.LOCAL, // mode
                 null // cactusToken
             );
             
             // Use runBlocking to call suspend function
-            final com.cactus.CactusCompletionResult completionResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult>, Object>() {
+            long residentStartUs = traceNow(trace);
+            ensureModelResident();
+            traceSpan(trace, "plugin.ensure_resident", residentStartUs);
+            prepareNewTools(resolvedTools, trace);
+            final long dispatchStartUs = traceNow(trace);
+            final com.cactus.CactusCompletionResult completionResult = BuildersKt.runBlocking(traceContext(trace), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult>, Object>() {
                 @Override
                 public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult> continuation) {
+                    traceSpan(trace, "plugin.dispatch", dispatchStartUs);
                     return lm.generateCompletion(chatMessages, params, null, continuation);
                 }
             });
             
-            result.put("success", completionResult.getSuccess());
-            result.put("response", completionResult.getResponse() != null ? completionResult.getResponse() : "");
-            result.put("timeToFirstTokenMs", completionResult.getTimeToFirstTokenMs());
-            result.put("totalTimeMs", completionResult.getTotalTimeMs());
-            result.put("tokensPerSecond", completionResult.getTokensPerSecond());
-            result.put("prefillTokens", completionResult.getPrefillTokens());
-            result.put("decodeTokens", completionResult.getDecodeTokens());
-            result.put("totalTokens", completionResult.getTotalTokens());
+            long resultStartUs = traceNow(trace);
+            recordCompletion(completionResult);
+            CactusBridgeJson.putResponse(result, completionResult);
+            CactusBridgeJson.putMetrics(result, completionResult);
             
             // Handle tool calls if present
-            List<com.cactus.ToolCall> toolCalls = completionResult.getToolCalls();
-            if (toolCalls != null && !toolCalls.isEmpty()) {
-                JSArray toolCallsArray = new JSArray();
-                for (com.cactus.ToolCall toolCall : toolCalls) {
-                    JSObject toolCallObj = new JSObject();
-                    toolCallObj.put("name", toolCall.getName());
-                    
-                    JSObject argumentsObj = new JSObject();
-                    for (Map.Entry<String, String> entry : toolCall.getArguments().entrySet()) {
-                        argumentsObj.put(entry.getKey(), entry.getValue());
-                    }
-                    toolCallObj.put("arguments", argumentsObj);
-                    
-                    toolCallsArray.put(toolCallObj);
-                }
-                result.put("toolCalls", toolCallsArray);
+            org.json.JSONArray toolCalls = resolvedTools.toJS(completionResult.getToolCalls());
+            if (toolCalls != null) {
+                result.put("toolCalls", toolCalls);
+            }
+            if (trace != null) {
+                traceSpan(trace, "plugin.build_result", resultStartUs);
+                CactusBridgeJson.putTrace(result, trace);
             }
             
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error generating completion: " + e.getMessage(), e);
+            CactusLog.error("Android: Error generating completion: " + e.getMessage(), e);
             result.put("success", false);
             result.put("error", "Error generating completion: " + e.getMessage());
             return result;
         }
     }
     
-    public JSObject generateStreamingCompletion(JSArray messages, float temperature, int maxTokens, float topP, int topK, JSArray stopSequences, JSArray tools, com.getcapacitor.PluginCall call) {
+    public JSObject generateStreamingCompletion(JSArray messages, float temperature, int maxTokens, float topP, int topK, JSArray stopSequences, JSArray tools, CactusRequestScheduler.Priority priority, long timeoutMs, CactusTrace trace) {
         // Use Cactus SDK to generate streaming completion
         JSObject result = new JSObject();
         
-        if (!isModelInitialized) {
+        if (session.get() == null) {
             result.put("success", false);
             result.put("error", "No model initialized");
             return result;
         }
         
-        Logger.info("Cactus", "Android: Generating streaming completion with " + messages.length() + " messages");
+        if (COMPLETION_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Generating streaming completion with " + messages.length() + " messages");
+        }
         
         try {
-            // Convert JSArray messages to List<ChatMessage>
-            List<ChatMessage> chatMessages = new ArrayList<>();
-            for (int i = 0; i < messages.length(); i++) {
-                try {
-                    org.json.JSONObject jsonObj = messages.getJSONObject(i);
-                    
-                    // Extract required fields
-                    String role = jsonObj.getString("role");
-                    String content = jsonObj.getString("content");
-                    
-                    // Extract optional fields with safe defaults
-                    jsonObj.optString("name", null); // Not used in current implementation
-                    jsonObj.optString("tool_call_id", null); // Not used in current implementation
-                    
-                    // Handle images if present
-                    org.json.JSONArray imagesArray = jsonObj.optJSONArray("images");
-                    List<String> images = new ArrayList<>();
-                    if (imagesArray != null) {
-                        for (int j = 0; j < imagesArray.length(); j++) {
-                            try {
-                                images.add(imagesArray.getString(j));
-                            } catch (org.json.JSONException e) {
-                                // Ignore invalid images
-                            }
-                        }
-                    }
-                    
-                    chatMessages.add(new ChatMessage(content, role, images, null));
-                } catch (org.json.JSONException e) {
-                    continue;
-                }
-            }
-            
-            // Tools functionality is temporarily disabled due to API uncertainty
+            long parseStartUs = traceNow(trace);
+            final List<ChatMessage> chatMessages = CactusBridgeJson.toChatMessages(messages, this::visionInput);
+            traceSpan(trace, "plugin.parse_messages", parseStartUs);
+
+            long toolsStartUs = traceNow(trace);
+            final CactusToolRegistry.Resolution resolvedTools = toolRegistry.resolve(tools);
+            traceSpan(trace, "plugin.resolve_tools", toolsStartUs);
+
             // Convert JSArray stopSequences to List<String>
             List<String> stopSeqList = new ArrayList<>();
             if (stopSequences != null && stopSequences.length() > 0) {
@@ -496,91 +568,246 @@ public class CactusCap {
                 topP > 0 ? (double) topP : null, // topP
                 maxTokens > 0 ? maxTokens : 512, // maxTokens
                 stopSeqList, // stopSequences
-                new java.util.ArrayList<>(), // tools - temporarily disabled
+                resolvedTools.getTools(), // tools
                 com.cactus.InferenceMode.LOCAL, // mode
                 null // cactusToken
             );
             
-            // Use the streaming API with onToken callback
-            new Thread(() -> {
-                try {
-                    // Send start event to JavaScript
-                    JSObject startData = new JSObject();
-                    startData.put("type", "start");
-                    plugin.notifyListeners("cactusStreamingResponse", startData);
+            // Use the streaming API with onToken callback, run on the inference scheduler so it never
+            // races other requests on the native context
+            final long submittedUs = traceNow(trace);
+            boolean accepted = scheduler.submit(priority, timeoutMs, new CactusRequestScheduler.Job() {
+                @Override
+                public void run() {
+                    traceSpan(trace, "plugin.queue", submittedUs);
+                    try {
+                        // Send start event to JavaScript
+                        JSObject startData = new JSObject();
+                        startData.put("type", "start");
+                        plugin.notifyListeners("cactusStreamingResponse", startData);
                     
-                    // Use runBlocking to call suspend function
-                            final com.cactus.CactusCompletionResult completionResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult>, Object>() {
-                                @Override
-                                public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult> continuation) {
-                                    // Create a Function2<String, UInt, Unit> callback as required by the Kotlin API
-                                    kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit> onTokenCallback = new kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit>() {
-                                        @Override
-                                        public Unit invoke(String token, kotlin.UInt tokenId) {
-                                            // Send token event to JavaScript
-                                    JSObject tokenData = new JSObject();
-                                    tokenData.put("type", "token");
-                                    tokenData.put("token", token);
-                                    plugin.notifyListeners("cactusStreamingResponse", tokenData);
-                                            return Unit.INSTANCE;
+                        // Use runBlocking to call suspend function
+                        long residentStartUs = traceNow(trace);
+                        ensureModelResident();
+                        traceSpan(trace, "plugin.ensure_resident", residentStartUs);
+                        prepareNewTools(resolvedTools, trace);
+                        final long dispatchStartUs = traceNow(trace);
+                        final com.cactus.CactusCompletionResult completionResult = BuildersKt.runBlocking(traceContext(trace), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult>, Object>() {
+                            @Override
+                            public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusCompletionResult> continuation) {
+                                traceSpan(trace, "plugin.dispatch", dispatchStartUs);
+                                // Create a Function2<String, UInt, Unit> callback as required by the Kotlin API
+                                kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit> onTokenCallback = new kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit>() {
+                                    @Override
+                                    public Unit invoke(String token, kotlin.UInt tokenId) {
+                                        long callbackStart = System.nanoTime();
+                                        long eventStartUs = traceNow(trace);
+                                        // Send token event to JavaScript
+                                        JSObject tokenData = new JSObject();
+                                        tokenData.put("type", "token");
+                                        tokenData.put("token", token);
+                                        plugin.notifyListeners("cactusStreamingResponse", tokenData);
+                                        metrics.recordNanos(CactusMetrics.Distribution.TOKEN_CALLBACK_US, callbackStart, 1_000L);
+                                        if (trace != null) {
+                                            // One summary span for all tokens, so long streams keep the spans after them
+                                            trace.accumulate("plugin.token_event", TRACE_LAYER, eventStartUs, trace.nowUs() - eventStartUs);
                                         }
-                                    };
-                                    return lm.generateCompletion(chatMessages, params, onTokenCallback, continuation);
-                                }
-                            });
+                                        return Unit.INSTANCE;
+                                    }
+                                };
+                                return lm.generateCompletion(chatMessages, params, onTokenCallback, continuation);
+                            }
+                        });
                     
-                    // Send done event with final completion result
-                    JSObject doneData = new JSObject();
-                    doneData.put("type", "done");
-                    doneData.put("success", completionResult.getSuccess());
-                    doneData.put("response", completionResult.getResponse() != null ? completionResult.getResponse() : "");
-                    doneData.put("modelSlug", currentModelSlug);
-                    doneData.put("generationMetrics", new JSObject() {
-                        {
-                            put("totalTimeMs", completionResult.getTotalTimeMs());
-                            put("tokensPerSecond", completionResult.getTokensPerSecond());
-                            put("timeToFirstTokenMs", completionResult.getTimeToFirstTokenMs());
-                            put("prefillTokens", completionResult.getPrefillTokens());
-                            put("decodeTokens", completionResult.getDecodeTokens());
-                            put("totalTokens", completionResult.getTotalTokens());
+                        long resultStartUs = traceNow(trace);
+                        recordCompletion(completionResult);
+                        // Send done event with final completion result
+                        JSObject doneData = new JSObject();
+                        doneData.put("type", "done");
+                        CactusBridgeJson.putResponse(doneData, completionResult);
+                        ModelSession currentSession = session.get();
+                        doneData.put("modelSlug", currentSession != null ? currentSession.slug : null);
+                        org.json.JSONArray toolCalls = resolvedTools.toJS(completionResult.getToolCalls());
+                        if (toolCalls != null) {
+                            doneData.put("toolCalls", toolCalls);
                         }
-                    });
-                    plugin.notifyListeners("cactusStreamingResponse", doneData);
-                } catch (Exception e) {
-                    Logger.error("Android: Error in streaming completion: " + e.getMessage(), e);
+                        doneData.put("generationMetrics", CactusBridgeJson.putMetrics(new JSObject(), completionResult));
+                        if (trace != null) {
+                            traceSpan(trace, "plugin.build_result", resultStartUs);
+                            CactusBridgeJson.putTrace(doneData, trace);
+                        }
+                        plugin.notifyListeners("cactusStreamingResponse", doneData);
+                    } catch (Exception e) {
+                        CactusLog.error("Android: Error in streaming completion: " + e.getMessage(), e);
+                        JSObject eventData = new JSObject();
+                        eventData.put("type", "error");
+                        eventData.put("error", "Error in streaming completion: " + e.getMessage());
+                        plugin.notifyListeners("cactusStreamingResponse", eventData);
+                    }
+                }
+
+                @Override
+                public void reject(String code, String message) {
                     JSObject eventData = new JSObject();
                     eventData.put("type", "error");
-                    eventData.put("error", "Error in streaming completion: " + e.getMessage());
+                    eventData.put("code", code);
+                    eventData.put("error", message);
                     plugin.notifyListeners("cactusStreamingResponse", eventData);
                 }
-            }).start();
+            });
+
+            if (!accepted) {
+                return rejectedResult(CactusRequestScheduler.REJECT_BUSY, "Inference queue is full, try again later");
+            }
             
             result.put("success", true);
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error generating streaming completion: " + e.getMessage(), e);
+            CactusLog.error("Android: Error generating streaming completion: " + e.getMessage(), e);
             result.put("success", false);
             result.put("error", "Error generating streaming completion: " + e.getMessage());
             return result;
         }
     }
 
-    public JSObject transcribeAudio(String audioPath, String prompt, String language, float temperature, int maxTokens) {
+    /** Coroutine context for a completion call, carrying the trace so the SDK records its spans into it. */
+    private static CoroutineContext traceContext(CactusTrace trace) {
+        return trace != null ? Dispatchers.getIO().plus(trace) : Dispatchers.getIO();
+    }
+
+    private static long traceNow(CactusTrace trace) {
+        return trace != null ? trace.nowUs() : 0L;
+    }
+
+    // Records a span on the plugin lane from startUs until now, for traced requests only
+    static void traceSpan(CactusTrace trace, String name, long startUs) {
+        if (trace != null) {
+            trace.record(name, TRACE_LAYER, startUs, trace.nowUs() - startUs);
+        }
+    }
+
+    private void recordCompletion(com.cactus.CactusCompletionResult completionResult) {
+        if (!completionResult.getSuccess()) {
+            metrics.increment(CactusMetrics.Counter.COMPLETION_FAILURES);
+            return;
+        }
+        metrics.increment(CactusMetrics.Counter.COMPLETIONS);
+        metrics.record(CactusMetrics.Distribution.TIME_TO_FIRST_TOKEN_MS, completionResult.getTimeToFirstTokenMs());
+        metrics.record(CactusMetrics.Distribution.DECODE_TOKENS_PER_SECOND, completionResult.getTokensPerSecond());
+        if (completionResult.getPrefillTokens() != null) {
+            metrics.record(CactusMetrics.Distribution.PREFILL_TOKENS, completionResult.getPrefillTokens());
+        }
+        if (completionResult.getDecodeTokens() != null) {
+            metrics.add(CactusMetrics.Counter.GENERATED_TOKENS, completionResult.getDecodeTokens());
+        }
+    }
+
+    private void recordModelLoad(long startNanos) {
+        metrics.increment(CactusMetrics.Counter.MODEL_LOADS);
+        metrics.recordNanos(CactusMetrics.Distribution.MODEL_LOAD_MS, startNanos, 1_000_000L);
+    }
+
+    private void recordDownload(File modelDir, long downloadTimeMs) {
+        long bytes = 0;
+        File[] files = modelDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    bytes += file.length();
+                }
+            }
+        }
+        metrics.increment(CactusMetrics.Counter.DOWNLOADS);
+        metrics.add(CactusMetrics.Counter.DOWNLOADED_BYTES, bytes);
+        if (downloadTimeMs > 0 && bytes > 0) {
+            metrics.record(CactusMetrics.Distribution.DOWNLOAD_BYTES_PER_SECOND, bytes * 1000.0 / downloadTimeMs);
+        }
+    }
+
+    public CactusMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Emits a metrics snapshot as a cactusMetrics event every {@code intervalMs}, or stops doing
+     * so when it is 0. Reported values are not reset.
+     */
+    public synchronized JSObject setMetricsInterval(long intervalMs) {
+        if (metricsReporter != null) {
+            metricsReporter.shutdownNow();
+            metricsReporter = null;
+        }
+        if (intervalMs > 0) {
+            metricsReporter = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CactusMetrics");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            metricsReporter.scheduleAtFixedRate(
+                () -> plugin.notifyListeners("cactusMetrics", metrics.snapshot(false)),
+                intervalMs,
+                intervalMs,
+                java.util.concurrent.TimeUnit.MILLISECONDS
+            );
+        }
+        JSObject result = new JSObject();
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * Sets the lowest level logged by the plugin and the SDK, and how many per-request messages are
+     * sampled (one in every sampleRate). Null keeps the current value.
+     */
+    public JSObject setLogLevel(String level, Integer sampleRate) {
+        CactusLog.Level value = CactusLog.Level.fromString(level, CactusLog.getLevel());
+        CactusLog.setLevel(value);
+        CactusLogger.INSTANCE.setLevel(value.name());
+        if (sampleRate != null) {
+            CactusLog.setSampleRate(sampleRate);
+        }
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("level", value.name().toLowerCase());
+        result.put("sampleRate", CactusLog.getSampleRate());
+        return result;
+    }
+
+    // Zero maxTokens derives the budget from the audio length, zero temperature keeps greedy decoding
+    private static com.cactus.CactusTranscriptionParams transcriptionParams(String language, float temperature, int maxTokens, boolean trimSilence, long maxSilenceMs) {
+        return new com.cactus.CactusTranscriptionParams(
+            null, // model - use current
+            maxTokens > 0 ? maxTokens : com.cactus.CactusTranscriptionParams.MAX_TOKENS_FROM_AUDIO, // maxTokens
+            java.util.Arrays.asList("<|im_end|>", "<end_of_turn>"), // stopSequences
+            trimSilence,
+            maxSilenceMs,
+            language,
+            temperature > 0 ? (double) temperature : null // temperature
+        );
+    }
+
+    public JSObject transcribeAudio(String audioPath, String prompt, String language, float temperature, int maxTokens, boolean trimSilence, long maxSilenceMs) {
         // Use Cactus SDK to transcribe audio
-        Logger.info("Cactus", "Android: Transcribing audio from path: " + audioPath);
+        if (TRANSCRIPTION_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Transcribing audio from path: " + audioPath);
+        }
         
+        CactusAudioDecoder.DecodedAudio decoded = null;
         try {
-            // Create transcription params
-            com.cactus.CactusTranscriptionParams params = new com.cactus.CactusTranscriptionParams();
-            // Max tokens is not supported in transcription parameters
+            // Create transcription params, silence is cut out of WAV input before inference
+            com.cactus.CactusTranscriptionParams params = transcriptionParams(language, temperature, maxTokens, trimSilence, maxSilenceMs);
+            // Anything but a 16 kHz mono PCM WAV is decoded here rather than by the native side
+            decoded = audioDecoder.prepare(audioPath);
+            final String inputPath = decoded != null ? decoded.path : audioPath;
             
             // Use runBlocking to call suspend function
             final com.cactus.CactusTranscriptionResult transcriptionResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult>, Object>() {
                 @Override
                 public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult> continuation) {
                     return stt.transcribe(
-                        audioPath,
-                        prompt != null ? prompt : "<|startoftranscript|><|en|><|transcribe|><|notimestamps|>",
+                        inputPath,
+                        prompt, // null builds the prompt for the language
                         params,
                         null, // onToken callback
                         com.cactus.TranscriptionMode.LOCAL,
@@ -595,42 +822,392 @@ public class CactusCap {
             result.put("transcription", transcriptionResult.getText() != null ? transcriptionResult.getText() : "");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error transcribing audio: " + e.getMessage(), e);
+            CactusLog.error("Android: Error transcribing audio: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", "Error transcribing audio: " + e.getMessage());
             return result;
+        } finally {
+            if (decoded != null) {
+                decoded.close();
+            }
+        }
+    }
+
+    /**
+     * Transcribes a file on the inference scheduler, emitting "cactusTranscriptionResponse" events
+     * as tokens are decoded. Tokens are coalesced into one event per {@code coalesceMs} so long
+     * transcripts do not flood the bridge; the first token is always sent straight away.
+     */
+    public JSObject transcribeAudioStreaming(String audioPath, String prompt, String language, float temperature, int maxTokens, boolean trimSilence, long maxSilenceMs, long coalesceMs, CactusRequestScheduler.Priority priority, long timeoutMs) {
+        if (TRANSCRIPTION_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Streaming transcription of audio from path: " + audioPath);
+        }
+
+        final String transcriptionId = UUID.randomUUID().toString();
+        try {
+            com.cactus.CactusTranscriptionParams params = transcriptionParams(language, temperature, maxTokens, trimSilence, maxSilenceMs);
+
+            boolean accepted = scheduler.submit(priority, timeoutMs, new CactusRequestScheduler.Job() {
+                @Override
+                public void run() {
+                    final StringBuilder transcription = new StringBuilder();
+                    final CactusTokenCoalescer coalescer = new CactusTokenCoalescer(coalesceMs, 256, new CactusTokenCoalescer.Sink() {
+                        @Override
+                        public void emit(String text, int tokenCount) {
+                            transcription.append(text);
+                            JSObject tokenData = new JSObject();
+                            tokenData.put("type", "token");
+                            tokenData.put("transcriptionId", transcriptionId);
+                            tokenData.put("token", text);
+                            tokenData.put("tokenCount", tokenCount);
+                            tokenData.put("transcription", transcription.toString());
+                            plugin.notifyListeners("cactusTranscriptionResponse", tokenData);
+                        }
+                    });
+
+                    CactusAudioDecoder.DecodedAudio decoded = null;
+                    try {
+                        JSObject startData = new JSObject();
+                        startData.put("type", "start");
+                        startData.put("transcriptionId", transcriptionId);
+                        startData.put("audioPath", audioPath);
+                        plugin.notifyListeners("cactusTranscriptionResponse", startData);
+
+                        decoded = audioDecoder.prepare(audioPath);
+                        final String inputPath = decoded != null ? decoded.path : audioPath;
+
+                        final com.cactus.CactusTranscriptionResult transcriptionResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult>, Object>() {
+                            @Override
+                            public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult> continuation) {
+                                kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit> onTokenCallback = new kotlin.jvm.functions.Function2<String, kotlin.UInt, Unit>() {
+                                    @Override
+                                    public Unit invoke(String token, kotlin.UInt tokenId) {
+                                        long callbackStart = System.nanoTime();
+                                        coalescer.add(token);
+                                        metrics.recordNanos(CactusMetrics.Distribution.TOKEN_CALLBACK_US, callbackStart, 1_000L);
+                                        return Unit.INSTANCE;
+                                    }
+                                };
+                                return stt.transcribe(
+                                    inputPath,
+                                    prompt, // null builds the prompt for the language
+                                    params,
+                                    onTokenCallback,
+                                    com.cactus.TranscriptionMode.LOCAL,
+                                    null, // apiKey
+                                    continuation
+                                );
+                            }
+                        });
+                        coalescer.flush();
+
+                        JSObject doneData = new JSObject();
+                        doneData.put("type", "done");
+                        doneData.put("transcriptionId", transcriptionId);
+                        doneData.put("success", transcriptionResult != null && transcriptionResult.getSuccess());
+                        doneData.put("transcription", transcriptionResult != null && transcriptionResult.getText() != null ? transcriptionResult.getText() : transcription.toString());
+                        if (transcriptionResult != null) {
+                            doneData.put("metrics", new JSObject() {
+                                {
+                                    put("timeToFirstTokenMs", transcriptionResult.getTimeToFirstTokenMs());
+                                    put("totalTimeMs", transcriptionResult.getTotalTimeMs());
+                                    put("tokensPerSecond", transcriptionResult.getTokensPerSecond());
+                                }
+                            });
+                        } else {
+                            doneData.put("error", "Model not initialized");
+                        }
+                        plugin.notifyListeners("cactusTranscriptionResponse", doneData);
+                    } catch (Exception e) {
+                        CactusLog.error("Android: Error in streaming transcription: " + e.getMessage(), e);
+                        coalescer.flush();
+                        JSObject eventData = new JSObject();
+                        eventData.put("type", "error");
+                        eventData.put("transcriptionId", transcriptionId);
+                        eventData.put("error", "Error in streaming transcription: " + e.getMessage());
+                        plugin.notifyListeners("cactusTranscriptionResponse", eventData);
+                    } finally {
+                        if (decoded != null) {
+                            decoded.close();
+                        }
+                    }
+                }
+
+                @Override
+                public void reject(String code, String message) {
+                    JSObject eventData = new JSObject();
+                    eventData.put("type", "error");
+                    eventData.put("transcriptionId", transcriptionId);
+                    eventData.put("code", code);
+                    eventData.put("error", message);
+                    plugin.notifyListeners("cactusTranscriptionResponse", eventData);
+                }
+            });
+
+            if (!accepted) {
+                return rejectedResult(CactusRequestScheduler.REJECT_BUSY, "Inference queue is full, try again later");
+            }
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("transcriptionId", transcriptionId);
+            return result;
+        } catch (Exception e) {
+            CactusLog.error("Android: Error starting streaming transcription: " + e.getMessage(), e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Error starting streaming transcription: " + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * Transcribes a recording of any length chunk by chunk, emitting a "cactusTranscriptionProgress"
+     * event after each chunk so long files show progress and never outgrow one response buffer.
+     */
+    public JSObject transcribeLongAudio(String audioPath, String prompt, String language, float temperature, long chunkMs, boolean trimSilence, long maxSilenceMs) {
+        if (TRANSCRIPTION_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Transcribing long audio from path: " + audioPath);
+        }
+
+        CactusAudioDecoder.PcmStream decoded = null;
+        try {
+            com.cactus.CactusTranscriptionParams params = transcriptionParams(language, temperature, 0, trimSilence, maxSilenceMs);
+            // Anything but a 16 kHz mono PCM WAV is decoded window by window as the chunker reads it
+            decoded = audioDecoder.openStream(audioPath);
+            final CactusAudioDecoder.PcmStream source = decoded;
+            final kotlin.jvm.functions.Function1<com.cactus.CactusTranscriptionProgress, Unit> onProgress = new kotlin.jvm.functions.Function1<com.cactus.CactusTranscriptionProgress, Unit>() {
+                @Override
+                public Unit invoke(com.cactus.CactusTranscriptionProgress progress) {
+                    JSObject data = new JSObject();
+                    data.put("audioPath", audioPath);
+                    data.put("chunkIndex", progress.getChunkIndex());
+                    data.put("processedMs", progress.getProcessedMs());
+                    data.put("totalMs", progress.getTotalMs());
+                    data.put("progress", progress.getTotalMs() > 0 ? Math.min(1.0, (double) progress.getProcessedMs() / progress.getTotalMs()) : 0.0);
+                    data.put("text", progress.getChunkText());
+                    data.put("transcript", progress.getTranscript());
+                    plugin.notifyListeners("cactusTranscriptionProgress", data);
+                    return Unit.INSTANCE;
+                }
+            };
+            final com.cactus.CactusTranscriptionResult transcriptionResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult>, Object>() {
+                @Override
+                public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusTranscriptionResult> continuation) {
+                    // null prompts build the prompt for the language, 1000 ms is the overlap of hard cuts
+                    if (source != null) {
+                        return stt.transcribeLong(source, prompt, params, chunkMs, 1000L, onProgress, continuation);
+                    }
+                    return stt.transcribeLong(audioPath, prompt, params, chunkMs, 1000L, onProgress, continuation);
+                }
+            });
+
+            JSObject result = new JSObject();
+            result.put("success", transcriptionResult != null && transcriptionResult.getSuccess());
+            result.put("transcription", transcriptionResult != null && transcriptionResult.getText() != null ? transcriptionResult.getText() : "");
+            if (transcriptionResult != null && transcriptionResult.getErrorMessage() != null) {
+                result.put("error", transcriptionResult.getErrorMessage());
+            }
+            return result;
+        } catch (Exception e) {
+            CactusLog.error("Android: Error transcribing long audio: " + e.getMessage(), e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Error transcribing long audio: " + e.getMessage());
+            return result;
+        } finally {
+            if (decoded != null) {
+                decoded.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a live transcription. Audio comes from the microphone when {@code useMicrophone} is
+     * set, otherwise JS pushes PCM16 chunks through {@link #pushTranscriptionAudio}. Hypotheses are
+     * emitted as "cactusTranscriptionStream" events while audio is still coming in.
+     */
+    public JSObject startStreamingTranscription(boolean useMicrophone, int sampleRate, long maxDurationMs, long maxSilenceMs, long stepMs, String prompt, String language) {
+        if (transcription.get() != null) {
+            return rejectedResult(CactusRequestScheduler.REJECT_BUSY, "A streaming transcription is already running");
+        }
+        if (useMicrophone && ContextCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "RECORD_AUDIO permission has not been granted");
+            return result;
+        }
+
+        String streamId = UUID.randomUUID().toString();
+        SpeechRecognitionParams params = new SpeechRecognitionParams(maxSilenceMs, maxDurationMs, sampleRate, null, language);
+        CactusTranscriptionStream stream = stt.startStreaming(
+            params,
+            prompt, // null builds the prompt for the language
+            stepMs,
+            this::scheduleTranscriptionStep,
+            new kotlin.jvm.functions.Function1<CactusStreamingTranscription, Unit>() {
+                @Override
+                public Unit invoke(CactusStreamingTranscription hypothesis) {
+                    JSObject data = new JSObject();
+                    data.put("streamId", streamId);
+                    data.put("type", hypothesis.isFinal() ? "final" : "partial");
+                    data.put("text", hypothesis.getText());
+                    data.put("transcript", hypothesis.getTranscript());
+                    data.put("segmentIndex", hypothesis.getSegmentIndex());
+                    plugin.notifyListeners("cactusTranscriptionStream", data);
+                    return Unit.INSTANCE;
+                }
+            }
+        );
+
+        CactusMicrophoneCapture capture = useMicrophone ? new CactusMicrophoneCapture(sampleRate) : null;
+        if (!transcription.compareAndSet(null, new TranscriptionSession(streamId, stream, capture))) {
+            stream.cancel();
+            return rejectedResult(CactusRequestScheduler.REJECT_BUSY, "A streaming transcription is already running");
+        }
+        if (capture != null) {
+            try {
+                capture.start(stream::push);
+            } catch (Exception e) {
+                CactusLog.error("Android: Error opening microphone: " + e.getMessage(), e);
+                transcription.set(null);
+                stream.cancel();
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", "Error opening microphone: " + e.getMessage());
+                return result;
+            }
+        }
+
+        CactusLog.info(() -> "Android: Started streaming transcription " + streamId + (useMicrophone ? " from the microphone" : ""));
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("streamId", streamId);
+        return result;
+    }
+
+    // Runs each decode of a live transcription as an interactive request, so it takes turns with
+    // chat and batch work on the same scheduler instead of competing with them for the model
+    private void scheduleTranscriptionStep(CactusTranscriptionStep step) {
+        boolean isQueued = scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new CactusRequestScheduler.Job() {
+            @Override
+            public void run() {
+                BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit>, Object>() {
+                    @Override
+                    public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit> continuation) {
+                        return step.run(continuation);
+                    }
+                });
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                step.reject();
+            }
+        });
+        if (!isQueued) {
+            step.reject();
+        }
+    }
+
+    /**
+     * Appends base64-encoded little-endian PCM16 mono samples to a pushed transcription stream.
+     */
+    public JSObject pushTranscriptionAudio(String streamId, String pcmBase64) {
+        TranscriptionSession active = transcription.get();
+        JSObject result = new JSObject();
+        if (active == null || !active.id.equals(streamId) || active.capture != null) {
+            result.put("success", false);
+            result.put("error", "No pushed transcription stream with id " + streamId);
+            return result;
+        }
+
+        byte[] bytes = Base64.decode(pcmBase64, Base64.DEFAULT);
+        short[] samples = new short[bytes.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+        }
+        active.stream.push(samples, samples.length);
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * Stops capturing, transcribes the remaining audio and returns the full transcript.
+     */
+    public JSObject stopStreamingTranscription(String streamId) {
+        TranscriptionSession active = transcription.get();
+        JSObject result = new JSObject();
+        if (active == null || !active.id.equals(streamId) || !transcription.compareAndSet(active, null)) {
+            result.put("success", false);
+            result.put("error", "No streaming transcription with id " + streamId);
+            return result;
+        }
+
+        try {
+            if (active.capture != null) {
+                active.capture.stop();
+            }
+            final String transcript = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super String>, Object>() {
+                @Override
+                public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super String> continuation) {
+                    return active.stream.finish(continuation);
+                }
+            });
+
+            JSObject doneData = new JSObject();
+            doneData.put("streamId", streamId);
+            doneData.put("type", "done");
+            doneData.put("transcript", transcript);
+            plugin.notifyListeners("cactusTranscriptionStream", doneData);
+
+            result.put("success", true);
+            result.put("transcription", transcript);
+            return result;
+        } catch (Exception e) {
+            CactusLog.error("Android: Error finishing streaming transcription: " + e.getMessage(), e);
+            active.stream.cancel();
+            result.put("success", false);
+            result.put("error", "Error finishing streaming transcription: " + e.getMessage());
+            return result;
         }
     }
 
     public JSObject unloadModel() {
         // Use Cactus SDK to unload the model
-        Logger.info("Cactus", "Android: Unloading model");
+        CactusLog.info("Android: Unloading model");
         
+        residencyLock.lock();
         try {
             lm.unload();
-            isModelInitialized = false;
-            currentModelSlug = null;
+            session.set(null);
+            setStreams(1);
             
             JSObject result = new JSObject();
             result.put("success", true);
             result.put("message", "Model unloaded successfully");
             return result;
         } catch (Exception e) {
-            Logger.error("Android: Error unloading model: " + e.getMessage(), e);
+            CactusLog.error("Android: Error unloading model: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("message", "Error unloading model: " + e.getMessage());
             return result;
+        } finally {
+            residencyLock.unlock();
         }
     }
 
-    public JSObject getTextEmbeddings(String text) {
+    public JSObject getTextEmbeddings(String text, boolean binary) {
         // Use Cactus SDK to generate text embeddings
-        Logger.info("Cactus", "Android: Generating embeddings for text: " + text);
+        if (EMBEDDING_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Generating embeddings for " + text.length() + " characters of text");
+        }
         
         try {
             // Use runBlocking to call suspend function
+            ensureModelResident();
             final com.cactus.CactusEmbeddingResult embeddingResult = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusEmbeddingResult>, Object>() {
                 @Override
                 public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super com.cactus.CactusEmbeddingResult> continuation) {
@@ -638,32 +1215,421 @@ public class CactusCap {
                 }
             });
             
+            return singleEmbeddingResult(java.util.Collections.singletonList(embeddingResult), binary);
+        } catch (Exception e) {
+            CactusLog.error("Android: Error generating embeddings: " + e.getMessage(), e);
             JSObject result = new JSObject();
-            result.put("success", embeddingResult.getSuccess());
-            
-            // Convert List<Double> to JSArray
-            JSArray embeddingsArray = new JSArray();
-            for (Double value : embeddingResult.getEmbeddings()) {
-                embeddingsArray.put(value);
+            result.put("success", false);
+            result.put("error", "Error generating embeddings: " + e.getMessage());
+            return result;
+        }
+    }
+    
+    public JSObject getImageEmbeddings(String imagePath, boolean binary) {
+        if (EMBEDDING_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Generating embeddings for image: " + imagePath);
+        }
+        try {
+            return singleEmbeddingResult(embedImages(java.util.Collections.singletonList(imagePath)), binary);
+        } catch (Exception e) {
+            CactusLog.error("Android: Error generating image embeddings: " + e.getMessage(), e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Error generating image embeddings: " + e.getMessage());
+            return result;
+        }
+    }
+
+    public JSObject getImageEmbeddingsBatch(JSArray imagePaths, boolean binary) {
+        try {
+            List<String> paths = toStringList(imagePaths);
+            if (EMBEDDING_LOG.sample(CactusLog.Level.DEBUG)) {
+                CactusLog.debug("Android: Generating embeddings for " + paths.size() + " images");
             }
-            result.put("embeddings", embeddingsArray);
-            
+            return batchEmbeddingResult(paths, embedImages(paths), binary);
+        } catch (Exception e) {
+            CactusLog.error("Android: Error generating image embeddings: " + e.getMessage(), e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Error generating image embeddings: " + e.getMessage());
             return result;
+        }
+    }
+
+    public JSObject getAudioEmbeddings(String audioPath, boolean binary) {
+        if (EMBEDDING_LOG.sample(CactusLog.Level.DEBUG)) {
+            CactusLog.debug("Android: Generating embeddings for audio: " + audioPath);
+        }
+        try {
+            return singleEmbeddingResult(embedAudio(java.util.Collections.singletonList(audioPath)), binary);
         } catch (Exception e) {
-            Logger.error("Android: Error generating embeddings: " + e.getMessage(), e);
+            CactusLog.error("Android: Error generating audio embeddings: " + e.getMessage(), e);
             JSObject result = new JSObject();
             result.put("success", false);
-            result.put("error", "Error generating embeddings: " + e.getMessage());
+            result.put("error", "Error generating audio embeddings: " + e.getMessage());
             return result;
         }
     }
-    
-    // Image and audio embeddings are not supported in the current Cactus SDK version
 
-    // Helper method to generate CactusTool from parameters
-    private Object generateTool(String name, String description, Map<String, Object> parameters) {
-        // This is a placeholder - CactusTool API seems different in the current SDK version
-        // For now, we'll return null since the exact API isn't clear
-        return null;
+    public JSObject getAudioEmbeddingsBatch(JSArray audioPaths, boolean binary) {
+        try {
+            List<String> paths = toStringList(audioPaths);
+            if (EMBEDDING_LOG.sample(CactusLog.Level.DEBUG)) {
+                CactusLog.debug("Android: Generating embeddings for " + paths.size() + " audio files");
+            }
+            return batchEmbeddingResult(paths, embedAudio(paths), binary);
+        } catch (Exception e) {
+            CactusLog.error("Android: Error generating audio embeddings: " + e.getMessage(), e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Error generating audio embeddings: " + e.getMessage());
+            return result;
+        }
+    }
+
+    public JSObject releaseBinaryPayload(String path) {
+        JSObject result = new JSObject();
+        result.put("success", binaryPayloads.release(path));
+        return result;
+    }
+
+    // Images go through the vision encoder of the loaded language model, a group at a time so a
+    // gallery-sized batch does not need one native buffer for every image
+    private List<com.cactus.CactusEmbeddingResult> embedImages(List<String> paths) throws Exception {
+        ensureModelResident();
+        List<com.cactus.CactusEmbeddingResult> results = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += IMAGE_EMBEDDING_GROUP) {
+            final List<String> group = paths.subList(start, Math.min(paths.size(), start + IMAGE_EMBEDDING_GROUP));
+            List<com.cactus.CactusEmbeddingResult> groupResults = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super List<com.cactus.CactusEmbeddingResult>>, Object>() {
+                @Override
+                public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super List<com.cactus.CactusEmbeddingResult>> continuation) {
+                    return lm.generateImageEmbeddings(group, null, continuation);
+                }
+            });
+            if (groupResults == null) {
+                return null;
+            }
+            results.addAll(groupResults);
+        }
+        return results;
+    }
+
+    // Audio goes through the speech model's encoder, decoded to 16 kHz WAV a group at a time so
+    // in-memory decoded files stay bounded on large batches
+    private List<com.cactus.CactusEmbeddingResult> embedAudio(List<String> paths) throws Exception {
+        List<com.cactus.CactusEmbeddingResult> results = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += AUDIO_EMBEDDING_GROUP) {
+            List<CactusAudioDecoder.DecodedAudio> decoded = new ArrayList<>();
+            try {
+                final List<String> inputs = new ArrayList<>();
+                for (String path : paths.subList(start, Math.min(paths.size(), start + AUDIO_EMBEDDING_GROUP))) {
+                    CactusAudioDecoder.DecodedAudio audio = audioDecoder.prepare(path);
+                    if (audio != null) {
+                        decoded.add(audio);
+                    }
+                    inputs.add(audio != null ? audio.path : path);
+                }
+                List<com.cactus.CactusEmbeddingResult> groupResults = BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super List<com.cactus.CactusEmbeddingResult>>, Object>() {
+                    @Override
+                    public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super List<com.cactus.CactusEmbeddingResult>> continuation) {
+                        return stt.generateAudioEmbeddings(inputs, null, continuation);
+                    }
+                });
+                if (groupResults == null) {
+                    return null;
+                }
+                results.addAll(groupResults);
+            } finally {
+                for (CactusAudioDecoder.DecodedAudio audio : decoded) {
+                    audio.close();
+                }
+            }
+        }
+        return results;
+    }
+
+    private static List<String> toStringList(JSArray array) throws org.json.JSONException {
+        List<String> list = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                list.add(array.getString(i));
+            }
+        }
+        return list;
+    }
+
+    private static JSArray toJSArray(List<Double> values) {
+        JSArray array = new JSArray();
+        for (Double value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    // With binary set, the vector goes out as a float32 file described under "binary" instead of "embeddings"
+    private JSObject singleEmbeddingResult(List<com.cactus.CactusEmbeddingResult> results, boolean binary) throws java.io.IOException {
+        JSObject result = new JSObject();
+        if (results == null || results.isEmpty()) {
+            result.put("success", false);
+            result.put("error", "Model not initialized");
+            return result;
+        }
+        com.cactus.CactusEmbeddingResult embedding = results.get(0);
+        result.put("success", embedding.getSuccess());
+        if (binary && embedding.getSuccess()) {
+            result.put("binary", binaryPayloads.writeFloat32(java.util.Collections.singletonList(embedding.getEmbeddings()), embedding.getEmbeddings().size()));
+        } else {
+            result.put("embeddings", toJSArray(embedding.getEmbeddings()));
+        }
+        result.put("dimension", embedding.getDimension());
+        if (embedding.getErrorMessage() != null) {
+            result.put("error", embedding.getErrorMessage());
+        }
+        return result;
+    }
+
+    // One entry per path in request order; the call succeeds when the model ran, even if some files failed.
+    // With binary set, all vectors go into one float32 matrix and each successful entry gets its row
+    private JSObject batchEmbeddingResult(List<String> paths, List<com.cactus.CactusEmbeddingResult> results, boolean binary) throws java.io.IOException {
+        JSObject result = new JSObject();
+        if (results == null) {
+            result.put("success", false);
+            result.put("error", "Model not initialized");
+            return result;
+        }
+        JSArray items = new JSArray();
+        Integer dimension = null;
+        // The matrix has one width, a vector of another size is returned inline instead of as a row
+        int width = -1;
+        List<List<Double>> rows = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            com.cactus.CactusEmbeddingResult embedding = results.get(i);
+            JSObject item = new JSObject();
+            item.put("path", paths.get(i));
+            item.put("success", embedding.getSuccess());
+            if (embedding.getSuccess()) {
+                if (dimension == null) {
+                    dimension = embedding.getDimension();
+                }
+                if (binary && width < 0) {
+                    width = embedding.getEmbeddings().size();
+                }
+                if (binary && embedding.getEmbeddings().size() == width) {
+                    item.put("row", rows.size());
+                    rows.add(embedding.getEmbeddings());
+                } else {
+                    item.put("embeddings", toJSArray(embedding.getEmbeddings()));
+                }
+            } else {
+                item.put("error", embedding.getErrorMessage());
+            }
+            items.put(item);
+        }
+        result.put("success", true);
+        result.put("dimension", dimension);
+        result.put("results", items);
+        if (binary && !rows.isEmpty()) {
+            result.put("binary", binaryPayloads.writeFloat32(rows, width));
+        }
+        return result;
+    }
+
+    /**
+     * Reacts to {@link ComponentCallbacks2} trim levels. RUNNING_MODERATE and UI_HIDDEN drop the
+     * caches that are cheap to rebuild: downscaled images, registered tools and their filter
+     * indexes, and binary payloads JS never fetched. They also close the extra decode streams.
+     * RUNNING_LOW additionally frees the native context and reloads it later with half the
+     * configured context size, RUNNING_CRITICAL and background levels free it entirely. The model
+     * is reloaded transparently on the next request, and gets its configured size and streams
+     * back once no trim signal has arrived for {@link #PRESSURE_QUIET_MS}.
+     */
+    public void onTrimMemory(int level) {
+        lastTrimNanos = System.nanoTime();
+        dropCaches(level);
+        limitStreams();
+        if (!shouldReleaseModel(level)) {
+            return;
+        }
+        // Called on the main thread, which must not wait out a reload. The model is reloading for a
+        // request that is about to run, and trim callbacks keep coming while memory stays low
+        if (!residencyLock.tryLock()) {
+            CactusLog.info(() -> "Android: Model is reloading, skipping trim level " + level);
+            return;
+        }
+        try {
+            ModelSession current = session.get();
+            if (current == null || current.isEvicted) {
+                return;
+            }
+
+            // Halved from the configured size, so repeated signals do not shrink it further
+            int contextSize = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                ? Math.min(current.contextSize, Math.max(MIN_CONTEXT_SIZE, current.configuredContextSize / 2))
+                : current.contextSize;
+            ModelSession evicted = new ModelSession(current.slug, current.configuredContextSize, contextSize, true, current.streams);
+            if (!session.compareAndSet(current, evicted)) {
+                // A load won the race, nothing left to release
+                return;
+            }
+
+            CactusLog.info(() -> "Android: Releasing model " + current.slug + " for trim level " + level);
+            // Requests already running keep the native context alive until they return. One that
+            // slips in before the next ensureModelResident has the SDK reload it at the same size
+            lm.unload(contextSize);
+            notifyModelStateChanged(evicted, "unloaded", "memoryPressure", level);
+        } finally {
+            residencyLock.unlock();
+        }
+    }
+
+    private static boolean shouldReleaseModel(int level) {
+        return level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+            || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+    }
+
+    private void dropCaches(int level) {
+        CactusLog.info(() -> "Android: Dropping caches for trim level " + level);
+        toolRegistry.clear();
+        lm.clearToolIndexes();
+        // Both delete files, which the main thread this is called on must not wait for
+        final CactusVisionCache images = visionCache;
+        final CactusBinaryPayloads payloads = binaryPayloads;
+        scheduler.submit(CactusRequestScheduler.Priority.BACKGROUND, 0, new CactusRequestScheduler.Job() {
+            @Override
+            public void run() {
+                images.clear();
+                payloads.trim();
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                // The vision cache stays within its budget and payloads expire on their own
+            }
+        });
+    }
+
+    // True once no trim signal has arrived for PRESSURE_QUIET_MS
+    private boolean isMemoryPressureOver() {
+        long lastTrim = lastTrimNanos;
+        return lastTrim == 0 || System.nanoTime() - lastTrim >= PRESSURE_QUIET_MS * 1_000_000L;
+    }
+
+    // Sets how many completions may decode at once and the workers that run them, returns the
+    // number CactusLM accepted
+    private int setStreams(int streams) {
+        synchronized (streamsLock) {
+            lm.setMaxConcurrentStreams(streams);
+            int accepted = lm.getMaxConcurrentStreams();
+            if (accepted < streams) {
+                lm.releaseExtraStreams();
+            }
+            scheduler.setWorkerCount(accepted);
+            return accepted;
+        }
+    }
+
+    // Frees the extra decode streams and keeps them closed until memory pressure is over
+    private void limitStreams() {
+        synchronized (streamsLock) {
+            lm.setMaxConcurrentStreams(1);
+            lm.releaseExtraStreams();
+            scheduler.setWorkerCount(1);
+        }
+    }
+
+    private void restoreStreams(ModelSession current) {
+        if (current == null || current.streams <= 1 || !isMemoryPressureOver()) {
+            return;
+        }
+        synchronized (streamsLock) {
+            // Checked again, a trim may have come in meanwhile
+            if (lm.getMaxConcurrentStreams() < current.streams && isMemoryPressureOver()) {
+                lm.setMaxConcurrentStreams(current.streams);
+                scheduler.setWorkerCount(current.streams);
+            }
+        }
+    }
+
+    // Whether the next request has to reload the model, either after an eviction or to give a
+    // reduced context its configured size back
+    private boolean needsReload(ModelSession modelSession) {
+        return modelSession != null && (modelSession.isEvicted || (modelSession.isReduced() && isMemoryPressureOver()));
+    }
+
+    // Indexes the request's tools for filtering when JS sent some for the first time. Given the
+    // whole list, since the SDK drops indexed tools that are not in it
+    private void prepareNewTools(CactusToolRegistry.Resolution resolvedTools, CactusTrace trace) throws InterruptedException {
+        if (!resolvedTools.hasNewTools()) {
+            return;
+        }
+        long prepareStartUs = traceNow(trace);
+        BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit>, Object>() {
+            @Override
+            public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit> continuation) {
+                return lm.prepareTools(resolvedTools.getTools(), continuation);
+            }
+        });
+        traceSpan(trace, "plugin.prepare_tools", prepareStartUs);
+    }
+
+    private void ensureModelResident() throws Exception {
+        ModelSession observed = session.get();
+        restoreStreams(observed);
+        if (!needsReload(observed)) {
+            return;
+        }
+
+        residencyLock.lock();
+        try {
+            final ModelSession current = session.get();
+            if (!needsReload(current)) {
+                // Another worker reloaded it while this one waited
+                return;
+            }
+
+            final int contextSize = isMemoryPressureOver() ? current.configuredContextSize : current.contextSize;
+            String reason = "reload";
+            if (!current.isEvicted) {
+                // Resident at the reduced size, released here so it comes back at the configured one
+                lm.unload(contextSize);
+                reason = "restore";
+            }
+
+            // A request that raced this may have had the SDK reload it already, at the size it was
+            // last unloaded with. A reduced one is restored by a later request
+            int loadedSize = current.isEvicted ? current.contextSize : contextSize;
+            if (!lm.isLoaded()) {
+                CactusLog.info(() -> "Android: Reloading model " + current.slug + " with context size: " + contextSize);
+                long loadStart = System.nanoTime();
+                BuildersKt.runBlocking(Dispatchers.getIO(), new kotlin.jvm.functions.Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit>, Object>() {
+                    @Override
+                    public Object invoke(kotlinx.coroutines.CoroutineScope coroutineScope, kotlin.coroutines.Continuation<? super kotlin.Unit> continuation) {
+                        return lm.initializeModel(new CactusInitParams(current.slug, contextSize), continuation);
+                    }
+                });
+                recordModelLoad(loadStart);
+                loadedSize = contextSize;
+            }
+
+            ModelSession reloaded = new ModelSession(current.slug, current.configuredContextSize, loadedSize, false, current.streams);
+            if (session.compareAndSet(current, reloaded)) {
+                notifyModelStateChanged(reloaded, "loaded", reason, null);
+            }
+        } finally {
+            residencyLock.unlock();
+        }
+    }
+
+    private void notifyModelStateChanged(ModelSession modelSession, String state, String reason, Integer trimLevel) {
+        JSObject data = new JSObject();
+        data.put("state", state);
+        data.put("reason", reason);
+        data.put("modelSlug", modelSession.slug);
+        data.put("contextSize", modelSession.contextSize);
+        if (trimLevel != null) {
+            data.put("trimLevel", trimLevel);
+        }
+        plugin.notifyListeners("cactusModelStateChanged", data);
     }
 }
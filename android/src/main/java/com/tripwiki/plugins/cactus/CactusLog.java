@@ -0,0 +1,141 @@
+package com.tripwiki.plugins.cactus;
+
+import com.getcapacitor.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Level-gated logging for the plugin. A message below the configured level is never formatted:
+ * callers pass a {@link Message} lambda, which a disabled level does not call, or guard a
+ * concatenated message with {@link #isLoggable(Level)}. A lambda that captures variables is still
+ * allocated at the call site when its level is off, so lambdas are for cold paths such as model
+ * loads. Requests that run often, such as completions and embeddings, check a {@link Sampler}
+ * first, which costs no allocation when the level is off and lets even an enabled level write
+ * only one message in {@link #setSampleRate(int) every n}.
+ *
+ * Defaults to {@link Level#INFO}, with per-request messages at {@link Level#DEBUG}, so a
+ * production app formats no log messages on the inference path. Messages go to Capacitor's
+ * {@link Logger}, whose own logging setting applies on top.
+ */
+public final class CactusLog {
+    private static final String TAG = "Cactus";
+
+    public enum Level {
+        VERBOSE,
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        NONE;
+
+        public static Level fromString(String value, Level fallback) {
+            if (value == null) {
+                return fallback;
+            }
+            switch (value.toLowerCase()) {
+                case "verbose":
+                    return VERBOSE;
+                case "debug":
+                    return DEBUG;
+                case "info":
+                    return INFO;
+                case "warn":
+                    return WARN;
+                case "error":
+                    return ERROR;
+                case "none":
+                    return NONE;
+                default:
+                    return fallback;
+            }
+        }
+    }
+
+    /**
+     * Builds a log message; only called when its level is enabled. Capturing lambdas allocate
+     * even then, so hot paths check {@link #isLoggable(Level)} or a {@link Sampler} instead.
+     */
+    public interface Message {
+        String get();
+    }
+
+    /**
+     * Lets one in every {@link #setSampleRate(int) n} messages of a call site through. Each call
+     * site that runs per request or per item keeps its own sampler, so a busy one does not use up
+     * the messages of another.
+     */
+    public static final class Sampler {
+        private final AtomicLong calls = new AtomicLong();
+
+        /** Whether this call should log at {@code level}; counts only calls whose level is enabled. */
+        public boolean sample(Level level) {
+            if (!isLoggable(level)) {
+                return false;
+            }
+            int rate = sampleRate;
+            return rate <= 1 || calls.getAndIncrement() % rate == 0;
+        }
+    }
+
+    private static volatile Level level = Level.INFO;
+    private static volatile int sampleRate = 1;
+
+    private CactusLog() {}
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level value) {
+        level = value;
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Sampled call sites log one message in every {@code rate}; 1 logs them all. */
+    public static void setSampleRate(int rate) {
+        sampleRate = Math.max(1, rate);
+    }
+
+    public static boolean isLoggable(Level value) {
+        return value.compareTo(level) >= 0 && value != Level.NONE;
+    }
+
+    public static void debug(String message) {
+        if (isLoggable(Level.DEBUG)) {
+            Logger.debug(TAG, message);
+        }
+    }
+
+    public static void debug(Message message) {
+        if (isLoggable(Level.DEBUG)) {
+            Logger.debug(TAG, message.get());
+        }
+    }
+
+    public static void info(String message) {
+        if (isLoggable(Level.INFO)) {
+            Logger.info(TAG, message);
+        }
+    }
+
+    public static void info(Message message) {
+        if (isLoggable(Level.INFO)) {
+            Logger.info(TAG, message.get());
+        }
+    }
+
+    public static void warn(String message) {
+        if (isLoggable(Level.WARN)) {
+            Logger.warn(TAG, message);
+        }
+    }
+
+    public static void error(String message, Throwable error) {
+        if (isLoggable(Level.ERROR)) {
+            Logger.error(TAG, message, error);
+        }
+    }
+}
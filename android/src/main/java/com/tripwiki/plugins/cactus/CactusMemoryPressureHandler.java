@@ -0,0 +1,33 @@
+package com.tripwiki.plugins.cactus;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Forwards system memory signals to {@link CactusCap} so a loaded model can give
+ * memory back before the OS decides to kill the whole process.
+ */
+public class CactusMemoryPressureHandler implements ComponentCallbacks2 {
+    private final CactusCap implementation;
+
+    public CactusMemoryPressureHandler(CactusCap implementation) {
+        this.implementation = implementation;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        implementation.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        implementation.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // Not interested in configuration changes
+    }
+}
@@ -0,0 +1,204 @@
+package com.tripwiki.plugins.cactus;
+
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process performance metrics: counters and latency histograms that every thread records into
+ * without locking, read back as a snapshot by {@code getMetrics}.
+ *
+ * Histograms bucket values the way HdrHistogram does: exact below 32, then 32 linear buckets per
+ * power of two. A percentile is therefore within about 3% of the true value, and memory stays
+ * fixed at a few KB per histogram however many values are recorded. Values are kept in
+ * thousandths, so fractional milliseconds and tokens per second survive.
+ */
+public class CactusMetrics {
+    private static final double SCALE = 1000.0;
+    // 2^SUB_BITS linear buckets per power of two
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Scaled values are clamped below 2^MAX_MAGNITUDE, about a billion units
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKET_COUNT = SUB_COUNT + (MAX_MAGNITUDE - SUB_BITS) * SUB_COUNT;
+
+    public enum Counter {
+        COMPLETIONS("completions"),
+        COMPLETION_FAILURES("completionFailures"),
+        GENERATED_TOKENS("generatedTokens"),
+        REJECTED_REQUESTS("rejectedRequests"),
+        MODEL_LOADS("modelLoads"),
+        DOWNLOADS("downloads"),
+        DOWNLOADED_BYTES("downloadedBytes");
+
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Distribution {
+        TIME_TO_FIRST_TOKEN_MS("timeToFirstTokenMs"),
+        DECODE_TOKENS_PER_SECOND("decodeTokensPerSecond"),
+        PREFILL_TOKENS("prefillTokens"),
+        QUEUE_WAIT_MS("queueWaitMs"),
+        MODEL_LOAD_MS("modelLoadMs"),
+        DOWNLOAD_BYTES_PER_SECOND("downloadBytesPerSecond"),
+        TOKEN_CALLBACK_US("tokenCallbackUs"),
+        BRIDGE_SERIALIZATION_US("bridgeSerializationUs");
+
+        final String key;
+
+        Distribution(String key) {
+            this.key = key;
+        }
+    }
+
+    private final AtomicLong[] counters = new AtomicLong[Counter.values().length];
+    private final Histogram[] histograms = new Histogram[Distribution.values().length];
+    private volatile long sinceMs = System.currentTimeMillis();
+
+    public CactusMetrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].incrementAndGet();
+    }
+
+    public void add(Counter counter, long delta) {
+        counters[counter.ordinal()].addAndGet(delta);
+    }
+
+    /** Records one value; null, negative and non-finite values are ignored. */
+    public void record(Distribution distribution, Double value) {
+        if (value != null) {
+            record(distribution, value.doubleValue());
+        }
+    }
+
+    public void record(Distribution distribution, double value) {
+        if (value >= 0 && !Double.isInfinite(value) && !Double.isNaN(value)) {
+            histograms[distribution.ordinal()].record(Math.round(value * SCALE));
+        }
+    }
+
+    public void recordNanos(Distribution distribution, long startNanos, long unitNanos) {
+        record(distribution, (System.nanoTime() - startNanos) / (double) unitNanos);
+    }
+
+    /**
+     * Counters and, for each histogram that has values, count, min, mean, max and p50/p90/p99.
+     * Recording continues while the snapshot is read, so the figures can be a few values apart.
+     */
+    public JSObject snapshot(boolean reset) {
+        JSObject counterValues = new JSObject();
+        for (Counter counter : Counter.values()) {
+            AtomicLong value = counters[counter.ordinal()];
+            counterValues.put(counter.key, reset ? value.getAndSet(0) : value.get());
+        }
+        JSObject histogramValues = new JSObject();
+        for (Distribution distribution : Distribution.values()) {
+            JSObject summary = histograms[distribution.ordinal()].summary(reset);
+            if (summary != null) {
+                histogramValues.put(distribution.key, summary);
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("sinceMs", sinceMs);
+        result.put("counters", counterValues);
+        result.put("histograms", histogramValues);
+        if (reset) {
+            sinceMs = System.currentTimeMillis();
+        }
+        return result;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE - 1);
+        int shift = magnitude - SUB_BITS;
+        long sub = Math.min((value >>> shift) - SUB_COUNT, SUB_COUNT - 1);
+        return SUB_COUNT + shift * SUB_COUNT + (int) sub;
+    }
+
+    // Midpoint of the bucket, in scaled units
+    static double valueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_COUNT) / SUB_COUNT;
+        long low = (long) (SUB_COUNT + (bucket - SUB_COUNT) % SUB_COUNT) << shift;
+        return low + ((1L << shift) - 1) / 2.0;
+    }
+
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        void record(long value) {
+            buckets.incrementAndGet(bucketOf(value));
+            sum.addAndGet(value);
+            long current;
+            while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+                // Retry until this value or a smaller one is stored
+            }
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Retry until this value or a larger one is stored
+            }
+        }
+
+        JSObject summary(boolean reset) {
+            long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+                total += counts[i];
+            }
+            long sumValue = reset ? sum.getAndSet(0) : sum.get();
+            long minValue = reset ? min.getAndSet(Long.MAX_VALUE) : min.get();
+            long maxValue = reset ? max.getAndSet(Long.MIN_VALUE) : max.get();
+            if (total == 0) {
+                return null;
+            }
+
+            JSObject summary = new JSObject();
+            summary.put("count", total);
+            summary.put("min", minValue / SCALE);
+            summary.put("mean", sumValue / SCALE / total);
+            summary.put("max", maxValue / SCALE);
+            summary.put("p50", percentile(counts, total, 0.50, minValue, maxValue));
+            summary.put("p90", percentile(counts, total, 0.90, minValue, maxValue));
+            summary.put("p99", percentile(counts, total, 0.99, minValue, maxValue));
+            return summary;
+        }
+
+        private static double percentile(long[] counts, long total, double quantile, long minValue, long maxValue) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // The exact extremes are known, so bucket midpoints never report past them. They
+                    // can lag the buckets by a value recorded mid-snapshot, and are not used then
+                    double value = valueOf(i);
+                    return (minValue <= maxValue ? Math.max(minValue, Math.min(maxValue, value)) : value) / SCALE;
+                }
+            }
+            return maxValue / SCALE;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.tripwiki.plugins.cactus;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/**
+ * Reads 16-bit mono PCM from the microphone on its own thread and hands it over in ~100 ms
+ * chunks. The caller is responsible for holding the RECORD_AUDIO permission.
+ */
+public class CactusMicrophoneCapture {
+    public interface Listener {
+        void onSamples(short[] samples, int count);
+    }
+
+    private final int sampleRate;
+    private AudioRecord record;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+
+    public CactusMicrophoneCapture(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @SuppressLint("MissingPermission")
+    public synchronized void start(Listener listener) {
+        if (isRunning) {
+            return;
+        }
+        int chunkSamples = sampleRate / 10;
+        int minBufferBytes = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferBytes <= 0) {
+            throw new IllegalStateException("Sample rate " + sampleRate + " is not supported by the microphone");
+        }
+
+        record = new AudioRecord(
+            MediaRecorder.AudioSource.VOICE_RECOGNITION,
+            sampleRate,
+            AudioFormat.CHANNEL_IN_MONO,
+            AudioFormat.ENCODING_PCM_16BIT,
+            Math.max(minBufferBytes, chunkSamples * 2 * 4)
+        );
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            record = null;
+            throw new IllegalStateException("Microphone could not be opened");
+        }
+
+        isRunning = true;
+        record.startRecording();
+        final AudioRecord source = record;
+        thread = new Thread(() -> {
+            short[] buffer = new short[chunkSamples];
+            while (isRunning) {
+                int read = source.read(buffer, 0, buffer.length);
+                if (read > 0) {
+                    listener.onSamples(buffer, read);
+                } else if (read < 0) {
+                    CactusLog.error("Android: Microphone read failed with code " + read, null);
+                    break;
+                }
+            }
+        }, "CactusMicrophone");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        record.stop();
+        record.release();
+        record = null;
+        thread = null;
+    }
+}
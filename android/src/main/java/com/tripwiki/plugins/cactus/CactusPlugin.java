@@ -2,17 +2,20 @@ package com.tripwiki.plugins.cactus;
 
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
-import com.getcapacitor.Logger;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 import android.content.Context;
 import com.cactus.CactusContextInitializer;
+import com.cactus.CactusTrace;
+
+import java.util.concurrent.Callable;
 
 @CapacitorPlugin(name = "CactusCap")
 public class CactusPlugin extends Plugin {
     private CactusCap implementation;
+    private CactusMemoryPressureHandler memoryPressureHandler;
     
     @Override
     public void load() {
@@ -21,14 +24,30 @@ public class CactusPlugin extends Plugin {
         Context context = getContext();
         try {
             CactusContextInitializer.INSTANCE.initialize(context);
-            Logger.info("Cactus", "CactusPlugin: CactusContextInitializer initialized successfully");
+            CactusLog.info("CactusPlugin: CactusContextInitializer initialized successfully");
         } catch (Exception e) {
-            Logger.error("Cactus", "CactusPlugin: Failed to initialize CactusContextInitializer: " + e.getMessage(), e);
+            CactusLog.error("CactusPlugin: Failed to initialize CactusContextInitializer: " + e.getMessage(), e);
         }
         
         // Initialize the implementation with the plugin's context and plugin reference
         implementation = new CactusCap(context, this);
-        Logger.info("Cactus", "CactusPlugin: Loaded and initialized CactusCap");
+        CactusLog.info("CactusPlugin: Loaded and initialized CactusCap");
+        
+        // Release model memory on system memory pressure instead of getting the process killed
+        memoryPressureHandler = new CactusMemoryPressureHandler(implementation);
+        context.getApplicationContext().registerComponentCallbacks(memoryPressureHandler);
+    }
+    
+    @Override
+    protected void handleOnDestroy() {
+        if (memoryPressureHandler != null) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(memoryPressureHandler);
+            memoryPressureHandler = null;
+        }
+        if (implementation != null) {
+            implementation.shutdown();
+        }
+        super.handleOnDestroy();
     }
     
     // Public method to forward notifyListeners calls from CactusCap
@@ -36,6 +55,47 @@ public class CactusPlugin extends Plugin {
         super.notifyListeners(eventName, data);
     }
 
+    /**
+     * Runs work on the inference scheduler and resolves the call with its result. Callers may
+     * override the priority with the "priority" option and bound the queue wait with "timeoutMs".
+     */
+    private void schedule(PluginCall call, CactusRequestScheduler.Priority defaultPriority, Callable<JSObject> work) {
+        CactusRequestScheduler.Priority priority = CactusRequestScheduler.Priority.fromString(call.getString("priority"), defaultPriority);
+        long timeoutMs = call.getLong("timeoutMs", 0L);
+
+        boolean accepted = implementation.submit(priority, timeoutMs, new CactusRequestScheduler.Job() {
+            @Override
+            public void run() {
+                try {
+                    JSObject result = work.call();
+                    // Serializing the result and handing it to the WebView happens in resolve
+                    long resolveStart = System.nanoTime();
+                    call.resolve(result);
+                    implementation.getMetrics().recordNanos(CactusMetrics.Distribution.BRIDGE_SERIALIZATION_US, resolveStart, 1_000L);
+                } catch (Exception e) {
+                    CactusLog.error("CactusPlugin: Scheduled request failed: " + e.getMessage(), e);
+                    JSObject result = new JSObject();
+                    result.put("success", false);
+                    result.put("error", e.getMessage());
+                    call.resolve(result);
+                }
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                call.resolve(CactusCap.rejectedResult(code, message));
+            }
+        });
+
+        if (!accepted) {
+            call.resolve(CactusCap.rejectedResult(CactusRequestScheduler.REJECT_BUSY, "Inference queue is full, try again later"));
+        }
+    }
+
+    // A trace keyed by the call's id when the caller set the "trace" option, otherwise null
+    private static CactusTrace newTrace(PluginCall call) {
+        return call.getBoolean("trace", false) ? new CactusTrace(call.getCallbackId()) : null;
+    }
 
     @PluginMethod
     public void echo(PluginCall call) {
@@ -62,8 +122,8 @@ public class CactusPlugin extends Plugin {
         String modelSlug = call.getString("modelSlug");
         String modelPath = call.getString("modelPath");
         int contextSize = call.getInt("contextSize", 2048);
-        JSObject result = implementation.initializeModel(modelSlug, modelPath, contextSize);
-        call.resolve(result);
+        int concurrentStreams = call.getInt("concurrentStreams", 1);
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> implementation.initializeModel(modelSlug, modelPath, contextSize, concurrentStreams));
     }
     
     @PluginMethod
@@ -74,8 +134,8 @@ public class CactusPlugin extends Plugin {
             return;
         }
         int contextSize = call.getInt("contextSize", 2048);
-        JSObject result = implementation.loadModel(modelSlug, contextSize);
-        call.resolve(result);
+        int concurrentStreams = call.getInt("concurrentStreams", 1);
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> implementation.loadModel(modelSlug, contextSize, concurrentStreams));
     }
     
     @PluginMethod
@@ -87,8 +147,8 @@ public class CactusPlugin extends Plugin {
         }
         String modelSlug = call.getString("modelSlug");
         int contextSize = call.getInt("contextSize", 2048);
-        JSObject result = implementation.loadLocalModel(modelPath, modelSlug, contextSize);
-        call.resolve(result);
+        int concurrentStreams = call.getInt("concurrentStreams", 1);
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> implementation.loadLocalModel(modelPath, modelSlug, contextSize, concurrentStreams));
     }
 
     @PluginMethod
@@ -101,8 +161,13 @@ public class CactusPlugin extends Plugin {
         JSArray stopSequences = call.getArray("stopSequences");
         JSArray tools = call.getArray("tools");
         
-        JSObject result = implementation.generateCompletion(messages, temperature, maxTokens, topP, topK, stopSequences, tools);
-        call.resolve(result);
+        CactusTrace trace = newTrace(call);
+        long submittedUs = trace != null ? trace.nowUs() : 0L;
+        
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> {
+            CactusCap.traceSpan(trace, "plugin.queue", submittedUs);
+            return implementation.generateCompletion(messages, temperature, maxTokens, topP, topK, stopSequences, tools, trace);
+        });
     }
     
     @PluginMethod
@@ -115,7 +180,10 @@ public class CactusPlugin extends Plugin {
         JSArray stopSequences = call.getArray("stopSequences");
         JSArray tools = call.getArray("tools");
         
-        JSObject result = implementation.generateStreamingCompletion(messages, temperature, maxTokens, topP, topK, stopSequences, tools, call);
+        CactusRequestScheduler.Priority priority = CactusRequestScheduler.Priority.fromString(call.getString("priority"), CactusRequestScheduler.Priority.INTERACTIVE);
+        long timeoutMs = call.getLong("timeoutMs", 0L);
+        
+        JSObject result = implementation.generateStreamingCompletion(messages, temperature, maxTokens, topP, topK, stopSequences, tools, priority, timeoutMs, newTrace(call));
         call.resolve(result);
     }
 
@@ -126,24 +194,158 @@ public class CactusPlugin extends Plugin {
         String language = call.getString("language");
         float temperature = call.getFloat("temperature", 0.0f);
         int maxTokens = call.getInt("maxTokens", 0);
-        JSObject result = implementation.transcribeAudio(audioPath, prompt, language, temperature, maxTokens);
+        boolean trimSilence = call.getBoolean("trimSilence", true);
+        long maxSilenceMs = call.getLong("maxSilenceMs", 1000L);
+        schedule(call, CactusRequestScheduler.Priority.NORMAL, () -> implementation.transcribeAudio(audioPath, prompt, language, temperature, maxTokens, trimSilence, maxSilenceMs));
+    }
+
+    @PluginMethod
+    public void transcribeAudioStreaming(PluginCall call) {
+        String audioPath = call.getString("audioPath");
+        if (audioPath == null) {
+            call.reject("audioPath is required");
+            return;
+        }
+        String prompt = call.getString("prompt");
+        String language = call.getString("language");
+        float temperature = call.getFloat("temperature", 0.0f);
+        int maxTokens = call.getInt("maxTokens", 0);
+        boolean trimSilence = call.getBoolean("trimSilence", true);
+        long maxSilenceMs = call.getLong("maxSilenceMs", 1000L);
+        long coalesceMs = call.getLong("coalesceMs", 50L);
+
+        CactusRequestScheduler.Priority priority = CactusRequestScheduler.Priority.fromString(call.getString("priority"), CactusRequestScheduler.Priority.INTERACTIVE);
+        long timeoutMs = call.getLong("timeoutMs", 0L);
+
+        JSObject result = implementation.transcribeAudioStreaming(audioPath, prompt, language, temperature, maxTokens, trimSilence, maxSilenceMs, coalesceMs, priority, timeoutMs);
         call.resolve(result);
     }
 
+    @PluginMethod
+    public void transcribeLongAudio(PluginCall call) {
+        String audioPath = call.getString("audioPath");
+        if (audioPath == null) {
+            call.reject("audioPath is required");
+            return;
+        }
+        String prompt = call.getString("prompt");
+        String language = call.getString("language");
+        float temperature = call.getFloat("temperature", 0.0f);
+        long chunkMs = call.getLong("chunkMs", 28000L);
+        boolean trimSilence = call.getBoolean("trimSilence", true);
+        long maxSilenceMs = call.getLong("maxSilenceMs", 1000L);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.transcribeLongAudio(audioPath, prompt, language, temperature, chunkMs, trimSilence, maxSilenceMs));
+    }
+
+    @PluginMethod
+    public void startStreamingTranscription(PluginCall call) {
+        boolean useMicrophone = "microphone".equals(call.getString("source", "microphone"));
+        int sampleRate = call.getInt("sampleRate", 16000);
+        long maxDurationMs = call.getLong("maxDurationMs", 30000L);
+        long maxSilenceMs = call.getLong("maxSilenceMs", 1000L);
+        long stepMs = call.getLong("stepMs", 1000L);
+        String prompt = call.getString("prompt");
+        String language = call.getString("language");
+        call.resolve(implementation.startStreamingTranscription(useMicrophone, sampleRate, maxDurationMs, maxSilenceMs, stepMs, prompt, language));
+    }
+
+    @PluginMethod
+    public void pushTranscriptionAudio(PluginCall call) {
+        String streamId = call.getString("streamId");
+        String pcm = call.getString("pcm");
+        if (streamId == null || pcm == null) {
+            call.reject("streamId and pcm are required");
+            return;
+        }
+        call.resolve(implementation.pushTranscriptionAudio(streamId, pcm));
+    }
+
+    @PluginMethod
+    public void stopStreamingTranscription(PluginCall call) {
+        String streamId = call.getString("streamId");
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> implementation.stopStreamingTranscription(streamId));
+    }
+
     @PluginMethod
     public void unloadModel(PluginCall call) {
-        JSObject result = implementation.unloadModel();
-        call.resolve(result);
+        schedule(call, CactusRequestScheduler.Priority.INTERACTIVE, () -> implementation.unloadModel());
     }
 
     @PluginMethod
     public void getTextEmbeddings(PluginCall call) {
         String text = call.getString("text");
-        JSObject result = implementation.getTextEmbeddings(text);
-        call.resolve(result);
+        boolean binary = call.getBoolean("binary", false);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.getTextEmbeddings(text, binary));
     }
 
-    // Image and audio embeddings are not supported in the current Cactus SDK version
+    @PluginMethod
+    public void getImageEmbeddings(PluginCall call) {
+        String imagePath = call.getString("imagePath");
+        if (imagePath == null) {
+            call.reject("imagePath is required");
+            return;
+        }
+        boolean binary = call.getBoolean("binary", false);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.getImageEmbeddings(imagePath, binary));
+    }
+
+    @PluginMethod
+    public void getImageEmbeddingsBatch(PluginCall call) {
+        JSArray imagePaths = call.getArray("imagePaths");
+        if (imagePaths == null) {
+            call.reject("imagePaths is required");
+            return;
+        }
+        boolean binary = call.getBoolean("binary", false);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.getImageEmbeddingsBatch(imagePaths, binary));
+    }
+
+    @PluginMethod
+    public void getAudioEmbeddings(PluginCall call) {
+        String audioPath = call.getString("audioPath");
+        if (audioPath == null) {
+            call.reject("audioPath is required");
+            return;
+        }
+        boolean binary = call.getBoolean("binary", false);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.getAudioEmbeddings(audioPath, binary));
+    }
+
+    @PluginMethod
+    public void getAudioEmbeddingsBatch(PluginCall call) {
+        JSArray audioPaths = call.getArray("audioPaths");
+        if (audioPaths == null) {
+            call.reject("audioPaths is required");
+            return;
+        }
+        boolean binary = call.getBoolean("binary", false);
+        schedule(call, CactusRequestScheduler.Priority.BACKGROUND, () -> implementation.getAudioEmbeddingsBatch(audioPaths, binary));
+    }
+
+    @PluginMethod
+    public void releaseBinaryPayload(PluginCall call) {
+        String path = call.getString("path");
+        if (path == null) {
+            call.reject("path is required");
+            return;
+        }
+        call.resolve(implementation.releaseBinaryPayload(path));
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(implementation.getMetrics().snapshot(call.getBoolean("reset", false)));
+    }
+
+    @PluginMethod
+    public void setMetricsInterval(PluginCall call) {
+        call.resolve(implementation.setMetricsInterval(call.getLong("intervalMs", 0L)));
+    }
+
+    @PluginMethod
+    public void setLogLevel(PluginCall call) {
+        call.resolve(implementation.setLogLevel(call.getString("level"), call.getInt("sampleRate")));
+    }
 
     // Download management methods
     @PluginMethod
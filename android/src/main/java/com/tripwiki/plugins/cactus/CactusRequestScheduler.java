@@ -0,0 +1,280 @@
+package com.tripwiki.plugins.cactus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializes every request that touches the native model context behind one worker thread, or
+ * a few when the loaded model serves several decode streams (see {@link #setWorkerCount(int)}).
+ *
+ * Interactive and normal requests share those workers, queued by priority (chat before
+ * transcription) and run in FIFO order within a priority. To keep normal work from starving, a
+ * waiting normal request is let through after {@link #FAIRNESS_BURST} consecutive interactive
+ * dispatches. Background requests (long transcriptions, embedding batches) run for minutes, so
+ * they get a worker of their own and run in FIFO order beside the others instead of holding a
+ * chat up until they finish. Admission is bounded: when the queue is full the request is
+ * refused immediately instead of piling up, and requests whose deadline passed while queued
+ * are rejected without running.
+ */
+public class CactusRequestScheduler {
+    public static final String REJECT_BUSY = "busy";
+    public static final String REJECT_TIMEOUT = "timeout";
+    public static final String REJECT_SHUTDOWN = "shutdown";
+
+    private static final int DEFAULT_CAPACITY = 32;
+    private static final int FAIRNESS_BURST = 8;
+    // Queue the bulk worker takes from
+    private static final int BULK = Priority.BACKGROUND.ordinal();
+
+    public enum Priority {
+        INTERACTIVE,
+        NORMAL,
+        BACKGROUND;
+
+        public static Priority fromString(String value, Priority fallback) {
+            if (value == null) {
+                return fallback;
+            }
+            switch (value.toLowerCase()) {
+                case "interactive":
+                    return INTERACTIVE;
+                case "normal":
+                    return NORMAL;
+                case "background":
+                    return BACKGROUND;
+                default:
+                    return fallback;
+            }
+        }
+    }
+
+    public interface Job {
+        void run();
+
+        /** Called instead of {@link #run()} when the job is dropped before it starts. */
+        void reject(String code, String message);
+    }
+
+    private static class Entry {
+        final Job job;
+        final Priority priority;
+        final long deadlineNanos;
+        final long enqueuedNanos;
+
+        Entry(Job job, Priority priority, long deadlineNanos, long enqueuedNanos) {
+            this.job = job;
+            this.priority = priority;
+            this.deadlineNanos = deadlineNanos;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final int capacity;
+    // Null when nobody collects metrics
+    private final CactusMetrics metrics;
+    private final ArrayDeque<Entry>[] queues;
+    private final List<Thread> workers = new ArrayList<>();
+    // Workers above this count exit once their current job is done
+    private int workerCount = 1;
+    private int nextWorkerId = 0;
+    // Runs the BACKGROUND queue, which the other workers never take from
+    private final Thread bulkWorker;
+    private int queuedCount = 0;
+    private int consecutiveDispatches = 0;
+    private boolean isShutdown = false;
+
+    public CactusRequestScheduler() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    public CactusRequestScheduler(CactusMetrics metrics) {
+        this(DEFAULT_CAPACITY, metrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    public CactusRequestScheduler(int capacity, CactusMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        setWorkerCount(1);
+        bulkWorker = new Thread(() -> runLoop(true), "CactusBulk");
+        bulkWorker.setDaemon(true);
+        bulkWorker.start();
+    }
+
+    /**
+     * Runs interactive and normal requests on {@code count} workers, at least one, so that many can
+     * be dispatched at once. Starts the missing workers, or lets the extra ones exit once they
+     * finish what they are running. The bulk worker is not counted.
+     */
+    public synchronized void setWorkerCount(int count) {
+        workerCount = Math.max(1, count);
+        while (!isShutdown && workers.size() < workerCount) {
+            int id = nextWorkerId++;
+            Thread worker = new Thread(() -> runLoop(false), id == 0 ? "CactusInference" : "CactusInference-" + id);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Queues a job. Returns false without queueing when the scheduler is full or shut down.
+     *
+     * @param timeoutMs maximum time the job may wait in the queue, 0 for no deadline
+     */
+    public synchronized boolean submit(Priority priority, long timeoutMs, Job job) {
+        if (isShutdown || queuedCount >= capacity) {
+            countRejection();
+            return false;
+        }
+        long now = System.nanoTime();
+        long deadline = timeoutMs > 0 ? now + timeoutMs * 1_000_000L : 0L;
+        queues[priority.ordinal()].addLast(new Entry(job, priority, deadline, now));
+        queuedCount++;
+        notifyAll();
+        return true;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    public void shutdown() {
+        ArrayDeque<Entry> dropped = new ArrayDeque<>();
+        synchronized (this) {
+            isShutdown = true;
+            for (ArrayDeque<Entry> queue : queues) {
+                dropped.addAll(queue);
+                queue.clear();
+            }
+            queuedCount = 0;
+            notifyAll();
+        }
+        for (Entry entry : dropped) {
+            entry.job.reject(REJECT_SHUTDOWN, "Inference scheduler was shut down");
+        }
+    }
+
+    private void runLoop(boolean isBulk) {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                while (!hasWork(isBulk) && !isShutdown && !isSurplus(isBulk)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (isShutdown) {
+                    return;
+                }
+                if (isSurplus(isBulk)) {
+                    workers.remove(Thread.currentThread());
+                    return;
+                }
+                entry = isBulk ? takeBulk() : next();
+            }
+
+            long now = System.nanoTime();
+            if (entry.deadlineNanos != 0 && now > entry.deadlineNanos) {
+                countRejection();
+                entry.job.reject(REJECT_TIMEOUT, "Request timed out while waiting in the inference queue");
+                continue;
+            }
+            if (metrics != null) {
+                metrics.record(CactusMetrics.Distribution.QUEUE_WAIT_MS, (now - entry.enqueuedNanos) / 1e6);
+            }
+
+            try {
+                entry.job.run();
+            } catch (Throwable t) {
+                CactusLog.error("Android: Inference job failed: " + t.getMessage(), t);
+            }
+        }
+    }
+
+    private void countRejection() {
+        if (metrics != null) {
+            metrics.increment(CactusMetrics.Counter.REJECTED_REQUESTS);
+        }
+    }
+
+    // Must be called while holding the monitor
+    private boolean isSurplus(boolean isBulk) {
+        return !isBulk && workers.size() > workerCount;
+    }
+
+    // Must be called while holding the monitor
+    private boolean hasWork(boolean isBulk) {
+        if (isBulk) {
+            return !queues[BULK].isEmpty();
+        }
+        for (int i = 0; i < BULK; i++) {
+            if (!queues[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Must be called while holding the monitor with a queued BACKGROUND entry
+    private Entry takeBulk() {
+        queuedCount--;
+        return queues[BULK].pollFirst();
+    }
+
+    // Must be called while holding the monitor with a queued INTERACTIVE or NORMAL entry
+    private Entry next() {
+        int chosen = -1;
+        for (int i = 0; i < BULK; i++) {
+            if (!queues[i].isEmpty()) {
+                chosen = i;
+                break;
+            }
+        }
+
+        // Let the oldest waiting lower-priority entry through after a burst of higher-priority work
+        boolean isFairnessDispatch = false;
+        if (consecutiveDispatches >= FAIRNESS_BURST) {
+            int starved = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int i = chosen + 1; i < BULK; i++) {
+                Entry head = queues[i].peekFirst();
+                if (head != null && head.enqueuedNanos < oldest) {
+                    oldest = head.enqueuedNanos;
+                    starved = i;
+                }
+            }
+            if (starved != -1) {
+                chosen = starved;
+                isFairnessDispatch = true;
+            }
+        }
+
+        Entry entry = queues[chosen].pollFirst();
+        queuedCount--;
+
+        if (isFairnessDispatch) {
+            consecutiveDispatches = 0;
+        } else {
+            boolean isLowerWaiting = false;
+            for (int i = chosen + 1; i < BULK; i++) {
+                isLowerWaiting |= !queues[i].isEmpty();
+            }
+            consecutiveDispatches = isLowerWaiting ? consecutiveDispatches + 1 : 0;
+        }
+        return entry;
+    }
+}
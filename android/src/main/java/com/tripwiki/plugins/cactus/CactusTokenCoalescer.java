@@ -0,0 +1,55 @@
+package com.tripwiki.plugins.cactus;
+
+/**
+ * Batches streamed tokens into fewer bridge events. The first token is emitted at once so the
+ * time to first token is unaffected; after that tokens are held until {@code intervalMs} has
+ * passed since the last event or {@code maxChars} characters have piled up. Call {@link #flush()}
+ * when the stream ends to emit whatever is still held.
+ */
+public class CactusTokenCoalescer {
+    public interface Sink {
+        void emit(String text, int tokenCount);
+    }
+
+    private final long intervalNanos;
+    private final int maxChars;
+    private final Sink sink;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingTokens = 0;
+    private long lastEmitNanos = 0;
+    private boolean hasEmitted = false;
+
+    public CactusTokenCoalescer(long intervalMs, int maxChars, Sink sink) {
+        this.intervalNanos = Math.max(0, intervalMs) * 1_000_000L;
+        this.maxChars = maxChars;
+        this.sink = sink;
+    }
+
+    public synchronized void add(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        pending.append(token);
+        pendingTokens++;
+        long now = System.nanoTime();
+        if (!hasEmitted || now - lastEmitNanos >= intervalNanos || pending.length() >= maxChars) {
+            emit(now);
+        }
+    }
+
+    public synchronized void flush() {
+        if (pendingTokens > 0) {
+            emit(System.nanoTime());
+        }
+    }
+
+    private void emit(long now) {
+        String text = pending.toString();
+        int count = pendingTokens;
+        pending.setLength(0);
+        pendingTokens = 0;
+        lastEmitNanos = now;
+        hasEmitted = true;
+        sink.emit(text, count);
+    }
+}
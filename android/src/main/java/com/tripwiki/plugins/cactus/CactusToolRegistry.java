@@ -0,0 +1,200 @@
+package com.tripwiki.plugins.cactus;
+
+import com.cactus.ToolCall;
+import com.cactus.models.CactusTool;
+import com.cactus.models.ToolParameter;
+import com.cactus.models.ToolsKt;
+import com.getcapacitor.JSArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the OpenAI-style tool definitions JS sends into {@link CactusTool}s, and the calls the
+ * model makes back into arguments typed by the tool's schema. Tools are cached by their name and a
+ * hash of their definition, so a chat that sends the same tools every turn reuses the same
+ * instances and the SDK's cached schema instead of rebuilding them. Calls are typed by the tools
+ * of their own request, see {@link Resolution}.
+ */
+public class CactusToolRegistry {
+    private static final int MAX_TOOLS = 128;
+
+    private static final class RegisteredTool {
+        final CactusTool tool;
+        // Declared JSON type of each parameter, used to type the model's arguments
+        final Map<String, String> parameterTypes;
+
+        RegisteredTool(CactusTool tool, Map<String, String> parameterTypes) {
+            this.tool = tool;
+            this.parameterTypes = parameterTypes;
+        }
+    }
+
+    // Keyed by toolKey
+    private final LinkedHashMap<String, RegisteredTool> byDefinition = new LinkedHashMap<String, RegisteredTool>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RegisteredTool> eldest) {
+            return size() > MAX_TOOLS;
+        }
+    };
+
+    /** The tools of one completion, and the parameter types its tool calls are read with. */
+    public static final class Resolution {
+        static final Resolution EMPTY = new Resolution(Collections.<CactusTool>emptyList(), Collections.<String, Map<String, String>>emptyMap(), false);
+
+        private final List<CactusTool> tools;
+        private final Map<String, Map<String, String>> typesByName;
+        private final boolean hasNewTools;
+
+        private Resolution(List<CactusTool> tools, Map<String, Map<String, String>> typesByName, boolean hasNewTools) {
+            this.tools = tools;
+            this.typesByName = typesByName;
+            this.hasNewTools = hasNewTools;
+        }
+
+        public List<CactusTool> getTools() {
+            return tools;
+        }
+
+        /** Whether any of the tools was registered by this request, so the SDK has not indexed it yet. */
+        public boolean hasNewTools() {
+            return hasNewTools;
+        }
+
+        /** JS form of the calls in a completion, null when the model made none. */
+        public JSONArray toJS(List<ToolCall> toolCalls) throws JSONException {
+            return CactusBridgeJson.toolCalls(toolCalls, typesByName);
+        }
+    }
+
+    /** Tools for a completion, skipping definitions without a function name. */
+    public synchronized Resolution resolve(JSArray tools) {
+        if (tools == null || tools.length() == 0) {
+            return Resolution.EMPTY;
+        }
+        List<CactusTool> resolved = new ArrayList<>(tools.length());
+        Map<String, Map<String, String>> typesByName = new HashMap<>();
+        boolean hasNewTools = false;
+        for (int i = 0; i < tools.length(); i++) {
+            JSONObject definition = tools.optJSONObject(i);
+            if (definition == null) {
+                continue;
+            }
+            String key = toolKey(definition);
+            RegisteredTool registered = byDefinition.get(key);
+            if (registered == null) {
+                registered = register(definition);
+                if (registered == null) {
+                    continue;
+                }
+                byDefinition.put(key, registered);
+                hasNewTools = true;
+            }
+            String name = registered.tool.getFunction().getName();
+            // With two definitions of one name, calls are typed by the first, as listed by the app
+            if (!typesByName.containsKey(name)) {
+                typesByName.put(name, registered.parameterTypes);
+            }
+            resolved.add(registered.tool);
+        }
+        return new Resolution(resolved, typesByName, hasNewTools);
+    }
+
+    /** Forgets every registered tool, the next request registers its tools again. */
+    public synchronized void clear() {
+        byDefinition.clear();
+    }
+
+    // Accepts { type: "function", function: {...} } as well as the bare function object
+    private static JSONObject function(JSONObject definition) {
+        JSONObject function = definition.optJSONObject("function");
+        return function != null ? function : definition;
+    }
+
+    // The function name and a 64-bit hash of the whole definition. Unlike the JSON text, the hash
+    // does not depend on key order and is computed without building a string
+    private static String toolKey(JSONObject definition) {
+        return function(definition).optString("name", "") + "#" + Long.toHexString(hash(definition));
+    }
+
+    private static long hash(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            // Summed so that the order of the keys does not matter
+            long sum = 0x6a09e667f3bcc908L;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                sum += mix(hash(key) * 31 + hash(object.opt(key)));
+            }
+            return mix(sum);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            long result = 0xbb67ae8584caa73bL;
+            for (int i = 0; i < array.length(); i++) {
+                result = mix(result * 31 + hash(array.opt(i)));
+            }
+            return result;
+        }
+        if (value instanceof String) {
+            String text = (String) value;
+            long result = 0x3c6ef372fe94f82bL;
+            for (int i = 0; i < text.length(); i++) {
+                result = (result ^ text.charAt(i)) * 0x100000001b3L;
+            }
+            return result;
+        }
+        return value == null || value == JSONObject.NULL ? 0 : mix(value.hashCode() + value.getClass().getName().hashCode());
+    }
+
+    // Finalizer of SplitMix64, spreads every input bit over the whole result
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static RegisteredTool register(JSONObject definition) {
+        JSONObject function = function(definition);
+        String name = function.optString("name", "");
+        if (name.isEmpty()) {
+            CactusLog.warn("Android: Ignoring tool without a name");
+            return null;
+        }
+        JSONObject schema = function.optJSONObject("parameters");
+        JSONObject properties = schema != null ? schema.optJSONObject("properties") : null;
+        JSONArray requiredArray = schema != null ? schema.optJSONArray("required") : null;
+        List<String> required = new ArrayList<>();
+        if (requiredArray != null) {
+            for (int i = 0; i < requiredArray.length(); i++) {
+                required.add(requiredArray.optString(i));
+            }
+        }
+
+        Map<String, ToolParameter> parameters = new LinkedHashMap<>();
+        Map<String, String> types = new HashMap<>();
+        if (properties != null) {
+            Iterator<String> keys = properties.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject property = properties.optJSONObject(key);
+                String type = property != null ? property.optString("type", "string") : "string";
+                String description = property != null ? property.optString("description", "") : "";
+                parameters.put(key, new ToolParameter(type, description, required.contains(key)));
+                types.put(key, type);
+            }
+        }
+        CactusTool tool = ToolsKt.createTool(name, function.optString("description", ""), parameters);
+        return new RegisteredTool(tool, types);
+    }
+}
@@ -0,0 +1,240 @@
+package com.tripwiki.plugins.cactus;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps vision inputs ready for the model across the turns of a chat. The native side re-reads
+ * every image path on every completion, so a 12 MP photo would be decoded and resized again for
+ * each follow-up question. The first time a photo is sent it is decoded once, downscaled so its
+ * longest edge is at most {@code maxEdge} and stored as a small JPEG; later turns get the cached
+ * file.
+ *
+ * Entries are keyed by path, modification time, size and model, so an edited photo or a different
+ * model never sees a stale entry. The cache lives in its own directory, survives restarts and
+ * evicts the least recently used files once it holds more than {@code maxBytes}.
+ */
+public class CactusVisionCache {
+    private static final int JPEG_QUALITY = 90;
+    private static final CactusLog.Sampler CACHE_LOG = new CactusLog.Sampler();
+
+    private static final class Entry {
+        final File file;
+        final long bytes;
+
+        Entry(File file, long bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final int maxEdge;
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public CactusVisionCache(File directory, long maxBytes, int maxEdge) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEdge = maxEdge;
+        loadExisting();
+    }
+
+    /**
+     * Returns the path to hand to the model for {@code imagePath}: a cached downscaled copy, or the
+     * original when it is small enough already or cannot be decoded here.
+     */
+    public String resolve(String imagePath, String modelSlug) {
+        File source = new File(imagePath);
+        if (!source.isFile()) {
+            return imagePath;
+        }
+        String key = key(source, modelSlug);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.file.exists()) {
+                hits++;
+                return entry.bytes > 0 ? entry.file.getAbsolutePath() : imagePath;
+            }
+            misses++;
+        }
+
+        // Decoding happens outside the lock so parallel completions are not serialized on it
+        Entry entry = prepare(source, key);
+        if (entry == null) {
+            return imagePath;
+        }
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.bytes;
+            }
+            totalBytes += entry.bytes;
+            evict();
+        }
+        return entry.bytes > 0 ? entry.file.getAbsolutePath() : imagePath;
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.file.delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized String stats() {
+        return entries.size() + " images, " + totalBytes / 1024 + " KiB, " + hits + " hits, " + misses + " misses";
+    }
+
+    // Null when the image cannot be decoded. A zero-byte entry records that the original is fine
+    // as it is, so its bounds are not read again on the next turn.
+    private Entry prepare(File source, String key) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        int rotation = exifRotation(source);
+        boolean isJpegOrPng = "image/jpeg".equals(bounds.outMimeType) || "image/png".equals(bounds.outMimeType);
+        if (Math.max(bounds.outWidth, bounds.outHeight) <= maxEdge && isJpegOrPng && rotation == 0) {
+            return new Entry(new File(directory, key + ".jpg"), 0);
+        }
+
+        // Power-of-two subsampling in the decoder avoids ever holding the full-resolution bitmap
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (Math.max(bounds.outWidth, bounds.outHeight) / (options.inSampleSize * 2) >= maxEdge) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        if (decoded == null) {
+            return null;
+        }
+
+        File target = new File(directory, key + ".jpg");
+        File partial = new File(directory, key + ".tmp");
+        try {
+            Bitmap scaled = scale(decoded, rotation);
+            try (OutputStream out = new FileOutputStream(partial)) {
+                scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+            if (scaled != decoded) {
+                scaled.recycle();
+            }
+            if (!partial.renameTo(target)) {
+                throw new IOException("Could not move " + partial + " into the cache");
+            }
+            if (CACHE_LOG.sample(CactusLog.Level.DEBUG)) {
+                CactusLog.debug("Android: Cached " + bounds.outWidth + "x" + bounds.outHeight + " image "
+                    + source.getName() + " as " + target.length() / 1024 + " KiB");
+            }
+            return new Entry(target, target.length());
+        } catch (IOException e) {
+            CactusLog.error("Android: Could not cache image " + source + ": " + e.getMessage(), e);
+            partial.delete();
+            return null;
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    private Bitmap scale(Bitmap bitmap, int rotation) {
+        float factor = Math.min(1f, (float) maxEdge / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        if (factor == 1f && rotation == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale(factor, factor);
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    // Photos from the camera are usually stored sideways with an EXIF orientation tag
+    private static int exifRotation(File source) {
+        try {
+            int orientation = new ExifInterface(source.getAbsolutePath())
+                .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && oldest.hasNext()) {
+            Entry entry = oldest.next().getValue();
+            oldest.remove();
+            totalBytes -= entry.bytes;
+            entry.file.delete();
+        }
+    }
+
+    // Picks up files cached before a restart, oldest first so they are evicted first
+    private synchronized void loadExisting() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            CactusLog.error("Android: Could not create vision cache directory " + directory, null);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".jpg")) {
+                file.delete();
+                continue;
+            }
+            entries.put(name.substring(0, name.length() - 4), new Entry(file, file.length()));
+            totalBytes += file.length();
+        }
+        evict();
+    }
+
+    private String key(File source, String modelSlug) {
+        String identity = source.getAbsolutePath() + '\n' + source.lastModified() + '\n' + source.length()
+            + '\n' + modelSlug + '\n' + maxEdge;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(identity.hashCode());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.tripwiki.plugins.cactus;
+
+import static org.junit.Assert.*;
+
+import com.cactus.CactusCompletionResult;
+import com.cactus.ChatMessage;
+import com.cactus.ToolCall;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The plugin's work on either side of a completion, through {@link CactusBridgeJson} as CactusCap
+ * calls it: turning the bridge's message array into {@link ChatMessage}s, and serializing the result
+ * the bridge sends back. Skipped unless run with {@code ./gradlew testDebugUnitTest
+ * -Pcactus.benchmarks=true} from android/. Each case prints its time and allocated bytes per
+ * operation, measured after a warmup on the desktop JVM that runs the unit tests.
+ */
+public class CactusBridgeJsonBenchmarkTest {
+
+    private static final int[] MESSAGE_COUNTS = { 4, 32 };
+    private static final int[] WORDS_PER_MESSAGE = { 40, 400 };
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final String[] WORDS = {
+        "the", "model", "answers", "with", "a", "short", "list", "of", "places", "to", "visit", "near",
+        "Lisbon", "including", "museums", "parks", "and", "restaurants", "open", "late"
+    };
+
+    // Keeps results reachable so the JIT cannot drop the work
+    private static volatile Object sink;
+
+    private Map<String, Map<String, String>> toolTypes;
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Run with -Pcactus.benchmarks=true", Boolean.getBoolean("cactus.benchmarks"));
+        Map<String, String> types = new HashMap<>();
+        types.put("location", "string");
+        types.put("unit", "string");
+        types.put("days", "integer");
+        toolTypes = Collections.singletonMap("get_weather", types);
+    }
+
+    @Test
+    public void convertMessages() throws Exception {
+        for (int messageCount : MESSAGE_COUNTS) {
+            for (int wordsPerMessage : WORDS_PER_MESSAGE) {
+                // Parsed from the array's JSON text each time, as the bridge hands the plugin a fresh JSArray per call
+                final String messages = conversation(messageCount, wordsPerMessage).toString();
+                measure("convertMessages messages=" + messageCount + " words=" + wordsPerMessage,
+                    () -> CactusBridgeJson.toChatMessages(new JSONArray(messages), path -> path));
+            }
+        }
+    }
+
+    @Test
+    public void serializeResult() throws Exception {
+        for (int words : WORDS_PER_MESSAGE) {
+            final CactusCompletionResult result = result(words);
+            measure("serializeResult words=" + words, () -> {
+                JSONObject json = new JSONObject();
+                CactusBridgeJson.putResponse(json, result);
+                CactusBridgeJson.putMetrics(json, result);
+                json.put("toolCalls", CactusBridgeJson.toolCalls(result.getToolCalls(), toolTypes));
+                return json.toString();
+            });
+        }
+    }
+
+    private static void measure(String name, Operation operation) throws Exception {
+        run(operation, WARMUP_NANOS);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long startNanos = System.nanoTime();
+        long operations = run(operation, MEASURE_NANOS);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        assertTrue(operations > 0);
+        System.out.println(String.format(Locale.ROOT, "%s: %.1f us/op, %d B/op",
+            name, elapsedNanos / 1000.0 / operations, allocated / operations));
+    }
+
+    // Returns the number of operations run before the deadline
+    private static long run(Operation operation, long durationNanos) throws Exception {
+        long deadline = System.nanoTime() + durationNanos;
+        long operations = 0;
+        while (System.nanoTime() < deadline) {
+            sink = operation.run();
+            operations++;
+        }
+        return operations;
+    }
+
+    private static JSONArray conversation(int messageCount, int wordsPerMessage) throws Exception {
+        Random random = new Random(7);
+        JSONArray messages = new JSONArray();
+        messages.put(new JSONObject().put("role", "system").put("content", prose(random, wordsPerMessage)));
+        for (int i = 1; i < messageCount; i++) {
+            String role = i % 2 == 1 ? "user" : "assistant";
+            messages.put(new JSONObject().put("role", role).put("content", prose(random, wordsPerMessage)));
+        }
+        return messages;
+    }
+
+    private static CactusCompletionResult result(int words) {
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put("location", "Lisbon");
+        arguments.put("unit", "celsius");
+        arguments.put("days", "3");
+        return new CactusCompletionResult(
+            true, prose(new Random(3), words), 48.25, 912.5, 31.7, 812, words, 812 + words,
+            Collections.singletonList(new ToolCall("get_weather", arguments))
+        );
+    }
+
+    private static String prose(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.tripwiki.plugins.cactus;
+
+import static org.junit.Assert.*;
+
+import com.cactus.CactusCompletionResult;
+import com.cactus.ChatMessage;
+import com.cactus.ToolCall;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * What {@link CactusBridgeJson} hands the SDK and JS: messages as sent, minus the malformed ones,
+ * and tool call arguments typed by their schema with the model's text kept when it does not fit.
+ */
+public class CactusBridgeJsonTest {
+
+    @Test
+    public void convertsMessagesAndSkipsMalformedEntries() throws Exception {
+        JSONArray messages = new JSONArray()
+            .put(new JSONObject().put("role", "user").put("content", "hi").put("images", new JSONArray().put("a.png").put("b.png")))
+            .put(new JSONObject().put("role", "assistant"))
+            .put("not a message")
+            .put(new JSONObject().put("role", "assistant").put("content", "hello"));
+
+        List<ChatMessage> chatMessages = CactusBridgeJson.toChatMessages(messages, path -> "/cache/" + path);
+
+        assertEquals(2, chatMessages.size());
+        assertEquals("user", chatMessages.get(0).getRole());
+        assertEquals("hi", chatMessages.get(0).getContent());
+        assertEquals(Arrays.asList("/cache/a.png", "/cache/b.png"), chatMessages.get(0).getImages());
+        assertEquals("hello", chatMessages.get(1).getContent());
+        assertTrue(chatMessages.get(1).getImages().isEmpty());
+    }
+
+    @Test
+    public void typesToolCallArgumentsBySchema() throws Exception {
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put("days", " 3 ");
+        arguments.put("ratio", "0.5");
+        arguments.put("metric", "TRUE");
+        arguments.put("filters", "{\"rain\":true}");
+        arguments.put("location", "Lisbon");
+        arguments.put("unknown", "7");
+        Map<String, String> types = new HashMap<>();
+        types.put("days", "integer");
+        types.put("ratio", "number");
+        types.put("metric", "boolean");
+        types.put("filters", "object");
+        types.put("location", "string");
+
+        JSONArray calls = CactusBridgeJson.toolCalls(
+            Collections.singletonList(new ToolCall("get_weather", arguments)),
+            Collections.singletonMap("get_weather", types)
+        );
+
+        assertEquals(1, calls.length());
+        assertEquals("get_weather", calls.getJSONObject(0).getString("name"));
+        JSONObject typed = calls.getJSONObject(0).getJSONObject("arguments");
+        assertEquals(3L, typed.get("days"));
+        assertEquals(0.5, typed.get("ratio"));
+        assertEquals(Boolean.TRUE, typed.get("metric"));
+        assertTrue(typed.getJSONObject("filters").getBoolean("rain"));
+        assertEquals("Lisbon", typed.get("location"));
+        assertEquals("7", typed.get("unknown"));
+    }
+
+    @Test
+    public void keepsTheModelsTextWhenItDoesNotMatchTheType() throws Exception {
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put("days", "three");
+        arguments.put("metric", "yes");
+        arguments.put("filters", "[1, 2]");
+        Map<String, String> types = new HashMap<>();
+        types.put("days", "integer");
+        types.put("metric", "boolean");
+        types.put("filters", "object");
+
+        JSONObject typed = CactusBridgeJson.toolCalls(
+            Collections.singletonList(new ToolCall("get_weather", arguments)),
+            Collections.singletonMap("get_weather", types)
+        ).getJSONObject(0).getJSONObject("arguments");
+
+        assertEquals("three", typed.get("days"));
+        assertEquals("yes", typed.get("metric"));
+        // Either JSON container is kept, whatever the schema declared
+        assertEquals(2, typed.getJSONArray("filters").length());
+    }
+
+    @Test
+    public void leavesOutAbsentResultFields() throws Exception {
+        CactusCompletionResult result = new CactusCompletionResult(true, null, 12.5, null, null, 40, null, null, null);
+
+        JSONObject json = CactusBridgeJson.putMetrics(CactusBridgeJson.putResponse(new JSONObject(), result), result);
+
+        assertTrue(json.getBoolean("success"));
+        assertEquals("", json.getString("response"));
+        assertEquals(12.5, json.getDouble("timeToFirstTokenMs"), 0.0);
+        assertEquals(40, json.getInt("prefillTokens"));
+        assertFalse(json.has("totalTimeMs"));
+        assertFalse(json.has("decodeTokens"));
+        assertNull(CactusBridgeJson.toolCalls(result.getToolCalls(), Collections.<String, Map<String, String>>emptyMap()));
+    }
+}
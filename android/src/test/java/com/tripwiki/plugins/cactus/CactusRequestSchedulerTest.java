@@ -0,0 +1,221 @@
+package com.tripwiki.plugins.cactus;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Dispatch order and admission of {@link CactusRequestScheduler} with its single default worker
+ * and its bulk worker. Each test first parks a worker in a {@link Gate} so the jobs it submits
+ * queue up behind it.
+ */
+public class CactusRequestSchedulerTest {
+
+    private static final long WAIT_SECONDS = 5;
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private CactusRequestScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new CactusRequestScheduler(16, null);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void runsHigherPrioritiesFirst() throws Exception {
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 0, new Recorder("normal", done)));
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("interactive", done)));
+
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("run interactive", "run normal"), events);
+    }
+
+    @Test
+    public void runsBackgroundJobsWhileTheWorkerIsBusy() throws Exception {
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.BACKGROUND, 0, new Recorder("first", done)));
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.BACKGROUND, 0, new Recorder("second", done)));
+
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("run first", "run second"), events);
+        gate.open();
+    }
+
+    @Test
+    public void runsInteractiveJobsWhileBackgroundWorkIsBusy() throws Exception {
+        Gate gate = Gate.park(scheduler, CactusRequestScheduler.Priority.BACKGROUND);
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("interactive", done)));
+
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("run interactive"), events);
+        gate.open();
+    }
+
+    @Test
+    public void letsWaitingLowerPriorityThroughAfterABurst() throws Exception {
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(11);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 0, new Recorder("normal", done)));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("interactive " + i, done)));
+        }
+
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            expected.add("run interactive " + i);
+        }
+        expected.add("run normal");
+        expected.add("run interactive 8");
+        expected.add("run interactive 9");
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void rejectsJobsWhoseDeadlinePassedWhileQueued() throws Exception {
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 1, new Recorder("expired", done)));
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 0, new Recorder("patient", done)));
+        Thread.sleep(20);
+
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("reject expired " + CactusRequestScheduler.REJECT_TIMEOUT, "run patient"), events);
+    }
+
+    @Test
+    public void refusesSubmissionsBeyondCapacity() throws Exception {
+        scheduler.shutdown();
+        scheduler = new CactusRequestScheduler(4, null);
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 0, new Recorder("queued " + i, done)));
+        }
+        assertFalse(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("refused", done)));
+        assertEquals(4, scheduler.getQueuedCount());
+
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(events.contains("run refused"));
+    }
+
+    @Test
+    public void followsTheWorkerCountBothWays() throws Exception {
+        scheduler.setWorkerCount(3);
+        Gate first = Gate.park(scheduler);
+        Gate second = Gate.park(scheduler);
+        Gate third = Gate.park(scheduler);
+        first.open();
+        second.open();
+        third.open();
+
+        scheduler.setWorkerCount(1);
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("queued", done)));
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.getQueuedCount());
+
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdownRejectsQueuedJobs() throws Exception {
+        Gate gate = Gate.park(scheduler);
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("first", done)));
+        assertTrue(scheduler.submit(CactusRequestScheduler.Priority.NORMAL, 0, new Recorder("second", done)));
+
+        scheduler.shutdown();
+        gate.open();
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(
+            "reject first " + CactusRequestScheduler.REJECT_SHUTDOWN,
+            "reject second " + CactusRequestScheduler.REJECT_SHUTDOWN
+        ), events);
+        assertEquals(0, scheduler.getQueuedCount());
+        assertFalse(scheduler.submit(CactusRequestScheduler.Priority.INTERACTIVE, 0, new Recorder("late", done)));
+    }
+
+    private class Recorder implements CactusRequestScheduler.Job {
+        private final String name;
+        private final CountDownLatch done;
+
+        Recorder(String name, CountDownLatch done) {
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            events.add("run " + name);
+            done.countDown();
+        }
+
+        @Override
+        public void reject(String code, String message) {
+            events.add("reject " + name + " " + code);
+            done.countDown();
+        }
+    }
+
+    // Occupies a worker until opened, so jobs submitted to it meanwhile wait in the queue
+    private static class Gate implements CactusRequestScheduler.Job {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch opened = new CountDownLatch(1);
+
+        static Gate park(CactusRequestScheduler scheduler) throws InterruptedException {
+            return park(scheduler, CactusRequestScheduler.Priority.INTERACTIVE);
+        }
+
+        // BACKGROUND parks the bulk worker, any other priority the default one
+        static Gate park(CactusRequestScheduler scheduler, CactusRequestScheduler.Priority priority) throws InterruptedException {
+            Gate gate = new Gate();
+            assertTrue(scheduler.submit(priority, 0, gate));
+            assertTrue(gate.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+            return gate;
+        }
+
+        void open() {
+            opened.countDown();
+        }
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void reject(String code, String message) {
+            started.countDown();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+#!/bin/bash -e
+
+# Publishes the Cactus Kotlin SDK from android/External/cactus-kotlin into android/maven, the
+# repository the plugin's build.gradle resolves com.cactuscompute:cactus from. The directory is
+# part of the npm package, so apps get the SDK this plugin was built against.
+#
+# The engine's Android libraries (libcactus.a and libcactus_util.so per ABI) are not committed.
+# Pass the directory of an engine build as the first argument to copy them in, or place them in
+# library/src/commonMain/resources/android/libs/<abi>/ beforehand.
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+SDK_DIR="$SCRIPT_DIR/android/External/cactus-kotlin"
+OUTPUT_DIR="$SCRIPT_DIR/android/maven"
+
+PREBUILTS_ARG=()
+if [ -n "$1" ]; then
+    PREBUILTS_ARG=("-Pcactus.androidPrebuilts=$(cd "$1" && pwd)")
+fi
+
+echo "🔧 Publishing the Cactus Android SDK to $OUTPUT_DIR..."
+rm -rf "$OUTPUT_DIR"
+
+cd "$SDK_DIR"
+./gradlew --no-daemon -Pcactus.unsigned=true "${PREBUILTS_ARG[@]}" \
+    :library:publishKotlinMultiplatformPublicationToPluginRepository \
+    :library:publishAndroidReleasePublicationToPluginRepository
+
+echo "✅ Cactus Android SDK published to $OUTPUT_DIR"
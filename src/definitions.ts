@@ -1,3 +1,126 @@
+/**
+ * Scheduling hints for requests that run on the shared model context (Android).
+ * Requests are queued by priority. `background` requests run on a worker of their
+ * own, so a long transcription or embedding batch does not hold up a chat turn.
+ * When the queue is full the call resolves with
+ * `{ success: false, code: 'busy' }`, and a request that waited longer than
+ * `timeoutMs` resolves with `code: 'timeout'` without running.
+ */
+export interface CactusSchedulingOptions {
+  priority?: 'interactive' | 'normal' | 'background';
+  timeoutMs?: number;
+}
+
+/**
+ * Embeddings returned as a file of little-endian float32 values (Android)
+ * instead of a JSON array, when the request sets `binary: true`. Read it with
+ * `readBinaryPayload`, which fetches it through the WebView's local server and
+ * releases the file. Unreleased files are deleted after ten minutes.
+ */
+export interface CactusBinaryPayload {
+  path: string;
+  format: 'float32';
+  byteLength: number;
+  /** Row-major: `rows` vectors of `dimension` values each. */
+  rows: number;
+  dimension: number;
+}
+
+export interface CactusBinaryOptions {
+  /** Return vectors as a `CactusBinaryPayload` rather than `embeddings` (Android). */
+  binary?: boolean;
+}
+
+export type CactusLogLevel = 'verbose' | 'debug' | 'info' | 'warn' | 'error' | 'none';
+
+export interface CactusTraceOptions {
+  /** Return a timeline of the request's stages as `trace` (Android). */
+  trace?: boolean;
+}
+
+/**
+ * Chrome trace-event document for one request, with a lane each for the
+ * plugin, the SDK and native code. Save it as JSON and open it in
+ * chrome://tracing or https://ui.perfetto.dev. Timestamps are microseconds
+ * since the request was received.
+ */
+export interface CactusTraceDocument {
+  traceEvents: Array<{
+    name: string;
+    cat?: string;
+    ph: 'X' | 'M';
+    ts?: number;
+    dur?: number;
+    pid: number;
+    tid: number;
+    args?: Record<string, string>;
+  }>;
+  displayTimeUnit: 'ms';
+  otherData: {
+    requestId: string;
+    /** Spans past the per-request limit of 1024 that were not kept. */
+    droppedSpans: number;
+  };
+}
+
+export interface CactusEmbeddingBatchResult {
+  success: boolean;
+  /** Dimension shared by every embedding in the batch. */
+  dimension?: number;
+  results?: Array<{
+    path: string;
+    success: boolean;
+    embeddings?: number[];
+    /** Row of `binary` holding this entry's vector, when `binary` was requested. */
+    row?: number;
+    error?: string;
+  }>;
+  /** Every successful vector of the batch, one row each. */
+  binary?: CactusBinaryPayload;
+  error?: string;
+  code?: string;
+}
+
+/** Distribution of one measurement since the last reset (Android). */
+export interface CactusMetricSummary {
+  count: number;
+  min: number;
+  mean: number;
+  max: number;
+  /** Percentiles are accurate to about 3%. */
+  p50: number;
+  p90: number;
+  p99: number;
+}
+
+export interface CactusMetrics {
+  success: boolean;
+  /** Epoch milliseconds when collection started or was last reset. */
+  sinceMs: number;
+  counters: {
+    completions: number;
+    completionFailures: number;
+    generatedTokens: number;
+    rejectedRequests: number;
+    modelLoads: number;
+    downloads: number;
+    downloadedBytes: number;
+  };
+  /** Only measurements with at least one value are present. */
+  histograms: {
+    timeToFirstTokenMs?: CactusMetricSummary;
+    decodeTokensPerSecond?: CactusMetricSummary;
+    prefillTokens?: CactusMetricSummary;
+    queueWaitMs?: CactusMetricSummary;
+    modelLoadMs?: CactusMetricSummary;
+    downloadBytesPerSecond?: CactusMetricSummary;
+    /** Time spent handling each streamed token on the native callback thread. */
+    tokenCallbackUs?: CactusMetricSummary;
+    /** Time to serialize a result and hand it to the WebView. */
+    bridgeSerializationUs?: CactusMetricSummary;
+  };
+}
+
 export interface CactusCapPlugin {
   // Basic
   echo(options: { value: string }): Promise<{ value: string }>;
@@ -47,6 +170,13 @@ export interface CactusCapPlugin {
   loadModel(options: {
     modelSlug: string;
     contextSize?: number;
+    /**
+     * Android: how many completions may decode on this model at once. Each extra
+     * stream opens another context of the same model when the others are busy,
+     * trading memory for throughput under concurrent load. At most 4, and cut
+     * back to 1 while the system reports memory pressure. Defaults to 1.
+     */
+    concurrentStreams?: number;
   }): Promise<{
     success: boolean;
     error?: string;
@@ -56,6 +186,13 @@ export interface CactusCapPlugin {
     modelPath: string;
     modelSlug?: string;
     contextSize?: number;
+    /**
+     * Android: how many completions may decode on this model at once. Each extra
+     * stream opens another context of the same model when the others are busy,
+     * trading memory for throughput under concurrent load. At most 4, and cut
+     * back to 1 while the system reports memory pressure. Defaults to 1.
+     */
+    concurrentStreams?: number;
   }): Promise<{
     success: boolean;
     error?: string;
@@ -87,7 +224,7 @@ export interface CactusCapPlugin {
         parameters: any;
       };
     }>;
-  }): Promise<{
+  } & CactusTraceOptions & CactusSchedulingOptions): Promise<{
     success: boolean;
     response?: string;
     timeToFirstTokenMs?: number;
@@ -100,7 +237,10 @@ export interface CactusCapPlugin {
       name: string;
       arguments: any;
     }>;
+    /** Present when the request set `trace: true`. */
+    trace?: CactusTraceDocument;
     error?: string;
+    code?: string;
   }>;
   
   /**
@@ -109,7 +249,8 @@ export interface CactusCapPlugin {
    * Events include:
    * - 'start': Stream started
    * - 'token': New token received
-   * - 'done': Stream completed
+   * - 'done': Stream completed, with `toolCalls` when the model called one of the tools
+   *   and `trace` when the request set `trace: true`
    * 
    * @param options The options for generating streaming completion
    * @returns Promise indicating if streaming started successfully
@@ -134,46 +275,195 @@ export interface CactusCapPlugin {
         parameters: any;
       };
     }>;
-  }): Promise<{
+  } & CactusTraceOptions & CactusSchedulingOptions): Promise<{
     success: boolean;
     error?: string;
+    code?: string;
   }>;
   
   // Audio
   transcribeAudio(options: {
+    audioPath: string;
+    /** Decoder prompt; built from `language` when omitted. */
+    prompt?: string;
+    /** Spoken language as an ISO 639-1 code ('en', 'pt-BR'), or 'auto' to detect it. Defaults to English. */
+    language?: string;
+    temperature?: number;
+    /** Output budget; derived from the length of the audio when omitted. */
+    maxTokens?: number;
+    /**
+     * Android: detect speech in WAV input and transcribe only that, cutting
+     * pauses longer than `maxSilenceMs` (default 1000). Defaults to true.
+     */
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
+  } & CactusSchedulingOptions): Promise<{
+    success: boolean;
+    transcription?: string;
+    error?: string;
+    code?: string;
+  }>;
+  
+  /**
+   * Transcribe an audio file, streaming the text as it is decoded (Android).
+   * Resolves once the request is queued; tokens are emitted through the
+   * 'cactusTranscriptionResponse' listener, batched into one event per
+   * `coalesceMs` (default 50, 0 for every token). Events include:
+   * - 'start': Transcription started
+   * - 'token': New text decoded, with the transcription so far
+   * - 'done': Transcription completed
+   * - 'error': Transcription failed or was rejected by the scheduler
+   */
+  transcribeAudioStreaming(options: {
     audioPath: string;
     prompt?: string;
     language?: string;
     temperature?: number;
     maxTokens?: number;
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
+    coalesceMs?: number;
+  } & CactusSchedulingOptions): Promise<{
+    success: boolean;
+    transcriptionId?: string;
+    error?: string;
+    code?: string;
+  }>;
+  
+  /**
+   * Transcribe a recording of any length (Android). The WAV is streamed from
+   * disk in chunks of at most `chunkMs` cut at pauses, so memory stays bounded
+   * and the text is never truncated by a single response buffer. Progress is
+   * emitted through the 'cactusTranscriptionProgress' listener after each chunk.
+   */
+  transcribeLongAudio(options: {
+    audioPath: string;
+    prompt?: string;
+    language?: string;
+    temperature?: number;
+    chunkMs?: number;
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
+  } & CactusSchedulingOptions): Promise<{
+    success: boolean;
+    transcription?: string;
+    error?: string;
+    code?: string;
+  }>;
+  
+  /**
+   * Start transcribing live audio (Android). With `source: 'microphone'` (the
+   * default) the plugin records itself and needs the RECORD_AUDIO permission;
+   * with `source: 'push'` send 16-bit mono PCM through `pushTranscriptionAudio`.
+   * Partial and final hypotheses are emitted through the
+   * 'cactusTranscriptionStream' listener while audio is still coming in.
+   */
+  startStreamingTranscription(options?: {
+    source?: 'microphone' | 'push';
+    sampleRate?: number;
+    /** Audio after which a segment is closed with a final hypothesis. */
+    maxDurationMs?: number;
+    /** A pause this long also closes the segment. */
+    maxSilenceMs?: number;
+    /** New audio between two partial hypotheses. */
+    stepMs?: number;
+    prompt?: string;
+    language?: string;
+  }): Promise<{
+    success: boolean;
+    streamId?: string;
+    error?: string;
+    code?: string;
+  }>;
+  
+  /** Push base64-encoded little-endian PCM16 mono samples to a 'push' stream. */
+  pushTranscriptionAudio(options: {
+    streamId: string;
+    pcm: string;
+  }): Promise<{
+    success: boolean;
+    error?: string;
+  }>;
+  
+  /** Stop a live transcription and resolve with the full transcript. */
+  stopStreamingTranscription(options: {
+    streamId: string;
   }): Promise<{
     success: boolean;
     transcription?: string;
     error?: string;
+    code?: string;
   }>;
   
   // Embeddings
   getTextEmbeddings(options: {
     text: string;
-  }): Promise<{
+  } & CactusBinaryOptions & CactusSchedulingOptions): Promise<{
     success: boolean;
     embeddings?: number[];
+    binary?: CactusBinaryPayload;
     error?: string;
+    code?: string;
   }>;
   
+  /** Embed an image with the vision encoder of the loaded multimodal model. */
   getImageEmbeddings(options: {
     imagePath: string;
-  }): Promise<{
+  } & CactusBinaryOptions & CactusSchedulingOptions): Promise<{
     success: boolean;
     embeddings?: number[];
+    binary?: CactusBinaryPayload;
+    dimension?: number;
     error?: string;
+    code?: string;
   }>;
   
+  /**
+   * Embed many images in one native call (Android), e.g. to index a gallery.
+   * `results` follows the order of `imagePaths`; a file that cannot be
+   * embedded fails only its own entry.
+   */
+  getImageEmbeddingsBatch(options: {
+    imagePaths: string[];
+  } & CactusBinaryOptions & CactusSchedulingOptions): Promise<CactusEmbeddingBatchResult>;
+  
+  /**
+   * Embed an audio file with the encoder of the speech model. On Android any
+   * format MediaCodec can decode is accepted.
+   */
   getAudioEmbeddings(options: {
     audioPath: string;
-  }): Promise<{
+  } & CactusBinaryOptions & CactusSchedulingOptions): Promise<{
     success: boolean;
     embeddings?: number[];
+    binary?: CactusBinaryPayload;
+    dimension?: number;
     error?: string;
+    code?: string;
   }>;
+  
+  /** Embed many audio files in one native call (Android), see getImageEmbeddingsBatch. */
+  getAudioEmbeddingsBatch(options: {
+    audioPaths: string[];
+  } & CactusBinaryOptions & CactusSchedulingOptions): Promise<CactusEmbeddingBatchResult>;
+
+  /** Delete a binary payload's file; `readBinaryPayload` does this for you. */
+  releaseBinaryPayload(options: { path: string }): Promise<{ success: boolean }>;
+
+  // Metrics
+  /** Performance figures collected on the device (Android). `reset` starts a new window. */
+  getMetrics(options?: { reset?: boolean }): Promise<CactusMetrics>;
+
+  /** Also emit `getMetrics` results as `cactusMetrics` events every `intervalMs`; 0 stops them. */
+  setMetricsInterval(options: { intervalMs: number }): Promise<{ success: boolean }>;
+
+  // Logging
+  /**
+   * Lowest level the plugin and SDK log at (Android, default 'info'), and how
+   * many per-request messages are written: one in every `sampleRate`.
+   */
+  setLogLevel(options: {
+    level?: CactusLogLevel;
+    sampleRate?: number;
+  }): Promise<{ success: boolean; level?: CactusLogLevel; sampleRate?: number }>;
 }
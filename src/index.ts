@@ -1,8 +1,25 @@
-import { registerPlugin } from '@capacitor/core';
-import type { CactusCapPlugin } from './definitions';
+import { Capacitor, registerPlugin } from '@capacitor/core';
+import type { CactusBinaryPayload, CactusCapPlugin } from './definitions';
 
 export const CactusCap = registerPlugin<CactusCapPlugin>('CactusCap', {
   web: () => import('./web').then(m => new m.CactusCapWeb()),
 });
 
+/**
+ * Reads a binary payload into a Float32Array and releases its file. The bytes
+ * are fetched from disk by the WebView, so they never pass through the bridge.
+ * Row `i` is `values.subarray(i * dimension, (i + 1) * dimension)`.
+ */
+export async function readBinaryPayload(payload: CactusBinaryPayload): Promise<Float32Array> {
+  try {
+    const response = await fetch(Capacitor.convertFileSrc(payload.path));
+    if (!response.ok) {
+      throw new Error(`Could not read binary payload: ${response.status}`);
+    }
+    return new Float32Array(await response.arrayBuffer());
+  } finally {
+    await CactusCap.releaseBinaryPayload({ path: payload.path });
+  }
+}
+
 export * from './definitions';
@@ -1,6 +1,6 @@
 import { WebPlugin } from '@capacitor/core';
 
-import type { CactusCapPlugin } from './definitions';
+import type { CactusCapPlugin, CactusEmbeddingBatchResult, CactusLogLevel, CactusMetrics } from './definitions';
 
 export class CactusCapWeb extends WebPlugin implements CactusCapPlugin {
   private isModelInitialized = false;
@@ -237,6 +237,8 @@ export class CactusCapWeb extends WebPlugin implements CactusCapPlugin {
     language?: string;
     temperature?: number;
     maxTokens?: number;
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
   }): Promise<{
     success: boolean;
     transcription?: string;
@@ -249,6 +251,110 @@ export class CactusCapWeb extends WebPlugin implements CactusCapPlugin {
     };
   }
 
+  async transcribeAudioStreaming(options: {
+    audioPath: string;
+    prompt?: string;
+    language?: string;
+    temperature?: number;
+    maxTokens?: number;
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
+    coalesceMs?: number;
+  }): Promise<{
+    success: boolean;
+    transcriptionId?: string;
+    error?: string;
+  }> {
+    console.log('Web: Streaming transcription of audio from path:', options.audioPath);
+    const transcriptionId = 'mock-transcription';
+
+    // For web mock, simulate a transcription decoded word by word
+    const tokens = ['Mock', ' transcription', ' of', ' the', ' audio', ' file'];
+    let transcription = '';
+    this.notifyListeners('cactusTranscriptionResponse', { type: 'start', transcriptionId, audioPath: options.audioPath });
+    tokens.forEach((token, index) => {
+      setTimeout(() => {
+        transcription += token;
+        this.notifyListeners('cactusTranscriptionResponse', {
+          type: 'token',
+          transcriptionId,
+          token,
+          tokenCount: 1,
+          transcription
+        });
+      }, 100 + (index * 100));
+    });
+    setTimeout(() => {
+      this.notifyListeners('cactusTranscriptionResponse', {
+        type: 'done',
+        transcriptionId,
+        success: true,
+        transcription
+      });
+    }, 100 + (tokens.length * 100));
+
+    return { success: true, transcriptionId };
+  }
+
+  async transcribeLongAudio(options: {
+    audioPath: string;
+    prompt?: string;
+    language?: string;
+    temperature?: number;
+    chunkMs?: number;
+    trimSilence?: boolean;
+    maxSilenceMs?: number;
+  }): Promise<{
+    success: boolean;
+    transcription?: string;
+    error?: string;
+  }> {
+    console.log('Web: Transcribing long audio from path:', options.audioPath);
+    return {
+      success: true,
+      transcription: 'Mock transcription of the long audio file (mock)'
+    };
+  }
+
+  async startStreamingTranscription(options?: {
+    source?: 'microphone' | 'push';
+    sampleRate?: number;
+    maxDurationMs?: number;
+    maxSilenceMs?: number;
+    stepMs?: number;
+    prompt?: string;
+    language?: string;
+  }): Promise<{
+    success: boolean;
+    streamId?: string;
+    error?: string;
+  }> {
+    console.log('Web: Starting streaming transcription', options);
+    return { success: false, error: 'Streaming transcription is not available on web' };
+  }
+
+  async pushTranscriptionAudio(options: {
+    streamId: string;
+    pcm: string;
+  }): Promise<{
+    success: boolean;
+    error?: string;
+  }> {
+    console.log('Web: Pushing transcription audio to stream:', options.streamId);
+    return { success: false, error: 'Streaming transcription is not available on web' };
+  }
+
+  async stopStreamingTranscription(options: {
+    streamId: string;
+  }): Promise<{
+    success: boolean;
+    transcription?: string;
+    error?: string;
+  }> {
+    console.log('Web: Stopping streaming transcription:', options.streamId);
+    return { success: false, error: 'Streaming transcription is not available on web' };
+  }
+
   async unloadModel(): Promise<{ success: boolean; error?: string }> {
     this.isModelInitialized = false;
     console.log('Web: Model unloaded');
@@ -312,6 +418,73 @@ export class CactusCapWeb extends WebPlugin implements CactusCapPlugin {
     };
   }
 
+  async getImageEmbeddingsBatch(options: {
+    imagePaths: string[];
+  }): Promise<CactusEmbeddingBatchResult> {
+    console.log('Web: Getting image embeddings for', options.imagePaths.length, 'images');
+    return this.mockEmbeddingBatch(options.imagePaths);
+  }
+
+  async getAudioEmbeddingsBatch(options: {
+    audioPaths: string[];
+  }): Promise<CactusEmbeddingBatchResult> {
+    console.log('Web: Getting audio embeddings for', options.audioPaths.length, 'audio files');
+    return this.mockEmbeddingBatch(options.audioPaths);
+  }
+
+  private mockEmbeddingBatch(paths: string[]): CactusEmbeddingBatchResult {
+    if (!this.isModelInitialized) {
+      return { success: false, error: 'No model initialized' };
+    }
+    // Generate mock embeddings with 1024 dimensions
+    return {
+      success: true,
+      dimension: 1024,
+      results: paths.map(path => ({
+        path,
+        success: true,
+        embeddings: Array.from({ length: 1024 }, () => Math.random() * 2 - 1)
+      }))
+    };
+  }
+
+  async releaseBinaryPayload(options: { path: string }): Promise<{ success: boolean }> {
+    console.log('Web: Releasing binary payload:', options.path);
+    // Web never returns binary payloads, embeddings always come back as arrays
+    return { success: false };
+  }
+
+  async getMetrics(): Promise<CactusMetrics> {
+    // Nothing runs natively on web, so there is nothing to measure
+    return {
+      success: true,
+      sinceMs: Date.now(),
+      counters: {
+        completions: 0,
+        completionFailures: 0,
+        generatedTokens: 0,
+        rejectedRequests: 0,
+        modelLoads: 0,
+        downloads: 0,
+        downloadedBytes: 0
+      },
+      histograms: {}
+    };
+  }
+
+  async setMetricsInterval(options: { intervalMs: number }): Promise<{ success: boolean }> {
+    console.log('Web: Metrics events are not available on web, ignoring interval', options.intervalMs);
+    return { success: false };
+  }
+
+  async setLogLevel(options: {
+    level?: CactusLogLevel;
+    sampleRate?: number;
+  }): Promise<{ success: boolean; level?: CactusLogLevel; sampleRate?: number }> {
+    console.log('Web: Log level is not configurable on web, ignoring', options.level);
+    return { success: false };
+  }
+
   // Download Management Methods
   async pauseDownload(options: { modelSlug: string }): Promise<void> {
     console.log('Web: Pausing download for model:', options.modelSlug);